@@ -0,0 +1,29 @@
+package me.mattlogan.auto.value.firebase.adapter;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+/**
+ * Marks a {@link TypeAdapter} as stateless and thread-safe.
+ *
+ * <pre>
+ * <code>
+ * {@literal @}Stateless public class DateAdapter implements TypeAdapter&lt;Date, Long&gt; {
+ *   ...
+ * }
+ * </code>
+ * </pre>
+ *
+ * By default the generated code creates a new adapter for every {@code FirebaseValue} object and
+ * every decode or encode call. A stateless adapter is instead created once per generated class,
+ * when that class is first used, and shared by all instances and threads.
+ */
+@Target(TYPE)
+@Retention(CLASS)
+@Documented
+public @interface Stateless {
+}
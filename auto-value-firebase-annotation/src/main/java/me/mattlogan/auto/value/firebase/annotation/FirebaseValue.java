@@ -8,4 +8,29 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.SOURCE)
 @Target(ElementType.TYPE)
 public @interface FirebaseValue {
+
+  /**
+   * When true, {@code toAutoValue()} wraps lists and maps of other {@code FirebaseValue} types in
+   * read-only views that convert each element on first access, instead of converting every element
+   * up front.
+   */
+  boolean lazyCollections() default false;
+
+  /**
+   * When true, every {@code String}, {@code List<String>} and {@code Map<String, ?>} property is
+   * decoded as if it were annotated with {@link Intern}.
+   */
+  boolean intern() default false;
+
+  /**
+   * When true, decoded values are returned through a weak cache of canonical instances, so equal
+   * values decode to the same instance. This can't be combined with {@link #lazyCollections()}.
+   */
+  boolean canonicalize() default false;
+
+  /**
+   * When true, null properties are left out of {@code toMap()} and {@code writeJson()} instead of
+   * being written as explicit nulls. Override it per property with {@link OmitNull}.
+   */
+  boolean omitNulls() default false;
 }
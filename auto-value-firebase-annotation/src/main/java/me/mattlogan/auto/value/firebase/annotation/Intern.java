@@ -0,0 +1,16 @@
+package me.mattlogan.auto.value.firebase.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Routes a {@code String} property, the elements of a {@code List<String>} or the keys of a
+ * {@code Map<String, ?>} through the shared {@code StringPool} from auto-value-firebase-runtime
+ * when the property is decoded, so repeated values share one instance.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Intern {
+}
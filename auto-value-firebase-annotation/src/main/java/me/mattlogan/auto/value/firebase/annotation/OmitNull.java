@@ -0,0 +1,18 @@
+package me.mattlogan.auto.value.firebase.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Leaves a property out of the generated {@code toMap()} methods and {@code writeJson()} when it's
+ * null, instead of writing an explicit null. {@code @OmitNull(false)} keeps the explicit null for
+ * one property of a {@code @FirebaseValue(omitNulls = true)} type, for example to clear it with
+ * {@code updateChildren()}.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface OmitNull {
+  boolean value() default true;
+}
@@ -0,0 +1,88 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+import me.mattlogan.auto.value.firebase.binary.BinaryCodec;
+import me.mattlogan.auto.value.firebase.json.JsonReader;
+import me.mattlogan.auto.value.firebase.json.JsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares a disk cache entry written as UTF-8 JSON with one written by the generated binary codec.
+ * {@link #main(String[])} prints the encoded size of both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BinaryCacheBenchmark {
+
+  @Param({"4", "64"})
+  int ingredientCount;
+
+  Taco taco;
+  byte[] json;
+  byte[] binary;
+
+  @Setup
+  public void setUp() throws IOException {
+    taco = Models.taco(ingredientCount);
+    json = writeJson();
+    binary = writeBinary();
+  }
+
+  public static void main(String[] args) throws IOException {
+    System.out.printf("%12s %12s %12s%n", "ingredients", "json bytes", "binary bytes");
+    for (int ingredientCount : new int[] {4, 64}) {
+      BinaryCacheBenchmark benchmark = new BinaryCacheBenchmark();
+      benchmark.ingredientCount = ingredientCount;
+      benchmark.setUp();
+      System.out.printf("%12d %12d %12d%n", ingredientCount, benchmark.json.length, benchmark.binary.length);
+    }
+  }
+
+  @Benchmark
+  public byte[] writeJson() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    JsonWriter writer = new JsonWriter(bytes);
+    AutoValue_Taco.writeJson(taco, writer);
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] writeBinary() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryCodec.writeHeader(out, AutoValue_Taco.BINARY_FINGERPRINT);
+    AutoValue_Taco.writeTo(taco, out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public Taco readJson() throws IOException {
+    return AutoValue_Taco.readJson(
+      new JsonReader(new InputStreamReader(new ByteArrayInputStream(json), "UTF-8")));
+  }
+
+  @Benchmark
+  public Taco readBinary() throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(binary));
+    if (!BinaryCodec.readHeader(in, AutoValue_Taco.BINARY_FINGERPRINT)) {
+      throw new IllegalStateException("Stale cache");
+    }
+    return AutoValue_Taco.readFrom(in);
+  }
+}
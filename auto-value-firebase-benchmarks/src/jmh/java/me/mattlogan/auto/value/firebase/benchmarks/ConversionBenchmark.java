@@ -0,0 +1,118 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import me.mattlogan.auto.value.firebase.runtime.AggregatingMetrics;
+import me.mattlogan.auto.value.firebase.runtime.FirebaseValueMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the {@code FirebaseValue} round trip that Firebase's own mapper drives: the
+ * {@code FirebaseValue(AutoValue)} constructor, {@code toAutoValue()} and {@code toMap()}. Each runs
+ * on the example {@link Taco}, a {@link Wide} value with 104 properties, a {@link Node} chain 10
+ * levels deep and an {@link Order} whose properties all go through type adapters. With
+ * {@code metrics} set, every conversion also reports to an {@link AggregatingMetrics}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConversionBenchmark {
+
+  @Param({"false", "true"})
+  boolean metrics;
+
+  Taco taco;
+  Wide wide;
+  Node deep;
+  Order order;
+  AutoValue_Taco.FirebaseValue tacoValue;
+  AutoValue_Wide.FirebaseValue wideValue;
+  AutoValue_Node.FirebaseValue deepValue;
+  AutoValue_Order.FirebaseValue orderValue;
+
+  @Setup
+  public void setUp() {
+    FirebaseValueMetrics.register(metrics ? new AggregatingMetrics() : null);
+    taco = Models.taco(4);
+    wide = Models.wide();
+    deep = Models.deep(10);
+    order = Models.order();
+    tacoValue = new AutoValue_Taco.FirebaseValue(taco);
+    wideValue = new AutoValue_Wide.FirebaseValue(wide);
+    deepValue = new AutoValue_Node.FirebaseValue(deep);
+    orderValue = new AutoValue_Order.FirebaseValue(order);
+  }
+
+  @TearDown
+  public void tearDown() {
+    FirebaseValueMetrics.register(null);
+  }
+
+  @Benchmark
+  public Object tacoFirebaseValue() {
+    return new AutoValue_Taco.FirebaseValue(taco);
+  }
+
+  @Benchmark
+  public Taco tacoToAutoValue() {
+    return tacoValue.toAutoValue();
+  }
+
+  @Benchmark
+  public Map<String, Object> tacoToMap() {
+    return tacoValue.toMap();
+  }
+
+  @Benchmark
+  public Object wideFirebaseValue() {
+    return new AutoValue_Wide.FirebaseValue(wide);
+  }
+
+  @Benchmark
+  public Wide wideToAutoValue() {
+    return wideValue.toAutoValue();
+  }
+
+  @Benchmark
+  public Map<String, Object> wideToMap() {
+    return wideValue.toMap();
+  }
+
+  @Benchmark
+  public Object deepFirebaseValue() {
+    return new AutoValue_Node.FirebaseValue(deep);
+  }
+
+  @Benchmark
+  public Node deepToAutoValue() {
+    return deepValue.toAutoValue();
+  }
+
+  @Benchmark
+  public Map<String, Object> deepToMap() {
+    return deepValue.toMap();
+  }
+
+  @Benchmark
+  public Object orderFirebaseValue() {
+    return new AutoValue_Order.FirebaseValue(order);
+  }
+
+  @Benchmark
+  public Order orderToAutoValue() {
+    return orderValue.toAutoValue();
+  }
+
+  @Benchmark
+  public Map<String, Object> orderToMap() {
+    return orderValue.toMap();
+  }
+}
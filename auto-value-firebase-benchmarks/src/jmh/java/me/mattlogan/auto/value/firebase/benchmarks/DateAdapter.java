@@ -0,0 +1,18 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.util.Date;
+import me.mattlogan.auto.value.firebase.adapter.Stateless;
+import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;
+
+@Stateless
+public class DateAdapter implements TypeAdapter<Date, Long> {
+  @Override
+  public Date fromFirebaseValue(Long value) {
+    return new Date(value);
+  }
+
+  @Override
+  public Long toFirebaseValue(Date value) {
+    return value.getTime();
+  }
+}
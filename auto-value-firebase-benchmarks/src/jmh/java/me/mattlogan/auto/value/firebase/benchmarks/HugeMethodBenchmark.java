@@ -0,0 +1,92 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Checks that the conversions of the 150-property {@link Listing} are JIT-compiled. Each one runs
+ * twice: with default flags, and in a fork with {@code -XX:-DontCompileHugeMethods}, which makes
+ * HotSpot compile methods past {@code HugeMethodLimit} too. Equal scores mean nothing was left
+ * interpreted. A method over the limit scores several times lower with default flags.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HugeMethodBenchmark {
+
+  private static final String COMPILE_HUGE_METHODS = "-XX:-DontCompileHugeMethods";
+
+  Listing listing;
+  AutoValue_Listing.FirebaseValue listingValue;
+  Map<String, Object> listingMap;
+
+  @Setup
+  public void setUp() {
+    listing = Models.listing();
+    listingValue = new AutoValue_Listing.FirebaseValue(listing);
+    listingMap = AutoValue_Listing.toMap(listing);
+  }
+
+  @Benchmark
+  public Object firebaseValue() {
+    return new AutoValue_Listing.FirebaseValue(listing);
+  }
+
+  @Benchmark
+  @Fork(jvmArgsAppend = COMPILE_HUGE_METHODS)
+  public Object firebaseValueCompiled() {
+    return new AutoValue_Listing.FirebaseValue(listing);
+  }
+
+  @Benchmark
+  public Listing toAutoValue() {
+    return listingValue.toAutoValue();
+  }
+
+  @Benchmark
+  @Fork(jvmArgsAppend = COMPILE_HUGE_METHODS)
+  public Listing toAutoValueCompiled() {
+    return listingValue.toAutoValue();
+  }
+
+  @Benchmark
+  public Map<String, Object> toMap() {
+    return listingValue.toMap();
+  }
+
+  @Benchmark
+  @Fork(jvmArgsAppend = COMPILE_HUGE_METHODS)
+  public Map<String, Object> toMapCompiled() {
+    return listingValue.toMap();
+  }
+
+  @Benchmark
+  public Map<String, Object> staticToMap() {
+    return AutoValue_Listing.toMap(listing);
+  }
+
+  @Benchmark
+  @Fork(jvmArgsAppend = COMPILE_HUGE_METHODS)
+  public Map<String, Object> staticToMapCompiled() {
+    return AutoValue_Listing.toMap(listing);
+  }
+
+  @Benchmark
+  public Listing fromMap() {
+    return AutoValue_Listing.fromMap(listingMap);
+  }
+
+  @Benchmark
+  @Fork(jvmArgsAppend = COMPILE_HUGE_METHODS)
+  public Listing fromMapCompiled() {
+    return AutoValue_Listing.fromMap(listingMap);
+  }
+}
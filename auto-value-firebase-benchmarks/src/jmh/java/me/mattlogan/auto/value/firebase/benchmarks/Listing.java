@@ -0,0 +1,198 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+/**
+ * 150 properties, 30 each of strings, adapted dates, arrays, nested lists and nested maps. Without
+ * splitting, its {@code FirebaseValue} conversions, static {@code toMap()} and {@code fromMap()}
+ * would each compile to more than HotSpot's 8000-byte {@code HugeMethodLimit}. Instances are decoded with {@code fromMap()}, see
+ * {@link Models#listing()}.
+ */
+@AutoValue @FirebaseValue
+public abstract class Listing {
+
+  public abstract String title0();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated0();
+  public abstract double[] scores0();
+  public abstract List<Ingredient> ingredients0();
+  public abstract Map<String, Ingredient> extras0();
+
+  public abstract String title1();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated1();
+  public abstract double[] scores1();
+  public abstract List<Ingredient> ingredients1();
+  public abstract Map<String, Ingredient> extras1();
+
+  public abstract String title2();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated2();
+  public abstract double[] scores2();
+  public abstract List<Ingredient> ingredients2();
+  public abstract Map<String, Ingredient> extras2();
+
+  public abstract String title3();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated3();
+  public abstract double[] scores3();
+  public abstract List<Ingredient> ingredients3();
+  public abstract Map<String, Ingredient> extras3();
+
+  public abstract String title4();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated4();
+  public abstract double[] scores4();
+  public abstract List<Ingredient> ingredients4();
+  public abstract Map<String, Ingredient> extras4();
+
+  public abstract String title5();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated5();
+  public abstract double[] scores5();
+  public abstract List<Ingredient> ingredients5();
+  public abstract Map<String, Ingredient> extras5();
+
+  public abstract String title6();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated6();
+  public abstract double[] scores6();
+  public abstract List<Ingredient> ingredients6();
+  public abstract Map<String, Ingredient> extras6();
+
+  public abstract String title7();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated7();
+  public abstract double[] scores7();
+  public abstract List<Ingredient> ingredients7();
+  public abstract Map<String, Ingredient> extras7();
+
+  public abstract String title8();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated8();
+  public abstract double[] scores8();
+  public abstract List<Ingredient> ingredients8();
+  public abstract Map<String, Ingredient> extras8();
+
+  public abstract String title9();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated9();
+  public abstract double[] scores9();
+  public abstract List<Ingredient> ingredients9();
+  public abstract Map<String, Ingredient> extras9();
+
+  public abstract String title10();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated10();
+  public abstract double[] scores10();
+  public abstract List<Ingredient> ingredients10();
+  public abstract Map<String, Ingredient> extras10();
+
+  public abstract String title11();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated11();
+  public abstract double[] scores11();
+  public abstract List<Ingredient> ingredients11();
+  public abstract Map<String, Ingredient> extras11();
+
+  public abstract String title12();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated12();
+  public abstract double[] scores12();
+  public abstract List<Ingredient> ingredients12();
+  public abstract Map<String, Ingredient> extras12();
+
+  public abstract String title13();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated13();
+  public abstract double[] scores13();
+  public abstract List<Ingredient> ingredients13();
+  public abstract Map<String, Ingredient> extras13();
+
+  public abstract String title14();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated14();
+  public abstract double[] scores14();
+  public abstract List<Ingredient> ingredients14();
+  public abstract Map<String, Ingredient> extras14();
+
+  public abstract String title15();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated15();
+  public abstract double[] scores15();
+  public abstract List<Ingredient> ingredients15();
+  public abstract Map<String, Ingredient> extras15();
+
+  public abstract String title16();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated16();
+  public abstract double[] scores16();
+  public abstract List<Ingredient> ingredients16();
+  public abstract Map<String, Ingredient> extras16();
+
+  public abstract String title17();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated17();
+  public abstract double[] scores17();
+  public abstract List<Ingredient> ingredients17();
+  public abstract Map<String, Ingredient> extras17();
+
+  public abstract String title18();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated18();
+  public abstract double[] scores18();
+  public abstract List<Ingredient> ingredients18();
+  public abstract Map<String, Ingredient> extras18();
+
+  public abstract String title19();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated19();
+  public abstract double[] scores19();
+  public abstract List<Ingredient> ingredients19();
+  public abstract Map<String, Ingredient> extras19();
+
+  public abstract String title20();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated20();
+  public abstract double[] scores20();
+  public abstract List<Ingredient> ingredients20();
+  public abstract Map<String, Ingredient> extras20();
+
+  public abstract String title21();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated21();
+  public abstract double[] scores21();
+  public abstract List<Ingredient> ingredients21();
+  public abstract Map<String, Ingredient> extras21();
+
+  public abstract String title22();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated22();
+  public abstract double[] scores22();
+  public abstract List<Ingredient> ingredients22();
+  public abstract Map<String, Ingredient> extras22();
+
+  public abstract String title23();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated23();
+  public abstract double[] scores23();
+  public abstract List<Ingredient> ingredients23();
+  public abstract Map<String, Ingredient> extras23();
+
+  public abstract String title24();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated24();
+  public abstract double[] scores24();
+  public abstract List<Ingredient> ingredients24();
+  public abstract Map<String, Ingredient> extras24();
+
+  public abstract String title25();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated25();
+  public abstract double[] scores25();
+  public abstract List<Ingredient> ingredients25();
+  public abstract Map<String, Ingredient> extras25();
+
+  public abstract String title26();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated26();
+  public abstract double[] scores26();
+  public abstract List<Ingredient> ingredients26();
+  public abstract Map<String, Ingredient> extras26();
+
+  public abstract String title27();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated27();
+  public abstract double[] scores27();
+  public abstract List<Ingredient> ingredients27();
+  public abstract Map<String, Ingredient> extras27();
+
+  public abstract String title28();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated28();
+  public abstract double[] scores28();
+  public abstract List<Ingredient> ingredients28();
+  public abstract Map<String, Ingredient> extras28();
+
+  public abstract String title29();
+  @FirebaseAdapter(DateAdapter.class) public abstract Date updated29();
+  public abstract double[] scores29();
+  public abstract List<Ingredient> ingredients29();
+  public abstract Map<String, Ingredient> extras29();
+}
@@ -0,0 +1,109 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class Models {
+
+  static Taco taco(int ingredientCount) {
+    List<Ingredient> ingredients = new ArrayList<>(ingredientCount);
+    for (int i = 0; i < ingredientCount; i++) {
+      ingredients.add(Ingredient.create("Ingredient " + i, i % 5));
+    }
+    Review review = Review.create("Amazing taco.", 5, new Date(1495234800000L));
+    return Taco.create("Kalimari Desert", ingredients, review, Status.COOKED);
+  }
+
+  static Wide wide() {
+    Map<String, Object> map = new HashMap<>();
+    for (int i = 0; i < 26; i++) {
+      map.put("text" + i, "Text " + i);
+      map.put("count" + i, (long) i * 1000);
+      map.put("ratio" + i, i / 26.0);
+      map.put("flag" + i, i % 2 == 0);
+    }
+    return AutoValue_Wide.fromMap(map);
+  }
+
+  static Listing listing() {
+    Map<String, Object> ingredient = new HashMap<>();
+    ingredient.put("name", "Cilantro");
+    ingredient.put("spiciness", 0L);
+    Map<String, Object> map = new HashMap<>();
+    for (int i = 0; i < 30; i++) {
+      Map<String, Object> extras = new HashMap<>();
+      extras.put("side", ingredient);
+      extras.put("topping", ingredient);
+      map.put("title" + i, "Title " + i);
+      map.put("updated" + i, 1495234800000L + i);
+      map.put("scores" + i, Arrays.<Object>asList(4.5, 3.0, 5.0));
+      map.put("ingredients" + i, Arrays.<Object>asList(ingredient, ingredient));
+      map.put("extras" + i, extras);
+    }
+    return AutoValue_Listing.fromMap(map);
+  }
+
+  // A chain of depth nodes, the first holding the rest
+  static Node deep(int depth) {
+    Node node = null;
+    for (int i = depth - 1; i >= 0; i--) {
+      node = Node.create("Node " + i, i, node);
+    }
+    return node;
+  }
+
+  static Order order() {
+    Date placed = new Date(1495234800000L);
+    return Order.create(placed, new Date(placed.getTime() + 60000), new Date(placed.getTime() + 600000),
+                        new Date(placed.getTime() + 1200000), Status.COOKED, Status.COOKED,
+                        Status.UNCOOKED, Status.COOKED, new BigDecimal("12.50"), new BigDecimal("1.09"),
+                        new BigDecimal("2.00"), new BigDecimal("15.59"));
+  }
+
+  // Just enough JSON for the plain maps returned by toMap()
+  static String json(Object value) {
+    StringBuilder json = new StringBuilder();
+    appendJson(json, value);
+    return json.toString();
+  }
+
+  private static void appendJson(StringBuilder json, Object value) {
+    if (value instanceof Map) {
+      json.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) {
+          json.append(',');
+        }
+        first = false;
+        appendJson(json, entry.getKey().toString());
+        json.append(':');
+        appendJson(json, entry.getValue());
+      }
+      json.append('}');
+    } else if (value instanceof List) {
+      json.append('[');
+      boolean first = true;
+      for (Object item : (List<?>) value) {
+        if (!first) {
+          json.append(',');
+        }
+        first = false;
+        appendJson(json, item);
+      }
+      json.append(']');
+    } else if (value instanceof String) {
+      json.append('"').append(value).append('"');
+    } else {
+      json.append(value);
+    }
+  }
+
+  private Models() {
+  }
+}
@@ -0,0 +1,21 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+/**
+ * A linked chain of nested values, see {@link Models#deep(int)}.
+ */
+@AutoValue @FirebaseValue
+public abstract class Node {
+
+  public static Node create(String name, long depth, Node next) {
+    return new AutoValue_Node(name, depth, next);
+  }
+
+  public abstract String name();
+
+  public abstract long depth();
+
+  @Nullable public abstract Node next();
+}
@@ -0,0 +1,9 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+// AutoValue accepts any annotation named @Nullable
+@Retention(RetentionPolicy.CLASS)
+@interface Nullable {
+}
@@ -0,0 +1,46 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.math.BigDecimal;
+import java.util.Date;
+import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+/**
+ * Every property goes through a type adapter, two stateless ones and one that isn't.
+ */
+@AutoValue @FirebaseValue
+public abstract class Order {
+
+  public static Order create(Date placed, Date paid, Date cooked, Date delivered,
+                             Status status, Status tacoStatus, Status sideStatus, Status drinkStatus,
+                             BigDecimal subtotal, BigDecimal tax, BigDecimal tip, BigDecimal total) {
+    return new AutoValue_Order(placed, paid, cooked, delivered,
+                               status, tacoStatus, sideStatus, drinkStatus,
+                               subtotal, tax, tip, total);
+  }
+
+  @FirebaseAdapter(DateAdapter.class) public abstract Date placed();
+
+  @FirebaseAdapter(DateAdapter.class) public abstract Date paid();
+
+  @FirebaseAdapter(DateAdapter.class) public abstract Date cooked();
+
+  @FirebaseAdapter(DateAdapter.class) public abstract Date delivered();
+
+  @FirebaseAdapter(StatusAdapter.class) public abstract Status status();
+
+  @FirebaseAdapter(StatusAdapter.class) public abstract Status tacoStatus();
+
+  @FirebaseAdapter(StatusAdapter.class) public abstract Status sideStatus();
+
+  @FirebaseAdapter(StatusAdapter.class) public abstract Status drinkStatus();
+
+  @FirebaseAdapter(PriceAdapter.class) public abstract BigDecimal subtotal();
+
+  @FirebaseAdapter(PriceAdapter.class) public abstract BigDecimal tax();
+
+  @FirebaseAdapter(PriceAdapter.class) public abstract BigDecimal tip();
+
+  @FirebaseAdapter(PriceAdapter.class) public abstract BigDecimal total();
+}
@@ -0,0 +1,72 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import me.mattlogan.auto.value.firebase.runtime.ParallelDecoder;
+import me.mattlogan.auto.value.firebase.runtime.ValueDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures how decoding a large listing scales with the number of threads. Compare
+ * {@code parallelDecodeMap} across {@code parallelism} values against {@code sequentialDecodeMap}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelDecodeBenchmark {
+
+  private static final ValueDecoder<Taco> DECODER = new ValueDecoder<Taco>() {
+    @Override public Taco decode(Object value) {
+      return AutoValue_Taco.fromValue(value);
+    }
+  };
+
+  @Param({"20000"})
+  int childCount;
+
+  @Param({"1", "2", "4", "8"})
+  int parallelism;
+
+  Map<String, Object> children;
+  ForkJoinPool pool;
+  ParallelDecoder<Taco> decoder;
+
+  @Setup
+  public void setUp() {
+    children = new LinkedHashMap<>();
+    for (int i = 0; i < childCount; i++) {
+      children.put("taco" + i, AutoValue_Taco.toMap(Models.taco(4)));
+    }
+    pool = new ForkJoinPool(parallelism);
+    decoder = new ParallelDecoder<>(DECODER, ParallelDecoder.DEFAULT_THRESHOLD, pool);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public Map<String, Taco> sequentialDecodeMap() {
+    Map<String, Taco> tacos = new LinkedHashMap<>();
+    for (Map.Entry<String, Object> child : children.entrySet()) {
+      tacos.put(child.getKey(), DECODER.decode(child.getValue()));
+    }
+    return tacos;
+  }
+
+  @Benchmark
+  public Map<String, Taco> parallelDecodeMap() {
+    return decoder.decodeMap(children);
+  }
+}
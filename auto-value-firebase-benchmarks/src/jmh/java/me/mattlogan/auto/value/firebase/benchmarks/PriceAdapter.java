@@ -0,0 +1,17 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.math.BigDecimal;
+import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;
+
+// Not @Stateless, so every FirebaseValue and static call creates its own
+public class PriceAdapter implements TypeAdapter<BigDecimal, String> {
+  @Override
+  public BigDecimal fromFirebaseValue(String value) {
+    return new BigDecimal(value);
+  }
+
+  @Override
+  public String toFirebaseValue(BigDecimal value) {
+    return value.toPlainString();
+  }
+}
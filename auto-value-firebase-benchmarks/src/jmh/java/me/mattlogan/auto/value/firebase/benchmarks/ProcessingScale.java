@@ -0,0 +1,168 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import me.mattlogan.auto.value.firebase.AutoValueFirebaseExtension;
+
+/**
+ * Compiles {@code N} synthesized {@code @FirebaseValue} models in one in-process javac run for each
+ * {@code N} given on the command line, and prints wall time, time spent in
+ * {@link AutoValueFirebaseExtension#generateClass}, and peak heap.
+ *
+ * <p>Every model has lists, maps, a primitive array and adapted properties, and nests up to three
+ * earlier models. If the per-model columns grow with {@code N}, something in processing is
+ * super-linear.
+ *
+ * <pre>
+ * ./gradlew :auto-value-firebase-benchmarks:processingScale -Pcounts=500,1000,2000,5000
+ * </pre>
+ */
+public final class ProcessingScale {
+
+  public static void main(String[] args) throws IOException {
+    List<Integer> counts = new ArrayList<>();
+    for (String arg : args.length == 0 ? new String[] {"250", "500", "1000", "2000"} : args) {
+      counts.add(Integer.parseInt(arg));
+    }
+
+    // Warms up javac and the extension so the first row isn't mostly class loading and JIT
+    compile(Math.min(200, counts.get(0)));
+
+    System.out.printf("%8s %10s %10s %14s %14s %10s%n",
+      "models", "wall ms", "generate ms", "wall us/model", "generate us", "peak MB");
+    for (int count : counts) {
+      Result result = compile(count);
+      System.out.printf("%8d %10d %10d %14d %14d %10d%n", count,
+        result.wallNanos / 1000000, result.generateNanos / 1000000,
+        result.wallNanos / 1000 / count, result.generateNanos / 1000 / count,
+        result.peakHeapBytes / (1024 * 1024));
+    }
+  }
+
+  static Result compile(int count) throws IOException {
+    List<JavaFileObject> sources = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      sources.add(model(i));
+    }
+
+    File output = Files.createTempDirectory("processing-scale").toFile();
+    try {
+      TimedExtension extension = new TimedExtension();
+      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      JavaCompiler.CompilationTask task = compiler.getTask(null, null, null,
+        Arrays.asList("-nowarn", "-classpath", System.getProperty("java.class.path"),
+                      "-d", output.getPath(), "-s", output.getPath()),
+        null, sources);
+      task.setProcessors(Collections.singletonList(
+        new AutoValueProcessor(Collections.<AutoValueExtension>singletonList(extension))));
+
+      System.gc();
+      List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          pool.resetPeakUsage();
+          heapPools.add(pool);
+        }
+      }
+
+      long start = System.nanoTime();
+      if (!task.call()) {
+        throw new IllegalStateException("Compilation of " + count + " models failed");
+      }
+      long wallNanos = System.nanoTime() - start;
+
+      // Pools peak at different times, so their sum is an upper bound
+      long peakHeapBytes = 0;
+      for (MemoryPoolMXBean pool : heapPools) {
+        peakHeapBytes += pool.getPeakUsage().getUsed();
+      }
+      return new Result(wallNanos, extension.generateNanos, peakHeapBytes);
+    } finally {
+      ProcessorBenchmark.delete(output);
+    }
+  }
+
+  // Model i nests models i - 1, i / 2 and i / 3, so later models reach most of the earlier ones
+  static JavaFileObject model(int i) {
+    StringBuilder source = new StringBuilder()
+      .append("package bench;\n")
+      .append("import com.google.auto.value.AutoValue;\n")
+      .append("import java.util.Date;\n")
+      .append("import java.util.List;\n")
+      .append("import java.util.Map;\n")
+      .append("import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;\n")
+      .append("import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n")
+      .append("import me.mattlogan.auto.value.firebase.benchmarks.DateAdapter;\n")
+      .append("import me.mattlogan.auto.value.firebase.benchmarks.PriceAdapter;\n")
+      .append("import me.mattlogan.auto.value.firebase.benchmarks.Status;\n")
+      .append("import me.mattlogan.auto.value.firebase.benchmarks.StatusAdapter;\n")
+      .append("@AutoValue @FirebaseValue\n")
+      .append("public abstract class Model").append(i).append(" {\n")
+      .append("  public abstract String name();\n")
+      .append("  public abstract long count();\n")
+      .append("  public abstract List<String> tags();\n")
+      .append("  public abstract Map<String, Long> totals();\n")
+      .append("  public abstract double[] scores();\n")
+      .append("  @FirebaseAdapter(DateAdapter.class) public abstract Date updated();\n")
+      .append("  @FirebaseAdapter(StatusAdapter.class) public abstract Status status();\n")
+      .append("  @FirebaseAdapter(PriceAdapter.class) public abstract java.math.BigDecimal price();\n");
+    if (i > 0) {
+      source.append("  public abstract Model").append(i - 1).append(" previous();\n")
+            .append("  public abstract List<Model").append(i / 2).append("> children();\n")
+            .append("  public abstract Map<String, Model").append(i / 3).append("> related();\n");
+    }
+    final String content = source.append("}\n").toString();
+    return new SimpleJavaFileObject(URI.create("string:///bench/Model" + i + ".java"),
+                                    JavaFileObject.Kind.SOURCE) {
+      @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+
+  static final class Result {
+    final long wallNanos;
+    final long generateNanos;
+    final long peakHeapBytes;
+
+    Result(long wallNanos, long generateNanos, long peakHeapBytes) {
+      this.wallNanos = wallNanos;
+      this.generateNanos = generateNanos;
+      this.peakHeapBytes = peakHeapBytes;
+    }
+  }
+
+  // javac runs processors on one thread, so a plain field is enough
+  static final class TimedExtension extends AutoValueFirebaseExtension {
+    long generateNanos;
+
+    @Override
+    public String generateClass(Context context, String className, String classToExtend,
+                                boolean isFinal) {
+      long start = System.nanoTime();
+      try {
+        return super.generateClass(context, className, classToExtend, isFinal);
+      } finally {
+        generateNanos += System.nanoTime() - start;
+      }
+    }
+  }
+
+  private ProcessingScale() {
+  }
+}
@@ -0,0 +1,121 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures annotation processing of one {@code @FirebaseValue} class with {@code propertyCount}
+ * properties, cycling through every kind of property the extension supports. Compilation stops
+ * after processing ({@code -proc:only}), so most of the time is AutoValue and this extension.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProcessorBenchmark {
+
+  private static final String[] PROPERTY_TYPES = {
+    "String",
+    "long",
+    "Boolean",
+    "List<String>",
+    "Map<String, Long>",
+    "double[]",
+    "Topping",
+    "List<Topping>",
+    "@FirebaseAdapter(DateAdapter.class) Date",
+  };
+
+  @Param({"8", "64"})
+  int propertyCount;
+
+  JavaCompiler compiler;
+  List<JavaFileObject> sources;
+  List<String> options;
+  File generated;
+
+  @Setup
+  public void setUp() throws IOException {
+    compiler = ToolProvider.getSystemJavaCompiler();
+    sources = Arrays.asList(
+      source("Topping", "@AutoValue @FirebaseValue\n"
+        + "public abstract class Topping {\n"
+        + "  public abstract String name();\n"
+        + "  public abstract int spiciness();\n"
+        + "}\n"),
+      source("Order", order(propertyCount)));
+    generated = Files.createTempDirectory("processor-benchmark").toFile();
+    options = Arrays.asList("-proc:only", "-nowarn",
+      "-classpath", System.getProperty("java.class.path"),
+      "-s", generated.getPath());
+  }
+
+  @TearDown
+  public void tearDown() {
+    delete(generated);
+  }
+
+  @Benchmark
+  public boolean process() {
+    if (!compiler.getTask(null, null, null, options, null, sources).call()) {
+      throw new IllegalStateException("Processing failed");
+    }
+    return true;
+  }
+
+  static String order(int propertyCount) {
+    StringBuilder source = new StringBuilder("@AutoValue @FirebaseValue\n")
+      .append("public abstract class Order {\n");
+    for (int i = 0; i < propertyCount; i++) {
+      source.append("  public abstract ")
+            .append(PROPERTY_TYPES[i % PROPERTY_TYPES.length])
+            .append(" property").append(i).append("();\n");
+    }
+    return source.append("}\n").toString();
+  }
+
+  static JavaFileObject source(String className, String body) {
+    final String content = "package bench;\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.Date;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "import me.mattlogan.auto.value.firebase.benchmarks.DateAdapter;\n"
+      + body;
+    return new SimpleJavaFileObject(URI.create("string:///bench/" + className + ".java"),
+                                    JavaFileObject.Kind.SOURCE) {
+      @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+
+  static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
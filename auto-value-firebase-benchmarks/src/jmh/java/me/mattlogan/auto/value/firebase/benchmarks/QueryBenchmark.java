@@ -0,0 +1,123 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import me.mattlogan.auto.value.firebase.query.FirebaseOrder;
+import me.mattlogan.auto.value.firebase.query.IndexedCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares re-running a local query on a mirrored list by scanning and sorting every child, against
+ * reading it from an {@code IndexedCollection}. {@code changeChild} is what the index costs on each
+ * {@code onChildChanged}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryBenchmark {
+
+  private static final long START = 1495234800000L;
+  private static final int LIMIT = 20;
+
+  @Param({"1000", "100000"})
+  int childCount;
+
+  Map<String, Review> children;
+  IndexedCollection<Review> collection;
+  String changedKey;
+  Review[] changes;
+  int change;
+
+  @Setup
+  public void setUp() {
+    children = new LinkedHashMap<>();
+    collection = IndexedCollection.create(Review.class, "rating", "dateOfReview");
+    for (int i = 0; i < childCount; i++) {
+      Review review = review(i);
+      String key = pushId(i);
+      children.put(key, review);
+      collection.put(key, review);
+    }
+    changedKey = pushId(childCount / 2);
+    changes = new Review[] {review(childCount / 2 + 1), review(childCount / 2)};
+  }
+
+  // orderByChild("rating").equalTo(5).limitToFirst(20)
+  @Benchmark
+  public List<Review> equalToScanAndSort() {
+    return scanAndSort("rating", 5, 5, LIMIT);
+  }
+
+  @Benchmark
+  public List<Review> equalToIndexed() {
+    return collection.orderByChild("rating").equalTo(5).limitToFirst(LIMIT).values();
+  }
+
+  // orderByChild("dateOfReview").startAt(a).endAt(b), a tenth of the children
+  @Benchmark
+  public List<Review> rangeScanAndSort() {
+    return scanAndSort("dateOfReview", time(childCount / 2), time(childCount / 2 + childCount / 10), 0);
+  }
+
+  @Benchmark
+  public List<Review> rangeIndexed() {
+    return collection.orderByChild("dateOfReview")
+      .startAt(time(childCount / 2))
+      .endAt(time(childCount / 2 + childCount / 10))
+      .values();
+  }
+
+  @Benchmark
+  public Review changeChild() {
+    change ^= 1;
+    return collection.put(changedKey, changes[change]);
+  }
+
+  private List<Review> scanAndSort(final String firebaseKey, Object start, Object end, int limit) {
+    List<Map.Entry<String, Review>> matches = new ArrayList<>();
+    for (Map.Entry<String, Review> child : children.entrySet()) {
+      Object value = AutoValue_Review.get(child.getValue(), firebaseKey);
+      if (FirebaseOrder.compareValues(value, start) >= 0 && FirebaseOrder.compareValues(value, end) <= 0) {
+        matches.add(child);
+      }
+    }
+    Collections.sort(matches, new Comparator<Map.Entry<String, Review>>() {
+      @Override public int compare(Map.Entry<String, Review> a, Map.Entry<String, Review> b) {
+        int result = FirebaseOrder.compareValues(AutoValue_Review.get(a.getValue(), firebaseKey),
+                                                 AutoValue_Review.get(b.getValue(), firebaseKey));
+        return result != 0 ? result : FirebaseOrder.compareKeys(a.getKey(), b.getKey());
+      }
+    });
+    int size = limit == 0 ? matches.size() : Math.min(limit, matches.size());
+    List<Review> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(matches.get(i).getValue());
+    }
+    return values;
+  }
+
+  private static Review review(int i) {
+    return Review.create("Review " + i, i % 5 + 1, new Date(time(i)));
+  }
+
+  private static long time(int i) {
+    return START + i * 60000L;
+  }
+
+  private static String pushId(int i) {
+    return String.format("-Kp%017d", i);
+  }
+}
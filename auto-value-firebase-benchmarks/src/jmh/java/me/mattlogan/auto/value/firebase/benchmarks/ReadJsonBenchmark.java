@@ -0,0 +1,45 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import me.mattlogan.auto.value.firebase.json.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares decoding a JSON document through an intermediate tree of maps with streaming it straight
+ * into the {@code AutoValue} class. Run with the {@code gc} profiler and compare
+ * {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadJsonBenchmark {
+
+  @Param({"4", "64"})
+  int ingredientCount;
+
+  String json;
+
+  @Setup
+  public void setUp() {
+    json = Models.json(AutoValue_Taco.toMap(Models.taco(ingredientCount)));
+  }
+
+  @Benchmark
+  public Taco valueTreeFromValue() throws IOException {
+    return AutoValue_Taco.fromValue(new JsonReader(new StringReader(json)).readValue());
+  }
+
+  @Benchmark
+  public Taco readJson() throws IOException {
+    return AutoValue_Taco.readJson(new JsonReader(new StringReader(json)));
+  }
+}
@@ -0,0 +1,112 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import me.mattlogan.auto.value.firebase.binary.BinaryCodec;
+import me.mattlogan.auto.value.firebase.store.MappedRecordStore;
+import me.mattlogan.auto.value.firebase.store.RecordCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the cold start of an offline cache: loading every record onto the heap with the binary
+ * codec, against opening a {@code MappedRecordStore} and reading one record. Run with the
+ * {@code gc} profiler and compare {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordStoreBenchmark {
+
+  private static final RecordCodec<Taco> CODEC = new RecordCodec<Taco>() {
+    @Override public long fingerprint() {
+      return AutoValue_Taco.BINARY_FINGERPRINT;
+    }
+
+    @Override public void write(Taco value, DataOutput out) throws IOException {
+      AutoValue_Taco.writeTo(value, out);
+    }
+
+    @Override public Taco read(DataInput in) throws IOException {
+      return AutoValue_Taco.readFrom(in);
+    }
+  };
+
+  @Param({"200000"})
+  int recordCount;
+
+  File storeFile;
+  File binaryFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    Taco taco = Models.taco(4);
+    storeFile = File.createTempFile("tacos", ".store");
+    storeFile.delete();
+    binaryFile = File.createTempFile("tacos", ".bin");
+
+    try (MappedRecordStore<Taco> store = MappedRecordStore.open(storeFile, CODEC);
+         DataOutputStream out = new DataOutputStream(
+           new BufferedOutputStream(new FileOutputStream(binaryFile)))) {
+      BinaryCodec.writeHeader(out, AutoValue_Taco.BINARY_FINGERPRINT);
+      BinaryCodec.writeSize(out, recordCount);
+      for (int i = 0; i < recordCount; i++) {
+        String key = pushId(i);
+        store.put(key, taco);
+        BinaryCodec.writeString(out, key);
+        AutoValue_Taco.writeTo(taco, out);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    storeFile.delete();
+    binaryFile.delete();
+  }
+
+  @Benchmark
+  public Map<String, Taco> loadEverything() throws IOException {
+    try (DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(binaryFile)))) {
+      if (!BinaryCodec.readHeader(in, AutoValue_Taco.BINARY_FINGERPRINT)) {
+        throw new IllegalStateException("Stale cache");
+      }
+      int size = BinaryCodec.readSize(in);
+      Map<String, Taco> tacos = new HashMap<>((int) (size / 0.75f) + 1);
+      for (int i = 0; i < size; i++) {
+        tacos.put(BinaryCodec.readString(in), AutoValue_Taco.readFrom(in));
+      }
+      return tacos;
+    }
+  }
+
+  @Benchmark
+  public Taco openStoreAndGet() throws IOException {
+    try (MappedRecordStore<Taco> store = MappedRecordStore.open(storeFile, CODEC)) {
+      return store.get(pushId(recordCount / 2));
+    }
+  }
+
+  private static String pushId(int i) {
+    return String.format("-Kp%017d", i);
+  }
+}
@@ -0,0 +1,20 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.Date;
+import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Review {
+
+  public static Review create(String description, int rating, Date dateOfReview) {
+    return new AutoValue_Review(description, rating, dateOfReview);
+  }
+
+  public abstract String description();
+
+  public abstract int rating();
+
+  @FirebaseAdapter(DateAdapter.class) public abstract Date dateOfReview();
+}
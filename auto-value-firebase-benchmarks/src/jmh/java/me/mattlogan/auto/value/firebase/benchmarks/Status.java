@@ -0,0 +1,6 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+public enum Status {
+  COOKED,
+  UNCOOKED
+}
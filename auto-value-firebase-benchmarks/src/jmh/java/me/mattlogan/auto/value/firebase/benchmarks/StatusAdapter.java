@@ -0,0 +1,17 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import me.mattlogan.auto.value.firebase.adapter.Stateless;
+import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;
+
+@Stateless
+public class StatusAdapter implements TypeAdapter<Status, String> {
+  @Override
+  public Status fromFirebaseValue(String value) {
+    return "cooked".equals(value) ? Status.COOKED : Status.UNCOOKED;
+  }
+
+  @Override
+  public String toFirebaseValue(Status value) {
+    return value == Status.COOKED ? "cooked" : "uncooked";
+  }
+}
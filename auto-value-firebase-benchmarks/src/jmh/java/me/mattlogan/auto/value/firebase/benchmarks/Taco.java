@@ -0,0 +1,22 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+@AutoValue @FirebaseValue
+public abstract class Taco {
+
+  public static Taco create(String name, List<Ingredient> ingredients, Review review, Status status) {
+    return new AutoValue_Taco(name, ingredients, review, status);
+  }
+
+  public abstract String name();
+
+  public abstract List<Ingredient> ingredients();
+
+  public abstract Review review();
+
+  @FirebaseAdapter(StatusAdapter.class) public abstract Status status();
+}
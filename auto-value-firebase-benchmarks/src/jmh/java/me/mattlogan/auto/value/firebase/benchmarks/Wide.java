@@ -0,0 +1,142 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import com.google.auto.value.AutoValue;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+/**
+ * 104 flat properties, the shape of a wide settings or analytics record. Instances are decoded
+ * with {@code fromMap()}, see {@link Models#wide()}.
+ */
+@AutoValue @FirebaseValue
+public abstract class Wide {
+
+  public abstract String text0();
+  public abstract long count0();
+  public abstract double ratio0();
+  public abstract boolean flag0();
+
+  public abstract String text1();
+  public abstract long count1();
+  public abstract double ratio1();
+  public abstract boolean flag1();
+
+  public abstract String text2();
+  public abstract long count2();
+  public abstract double ratio2();
+  public abstract boolean flag2();
+
+  public abstract String text3();
+  public abstract long count3();
+  public abstract double ratio3();
+  public abstract boolean flag3();
+
+  public abstract String text4();
+  public abstract long count4();
+  public abstract double ratio4();
+  public abstract boolean flag4();
+
+  public abstract String text5();
+  public abstract long count5();
+  public abstract double ratio5();
+  public abstract boolean flag5();
+
+  public abstract String text6();
+  public abstract long count6();
+  public abstract double ratio6();
+  public abstract boolean flag6();
+
+  public abstract String text7();
+  public abstract long count7();
+  public abstract double ratio7();
+  public abstract boolean flag7();
+
+  public abstract String text8();
+  public abstract long count8();
+  public abstract double ratio8();
+  public abstract boolean flag8();
+
+  public abstract String text9();
+  public abstract long count9();
+  public abstract double ratio9();
+  public abstract boolean flag9();
+
+  public abstract String text10();
+  public abstract long count10();
+  public abstract double ratio10();
+  public abstract boolean flag10();
+
+  public abstract String text11();
+  public abstract long count11();
+  public abstract double ratio11();
+  public abstract boolean flag11();
+
+  public abstract String text12();
+  public abstract long count12();
+  public abstract double ratio12();
+  public abstract boolean flag12();
+
+  public abstract String text13();
+  public abstract long count13();
+  public abstract double ratio13();
+  public abstract boolean flag13();
+
+  public abstract String text14();
+  public abstract long count14();
+  public abstract double ratio14();
+  public abstract boolean flag14();
+
+  public abstract String text15();
+  public abstract long count15();
+  public abstract double ratio15();
+  public abstract boolean flag15();
+
+  public abstract String text16();
+  public abstract long count16();
+  public abstract double ratio16();
+  public abstract boolean flag16();
+
+  public abstract String text17();
+  public abstract long count17();
+  public abstract double ratio17();
+  public abstract boolean flag17();
+
+  public abstract String text18();
+  public abstract long count18();
+  public abstract double ratio18();
+  public abstract boolean flag18();
+
+  public abstract String text19();
+  public abstract long count19();
+  public abstract double ratio19();
+  public abstract boolean flag19();
+
+  public abstract String text20();
+  public abstract long count20();
+  public abstract double ratio20();
+  public abstract boolean flag20();
+
+  public abstract String text21();
+  public abstract long count21();
+  public abstract double ratio21();
+  public abstract boolean flag21();
+
+  public abstract String text22();
+  public abstract long count22();
+  public abstract double ratio22();
+  public abstract boolean flag22();
+
+  public abstract String text23();
+  public abstract long count23();
+  public abstract double ratio23();
+  public abstract boolean flag23();
+
+  public abstract String text24();
+  public abstract long count24();
+  public abstract double ratio24();
+  public abstract boolean flag24();
+
+  public abstract String text25();
+  public abstract long count25();
+  public abstract double ratio25();
+  public abstract boolean flag25();
+}
@@ -0,0 +1,43 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the allocation cost of one write: encoding through a {@code FirebaseValue} copy versus
+ * encoding straight from the {@code AutoValue} instance. Run with the {@code gc} profiler and
+ * compare {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriteBenchmark {
+
+  @Param({"4", "64"})
+  int ingredientCount;
+
+  Taco taco;
+
+  @Setup
+  public void setUp() {
+    taco = Models.taco(ingredientCount);
+  }
+
+  @Benchmark
+  public Map<String, Object> firebaseValueToMap() {
+    return new AutoValue_Taco.FirebaseValue(taco).toMap();
+  }
+
+  @Benchmark
+  public Map<String, Object> staticToMap() {
+    return AutoValue_Taco.toMap(taco);
+  }
+}
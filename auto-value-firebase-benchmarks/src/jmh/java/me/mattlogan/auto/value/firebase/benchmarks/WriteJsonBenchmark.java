@@ -0,0 +1,57 @@
+package me.mattlogan.auto.value.firebase.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import me.mattlogan.auto.value.firebase.json.JsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares writing JSON from the plain map returned by {@code toMap()} with streaming it straight
+ * from the {@code AutoValue} accessors. Both write UTF-8 to a stream that discards its input. Run
+ * with the {@code gc} profiler and compare {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriteJsonBenchmark {
+
+  private static final OutputStream DISCARD = new OutputStream() {
+    @Override public void write(int b) {
+    }
+
+    @Override public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  @Param({"4", "64"})
+  int ingredientCount;
+
+  Taco taco;
+
+  @Setup
+  public void setUp() {
+    taco = Models.taco(ingredientCount);
+  }
+
+  @Benchmark
+  public void toMapThenWrite() throws IOException {
+    JsonWriter writer = new JsonWriter(DISCARD);
+    writer.value((Object) AutoValue_Taco.toMap(taco));
+    writer.flush();
+  }
+
+  @Benchmark
+  public void writeJson() throws IOException {
+    JsonWriter writer = new JsonWriter(DISCARD);
+    AutoValue_Taco.writeJson(taco, writer);
+    writer.flush();
+  }
+}
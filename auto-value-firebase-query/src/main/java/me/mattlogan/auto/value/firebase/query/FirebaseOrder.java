@@ -0,0 +1,112 @@
+package me.mattlogan.auto.value.firebase.query;
+
+/**
+ * The order Firebase sorts children in, so local queries return them in the same order as the
+ * server does.
+ */
+public final class FirebaseOrder {
+    private static final long NOT_AN_INT = Long.MIN_VALUE;
+
+    /**
+     * Compares two values the way {@code orderByChild()} does: {@code null} first, then
+     * {@code false} and {@code true}, then numbers in ascending order, then strings in
+     * lexicographic order. Everything else, like lists, maps and nested values, comes last and
+     * compares equal. Children with equal values are ordered by {@link #compareKeys(String, String)}.
+     */
+    public static int compareValues(Object a, Object b) {
+        int rankA = rank(a);
+        int rankB = rank(b);
+        if (rankA != rankB) {
+            return rankA < rankB ? -1 : 1;
+        }
+        switch (rankA) {
+            case 1:
+                return ((Boolean) a).compareTo((Boolean) b);
+            case 2:
+                Number numberA = (Number) a;
+                Number numberB = (Number) b;
+                if (isIntegral(numberA) && isIntegral(numberB)) {
+                    long longA = numberA.longValue();
+                    long longB = numberB.longValue();
+                    return longA < longB ? -1 : (longA == longB ? 0 : 1);
+                }
+                return Double.compare(numberA.doubleValue(), numberB.doubleValue());
+            case 3:
+                return ((String) a).compareTo((String) b);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Compares two keys the way {@code orderByKey()} does: keys that parse as 32-bit integers come
+     * first, in numeric order, then all other keys in lexicographic order.
+     */
+    public static int compareKeys(String a, String b) {
+        long intA = intKey(a);
+        long intB = intKey(b);
+        if (intA != NOT_AN_INT) {
+            if (intB == NOT_AN_INT) {
+                return -1;
+            }
+            if (intA != intB) {
+                return intA < intB ? -1 : 1;
+            }
+            // "1" before "01"
+            return a.length() < b.length() ? -1 : (a.length() == b.length() ? 0 : 1);
+        }
+        return intB != NOT_AN_INT ? 1 : a.compareTo(b);
+    }
+
+    private static int rank(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof Number) {
+            return 2;
+        } else if (value instanceof String) {
+            return 3;
+        }
+        return 4;
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer
+                || number instanceof Short || number instanceof Byte;
+    }
+
+    // Parses keys like the Firebase client does: an optional minus sign and up to ten digits
+    static long intKey(String key) {
+        int length = key.length();
+        if (length == 0 || length > 11) {
+            return NOT_AN_INT;
+        }
+        int i = 0;
+        boolean negative = key.charAt(0) == '-';
+        if (negative) {
+            if (length == 1) {
+                return NOT_AN_INT;
+            }
+            i = 1;
+        }
+        long number = 0;
+        for (; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_AN_INT;
+            }
+            number = number * 10 + (c - '0');
+        }
+        if (negative) {
+            number = -number;
+        }
+        if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+            return NOT_AN_INT;
+        }
+        return number;
+    }
+
+    private FirebaseOrder() {
+    }
+}
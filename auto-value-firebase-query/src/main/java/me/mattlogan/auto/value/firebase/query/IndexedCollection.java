@@ -0,0 +1,276 @@
+package me.mattlogan.auto.value.firebase.query;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import me.mattlogan.auto.value.firebase.runtime.FirebaseSchema;
+import me.mattlogan.auto.value.firebase.runtime.FirebaseSchemas;
+
+/**
+ * Mirrors the children of a Firebase list in memory, with sorted indexes on some of their
+ * properties, so {@code orderByChild()} queries can be answered locally without scanning and
+ * sorting the whole list.
+ *
+ * <p>Properties are indexed by the key Firebase stores them under, after {@code @PropertyName},
+ * and are read through the type's generated {@link FirebaseSchema}. Adapted properties are indexed
+ * by their type adapter's output, so they sort the way Firebase sorts them.
+ *
+ * <pre>{@code
+ * IndexedCollection<Taco> tacos = IndexedCollection.create(Taco.class, "status", "rating");
+ *
+ * // onChildAdded and onChildChanged
+ * tacos.put(snapshot.getKey(), AutoValue_Taco.fromValue(snapshot.getValue()));
+ * // onChildRemoved
+ * tacos.remove(snapshot.getKey());
+ *
+ * List<Taco> cooked = tacos.orderByChild("status").equalTo("COOKED").limitToFirst(20).values();
+ * }</pre>
+ *
+ * <p>{@link #put(String, Object)} and {@link #remove(String)} update every index in
+ * {@code O(log n)}. A {@link Query} finds its first result in {@code O(log n)} and then walks
+ * only the results it returns. Instances aren't thread safe, so confine each one to the thread
+ * its listener runs on.
+ */
+public final class IndexedCollection<T> {
+    private static final Comparator<Record<?>> KEY_ORDER = new Comparator<Record<?>>() {
+        @Override
+        public int compare(Record<?> a, Record<?> b) {
+            return compareKeys(a, b);
+        }
+    };
+
+    private final FirebaseSchema<T> schema;
+    private final String[] indexedKeys;
+    private final Map<String, Record<T>> records = new HashMap<>();
+    private final NavigableSet<Record<T>> byKey = new TreeSet<>(KEY_ORDER);
+    private final NavigableSet<Record<T>>[] byChild;
+
+    /**
+     * Creates an empty collection of {@code type}, an {@code @AutoValue @FirebaseValue} class,
+     * indexed on each of {@code indexedKeys}.
+     *
+     * @throws IllegalArgumentException if {@code type} has no generated schema, or a key isn't one
+     * of its Firebase keys
+     */
+    public static <T> IndexedCollection<T> create(Class<T> type, String... indexedKeys) {
+        return create(FirebaseSchemas.of(type), indexedKeys);
+    }
+
+    /**
+     * Creates an empty collection described by {@code schema}, indexed on each of
+     * {@code indexedKeys}.
+     *
+     * @throws IllegalArgumentException if a key isn't one of the schema's Firebase keys
+     */
+    public static <T> IndexedCollection<T> create(FirebaseSchema<T> schema, String... indexedKeys) {
+        if (schema == null) {
+            throw new NullPointerException("schema == null");
+        }
+        Set<String> firebaseKeys = new HashSet<>();
+        for (FirebaseSchema.Property property : schema.properties()) {
+            if (!property.excluded()) {
+                firebaseKeys.add(property.firebaseKey());
+            }
+        }
+        Set<String> seen = new HashSet<>();
+        for (String key : indexedKeys) {
+            if (!firebaseKeys.contains(key)) {
+                throw new IllegalArgumentException(schema.type().getName() + " has no Firebase key " + key);
+            }
+            if (!seen.add(key)) {
+                throw new IllegalArgumentException(key + " is indexed twice");
+            }
+        }
+        return new IndexedCollection<>(schema, indexedKeys.clone());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private IndexedCollection(FirebaseSchema<T> schema, String[] indexedKeys) {
+        this.schema = schema;
+        this.indexedKeys = indexedKeys;
+        this.byChild = new NavigableSet[indexedKeys.length];
+        for (int i = 0; i < indexedKeys.length; i++) {
+            byChild[i] = new TreeSet<>(new ChildOrder(i));
+        }
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public T get(String key) {
+        Record<T> record = records.get(key);
+        return record == null ? null : record.value;
+    }
+
+    /**
+     * Adds or replaces the child at {@code key}, and returns the value it replaced, if any.
+     */
+    public T put(String key, T value) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        // The indexed values are read once, so comparisons don't go through the schema
+        Object[] values = new Object[indexedKeys.length];
+        for (int i = 0; i < indexedKeys.length; i++) {
+            values[i] = schema.get(value, indexedKeys[i]);
+        }
+        Record<T> record = new Record<>(key, value, values, 0);
+        Record<T> previous = records.put(key, record);
+        if (previous != null) {
+            unindex(previous);
+        }
+        byKey.add(record);
+        for (NavigableSet<Record<T>> index : byChild) {
+            index.add(record);
+        }
+        return previous == null ? null : previous.value;
+    }
+
+    /**
+     * Removes the child at {@code key}, and returns its value, if any.
+     */
+    public T remove(String key) {
+        Record<T> record = records.remove(key);
+        if (record == null) {
+            return null;
+        }
+        unindex(record);
+        return record.value;
+    }
+
+    public void clear() {
+        records.clear();
+        byKey.clear();
+        for (NavigableSet<Record<T>> index : byChild) {
+            index.clear();
+        }
+    }
+
+    /**
+     * Returns a query over every child, ordered by key.
+     */
+    public Query<T> orderByKey() {
+        return new Query<>(this, -1);
+    }
+
+    /**
+     * Returns a query over every child, ordered by the property Firebase stores under
+     * {@code firebaseKey}.
+     *
+     * @throws IllegalArgumentException if {@code firebaseKey} isn't indexed
+     */
+    public Query<T> orderByChild(String firebaseKey) {
+        for (int i = 0; i < indexedKeys.length; i++) {
+            if (indexedKeys[i].equals(firebaseKey)) {
+                return new Query<>(this, i);
+            }
+        }
+        throw new IllegalArgumentException("No index on " + firebaseKey);
+    }
+
+    private void unindex(Record<T> record) {
+        byKey.remove(record);
+        for (NavigableSet<Record<T>> index : byChild) {
+            index.remove(record);
+        }
+    }
+
+    NavigableSet<Record<T>> index(int slot) {
+        return slot < 0 ? byKey : byChild[slot];
+    }
+
+    /**
+     * Returns a bound for a range of {@link #index(int)}. A bound without a key sorts before
+     * ({@code -1}) or after ({@code 1}) every child with an equal value.
+     */
+    Record<T> bound(int slot, Object value, String key, int bound) {
+        Object[] values = new Object[indexedKeys.length];
+        if (slot >= 0) {
+            values[slot] = value;
+        }
+        return new Record<>(key, null, values, bound);
+    }
+
+    // Ties are broken by key, then bounds sort around the children they tie with
+    static int compareKeys(Record<?> a, Record<?> b) {
+        if (a.key != null && b.key != null) {
+            int result = FirebaseOrder.compareKeys(a.key, b.key);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return a.bound < b.bound ? -1 : (a.bound == b.bound ? 0 : 1);
+    }
+
+    private static final class ChildOrder implements Comparator<Record<?>> {
+        private final int slot;
+
+        ChildOrder(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public int compare(Record<?> a, Record<?> b) {
+            int result = FirebaseOrder.compareValues(a.values[slot], b.values[slot]);
+            return result != 0 ? result : compareKeys(a, b);
+        }
+    }
+
+    static final class Record<T> implements Map.Entry<String, T> {
+        final String key;
+        final T value;
+        final Object[] values;
+        final int bound;
+
+        Record(String key, T value, Object[] values, int bound) {
+            this.key = key;
+            this.value = value;
+            this.values = values;
+            this.bound = bound;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public T getValue() {
+            return value;
+        }
+
+        @Override
+        public T setValue(T value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return (key == null ? other.getKey() == null : key.equals(other.getKey()))
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
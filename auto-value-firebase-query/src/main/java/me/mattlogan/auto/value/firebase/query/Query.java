@@ -0,0 +1,206 @@
+package me.mattlogan.auto.value.firebase.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import me.mattlogan.auto.value.firebase.query.IndexedCollection.Record;
+
+/**
+ * A range of an {@link IndexedCollection}, with the same rules as Firebase's {@code Query}. Each
+ * method returns a new query, and results are read from the collection's current children when
+ * {@link #entries()} or {@link #values()} is called, so one query can be re-run after every
+ * change.
+ */
+public final class Query<T> {
+    private final IndexedCollection<T> collection;
+    // -1 orders by key
+    private final int slot;
+
+    private boolean hasStart;
+    private Object startValue;
+    private String startKey;
+    private boolean hasEnd;
+    private Object endValue;
+    private String endKey;
+    private int limit;
+    private boolean limitToLast;
+
+    Query(IndexedCollection<T> collection, int slot) {
+        this.collection = collection;
+        this.slot = slot;
+    }
+
+    /**
+     * Starts at the first child whose value is greater than or equal to {@code value}. When
+     * ordering by key, {@code value} is the key.
+     */
+    public Query<T> startAt(Object value) {
+        return startAt(value, null);
+    }
+
+    /**
+     * Starts at the first child whose value is greater than {@code value}, or equal to it with a key
+     * greater than or equal to {@code key}.
+     */
+    public Query<T> startAt(Object value, String key) {
+        checkBound(value, key);
+        if (hasStart) {
+            throw new IllegalStateException("Start was already set");
+        }
+        Query<T> query = copy();
+        query.hasStart = true;
+        query.startValue = value;
+        query.startKey = key;
+        return query;
+    }
+
+    /**
+     * Ends at the last child whose value is less than or equal to {@code value}. When ordering by
+     * key, {@code value} is the key.
+     */
+    public Query<T> endAt(Object value) {
+        return endAt(value, null);
+    }
+
+    /**
+     * Ends at the last child whose value is less than {@code value}, or equal to it with a key less
+     * than or equal to {@code key}.
+     */
+    public Query<T> endAt(Object value, String key) {
+        checkBound(value, key);
+        if (hasEnd) {
+            throw new IllegalStateException("End was already set");
+        }
+        Query<T> query = copy();
+        query.hasEnd = true;
+        query.endValue = value;
+        query.endKey = key;
+        return query;
+    }
+
+    /**
+     * Matches the children whose value is equal to {@code value}.
+     */
+    public Query<T> equalTo(Object value) {
+        return startAt(value).endAt(value);
+    }
+
+    /**
+     * Keeps only the first {@code limit} children.
+     */
+    public Query<T> limitToFirst(int limit) {
+        return limit(limit, false);
+    }
+
+    /**
+     * Keeps only the last {@code limit} children.
+     */
+    public Query<T> limitToLast(int limit) {
+        return limit(limit, true);
+    }
+
+    /**
+     * Returns the matching children in order.
+     */
+    public List<Map.Entry<String, T>> entries() {
+        List<Record<T>> records = records();
+        return Collections.<Map.Entry<String, T>>unmodifiableList(records);
+    }
+
+    /**
+     * Returns the values of the matching children in order.
+     */
+    public List<T> values() {
+        List<Record<T>> records = records();
+        List<T> values = new ArrayList<>(records.size());
+        for (Record<T> record : records) {
+            values.add(record.value);
+        }
+        return values;
+    }
+
+    private List<Record<T>> records() {
+        NavigableSet<Record<T>> range = range();
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        if (limit == 0) {
+            return new ArrayList<>(range);
+        }
+        List<Record<T>> records = new ArrayList<>(Math.min(limit, 16));
+        Iterator<Record<T>> iterator = limitToLast ? range.descendingIterator() : range.iterator();
+        while (records.size() < limit && iterator.hasNext()) {
+            records.add(iterator.next());
+        }
+        if (limitToLast) {
+            Collections.reverse(records);
+        }
+        return records;
+    }
+
+    // A view of the index between the bounds, or null if they're crossed
+    private NavigableSet<Record<T>> range() {
+        NavigableSet<Record<T>> index = collection.index(slot);
+        Record<T> lower = hasStart ? bound(startValue, startKey, -1) : null;
+        Record<T> upper = hasEnd ? bound(endValue, endKey, 1) : null;
+        if (lower != null && upper != null) {
+            if (index.comparator().compare(lower, upper) > 0) {
+                return null;
+            }
+            return index.subSet(lower, true, upper, true);
+        } else if (lower != null) {
+            return index.tailSet(lower, true);
+        } else if (upper != null) {
+            return index.headSet(upper, true);
+        }
+        return index;
+    }
+
+    private Record<T> bound(Object value, String key, int direction) {
+        if (slot < 0) {
+            return collection.bound(slot, null, (String) value, 0);
+        }
+        return collection.bound(slot, value, key, key == null ? direction : 0);
+    }
+
+    private void checkBound(Object value, String key) {
+        if (slot < 0) {
+            if (!(value instanceof String)) {
+                throw new IllegalArgumentException("orderByKey() bounds must be keys, not " + value);
+            }
+            if (key != null) {
+                throw new IllegalArgumentException("orderByKey() bounds can't have a second key");
+            }
+        }
+    }
+
+    private Query<T> limit(int limit, boolean limitToLast) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit <= 0: " + limit);
+        }
+        if (this.limit != 0) {
+            throw new IllegalStateException("Limit was already set");
+        }
+        Query<T> query = copy();
+        query.limit = limit;
+        query.limitToLast = limitToLast;
+        return query;
+    }
+
+    private Query<T> copy() {
+        Query<T> query = new Query<>(collection, slot);
+        query.hasStart = hasStart;
+        query.startValue = startValue;
+        query.startKey = startKey;
+        query.hasEnd = hasEnd;
+        query.endValue = endValue;
+        query.endKey = endKey;
+        query.limit = limit;
+        query.limitToLast = limitToLast;
+        return query;
+    }
+}
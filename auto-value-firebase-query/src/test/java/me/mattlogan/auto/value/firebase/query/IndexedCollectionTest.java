@@ -0,0 +1,276 @@
+package me.mattlogan.auto.value.firebase.query;
+
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import me.mattlogan.auto.value.firebase.runtime.FirebaseSchema;
+import me.mattlogan.auto.value.firebase.runtime.FirebaseSchema.Kind;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IndexedCollectionTest {
+
+  // Stands in for an @AutoValue class. "rating" is stored as "stars", and "secret" is excluded.
+  static final class Taco {
+    final String name;
+    final Object rating;
+
+    Taco(String name, Object rating) {
+      this.name = name;
+      this.rating = rating;
+    }
+
+    @Override public String toString() {
+      return name;
+    }
+  }
+
+  // What the extension generates
+  static final FirebaseSchema<Taco> SCHEMA = new FirebaseSchema<Taco>(Taco.class,
+      new String[] {"name", "rating", "secret"},
+      new String[] {"name", "stars", null},
+      new Kind[] {Kind.PRIMITIVE, Kind.PRIMITIVE, Kind.PRIMITIVE}) {
+    @Override public Object get(Taco value, int index) {
+      switch (index) {
+        case 0:
+          return value.name;
+        case 1:
+          return value.rating;
+        case 2:
+          return null;
+        default:
+          throw new IndexOutOfBoundsException("No property at " + index);
+      }
+    }
+
+    @Override public Object get(Taco value, String firebaseKey) {
+      switch (firebaseKey) {
+        case "name":
+          return value.name;
+        case "stars":
+          return value.rating;
+        default:
+          return null;
+      }
+    }
+  };
+
+  private final IndexedCollection<Taco> tacos = IndexedCollection.create(SCHEMA, "stars", "name");
+
+  @Test
+  public void putGetAndRemove() {
+    Taco alPastor = new Taco("Al pastor", 5);
+    assertNull(tacos.put("-KpA", alPastor));
+    assertEquals(alPastor, tacos.get("-KpA"));
+    assertEquals(1, tacos.size());
+
+    Taco carnitas = new Taco("Carnitas", 4);
+    assertEquals(alPastor, tacos.put("-KpA", carnitas));
+    assertEquals(1, tacos.size());
+
+    assertEquals(carnitas, tacos.remove("-KpA"));
+    assertNull(tacos.remove("-KpA"));
+    assertEquals(0, tacos.size());
+    assertEquals(Collections.emptyList(), tacos.orderByChild("stars").values());
+  }
+
+  @Test
+  public void orderByChildSortsLikeFirebase() {
+    tacos.put("a", new Taco("string", "5"));
+    tacos.put("b", new Taco("double", 4.5));
+    tacos.put("c", new Taco("long", 4L));
+    tacos.put("d", new Taco("true", true));
+    tacos.put("e", new Taco("false", false));
+    tacos.put("f", new Taco("null", null));
+    tacos.put("g", new Taco("list", Arrays.asList(1, 2)));
+    tacos.put("h", new Taco("int", 4));
+
+    assertEquals("[null, false, true, long, int, double, string, list]",
+        tacos.orderByChild("stars").values().toString());
+  }
+
+  @Test
+  public void equalToWithLimit() {
+    tacos.put("-KpC", new Taco("Carnitas", 5));
+    tacos.put("-KpA", new Taco("Al pastor", 5));
+    tacos.put("-KpB", new Taco("Barbacoa", 3));
+    tacos.put("-KpD", new Taco("Dorado", 5));
+
+    assertEquals("[Al pastor, Carnitas, Dorado]", tacos.orderByChild("stars").equalTo(5).values().toString());
+    assertEquals("[Al pastor, Carnitas]",
+        tacos.orderByChild("stars").equalTo(5L).limitToFirst(2).values().toString());
+    assertEquals("[Carnitas, Dorado]",
+        tacos.orderByChild("stars").equalTo(5.0).limitToLast(2).values().toString());
+    assertEquals(Collections.emptyList(), tacos.orderByChild("stars").equalTo(4).values());
+  }
+
+  @Test
+  public void startAtAndEndAt() {
+    for (int i = 0; i < 10; i++) {
+      tacos.put("-Kp" + i, new Taco("Taco " + i, i));
+    }
+
+    assertEquals("[Taco 3, Taco 4, Taco 5]",
+        tacos.orderByChild("stars").startAt(3).endAt(5).values().toString());
+    assertEquals("[Taco 8, Taco 9]", tacos.orderByChild("stars").startAt(7.5).values().toString());
+    assertEquals("[Taco 0, Taco 1]", tacos.orderByChild("stars").endAt(1).values().toString());
+    assertEquals("[Taco 4, Taco 5]",
+        tacos.orderByChild("stars").startAt(2).endAt(5).limitToLast(2).values().toString());
+    assertEquals(Collections.emptyList(), tacos.orderByChild("stars").startAt(5).endAt(3).values());
+    assertEquals("[Taco 0, Taco 1]", tacos.orderByChild("name").endAt("Taco 1").values().toString());
+  }
+
+  @Test
+  public void startAtValueAndKeyPages() {
+    tacos.put("-KpA", new Taco("Al pastor", 5));
+    tacos.put("-KpB", new Taco("Barbacoa", 5));
+    tacos.put("-KpC", new Taco("Carnitas", 5));
+    tacos.put("-KpD", new Taco("Dorado", 3));
+
+    Query<Taco> byStars = tacos.orderByChild("stars");
+    List<Map.Entry<String, Taco>> page = byStars.startAt(5).limitToFirst(2).entries();
+    assertEquals("[-KpA=Al pastor, -KpB=Barbacoa]", page.toString());
+
+    Map.Entry<String, Taco> last = page.get(page.size() - 1);
+    assertEquals("[-KpB=Barbacoa, -KpC=Carnitas]",
+        byStars.startAt(5, last.getKey()).limitToFirst(2).entries().toString());
+    assertEquals("[-KpD=Dorado, -KpA=Al pastor]", byStars.endAt(5, "-KpA").entries().toString());
+  }
+
+  @Test
+  public void changeMovesChildInIndexes() {
+    tacos.put("-KpA", new Taco("Al pastor", 5));
+    tacos.put("-KpB", new Taco("Barbacoa", 4));
+    Query<Taco> best = tacos.orderByChild("stars").limitToLast(1);
+    assertEquals("[Al pastor]", best.values().toString());
+
+    tacos.put("-KpA", new Taco("Al pastor", 3));
+    assertEquals("[Barbacoa]", best.values().toString());
+    assertEquals("[Al pastor, Barbacoa]", tacos.orderByChild("stars").values().toString());
+
+    tacos.remove("-KpB");
+    assertEquals("[Al pastor]", best.values().toString());
+    assertEquals(Collections.emptyList(), tacos.orderByChild("name").equalTo("Barbacoa").values());
+  }
+
+  @Test
+  public void orderByKeyPutsIntegerKeysFirst() {
+    for (String key : Arrays.asList("b", "10", "-KpA", "2", "01", "1", "a", "-1")) {
+      tacos.put(key, new Taco(key, 0));
+    }
+
+    assertEquals("[-1, 1, 01, 2, 10, -KpA, a, b]", tacos.orderByKey().values().toString());
+    assertEquals("[2, 10, -KpA]", tacos.orderByKey().startAt("2").endAt("-KpA").values().toString());
+    assertEquals("[a, b]", tacos.orderByKey().limitToLast(2).values().toString());
+  }
+
+  @Test
+  public void matchesScanAndSort() {
+    Random random = new Random(0);
+    for (int i = 0; i < 2000; i++) {
+      String key = "-Kp" + random.nextInt(500);
+      if (random.nextInt(4) == 0) {
+        tacos.remove(key);
+      } else {
+        Object rating = random.nextBoolean() ? (Object) random.nextInt(10) : (Object) (random.nextInt(100) / 10.0);
+        tacos.put(key, new Taco(key, rating));
+      }
+    }
+
+    for (int start = 0; start < 10; start++) {
+      List<Taco> expected = new ArrayList<>();
+      for (Map.Entry<String, Taco> entry : tacos.orderByKey().entries()) {
+        Object rating = entry.getValue().rating;
+        if (FirebaseOrder.compareValues(rating, start) >= 0 && FirebaseOrder.compareValues(rating, start + 2) <= 0) {
+          expected.add(entry.getValue());
+        }
+      }
+      Collections.sort(expected, new Comparator<Taco>() {
+        @Override public int compare(Taco a, Taco b) {
+          int result = FirebaseOrder.compareValues(a.rating, b.rating);
+          return result != 0 ? result : FirebaseOrder.compareKeys(a.name, b.name);
+        }
+      });
+      if (expected.size() > 25) {
+        expected = expected.subList(0, 25);
+      }
+      assertEquals(expected, tacos.orderByChild("stars").startAt(start).endAt(start + 2).limitToFirst(25).values());
+    }
+  }
+
+  @Test
+  public void onlyFirebaseKeysCanBeIndexed() {
+    try {
+      IndexedCollection.create(SCHEMA, "rating");
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      IndexedCollection.create(SCHEMA, "stars", "stars");
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      tacos.orderByChild("secret");
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void queryRules() {
+    Query<Taco> byStars = tacos.orderByChild("stars");
+    try {
+      byStars.equalTo(5).startAt(3);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      byStars.limitToFirst(1).limitToLast(1);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      byStars.limitToFirst(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      tacos.orderByKey().startAt(5);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void entriesAreReadOnly() {
+    tacos.put("-KpA", new Taco("Al pastor", 5));
+    Map.Entry<String, Taco> entry = tacos.orderByKey().entries().get(0);
+    try {
+      entry.setValue(new Taco("Carnitas", 4));
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertTrue(entry.equals(new AbstractMap.SimpleEntry<>("-KpA", tacos.get("-KpA"))));
+  }
+
+  @Test
+  public void compareKeys() {
+    assertTrue(FirebaseOrder.compareKeys("9", "10") < 0);
+    assertTrue(FirebaseOrder.compareKeys("2147483647", "-Kp") < 0);
+    assertTrue(FirebaseOrder.compareKeys("2147483648", "3") > 0);
+    assertTrue(FirebaseOrder.compareKeys("-", "0") > 0);
+    assertEquals(0, FirebaseOrder.compareKeys("-KpA", "-KpA"));
+  }
+}
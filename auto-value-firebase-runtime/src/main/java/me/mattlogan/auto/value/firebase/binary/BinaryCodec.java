@@ -0,0 +1,195 @@
+package me.mattlogan.auto.value.firebase.binary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoding helpers for the generated {@code writeTo(AutoValue, DataOutput)} and
+ * {@code readFrom(DataInput)} methods, a compact binary format meant for local caches.
+ *
+ * <p>Integers are written as zigzag varints, sizes and presence bits as unsigned varints, and
+ * strings as length-prefixed UTF-8. The format isn't meant to be stable across model changes.
+ * Write a header with the generated {@code BINARY_FINGERPRINT} so stale files can be rejected
+ * before any record is read:
+ *
+ * <pre>{@code
+ * BinaryCodec.writeHeader(out, AutoValue_Taco.BINARY_FINGERPRINT);
+ * AutoValue_Taco.writeTo(taco, out);
+ *
+ * if (BinaryCodec.readHeader(in, AutoValue_Taco.BINARY_FINGERPRINT)) {
+ *     Taco taco = AutoValue_Taco.readFrom(in);
+ * }
+ * }</pre>
+ */
+public final class BinaryCodec {
+    private static final int MAGIC = 0x41564642; // "AVFB"
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_LONG = 2;
+    private static final int TAG_DOUBLE = 3;
+    private static final int TAG_BOOLEAN = 4;
+    private static final int TAG_MAP = 5;
+    private static final int TAG_LIST = 6;
+
+    public static void writeHeader(DataOutput out, long fingerprint) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(fingerprint);
+    }
+
+    /**
+     * Returns true if the input starts with a header for {@code fingerprint}. Returns false for
+     * files written by other model versions, foreign files and empty files.
+     */
+    public static boolean readHeader(DataInput in, long fingerprint) throws IOException {
+        try {
+            return in.readInt() == MAGIC && in.readLong() == fingerprint;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeUnsignedVarLong(out, ((value << 1) ^ (value >> 31)) & 0xffffffffL);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = (int) readUnsignedVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        writeUnsignedVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = readUnsignedVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeUnsignedVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readUnsignedVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static void writeSize(DataOutput out, int size) throws IOException {
+        writeUnsignedVarLong(out, size);
+    }
+
+    public static int readSize(DataInput in) throws IOException {
+        long size = readUnsignedVarLong(in);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Malformed size: " + size);
+        }
+        return (int) size;
+    }
+
+    public static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeSize(out, bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readSize(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes a plain value tree, as returned by a type adapter whose output isn't a primitive or
+     * a {@code String}. Numbers other than {@code Double} and {@code Float} are written as longs.
+     */
+    public static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            out.writeByte(TAG_LONG);
+            writeVarLong(out, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TAG_MAP);
+            writeSize(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TAG_LIST);
+            writeSize(out, list.size());
+            for (Object item : list) {
+                writeValue(out, item);
+            }
+        } else {
+            throw new IllegalArgumentException("Can't encode " + value.getClass().getName());
+        }
+    }
+
+    public static Object readValue(DataInput in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_LONG:
+                return readVarLong(in);
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_MAP:
+                int mapSize = readSize(in);
+                Map<String, Object> map = new HashMap<>((int) (mapSize / 0.75f) + 1);
+                for (int i = 0; i < mapSize; i++) {
+                    map.put(readString(in), readValue(in));
+                }
+                return map;
+            case TAG_LIST:
+                int listSize = readSize(in);
+                List<Object> list = new ArrayList<>(listSize);
+                for (int i = 0; i < listSize; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            default:
+                throw new IOException("Unknown value tag: " + tag);
+        }
+    }
+
+    private BinaryCodec() {
+    }
+}
@@ -0,0 +1,14 @@
+package me.mattlogan.auto.value.firebase.json;
+
+import java.io.IOException;
+
+/**
+ * Thrown when JSON is malformed or doesn't match the shape of the type being read.
+ */
+public final class JsonDataException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public JsonDataException(String message) {
+        super(message);
+    }
+}
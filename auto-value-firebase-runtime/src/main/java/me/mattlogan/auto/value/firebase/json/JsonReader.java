@@ -0,0 +1,544 @@
+package me.mattlogan.auto.value.firebase.json;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pull parser for JSON documents such as Firebase exports and REST responses.
+ *
+ * <p>Generated {@code readJson(JsonReader)} methods use it to decode a document straight into
+ * {@code AutoValue} instances, one token at a time, without building an intermediate tree of maps.
+ * {@link #skipValue()} skips unknown members without allocating them.
+ *
+ * <p>Instances aren't thread safe.
+ */
+public final class JsonReader implements Closeable {
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[1024];
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[32];
+    private int stackSize = 1;
+
+    private JsonToken peeked;
+    private boolean peekedBoolean;
+
+    // Reused for string and number literals that don't fit in a single buffer read
+    private final StringBuilder builder = new StringBuilder();
+
+    public JsonReader(Reader in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public JsonToken peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int scope = stack[stackSize - 1];
+        if (scope == EMPTY_ARRAY || scope == NONEMPTY_ARRAY) {
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+            int c = nextNonWhitespace(false);
+            if (c == ']') {
+                return peeked = JsonToken.END_ARRAY;
+            } else if (scope == NONEMPTY_ARRAY) {
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+            } else {
+                pos--;
+            }
+
+        } else if (scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT) {
+            stack[stackSize - 1] = DANGLING_NAME;
+            int c = nextNonWhitespace(false);
+            if (c == '}') {
+                return peeked = JsonToken.END_OBJECT;
+            } else if (scope == NONEMPTY_OBJECT) {
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+                c = nextNonWhitespace(false);
+            }
+            if (c != '"') {
+                throw syntaxError("Expected a name");
+            }
+            return peeked = JsonToken.NAME;
+
+        } else if (scope == DANGLING_NAME) {
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            if (nextNonWhitespace(false) != ':') {
+                throw syntaxError("Expected ':'");
+            }
+
+        } else if (scope == EMPTY_DOCUMENT) {
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+
+        } else if (scope == NONEMPTY_DOCUMENT) {
+            if (nextNonWhitespace(true) == -1) {
+                return peeked = JsonToken.END_DOCUMENT;
+            }
+            throw syntaxError("Expected a single top-level value");
+        }
+
+        int c = nextNonWhitespace(false);
+        switch (c) {
+            case '{':
+                return peeked = JsonToken.BEGIN_OBJECT;
+            case '[':
+                return peeked = JsonToken.BEGIN_ARRAY;
+            case '"':
+                return peeked = JsonToken.STRING;
+            case 't':
+                expectLiteral("rue");
+                peekedBoolean = true;
+                return peeked = JsonToken.BOOLEAN;
+            case 'f':
+                expectLiteral("alse");
+                peekedBoolean = false;
+                return peeked = JsonToken.BOOLEAN;
+            case 'n':
+                expectLiteral("ull");
+                return peeked = JsonToken.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return peeked = JsonToken.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT
+            && token != JsonToken.END_ARRAY
+            && token != JsonToken.END_DOCUMENT;
+    }
+
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+        peeked = null;
+    }
+
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        stackSize--;
+        peeked = null;
+    }
+
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+        peeked = null;
+    }
+
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        stackSize--;
+        peeked = null;
+    }
+
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        peeked = null;
+        return readString();
+    }
+
+    public String nextString() throws IOException {
+        expect(JsonToken.STRING);
+        peeked = null;
+        return readString();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        peeked = null;
+        return peekedBoolean;
+    }
+
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        peeked = null;
+    }
+
+    /**
+     * Consumes the next value and returns true if it is null, otherwise leaves it in place and
+     * returns false.
+     */
+    public boolean skipNull() throws IOException {
+        if (peek() == JsonToken.NULL) {
+            peeked = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next number as a long. Fractions are truncated, like {@link Number#longValue()}.
+     */
+    public long nextLong() throws IOException {
+        expect(JsonToken.NUMBER);
+        peeked = null;
+        readNumber();
+        if (numberFitsInLong()) {
+            return parseLong();
+        }
+        return (long) Double.parseDouble(builder.toString());
+    }
+
+    public int nextInt() throws IOException {
+        return (int) nextLong();
+    }
+
+    public double nextDouble() throws IOException {
+        expect(JsonToken.NUMBER);
+        peeked = null;
+        readNumber();
+        if (numberFitsInLong()) {
+            return parseLong();
+        }
+        return Double.parseDouble(builder.toString());
+    }
+
+    /**
+     * Skips the next value, including any nested arrays and objects, without allocating it.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    peeked = null;
+                    skipString();
+                    break;
+                case NUMBER:
+                    peeked = null;
+                    readNumber();
+                    break;
+                case BOOLEAN:
+                case NULL:
+                    peeked = null;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Expected a value");
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Reads the next value as the plain tree {@code DataSnapshot.getValue()} would return: maps,
+     * lists, strings, booleans, and numbers as {@code Long} or {@code Double}.
+     */
+    public Object readValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                Map<String, Object> map = new HashMap<>();
+                beginObject();
+                while (hasNext()) {
+                    map.put(nextName(), readValue());
+                }
+                endObject();
+                return map;
+            case BEGIN_ARRAY:
+                List<Object> list = new ArrayList<>();
+                beginArray();
+                while (hasNext()) {
+                    list.add(readValue());
+                }
+                endArray();
+                return list;
+            case STRING:
+                return nextString();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            case NUMBER:
+                peeked = null;
+                readNumber();
+                if (numberFitsInLong()) {
+                    return parseLong();
+                }
+                return Double.parseDouble(builder.toString());
+            default:
+                throw syntaxError("Expected a value but was " + peek());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        stackSize = 1;
+        stack[0] = NONEMPTY_DOCUMENT;
+        in.close();
+    }
+
+    private void expect(JsonToken token) throws IOException {
+        JsonToken actual = peek();
+        if (actual != token) {
+            throw syntaxError("Expected " + token + " but was " + actual);
+        }
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    private int nextChar() throws IOException {
+        if (pos == limit && !fillBuffer()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace(boolean endOfInputAllowed) throws IOException {
+        while (true) {
+            int c = nextChar();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                continue;
+            }
+            if (c == -1 && !endOfInputAllowed) {
+                throw new EOFException("End of input");
+            }
+            return c;
+        }
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (nextChar() != rest.charAt(i)) {
+                throw syntaxError("Expected a literal value");
+            }
+        }
+    }
+
+    // Reads the rest of a string whose opening quote has been consumed
+    private String readString() throws IOException {
+        builder.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    if (builder.length() == 0) {
+                        return new String(buffer, start, pos - start - 1);
+                    }
+                    builder.append(buffer, start, pos - start - 1);
+                    return builder.toString();
+                } else if (c == '\\') {
+                    builder.append(buffer, start, pos - start - 1);
+                    builder.append(readEscapeCharacter());
+                    start = pos;
+                }
+            }
+            builder.append(buffer, start, pos - start);
+            if (!fillBuffer()) {
+                throw new EOFException("Unterminated string");
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = nextChar();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscapeCharacter();
+            } else if (c == -1) {
+                throw new EOFException("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscapeCharacter() throws IOException {
+        int c = nextChar();
+        switch (c) {
+            case 'u':
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    int h = nextChar();
+                    result <<= 4;
+                    if (h >= '0' && h <= '9') {
+                        result += h - '0';
+                    } else if (h >= 'a' && h <= 'f') {
+                        result += h - 'a' + 10;
+                    } else if (h >= 'A' && h <= 'F') {
+                        result += h - 'A' + 10;
+                    } else {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                }
+                return (char) result;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private static boolean isNumberCharacter(int c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private void readNumber() throws IOException {
+        builder.setLength(0);
+        int c;
+        while (isNumberCharacter(c = nextChar())) {
+            builder.append((char) c);
+        }
+        if (c != -1) {
+            pos--;
+        }
+        checkNumber();
+    }
+
+    // -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?, so nothing else reaches Double.parseDouble
+    private void checkNumber() throws JsonDataException {
+        int length = builder.length();
+        int i = 0;
+        if (i < length && builder.charAt(i) == '-') {
+            i++;
+        }
+        if (i < length && builder.charAt(i) == '0') {
+            i++;
+        } else {
+            i = digits(i);
+        }
+        if (i < length && builder.charAt(i) == '.') {
+            i = digits(i + 1);
+        }
+        if (i < length && (builder.charAt(i) == 'e' || builder.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (builder.charAt(i) == '+' || builder.charAt(i) == '-')) {
+                i++;
+            }
+            i = digits(i);
+        }
+        if (i != length) {
+            throw syntaxError("Malformed number " + builder);
+        }
+    }
+
+    // Returns the index after a run of at least one digit starting at start
+    private int digits(int start) throws JsonDataException {
+        int i = start;
+        while (i < builder.length() && builder.charAt(i) >= '0' && builder.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == start) {
+            throw syntaxError("Malformed number " + builder);
+        }
+        return i;
+    }
+
+    // True for plain integers from Long.MIN_VALUE to Long.MAX_VALUE
+    private boolean numberFitsInLong() {
+        int start = builder.length() > 0 && builder.charAt(0) == '-' ? 1 : 0;
+        int length = builder.length() - start;
+        if (length == 0 || length > 19) {
+            return false;
+        }
+        for (int i = start; i < builder.length(); i++) {
+            char c = builder.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        if (length < 19) {
+            return true;
+        }
+        // 19 digits only fit up to the limit, which is compared digit by digit
+        String limit = start == 1 ? "9223372036854775808" : "9223372036854775807";
+        for (int i = 0; i < 19; i++) {
+            char c = builder.charAt(start + i);
+            if (c != limit.charAt(i)) {
+                return c < limit.charAt(i);
+            }
+        }
+        return true;
+    }
+
+    // Accumulates negatively, since Long.MIN_VALUE has no positive counterpart
+    private long parseLong() {
+        boolean negative = builder.charAt(0) == '-';
+        long value = 0;
+        for (int i = negative ? 1 : 0; i < builder.length(); i++) {
+            value = value * 10 - (builder.charAt(i) - '0');
+        }
+        return negative ? value : -value;
+    }
+
+    private JsonDataException syntaxError(String message) {
+        return new JsonDataException(message);
+    }
+}
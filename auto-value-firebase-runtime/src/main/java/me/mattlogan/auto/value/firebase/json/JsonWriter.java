@@ -0,0 +1,398 @@
+package me.mattlogan.auto.value.firebase.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes a JSON document one token at a time.
+ *
+ * <p>Generated {@code writeJson(AutoValue, JsonWriter)} methods use it to encode straight from
+ * the {@code AutoValue} accessors, without building a {@code Map} or {@code FirebaseValue} first.
+ * Output is buffered. The {@link OutputStream} constructor encodes UTF-8 itself, so bulk exports
+ * don't need an {@code OutputStreamWriter} or a {@code BufferedWriter}.
+ *
+ * <p>Instances aren't thread safe.
+ */
+public final class JsonWriter implements Closeable, Flushable {
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Exactly one of these is set
+    private final Writer writer;
+    private final OutputStream stream;
+
+    private final char[] chars;
+    private final byte[] bytes;
+    private int count;
+
+    private final char[] digits = new char[20];
+
+    private int[] stack = new int[32];
+    private int stackSize = 1;
+
+    public JsonWriter(Writer out) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+        this.writer = out;
+        this.stream = null;
+        this.chars = new char[1024];
+        this.bytes = null;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Writes UTF-8 encoded JSON to {@code out}.
+     */
+    public JsonWriter(OutputStream out) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+        this.writer = null;
+        this.stream = out;
+        this.chars = null;
+        this.bytes = new byte[8192];
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        writeAscii('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        writeAscii('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        int scope = stack[stackSize - 1];
+        if (scope == NONEMPTY_OBJECT) {
+            writeAscii(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw new IllegalStateException("Names are only allowed inside objects");
+        }
+        stack[stackSize - 1] = DANGLING_NAME;
+        writeString(name);
+        writeAscii(':');
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        writeAscii("null");
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter value(Boolean value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        return value(value.booleanValue());
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes a finite number. Whole numbers are written without a fraction, like Firebase does.
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            writeLong((long) value);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+        return this;
+    }
+
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof Double || value instanceof Float) {
+            return value(value.doubleValue());
+        } else if (value instanceof Long || value instanceof Integer
+            || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+        beforeValue();
+        writeAscii(value.toString());
+        return this;
+    }
+
+    /**
+     * Writes a plain value tree: maps, collections, strings, numbers, booleans and characters, as
+     * returned by {@code toMap()} or a type adapter.
+     */
+    public JsonWriter value(Object value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Number) {
+            return value((Number) value);
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Character) {
+            return value(value.toString());
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof Collection) {
+            beginArray();
+            for (Object item : (Collection<?>) value) {
+                value(item);
+            }
+            return endArray();
+        }
+        throw new IllegalArgumentException("Can't write " + value.getClass().getName() + " as JSON");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.flush();
+        } else {
+            stream.flush();
+        }
+    }
+
+    /**
+     * Flushes and closes the underlying output.
+     *
+     * @throws IOException if the document is incomplete
+     */
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.close();
+        } else {
+            stream.close();
+        }
+        if (stackSize > 1 || stack[0] != NONEMPTY_DOCUMENT) {
+            throw new JsonDataException("Incomplete document");
+        }
+    }
+
+    private JsonWriter close(int emptyScope, int nonemptyScope, char bracket) throws IOException {
+        int scope = stack[stackSize - 1];
+        if (scope != emptyScope && scope != nonemptyScope) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        stackSize--;
+        writeAscii(bracket);
+        return this;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private void beforeValue() throws IOException {
+        switch (stack[stackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                writeAscii(',');
+                break;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("JSON must have only one top-level value");
+            default:
+                throw new IllegalStateException("Expected a name");
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (writer != null) {
+            writer.write(chars, 0, count);
+        } else {
+            stream.write(bytes, 0, count);
+        }
+        count = 0;
+    }
+
+    private void writeAscii(char c) throws IOException {
+        if (writer != null) {
+            if (count == chars.length) {
+                flushBuffer();
+            }
+            chars[count++] = c;
+        } else {
+            if (count == bytes.length) {
+                flushBuffer();
+            }
+            bytes[count++] = (byte) c;
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeAscii(s.charAt(i));
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            writeAscii('-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start; i < digits.length; i++) {
+            writeAscii(digits[i]);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        writeAscii('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeAscii('\\');
+                writeAscii(c);
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                writeEscaped(c);
+            } else if (c < 0x80) {
+                writeAscii(c);
+            } else if (writer != null) {
+                if (count == chars.length) {
+                    flushBuffer();
+                }
+                chars[count++] = c;
+            } else {
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    writeUtf8(Character.toCodePoint(c, value.charAt(++i)));
+                } else if (Character.isSurrogate(c)) {
+                    writeAscii('?');
+                } else {
+                    writeUtf8(c);
+                }
+            }
+        }
+        writeAscii('"');
+    }
+
+    private void writeEscaped(char c) throws IOException {
+        writeAscii('\\');
+        switch (c) {
+            case '\n':
+                writeAscii('n');
+                break;
+            case '\r':
+                writeAscii('r');
+                break;
+            case '\t':
+                writeAscii('t');
+                break;
+            case '\b':
+                writeAscii('b');
+                break;
+            case '\f':
+                writeAscii('f');
+                break;
+            default:
+                writeAscii('u');
+                writeAscii(HEX[(c >> 12) & 0xf]);
+                writeAscii(HEX[(c >> 8) & 0xf]);
+                writeAscii(HEX[(c >> 4) & 0xf]);
+                writeAscii(HEX[c & 0xf]);
+        }
+    }
+
+    private void writeUtf8(int codePoint) throws IOException {
+        if (count + 4 > bytes.length) {
+            flushBuffer();
+        }
+        if (codePoint < 0x800) {
+            bytes[count++] = (byte) (0xc0 | (codePoint >> 6));
+            bytes[count++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            bytes[count++] = (byte) (0xe0 | (codePoint >> 12));
+            bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            bytes[count++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+            bytes[count++] = (byte) (0xf0 | (codePoint >> 18));
+            bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            bytes[count++] = (byte) (0x80 | (codePoint & 0x3f));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps a count, an element total and a latency histogram for each type and
+ * {@link FirebaseValueMetrics.Operation}.
+ *
+ * <p>Counters are striped by thread like {@link StringPool}'s, so threads decoding in parallel
+ * rarely write to the same cache line. Latencies are bucketed by power of two, which makes
+ * {@link Stats#percentileNanos(double)} accurate to within a factor of two. Each type costs about
+ * 9 KB.
+ */
+public final class AggregatingMetrics extends FirebaseValueMetrics {
+    private static final int STRIPES = 8;
+    // Bucket b counts durations below 2^b nanoseconds, and the last one everything longer
+    private static final int BUCKETS = 40;
+    private static final int COUNT = 0;
+    private static final int ELEMENTS = 1;
+    private static final int NANOS = 2;
+    private static final int HISTOGRAM = 3;
+    private static final int OPERATION_SIZE = HISTOGRAM + BUCKETS;
+    private static final Operation[] OPERATIONS = Operation.values();
+    // Each stripe's counters are contiguous, with a cache line of padding after them
+    private static final int STRIPE_SIZE = OPERATIONS.length * OPERATION_SIZE + 8;
+
+    private final ConcurrentMap<Class<?>, AtomicLongArray> types = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(Class<?> type, Operation operation, int elements, long nanos) {
+        AtomicLongArray counters = types.get(type);
+        if (counters == null) {
+            AtomicLongArray created = new AtomicLongArray(STRIPES * STRIPE_SIZE);
+            counters = types.putIfAbsent(type, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        int offset = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SIZE
+            + operation.ordinal() * OPERATION_SIZE;
+        counters.incrementAndGet(offset + COUNT);
+        counters.addAndGet(offset + ELEMENTS, elements);
+        counters.addAndGet(offset + NANOS, nanos);
+        counters.incrementAndGet(offset + HISTOGRAM + bucket(nanos));
+    }
+
+    /**
+     * The types that have reported at least once.
+     */
+    public Set<Class<?>> types() {
+        return Collections.unmodifiableSet(types.keySet());
+    }
+
+    /**
+     * Sums the stripes for one type and operation. Conversions still in progress may or may not be
+     * included.
+     */
+    public Stats stats(Class<?> type, Operation operation) {
+        long[] totals = new long[OPERATION_SIZE];
+        AtomicLongArray counters = types.get(type);
+        if (counters != null) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                int offset = stripe * STRIPE_SIZE + operation.ordinal() * OPERATION_SIZE;
+                for (int i = 0; i < OPERATION_SIZE; i++) {
+                    totals[i] += counters.get(offset + i);
+                }
+            }
+        }
+        return new Stats(totals);
+    }
+
+    public void reset() {
+        types.clear();
+    }
+
+    static int bucket(long nanos) {
+        return Math.min(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)), BUCKETS - 1);
+    }
+
+    public static final class Stats {
+        private final long[] totals;
+
+        Stats(long[] totals) {
+            this.totals = totals;
+        }
+
+        public long count() {
+            return totals[COUNT];
+        }
+
+        /**
+         * The total of the elements reported with each conversion.
+         */
+        public long elements() {
+            return totals[ELEMENTS];
+        }
+
+        public long totalNanos() {
+            return totals[NANOS];
+        }
+
+        public long meanNanos() {
+            return count() == 0 ? 0 : totalNanos() / count();
+        }
+
+        /**
+         * An upper bound on the duration {@code percentile} percent of conversions finished within,
+         * or 0 if there weren't any.
+         */
+        public long percentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile out of range: " + percentile);
+            }
+            long target = (long) Math.ceil(count() * percentile / 100);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += totals[HISTOGRAM + bucket];
+                if (seen > 0 && seen >= target) {
+                    return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands back one shared instance for every group of equal, immutable values.
+ *
+ * <p>Types with {@code @FirebaseValue(canonicalize = true)} get a {@code CANONICALIZER} that their
+ * generated decoders return through. Firebase re-delivers unchanged subtrees with every event, and
+ * their decoded values come back as the instances from the previous event. Callers can then skip
+ * unchanged values with {@code ==}, and AutoValue's {@code equals()} stops at identical children.
+ *
+ * <p>Values are held weakly, so an instance nobody else references can be collected and its entry
+ * is dropped. Lookups hash and compare the value, which for AutoValue types walks every property.
+ * Instances are thread safe.
+ */
+public final class Canonicalizer<T> {
+    private final ConcurrentMap<Key, WeakKey<T>> instances = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the canonical instance equal to {@code value}, making {@code value} canonical if there
+     * isn't one.
+     */
+    public T canonicalize(T value) {
+        if (value == null) {
+            return null;
+        }
+        removeCollected();
+
+        LookupKey lookup = new LookupKey(value);
+        WeakKey<T> existing = instances.get(lookup);
+        T canonical = existing == null ? null : existing.get();
+        if (canonical != null) {
+            hits.incrementAndGet();
+            return canonical;
+        }
+
+        WeakKey<T> key = new WeakKey<>(value, lookup.hash, collected);
+        while (true) {
+            existing = instances.putIfAbsent(key, key);
+            if (existing == null) {
+                misses.incrementAndGet();
+                return value;
+            }
+            canonical = existing.get();
+            if (canonical != null) {
+                hits.incrementAndGet();
+                return canonical;
+            }
+            // Collected, but not dequeued yet
+            instances.remove(existing, existing);
+        }
+    }
+
+    /**
+     * The number of values replaced by an equal, canonical instance.
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The number of values that became canonical.
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * The number of canonical instances that haven't been collected yet.
+     */
+    public int size() {
+        removeCollected();
+        return instances.size();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private void removeCollected() {
+        for (Reference<?> reference; (reference = collected.poll()) != null; ) {
+            instances.remove(reference, reference);
+        }
+    }
+
+    private interface Key {
+        Object get();
+    }
+
+    // Compares equal to a WeakKey holding an equal value, so lookups don't create a WeakReference
+    private static final class LookupKey implements Key {
+        private final Object value;
+        private final int hash;
+
+        LookupKey(Object value) {
+            this.value = value;
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        public Object get() {
+            return value;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Object other = ((Key) o).get();
+            return other != null && value.equals(other);
+        }
+    }
+
+    private static final class WeakKey<T> extends WeakReference<T> implements Key {
+        // Kept so the entry can still be found and removed after its value is collected
+        private final int hash;
+
+        WeakKey(T value, int hash, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Object value = get();
+            Object other = ((Key) o).get();
+            return value != null && other != null && value.equals(other);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the properties of a {@code @FirebaseValue} type, so generic code can walk its values
+ * without reflection.
+ *
+ * <p>When this class is on the classpath, each generated {@code AutoValue} class has a
+ * {@code SCHEMA} built from constant arrays, with switches over the accessors for
+ * {@link #get(Object, int)} and {@link #get(Object, String)}. Look one up with {@link FirebaseSchemas#of(Class)}. Schemas are
+ * immutable and thread safe.
+ */
+public abstract class FirebaseSchema<T> {
+    private final Class<T> type;
+    private final List<Property> properties;
+
+    public enum Kind {
+        /**
+         * Primitives, boxed primitives and Strings
+         */
+        PRIMITIVE,
+        /**
+         * {@code long[]}, {@code int[]}, {@code double[]}, {@code float[]} and {@code boolean[]},
+         * stored as lists
+         */
+        ARRAY,
+        /**
+         * A List of primitives or of another {@code @FirebaseValue} type
+         */
+        LIST,
+        /**
+         * A Map of primitives or of another {@code @FirebaseValue} type
+         */
+        MAP,
+        /**
+         * Another {@code @FirebaseValue} type
+         */
+        NESTED,
+        /**
+         * Converted by a {@code @FirebaseAdapter}, whatever the declared type
+         */
+        ADAPTED
+    }
+
+    /**
+     * Used by generated code. The arrays hold one entry per property, in declaration order, and a
+     * {@code null} Firebase key marks an {@code @Exclude}d property.
+     */
+    protected FirebaseSchema(Class<T> type, String[] names, String[] firebaseKeys, Kind[] kinds) {
+        if (firebaseKeys.length != names.length || kinds.length != names.length) {
+            throw new IllegalArgumentException("Expected " + names.length + " Firebase keys and kinds");
+        }
+        Property[] properties = new Property[names.length];
+        for (int i = 0; i < names.length; i++) {
+            properties[i] = new Property(i, names[i], firebaseKeys[i], kinds[i]);
+        }
+        this.type = type;
+        this.properties = Collections.unmodifiableList(Arrays.asList(properties));
+    }
+
+    /**
+     * The {@code @AutoValue} class.
+     */
+    public final Class<T> type() {
+        return type;
+    }
+
+    /**
+     * Every property, including excluded ones, in declaration order. A property's position is its
+     * {@link Property#index()}.
+     */
+    public final List<Property> properties() {
+        return properties;
+    }
+
+    /**
+     * Returns the value of the property at {@code index}, as its accessor returns it. Primitives are
+     * boxed, and adapted properties aren't converted.
+     *
+     * @throws IndexOutOfBoundsException if there's no property at {@code index}
+     */
+    public abstract Object get(T value, int index);
+
+    /**
+     * Returns the value Firebase stores under {@code firebaseKey}, or {@code null} if there's no such
+     * key or it's {@code null}. Values are converted like the generated {@code toMap} converts them:
+     * adapted properties by their type adapter, nested values into maps, and arrays and collections
+     * of nested values into lists and maps. Primitives, strings and their collections are returned
+     * as their accessors return them. Dispatches on the key's hash, so it costs the same for every
+     * property.
+     */
+    public abstract Object get(T value, String firebaseKey);
+
+    @Override
+    public String toString() {
+        return "FirebaseSchema(" + type.getName() + ")";
+    }
+
+    public static final class Property {
+        private final int index;
+        private final String name;
+        private final String firebaseKey;
+        private final Kind kind;
+
+        Property(int index, String name, String firebaseKey, Kind kind) {
+            this.index = index;
+            this.name = name;
+            this.firebaseKey = firebaseKey;
+            this.kind = kind;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * The accessor's name.
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * The key Firebase stores the property under, after {@code @PropertyName}, or {@code null}
+         * when it's {@code @Exclude}d.
+         */
+        public String firebaseKey() {
+            return firebaseKey;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        public boolean excluded() {
+            return firebaseKey == null;
+        }
+
+        @Override
+        public String toString() {
+            return name + (excluded() ? "" : " (" + firebaseKey + ")") + ": " + kind;
+        }
+    }
+}
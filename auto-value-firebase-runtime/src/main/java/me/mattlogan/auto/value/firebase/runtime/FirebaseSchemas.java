@@ -0,0 +1,56 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds the generated {@link FirebaseSchema} of a {@code @FirebaseValue} type.
+ *
+ * <p>Each generated {@code AutoValue} class registers its schema when it's initialized. For a type
+ * that hasn't been used yet, {@link #of(Class)} loads its {@code AutoValue_} class by name, which
+ * takes no reflection. Code shrinkers that rename classes need to keep those names.
+ */
+public final class FirebaseSchemas {
+    private static final ConcurrentMap<Class<?>, FirebaseSchema<?>> SCHEMAS = new ConcurrentHashMap<>();
+
+    /**
+     * Used by generated code.
+     */
+    public static <T> FirebaseSchema<T> register(FirebaseSchema<T> schema) {
+        SCHEMAS.put(schema.type(), schema);
+        return schema;
+    }
+
+    /**
+     * Returns the schema of {@code type}, an {@code @AutoValue @FirebaseValue} class.
+     *
+     * @throws IllegalArgumentException if {@code type} wasn't generated with a schema
+     */
+    public static <T> FirebaseSchema<T> of(Class<T> type) {
+        FirebaseSchema<?> schema = SCHEMAS.get(type);
+        if (schema == null) {
+            try {
+                Class.forName(generatedClassName(type), true, type.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException(type.getName() + " has no generated AutoValue class", e);
+            }
+            schema = SCHEMAS.get(type);
+            if (schema == null) {
+                throw new IllegalArgumentException(type.getName() + " has no generated FirebaseSchema");
+            }
+        }
+        @SuppressWarnings("unchecked")
+        FirebaseSchema<T> typed = (FirebaseSchema<T>) schema;
+        return typed;
+    }
+
+    // AutoValue names the class it generates for Outer.Taco AutoValue_Outer_Taco, in the same package
+    static String generatedClassName(Class<?> type) {
+        String name = type.getName();
+        int packageEnd = name.lastIndexOf('.') + 1;
+        return name.substring(0, packageEnd) + "AutoValue_" + name.substring(packageEnd).replace('$', '_');
+    }
+
+    private FirebaseSchemas() {
+    }
+}
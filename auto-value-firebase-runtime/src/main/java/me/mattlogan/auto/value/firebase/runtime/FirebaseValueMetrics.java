@@ -0,0 +1,65 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+/**
+ * Receives the cost of every {@code FirebaseValue} conversion.
+ *
+ * <p>When this class is on the classpath, generated {@code FirebaseValue(AutoValue)} constructors,
+ * {@code toAutoValue()} and {@code toMap()} methods, and the static {@code toMap(autoValue)} and
+ * {@code fromMap(map)} methods, report to the {@link #registered()} instance.
+ * With nothing registered, each call costs one volatile read. Register an instance once at startup,
+ * for example {@link AggregatingMetrics}.
+ *
+ * <p>Nested values report their own conversions, so a type's time includes the time of the values
+ * it holds.
+ */
+public abstract class FirebaseValueMetrics {
+    private static volatile FirebaseValueMetrics registered;
+
+    public enum Operation {
+        /**
+         * {@code new FirebaseValue(autoValue)}
+         */
+        FIREBASE_VALUE,
+        /**
+         * {@code firebaseValue.toAutoValue()}
+         */
+        TO_AUTO_VALUE,
+        /**
+         * {@code firebaseValue.toMap()}
+         */
+        TO_MAP,
+        /**
+         * {@code AutoValue_Type.toMap(autoValue)}
+         */
+        STATIC_TO_MAP,
+        /**
+         * {@code AutoValue_Type.fromMap(map)}, and {@code fromValue(value)} through it
+         */
+        FROM_MAP
+    }
+
+    /**
+     * Sends every conversion to {@code metrics}, replacing any registered instance. {@code null}
+     * turns reporting off.
+     */
+    public static void register(FirebaseValueMetrics metrics) {
+        registered = metrics;
+    }
+
+    /**
+     * Used by generated code.
+     */
+    public static FirebaseValueMetrics registered() {
+        return registered;
+    }
+
+    /**
+     * Called on the converting thread after each conversion, so implementations must be thread safe
+     * and fast.
+     *
+     * @param type the {@code @AutoValue} class
+     * @param elements the number of list items and map entries held directly by the value
+     * @param nanos the duration from {@link System#nanoTime()}
+     */
+    public abstract void record(Class<?> type, Operation operation, int elements, long nanos);
+}
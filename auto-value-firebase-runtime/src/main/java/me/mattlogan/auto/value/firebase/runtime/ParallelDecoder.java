@@ -0,0 +1,153 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decodes large collections of raw children, such as the value of a listing query, across a
+ * {@link ForkJoinPool}.
+ *
+ * <p>Collections smaller than the threshold are decoded on the calling thread. Larger ones are
+ * split into ranges that are decoded in parallel. Results are always returned in input order.
+ *
+ * <pre>{@code
+ * ParallelDecoder<Taco> decoder = new ParallelDecoder<>(Taco.DECODER);
+ * Map<String, Taco> tacos = decoder.decodeMap((Map<String, Object>) snapshot.getValue());
+ * }</pre>
+ */
+public final class ParallelDecoder<T> {
+    /**
+     * Below this many children, splitting the work costs more than it saves.
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    // Each worker gets several ranges so a slow range doesn't leave the others idle
+    private static final int RANGES_PER_THREAD = 4;
+
+    private final ValueDecoder<T> decoder;
+    private final int threshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * Uses {@link #DEFAULT_THRESHOLD} and a pool shared by every decoder, sized to the number of
+     * available processors.
+     */
+    public ParallelDecoder(ValueDecoder<T> decoder) {
+        this(decoder, DEFAULT_THRESHOLD, SharedPool.INSTANCE);
+    }
+
+    public ParallelDecoder(ValueDecoder<T> decoder, int threshold, ForkJoinPool pool) {
+        if (decoder == null) {
+            throw new NullPointerException("decoder == null");
+        }
+        if (pool == null) {
+            throw new NullPointerException("pool == null");
+        }
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold < 1: " + threshold);
+        }
+        this.decoder = decoder;
+        this.threshold = threshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns a fixed-size list of the decoded values, in iteration order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> decodeList(Iterable<?> values) {
+        Object[] array;
+        if (values instanceof Collection) {
+            // toArray() can return a narrower array type, which couldn't hold the decoded values
+            Collection<?> collection = (Collection<?>) values;
+            array = collection.toArray(new Object[collection.size()]);
+        } else {
+            int size = 0;
+            for (Object ignored : values) {
+                size++;
+            }
+            array = new Object[size];
+            int i = 0;
+            for (Object value : values) {
+                array[i++] = value;
+            }
+        }
+        decodeInPlace(array);
+        return (List<T>) Arrays.asList(array);
+    }
+
+    /**
+     * Returns the decoded values under their original keys, in the map's iteration order.
+     */
+    @SuppressWarnings("unchecked")
+    public LinkedHashMap<String, T> decodeMap(Map<String, ?> values) {
+        int size = values.size();
+        String[] keys = new String[size];
+        Object[] array = new Object[size];
+        int i = 0;
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            keys[i] = entry.getKey();
+            array[i] = entry.getValue();
+            i++;
+        }
+        decodeInPlace(array);
+
+        LinkedHashMap<String, T> decoded = new LinkedHashMap<>((int) (size / 0.75f) + 1);
+        for (i = 0; i < size; i++) {
+            decoded.put(keys[i], (T) array[i]);
+        }
+        return decoded;
+    }
+
+    private void decodeInPlace(Object[] array) {
+        if (array.length < threshold || pool.getParallelism() == 1) {
+            decodeRange(array, 0, array.length);
+            return;
+        }
+        int leafSize = Math.max(1, array.length / (pool.getParallelism() * RANGES_PER_THREAD));
+        pool.invoke(new DecodeTask(array, 0, array.length, leafSize));
+    }
+
+    private void decodeRange(Object[] array, int from, int to) {
+        for (int i = from; i < to; i++) {
+            array[i] = decoder.decode(array[i]);
+        }
+    }
+
+    private final class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] array;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        DecodeTask(Object[] array, int from, int to, int leafSize) {
+            this.array = array;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                decodeRange(array, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new DecodeTask(array, from, middle, leafSize),
+                new DecodeTask(array, middle, to, leafSize));
+        }
+    }
+
+    // Created on first use, so decoders that are given a pool never start one
+    private static final class SharedPool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+}
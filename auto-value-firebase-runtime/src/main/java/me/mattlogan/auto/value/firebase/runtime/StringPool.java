@@ -0,0 +1,155 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free pool that lets repeated strings share one instance.
+ *
+ * <p>Generated decoders route {@code @Intern} properties through {@link #SHARED}. The pool is a
+ * direct-mapped cache: each string hashes to one slot, and a string that collides with a different
+ * one replaces it. Memory use is fixed, and strings that stop repeating are eventually evicted.
+ * Unlike {@link String#intern()}, nothing is kept alive by the JVM.
+ *
+ * <p>{@link #hitCount()} and {@link #dedupedChars()} show how much the pool saves. Each hit drops a
+ * duplicate {@code String}, roughly 40 bytes of overhead plus its characters.
+ */
+public final class StringPool {
+    /**
+     * Used by generated code.
+     */
+    public static final StringPool SHARED = new StringPool(8192);
+
+    // Counters are striped by thread, with each stripe on its own cache line, so parallel decoders
+    // don't contend on them
+    private static final int STRIPES = 16;
+    private static final int PADDING = 8;
+    private static final int HITS = 0;
+    private static final int MISSES = 1;
+    private static final int DEDUPED_CHARS = 2;
+
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    private final AtomicLongArray counters = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    public StringPool(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        int slotCount = Integer.highestOneBit(capacity);
+        if (slotCount < capacity) {
+            slotCount <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+    }
+
+    /**
+     * Returns the pooled instance equal to {@code value}, adding {@code value} if there isn't one.
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        int hash = value.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String pooled = slots.get(slot);
+        int stripe = stripe();
+        if (pooled != null && pooled.equals(value)) {
+            if (pooled != value) {
+                counters.incrementAndGet(stripe + HITS);
+                counters.addAndGet(stripe + DEDUPED_CHARS, value.length());
+            }
+            return pooled;
+        }
+        counters.incrementAndGet(stripe + MISSES);
+        slots.lazySet(slot, value);
+        return value;
+    }
+
+    /**
+     * Interns every element of {@code values} in place, or in a copy if the list can't be modified.
+     */
+    public List<String> internAll(List<String> values) {
+        if (values == null) {
+            return null;
+        }
+        try {
+            for (ListIterator<String> iterator = values.listIterator(); iterator.hasNext(); ) {
+                String value = iterator.next();
+                String pooled = intern(value);
+                if (pooled != value) {
+                    iterator.set(pooled);
+                }
+            }
+            return values;
+        } catch (UnsupportedOperationException e) {
+            List<String> copy = new ArrayList<>(values.size());
+            for (String value : values) {
+                copy.add(intern(value));
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Returns a copy of {@code values} with interned keys. Keys can't be replaced in place.
+     */
+    public <V> Map<String, V> internKeys(Map<String, V> values) {
+        if (values == null) {
+            return null;
+        }
+        Map<String, V> interned = new HashMap<>((int) (values.size() / 0.75f) + 1);
+        for (Map.Entry<String, V> entry : values.entrySet()) {
+            interned.put(intern(entry.getKey()), entry.getValue());
+        }
+        return interned;
+    }
+
+    /**
+     * The number of strings replaced by an equal, pooled instance.
+     */
+    public long hitCount() {
+        return sum(HITS);
+    }
+
+    /**
+     * The number of strings added to the pool, including ones that replaced an earlier string.
+     */
+    public long missCount() {
+        return sum(MISSES);
+    }
+
+    /**
+     * The total length of the strings replaced by pooled instances.
+     */
+    public long dedupedChars() {
+        return sum(DEDUPED_CHARS);
+    }
+
+    public void resetStatistics() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += counters.get(stripe * PADDING + counter);
+        }
+        return sum;
+    }
+
+    private static int stripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+}
@@ -0,0 +1,18 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+/**
+ * Decodes one raw Firebase value, usually by delegating to a generated {@code fromValue(Object)}:
+ *
+ * <pre>{@code
+ * static final ValueDecoder<Taco> DECODER = new ValueDecoder<Taco>() {
+ *     public Taco decode(Object value) {
+ *         return AutoValue_Taco.fromValue(value);
+ *     }
+ * };
+ * }</pre>
+ *
+ * Implementations must be safe to call from several threads at once. Generated decoders are.
+ */
+public interface ValueDecoder<T> {
+    T decode(Object value);
+}
@@ -0,0 +1,98 @@
+package me.mattlogan.auto.value.firebase.binary;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryCodecTest {
+
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  private final DataOutputStream out = new DataOutputStream(bytes);
+
+  private DataInputStream input() {
+    return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  @Test
+  public void varIntRoundTrip() throws IOException {
+    int[] values = {0, 1, -1, 63, -64, 64, 300, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    for (int value : values) {
+      BinaryCodec.writeVarInt(out, value);
+    }
+
+    DataInputStream in = input();
+    for (int value : values) {
+      assertEquals(value, BinaryCodec.readVarInt(in));
+    }
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void smallVarIntsTakeOneByte() throws IOException {
+    BinaryCodec.writeVarInt(out, -64);
+    BinaryCodec.writeVarInt(out, 63);
+
+    assertEquals(2, bytes.size());
+  }
+
+  @Test
+  public void varLongRoundTrip() throws IOException {
+    long[] values = {0, 1, -1, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE};
+    for (long value : values) {
+      BinaryCodec.writeVarLong(out, value);
+    }
+
+    DataInputStream in = input();
+    for (long value : values) {
+      assertEquals(value, BinaryCodec.readVarLong(in));
+    }
+  }
+
+  @Test
+  public void stringRoundTrip() throws IOException {
+    String value = "Al pastor \u00e9\u20ac\ud83c\udf2e";
+    BinaryCodec.writeString(out, value);
+    BinaryCodec.writeString(out, "");
+
+    DataInputStream in = input();
+    assertEquals(value, BinaryCodec.readString(in));
+    assertEquals("", BinaryCodec.readString(in));
+  }
+
+  @Test
+  public void valueTreeRoundTrip() throws IOException {
+    Map<String, Object> map = new HashMap<>();
+    map.put("list", Arrays.asList("a", 2L, 2.5, true, null));
+    map.put("int", 3);
+    BinaryCodec.writeValue(out, map);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("list", Arrays.asList("a", 2L, 2.5, true, null));
+    expected.put("int", 3L);
+    assertEquals(expected, BinaryCodec.readValue(input()));
+  }
+
+  @Test
+  public void headerMatchesFingerprint() throws IOException {
+    BinaryCodec.writeHeader(out, 42L);
+
+    assertTrue(BinaryCodec.readHeader(input(), 42L));
+    assertFalse(BinaryCodec.readHeader(input(), 43L));
+  }
+
+  @Test
+  public void emptyInputHasNoHeader() throws IOException {
+    assertFalse(BinaryCodec.readHeader(input(), 42L));
+  }
+}
@@ -0,0 +1,66 @@
+package me.mattlogan.auto.value.firebase.json;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.ThrowOnExtraProperties;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the JSON methods generated for models compiled with the extension.
+ */
+public class GeneratedJsonTest {
+
+  @AutoValue @FirebaseValue
+  abstract static class Initials {
+    abstract char first();
+
+    abstract Character last();
+  }
+
+  @AutoValue @FirebaseValue @ThrowOnExtraProperties
+  abstract static class Strict {
+    abstract String name();
+  }
+
+  @Test
+  public void charRoundTrip() throws Exception {
+    Initials initials = new AutoValue_GeneratedJsonTest_Initials('A', 'B');
+    StringWriter out = new StringWriter();
+    JsonWriter writer = new JsonWriter(out);
+    AutoValue_GeneratedJsonTest_Initials.writeJson(initials, writer);
+    writer.close();
+
+    assertEquals("{\"first\":\"A\",\"last\":\"B\"}", out.toString());
+    JsonReader reader = new JsonReader(new StringReader(out.toString()));
+    assertEquals(initials, AutoValue_GeneratedJsonTest_Initials.readJson(reader));
+  }
+
+  @Test
+  public void extraPropertiesAreRejected() throws Exception {
+    Map<String, Object> map = new HashMap<>();
+    map.put("name", "Al pastor");
+    assertEquals("Al pastor", AutoValue_GeneratedJsonTest_Strict.fromValue(map).name());
+
+    map.put("bogus", 1L);
+    try {
+      AutoValue_GeneratedJsonTest_Strict.fromValue(map);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      AutoValue_GeneratedJsonTest_Strict.readJson(new JsonReader(new StringReader("{\"name\":\"Al pastor\",\"bogus\":1}")));
+      fail();
+    } catch (JsonDataException expected) {
+    }
+  }
+}
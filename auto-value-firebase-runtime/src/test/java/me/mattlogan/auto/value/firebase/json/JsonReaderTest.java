@@ -0,0 +1,191 @@
+package me.mattlogan.auto.value.firebase.json;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonReaderTest {
+
+  @Test
+  public void readsObject() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader(
+      "{\"name\": \"Al pastor\", \"spiciness\": 3, \"price\": 2.5, \"hot\": true, \"review\": null}"));
+
+    reader.beginObject();
+    assertEquals("name", reader.nextName());
+    assertEquals("Al pastor", reader.nextString());
+    assertEquals("spiciness", reader.nextName());
+    assertEquals(3, reader.nextInt());
+    assertEquals("price", reader.nextName());
+    assertEquals(2.5, reader.nextDouble(), 0);
+    assertEquals("hot", reader.nextName());
+    assertTrue(reader.nextBoolean());
+    assertEquals("review", reader.nextName());
+    assertTrue(reader.skipNull());
+    assertFalse(reader.hasNext());
+    reader.endObject();
+    assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+  }
+
+  @Test
+  public void readsArray() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader("[1, -2, 3e2, 4.9]"));
+
+    reader.beginArray();
+    assertEquals(1L, reader.nextLong());
+    assertEquals(-2L, reader.nextLong());
+    assertEquals(300L, reader.nextLong());
+    assertEquals(4L, reader.nextLong());
+    assertFalse(reader.hasNext());
+    reader.endArray();
+  }
+
+  @Test
+  public void readsLongsExactly() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader(
+      "[9223372036854775807, -9223372036854775808, 1234567890123456789, 9223372036854775808]"));
+
+    reader.beginArray();
+    assertEquals(Long.MAX_VALUE, reader.nextLong());
+    assertEquals(Long.MIN_VALUE, reader.nextLong());
+    assertEquals(1234567890123456789L, reader.nextLong());
+    assertEquals(9223372036854775808d, reader.readValue());
+    reader.endArray();
+  }
+
+  @Test
+  public void readsEscapes() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader("\"a\\\"b\\\\c\\/d\\n\\u00e9\""));
+
+    assertEquals("a\"b\\c/d\n\u00e9", reader.nextString());
+  }
+
+  @Test
+  public void readsStringsAcrossBufferBoundaries() throws Exception {
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      expected.append(i % 10);
+    }
+    JsonReader reader = new JsonReader(new OneCharReader("[\"" + expected + "\", 12345]"));
+
+    reader.beginArray();
+    assertEquals(expected.toString(), reader.nextString());
+    assertEquals(12345, reader.nextInt());
+    reader.endArray();
+  }
+
+  @Test
+  public void skipsValues() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader(
+      "{\"skip\": {\"a\": [1, {\"b\": \"}\"}], \"c\": null}, \"keep\": \"yes\"}"));
+
+    reader.beginObject();
+    assertEquals("skip", reader.nextName());
+    reader.skipValue();
+    assertEquals("keep", reader.nextName());
+    assertEquals("yes", reader.nextString());
+    reader.endObject();
+  }
+
+  @Test
+  public void readsValueTree() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader(
+      "{\"a\": [1, 2.5, \"x\", false, null], \"b\": {\"c\": 12345678901234567890}}"));
+
+    Map<String, Object> b = new HashMap<>();
+    b.put("c", 12345678901234567890d);
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("a", Arrays.asList(1L, 2.5, "x", false, null));
+    expected.put("b", b);
+    assertEquals(expected, reader.readValue());
+  }
+
+  @Test
+  public void wrongToken() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader("{\"a\": 1}"));
+
+    reader.beginObject();
+    reader.nextName();
+    try {
+      reader.nextString();
+      fail();
+    } catch (JsonDataException e) {
+      assertEquals("Expected STRING but was NUMBER", e.getMessage());
+    }
+  }
+
+  @Test
+  public void malformed() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader("{\"a\" 1}"));
+
+    reader.beginObject();
+    reader.nextName();
+    try {
+      reader.peek();
+      fail();
+    } catch (JsonDataException e) {
+      assertEquals("Expected ':'", e.getMessage());
+    }
+  }
+
+  @Test
+  public void malformedNumbers() throws Exception {
+    for (String number : Arrays.asList("-", "1-2", "01", "1.", "1e", "1e+", "--1", "1.2.3")) {
+      try {
+        new JsonReader(new StringReader("[" + number + "]")).readValue();
+        fail(number);
+      } catch (JsonDataException e) {
+        assertEquals("Malformed number " + number, e.getMessage());
+      }
+      JsonReader reader = new JsonReader(new StringReader("[" + number + "]"));
+      reader.beginArray();
+      try {
+        reader.skipValue();
+        fail(number);
+      } catch (JsonDataException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void nullIsNotSkippedWhenPresent() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader("[\"a\"]"));
+
+    reader.beginArray();
+    assertFalse(reader.skipNull());
+    assertEquals("a", reader.nextString());
+  }
+
+  // Returns input one character at a time to exercise buffer refills
+  static final class OneCharReader extends Reader {
+    private final String input;
+    private int pos;
+
+    OneCharReader(String input) {
+      this.input = input;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+      if (pos == input.length()) {
+        return -1;
+      }
+      buffer[offset] = input.charAt(pos++);
+      return 1;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
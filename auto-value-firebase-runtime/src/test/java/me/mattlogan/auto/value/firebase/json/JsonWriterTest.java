@@ -0,0 +1,114 @@
+package me.mattlogan.auto.value.firebase.json;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JsonWriterTest {
+
+  @Test
+  public void writesObject() throws Exception {
+    StringWriter out = new StringWriter();
+    JsonWriter writer = new JsonWriter(out);
+
+    writer.beginObject()
+          .name("name").value("Al pastor")
+          .name("spiciness").value(3)
+          .name("price").value(2.5)
+          .name("whole").value(2.0)
+          .name("hot").value(true)
+          .name("review").nullValue()
+          .name("prices").beginArray().value(1).value(-2L).endArray()
+          .endObject();
+    writer.close();
+
+    assertEquals("{\"name\":\"Al pastor\",\"spiciness\":3,\"price\":2.5,\"whole\":2,"
+      + "\"hot\":true,\"review\":null,\"prices\":[1,-2]}", out.toString());
+  }
+
+  @Test
+  public void writesValueTree() throws Exception {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("a", Arrays.asList(1L, 2.5, "x", false, null));
+    map.put("b", Long.MIN_VALUE);
+    StringWriter out = new StringWriter();
+    JsonWriter writer = new JsonWriter(out);
+
+    writer.value((Object) map);
+    writer.close();
+
+    assertEquals("{\"a\":[1,2.5,\"x\",false,null],\"b\":-9223372036854775808}", out.toString());
+  }
+
+  @Test
+  public void escapesStrings() throws Exception {
+    StringWriter out = new StringWriter();
+    JsonWriter writer = new JsonWriter(out);
+
+    writer.value("a\"b\\c\nd\u0001\u2028");
+    writer.close();
+
+    assertEquals("\"a\\\"b\\\\c\\nd\\u0001\\u2028\"", out.toString());
+  }
+
+  @Test
+  public void encodesUtf8() throws Exception {
+    String value = "\u00e9\u20ac\ud83c\udf2e" + new String(new char[10000]).replace('\0', 'x');
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonWriter writer = new JsonWriter(out);
+
+    writer.beginArray().value(value).endArray();
+    writer.close();
+
+    String json = new String(out.toByteArray(), "UTF-8");
+    JsonReader reader = new JsonReader(new StringReader(json));
+    reader.beginArray();
+    assertEquals(value, reader.nextString());
+  }
+
+  @Test
+  public void rejectsNonFiniteNumbers() throws Exception {
+    JsonWriter writer = new JsonWriter(new StringWriter());
+
+    try {
+      writer.value(Double.NaN);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Numeric values must be finite, but was NaN", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rejectsValueWithoutName() throws Exception {
+    JsonWriter writer = new JsonWriter(new StringWriter());
+
+    writer.beginObject();
+    try {
+      writer.value("a");
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Expected a name", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rejectsIncompleteDocument() throws Exception {
+    JsonWriter writer = new JsonWriter(new StringWriter());
+
+    writer.beginArray();
+    try {
+      writer.close();
+      fail();
+    } catch (JsonDataException e) {
+      assertEquals("Incomplete document", e.getMessage());
+    }
+  }
+}
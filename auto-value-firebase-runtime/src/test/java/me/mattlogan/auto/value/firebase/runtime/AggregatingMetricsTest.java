@@ -0,0 +1,108 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.mattlogan.auto.value.firebase.runtime.FirebaseValueMetrics.Operation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AggregatingMetricsTest {
+
+  private final AggregatingMetrics metrics = new AggregatingMetrics();
+
+  @Test
+  public void recordsPerTypeAndOperation() {
+    metrics.record(String.class, Operation.TO_MAP, 4, 100);
+    metrics.record(String.class, Operation.TO_MAP, 2, 300);
+    metrics.record(String.class, Operation.TO_AUTO_VALUE, 1, 50);
+    metrics.record(Integer.class, Operation.TO_MAP, 0, 10);
+
+    AggregatingMetrics.Stats toMap = metrics.stats(String.class, Operation.TO_MAP);
+    assertEquals(2, toMap.count());
+    assertEquals(6, toMap.elements());
+    assertEquals(400, toMap.totalNanos());
+    assertEquals(200, toMap.meanNanos());
+    assertEquals(1, metrics.stats(String.class, Operation.TO_AUTO_VALUE).count());
+    assertEquals(0, metrics.stats(String.class, Operation.FIREBASE_VALUE).count());
+    assertEquals(1, metrics.stats(Integer.class, Operation.TO_MAP).count());
+    assertEquals(2, metrics.types().size());
+  }
+
+  @Test
+  public void percentilesAreUpperBounds() {
+    for (int i = 0; i < 99; i++) {
+      metrics.record(String.class, Operation.TO_MAP, 0, 1000);
+    }
+    metrics.record(String.class, Operation.TO_MAP, 0, 1000000);
+
+    AggregatingMetrics.Stats stats = metrics.stats(String.class, Operation.TO_MAP);
+    assertEquals(1024, stats.percentileNanos(50));
+    assertEquals(1024, stats.percentileNanos(99));
+    assertEquals(1 << 20, stats.percentileNanos(100));
+  }
+
+  @Test
+  public void unknownTypeIsEmpty() {
+    AggregatingMetrics.Stats stats = metrics.stats(String.class, Operation.TO_MAP);
+    assertEquals(0, stats.count());
+    assertEquals(0, stats.meanNanos());
+    assertEquals(0, stats.percentileNanos(99));
+  }
+
+  @Test
+  public void reset() {
+    metrics.record(String.class, Operation.TO_MAP, 4, 100);
+    metrics.reset();
+    assertEquals(0, metrics.stats(String.class, Operation.TO_MAP).count());
+    assertEquals(Collections.emptySet(), metrics.types());
+  }
+
+  @Test
+  public void concurrentRecordsAreAllCounted() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Void>> results = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override public Void call() {
+            for (int j = 0; j < 10000; j++) {
+              metrics.record(String.class, Operation.FIREBASE_VALUE, 2, 100);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    AggregatingMetrics.Stats stats = metrics.stats(String.class, Operation.FIREBASE_VALUE);
+    assertEquals(160000, stats.count());
+    assertEquals(320000, stats.elements());
+    assertEquals(16000000, stats.totalNanos());
+  }
+
+  @Test
+  public void register() {
+    try {
+      FirebaseValueMetrics.register(metrics);
+      assertSame(metrics, FirebaseValueMetrics.registered());
+    } finally {
+      FirebaseValueMetrics.register(null);
+    }
+    assertNull(FirebaseValueMetrics.registered());
+  }
+}
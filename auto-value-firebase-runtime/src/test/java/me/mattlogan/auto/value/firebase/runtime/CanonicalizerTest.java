@@ -0,0 +1,95 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CanonicalizerTest {
+
+  private final Canonicalizer<List<String>> canonicalizer = new Canonicalizer<>();
+
+  @Test
+  public void canonicalizeReturnsFirstEqualInstance() {
+    List<String> first = Arrays.asList("carnitas", "salsa");
+    List<String> second = new ArrayList<>(first);
+
+    assertSame(first, canonicalizer.canonicalize(first));
+    assertSame(first, canonicalizer.canonicalize(second));
+    assertNull(canonicalizer.canonicalize(null));
+
+    assertEquals(1, canonicalizer.hitCount());
+    assertEquals(1, canonicalizer.missCount());
+    assertEquals(1, canonicalizer.size());
+  }
+
+  @Test
+  public void unequalValuesStayDistinct() {
+    List<String> first = Arrays.asList("carnitas");
+    List<String> second = Arrays.asList("al pastor");
+
+    assertSame(first, canonicalizer.canonicalize(first));
+    assertSame(second, canonicalizer.canonicalize(second));
+    assertEquals(2, canonicalizer.size());
+  }
+
+  @Test
+  public void collectedValuesAreDropped() throws InterruptedException {
+    canonicalizer.canonicalize(new ArrayList<>(Arrays.asList("carnitas")));
+
+    for (int i = 0; i < 50 && canonicalizer.size() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(0, canonicalizer.size());
+
+    List<String> replacement = new ArrayList<>(Arrays.asList("carnitas"));
+    assertSame(replacement, canonicalizer.canonicalize(replacement));
+  }
+
+  @Test
+  public void resetStatistics() {
+    List<String> value = Arrays.asList("carnitas");
+    canonicalizer.canonicalize(value);
+    canonicalizer.canonicalize(new ArrayList<>(value));
+
+    canonicalizer.resetStatistics();
+
+    assertEquals(0, canonicalizer.hitCount());
+    assertEquals(0, canonicalizer.missCount());
+    assertEquals(1, canonicalizer.size());
+  }
+
+  @Test
+  public void concurrentCallersAgreeOnOneInstance() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<String>>> results = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        results.add(executor.submit(new Callable<List<String>>() {
+          @Override public List<String> call() {
+            return canonicalizer.canonicalize(new ArrayList<>(Arrays.asList("carnitas", "salsa")));
+          }
+        }));
+      }
+
+      List<String> canonical = results.get(0).get();
+      for (Future<List<String>> result : results) {
+        assertSame(canonical, result.get());
+      }
+      assertEquals(63, canonicalizer.hitCount());
+      assertEquals(1, canonicalizer.missCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import org.junit.Test;
+
+import me.mattlogan.auto.value.firebase.runtime.FirebaseSchema.Kind;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FirebaseSchemasTest {
+
+  // Stands in for an @AutoValue class. Its schema is registered by the class below, which is named
+  // the way AutoValue names the class it generates.
+  static class Taco {
+    final String name;
+    final int rating;
+
+    Taco(String name, int rating) {
+      this.name = name;
+      this.rating = rating;
+    }
+  }
+
+  static class Untyped {
+  }
+
+  @Test
+  public void ofLoadsTheGeneratedClass() {
+    FirebaseSchema<Taco> schema = FirebaseSchemas.of(Taco.class);
+    assertSame(AutoValue_FirebaseSchemasTest_Taco.SCHEMA, schema);
+    assertSame(schema, FirebaseSchemas.of(Taco.class));
+  }
+
+  @Test
+  public void describesEachProperty() {
+    FirebaseSchema<Taco> schema = FirebaseSchemas.of(Taco.class);
+    assertEquals(Taco.class, schema.type());
+    assertEquals(3, schema.properties().size());
+
+    FirebaseSchema.Property rating = schema.properties().get(1);
+    assertEquals(1, rating.index());
+    assertEquals("rating", rating.name());
+    assertEquals("stars", rating.firebaseKey());
+    assertEquals(Kind.PRIMITIVE, rating.kind());
+    assertFalse(rating.excluded());
+
+    FirebaseSchema.Property secret = schema.properties().get(2);
+    assertNull(secret.firebaseKey());
+    assertTrue(secret.excluded());
+  }
+
+  @Test
+  public void getReadsByIndex() {
+    FirebaseSchema<Taco> schema = FirebaseSchemas.of(Taco.class);
+    Taco taco = new Taco("Al pastor", 5);
+    assertEquals("Al pastor", schema.get(taco, 0));
+    assertEquals(5, schema.get(taco, 1));
+    try {
+      schema.get(taco, 3);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+  }
+
+  @Test
+  public void getReadsByFirebaseKey() {
+    FirebaseSchema<Taco> schema = FirebaseSchemas.of(Taco.class);
+    Taco taco = new Taco("Al pastor", 5);
+    assertEquals(5, schema.get(taco, "stars"));
+    assertNull(schema.get(taco, "rating"));
+  }
+
+  @Test
+  public void typeWithoutGeneratedClass() {
+    try {
+      FirebaseSchemas.of(Untyped.class);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void propertiesAreImmutable() {
+    try {
+      FirebaseSchemas.of(Taco.class).properties().clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+  }
+
+  @Test
+  public void mismatchedArrays() {
+    try {
+      new AutoValue_FirebaseSchemasTest_Taco.Schema(new String[] {"name"}, new String[0], new Kind[] {Kind.PRIMITIVE});
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void generatedClassName() {
+    assertEquals("me.mattlogan.auto.value.firebase.runtime.AutoValue_FirebaseSchemasTest_Taco",
+                 FirebaseSchemas.generatedClassName(Taco.class));
+    assertEquals("java.lang.AutoValue_String", FirebaseSchemas.generatedClassName(String.class));
+  }
+}
+
+// What the extension generates, minus the AutoValue implementation
+final class AutoValue_FirebaseSchemasTest_Taco {
+  static final FirebaseSchema<FirebaseSchemasTest.Taco> SCHEMA = FirebaseSchemas.register(new Schema(
+      new String[] {"name", "rating", "secret"},
+      new String[] {"name", "stars", null},
+      new Kind[] {Kind.PRIMITIVE, Kind.PRIMITIVE, Kind.PRIMITIVE}));
+
+  static final class Schema extends FirebaseSchema<FirebaseSchemasTest.Taco> {
+    Schema(String[] names, String[] firebaseKeys, Kind[] kinds) {
+      super(FirebaseSchemasTest.Taco.class, names, firebaseKeys, kinds);
+    }
+
+    @Override
+    public Object get(FirebaseSchemasTest.Taco value, int index) {
+      switch (index) {
+        case 0:
+          return value.name;
+        case 1:
+          return value.rating;
+        case 2:
+          return null;
+        default:
+          throw new IndexOutOfBoundsException("No property at " + index);
+      }
+    }
+
+    @Override
+    public Object get(FirebaseSchemasTest.Taco value, String firebaseKey) {
+      switch (firebaseKey) {
+        case "name":
+          return value.name;
+        case "stars":
+          return value.rating;
+        default:
+          return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.PropertyName;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;
+import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the {@code diff} methods generated for models compiled with the extension, and checks that
+ * {@code applyPatch} turns their output back into the value they were diffed against.
+ */
+public class GeneratedDiffTest {
+
+  private static final DiffItem AL_PASTOR = new AutoValue_DiffItem("Al pastor", 1);
+  private static final DiffItem CARNITAS = new AutoValue_DiffItem("Carnitas", 2);
+  private static final DiffItem BARBACOA = new AutoValue_DiffItem("Barbacoa", 3);
+
+  private final DiffTaco taco = taco().build();
+
+  @Test
+  public void unchangedIsEmpty() {
+    assertEquals(Collections.emptyMap(), AutoValue_DiffTaco.diff(taco, taco().build()));
+  }
+
+  @Test
+  public void propertyNameIsThePath() {
+    assertDiff(taco().name("Suadero").build(), "taco_name", "Suadero");
+  }
+
+  @Test
+  public void floatingPointComparesLikeCompare() {
+    assertDiff(taco().price(-0.0).build(), "price", -0.0);
+    assertDiff(taco().weight(Float.NaN).build(), "weight", Float.NaN);
+    DiffTaco nan = taco().price(Double.NaN).build();
+    assertEquals(Collections.emptyMap(), AutoValue_DiffTaco.diff(nan, taco().price(Double.NaN).build()));
+  }
+
+  @Test
+  public void nestedValues() {
+    assertDiff(taco().main(new AutoValue_DiffItem("Al pastor", 5)).build(), "main/qty", 5);
+    assertDiff(taco().main(null).build(), "main", null);
+
+    DiffTaco withoutMain = taco().main(null).build();
+    assertEquals(Collections.singletonMap("main", (Object) AutoValue_DiffItem.toMap(CARNITAS)),
+        AutoValue_DiffTaco.diff(withoutMain, taco().main(CARNITAS).build()));
+  }
+
+  @Test
+  public void listsShrinkWithTrailingNulls() {
+    DiffTaco shrunk = taco().sides(Collections.singletonList(AL_PASTOR)).tags(Collections.singletonList("spicy")).build();
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("sides/1", null);
+    expected.put("sides/2", null);
+    expected.put("tags/1", null);
+    assertEquals(expected, AutoValue_DiffTaco.diff(taco, shrunk));
+  }
+
+  @Test
+  public void listsGrowAndChangeByIndex() {
+    DiffTaco grown = taco().sides(Arrays.asList(AL_PASTOR, BARBACOA, BARBACOA, CARNITAS)).build();
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("sides/1/name", "Barbacoa");
+    expected.put("sides/1/qty", 3);
+    expected.put("sides/3", AutoValue_DiffItem.toMap(CARNITAS));
+    assertEquals(expected, AutoValue_DiffTaco.diff(taco, grown));
+  }
+
+  @Test
+  public void mapsRemoveAddAndChangeKeys() {
+    Map<String, DiffItem> extras = new LinkedHashMap<>();
+    extras.put("salsa", new AutoValue_DiffItem("Verde", 1));
+    extras.put("drink", BARBACOA);
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("extras/salsa/name", "Verde");
+    expected.put("extras/cheese", null);
+    expected.put("extras/drink", AutoValue_DiffItem.toMap(BARBACOA));
+    assertEquals(expected, AutoValue_DiffTaco.diff(taco, taco().extras(extras).build()));
+
+    assertDiff(taco().extras(null).build(), "extras", null);
+  }
+
+  @Test
+  public void adaptedValuesAreWrittenThroughTheAdapter() {
+    assertDiff(taco().updated(new Date(2000L)).build(), "updated", 2000L);
+    assertDiff(taco().updated(null).build(), "updated", null);
+  }
+
+  @Test
+  public void arraysAreDiffedByIndex() {
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("counts/1", 5L);
+    expected.put("counts/2", null);
+    assertEquals(expected, AutoValue_DiffTaco.diff(taco, taco().counts(new long[] {1, 5}).build()));
+  }
+
+  @Test
+  public void wholeValues() {
+    assertEquals(AutoValue_DiffTaco.toMap(taco), AutoValue_DiffTaco.diff(null, taco));
+
+    Map<String, Object> removed = AutoValue_DiffTaco.diff(taco, null);
+    assertEquals(AutoValue_DiffTaco.toMap(taco).keySet(), removed.keySet());
+    assertEquals(Collections.singleton(null), new HashSet<>(removed.values()));
+  }
+
+  @Test
+  public void applyPatchReproducesAfter() {
+    Map<String, DiffItem> extras = new HashMap<>();
+    extras.put("drink", BARBACOA);
+    List<DiffTaco> afters = Arrays.asList(
+        taco().name("Suadero").price(-0.0).weight(Float.NaN).build(),
+        taco().main(new AutoValue_DiffItem("Al pastor", 5)).updated(null).build(),
+        taco().main(null).sides(Collections.singletonList(BARBACOA)).tags(Collections.<String>emptyList()).build(),
+        taco().sides(Arrays.asList(AL_PASTOR, BARBACOA, BARBACOA, CARNITAS)).extras(extras).build(),
+        taco().counts(new long[] {1, 5}).updated(new Date(2000L)).build(),
+        taco().counts(new long[] {1, 2, 3, 4}).extras(null).build());
+
+    for (DiffTaco after : afters) {
+      Map<String, Object> updates = AutoValue_DiffTaco.diff(taco, after);
+      assertEquals(updates.toString(), after, AutoValue_DiffTaco.applyPatch(taco, updates));
+    }
+  }
+
+  private void assertDiff(DiffTaco after, String path, Object value) {
+    assertEquals(Collections.singletonMap(path, value), AutoValue_DiffTaco.diff(taco, after));
+  }
+
+  private static TacoBuilder taco() {
+    Map<String, DiffItem> extras = new HashMap<>();
+    extras.put("salsa", new AutoValue_DiffItem("Roja", 1));
+    extras.put("cheese", CARNITAS);
+    return new TacoBuilder()
+        .name("Al pastor")
+        .price(2.5)
+        .weight(0.25f)
+        .main(AL_PASTOR)
+        .sides(Arrays.asList(AL_PASTOR, CARNITAS, BARBACOA))
+        .extras(extras)
+        .tags(Arrays.asList("spicy", "pork"))
+        .updated(new Date(1000L))
+        .counts(new long[] {1, 2, 3});
+  }
+
+  // Variations of one taco, without repeating every constructor argument
+  static final class TacoBuilder {
+    private String name;
+    private double price;
+    private float weight;
+    private DiffItem main;
+    private List<DiffItem> sides;
+    private Map<String, DiffItem> extras;
+    private List<String> tags;
+    private Date updated;
+    private long[] counts;
+
+    TacoBuilder name(String name) {
+      this.name = name;
+      return this;
+    }
+
+    TacoBuilder price(double price) {
+      this.price = price;
+      return this;
+    }
+
+    TacoBuilder weight(float weight) {
+      this.weight = weight;
+      return this;
+    }
+
+    TacoBuilder main(DiffItem main) {
+      this.main = main;
+      return this;
+    }
+
+    TacoBuilder sides(List<DiffItem> sides) {
+      this.sides = sides;
+      return this;
+    }
+
+    TacoBuilder extras(Map<String, DiffItem> extras) {
+      this.extras = extras;
+      return this;
+    }
+
+    TacoBuilder tags(List<String> tags) {
+      this.tags = tags;
+      return this;
+    }
+
+    TacoBuilder updated(Date updated) {
+      this.updated = updated;
+      return this;
+    }
+
+    TacoBuilder counts(long[] counts) {
+      this.counts = counts;
+      return this;
+    }
+
+    DiffTaco build() {
+      return new AutoValue_DiffTaco(name, price, weight, main, sides, extras, tags, updated, counts);
+    }
+  }
+}
+
+@interface Nullable {
+}
+
+@AutoValue @FirebaseValue
+abstract class DiffItem {
+  abstract String name();
+
+  abstract int qty();
+}
+
+@AutoValue @FirebaseValue
+abstract class DiffTaco {
+  @PropertyName("taco_name") abstract String name();
+
+  abstract double price();
+
+  abstract float weight();
+
+  @Nullable abstract DiffItem main();
+
+  @Nullable abstract List<DiffItem> sides();
+
+  @Nullable abstract Map<String, DiffItem> extras();
+
+  @Nullable abstract List<String> tags();
+
+  @Nullable @FirebaseAdapter(DiffDateAdapter.class) abstract Date updated();
+
+  @SuppressWarnings("mutable") @Nullable abstract long[] counts();
+}
+
+class DiffDateAdapter implements TypeAdapter<Date, Long> {
+  @Override
+  public Date fromFirebaseValue(Long value) {
+    return new Date(value);
+  }
+
+  @Override
+  public Long toFirebaseValue(Date value) {
+    return value.getTime();
+  }
+}
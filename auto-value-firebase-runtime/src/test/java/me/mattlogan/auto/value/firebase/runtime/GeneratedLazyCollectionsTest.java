@@ -0,0 +1,69 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the lazy list and map views generated for models compiled with
+ * {@code @FirebaseValue(lazyCollections = true)}.
+ */
+public class GeneratedLazyCollectionsTest {
+
+  private static final LazyItem AL_PASTOR = new AutoValue_LazyItem("Al pastor");
+  private static final LazyItem CARNITAS = new AutoValue_LazyItem("Carnitas");
+
+  private final LazyMenu menu = menu();
+  private final LazyMenu lazy = new AutoValue_LazyMenu.FirebaseValue(menu).toAutoValue();
+
+  @Test
+  public void viewsEqualTheConvertedCollections() {
+    assertEquals(menu, lazy);
+    assertEquals(menu.extras().entrySet(), lazy.extras().entrySet());
+  }
+
+  @Test
+  public void mapGet() {
+    assertEquals(CARNITAS, lazy.extras().get("cheese"));
+    assertTrue(lazy.extras().containsKey("cheese"));
+    assertNull(lazy.extras().get("salsa"));
+    assertFalse(lazy.extras().containsKey("salsa"));
+  }
+
+  @Test
+  public void mapNullKey() {
+    assertNull(lazy.extras().get(null));
+    assertFalse(lazy.extras().containsKey(null));
+  }
+
+  private static LazyMenu menu() {
+    Map<String, LazyItem> extras = new LinkedHashMap<>();
+    extras.put("drink", AL_PASTOR);
+    extras.put("cheese", CARNITAS);
+    return new AutoValue_LazyMenu(Arrays.asList(AL_PASTOR, CARNITAS), extras);
+  }
+}
+
+@AutoValue @FirebaseValue
+abstract class LazyItem {
+  abstract String name();
+}
+
+@AutoValue @FirebaseValue(lazyCollections = true)
+abstract class LazyMenu {
+  abstract List<LazyItem> items();
+
+  abstract Map<String, LazyItem> extras();
+}
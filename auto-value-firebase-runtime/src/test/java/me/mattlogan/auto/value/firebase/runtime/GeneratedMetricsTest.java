@@ -0,0 +1,73 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+import me.mattlogan.auto.value.firebase.runtime.FirebaseValueMetrics.Operation;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the conversions generated for models compiled with the extension and the runtime on the
+ * classpath, and checks what they report.
+ */
+public class GeneratedMetricsTest {
+
+  private final AggregatingMetrics metrics = new AggregatingMetrics();
+  private final MetricsOrder order = new AutoValue_MetricsOrder(
+      Arrays.<MetricsItem>asList(new AutoValue_MetricsItem("Al pastor"), new AutoValue_MetricsItem("Carnitas")),
+      new long[] {1, 2, 3});
+
+  @Before
+  public void setUp() {
+    FirebaseValueMetrics.register(metrics);
+  }
+
+  @After
+  public void tearDown() {
+    FirebaseValueMetrics.register(null);
+  }
+
+  @Test
+  public void staticToMap() {
+    AutoValue_MetricsOrder.toMap(order);
+
+    AggregatingMetrics.Stats stats = metrics.stats(MetricsOrder.class, Operation.STATIC_TO_MAP);
+    assertEquals(1, stats.count());
+    assertEquals(5, stats.elements());
+    assertEquals(2, metrics.stats(MetricsItem.class, Operation.STATIC_TO_MAP).count());
+  }
+
+  @Test
+  public void fromMap() {
+    FirebaseValueMetrics.register(null);
+    Map<String, Object> map = AutoValue_MetricsOrder.toMap(order);
+    FirebaseValueMetrics.register(metrics);
+
+    assertEquals(order, AutoValue_MetricsOrder.fromMap(map));
+    AggregatingMetrics.Stats stats = metrics.stats(MetricsOrder.class, Operation.FROM_MAP);
+    assertEquals(1, stats.count());
+    assertEquals(5, stats.elements());
+    assertEquals(2, metrics.stats(MetricsItem.class, Operation.FROM_MAP).count());
+  }
+}
+
+@AutoValue @FirebaseValue
+abstract class MetricsItem {
+  abstract String name();
+}
+
+@AutoValue @FirebaseValue
+abstract class MetricsOrder {
+  abstract List<MetricsItem> items();
+
+  @SuppressWarnings("mutable") abstract long[] counts();
+}
@@ -0,0 +1,77 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the {@code applyPatch} methods generated for models compiled with the extension.
+ */
+public class GeneratedPatchTest {
+
+  private final PatchOrder order = new AutoValue_PatchOrder(
+      Collections.<PatchItem>singletonList(new AutoValue_PatchItem("Al pastor", 1)), new long[] {3});
+
+  @Test
+  public void patchesListAndArrayItems() {
+    Map<String, Object> updates = new HashMap<>();
+    updates.put("items/0/qty", 2L);
+    updates.put("items/1/name", "Carnitas");
+    updates.put("counts/1", 4L);
+
+    PatchOrder patched = AutoValue_PatchOrder.applyPatch(order, updates);
+    assertEquals(Arrays.<PatchItem>asList(new AutoValue_PatchItem("Al pastor", 2), new AutoValue_PatchItem("Carnitas", 0)),
+        patched.items());
+    assertArrayEquals(new long[] {3, 4}, patched.counts());
+  }
+
+  @Test
+  public void nonNumericIndex() {
+    assertInvalid("items/foo/qty", "items/foo");
+    assertInvalid("counts/foo", "counts/foo");
+  }
+
+  @Test
+  public void indexOutOfRange() {
+    assertInvalid("items/-1/qty", "items/-1");
+    assertInvalid("items/2/qty", "items/2");
+    assertInvalid("counts/2147483648", "counts/2147483648");
+    assertInvalid("counts/1000000", "counts/1000000");
+  }
+
+  private void assertInvalid(String path, String reported) {
+    try {
+      AutoValue_PatchOrder.applyPatch(order, Collections.<String, Object>singletonMap(path, 1L));
+      fail(path);
+    } catch (IllegalArgumentException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().endsWith(reported));
+    }
+  }
+}
+
+@AutoValue @FirebaseValue
+abstract class PatchItem {
+  abstract String name();
+
+  abstract int qty();
+}
+
+@AutoValue @FirebaseValue
+abstract class PatchOrder {
+  abstract List<PatchItem> items();
+
+  abstract long[] counts();
+}
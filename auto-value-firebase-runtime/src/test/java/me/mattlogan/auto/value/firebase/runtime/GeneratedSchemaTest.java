@@ -0,0 +1,64 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import com.google.auto.value.AutoValue;
+import com.google.firebase.database.PropertyName;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the {@code get} methods generated for models compiled with the extension.
+ */
+public class GeneratedSchemaTest {
+
+  private final SchemaIngredient salsa = new AutoValue_SchemaIngredient("Salsa");
+  private final SchemaTaco taco = new AutoValue_SchemaTaco(5, salsa,
+      Collections.singletonList(salsa), Collections.singletonMap("hot", salsa), new double[] {1.5});
+
+  @Test
+  public void getReturnsWhatFirebaseStores() {
+    FirebaseSchema<SchemaTaco> schema = FirebaseSchemas.of(SchemaTaco.class);
+    Map<String, Object> salsaMap = Collections.<String, Object>singletonMap("name", "Salsa");
+
+    assertEquals(5, schema.get(taco, "stars"));
+    assertEquals(salsaMap, schema.get(taco, "main"));
+    assertEquals(Collections.singletonList(salsaMap), schema.get(taco, "sides"));
+    assertEquals(Collections.singletonMap("hot", salsaMap), schema.get(taco, "extras"));
+    assertEquals(Arrays.asList(1.5), schema.get(taco, "scores"));
+  }
+
+  @Test
+  public void getUnknownOrNullKey() {
+    assertNull(AutoValue_SchemaTaco.get(taco, "rating"));
+    assertNull(AutoValue_SchemaTaco.get(taco, null));
+    assertNull(FirebaseSchemas.of(SchemaTaco.class).get(taco, null));
+  }
+}
+
+// Nested @FirebaseValue types are found by their simple names, so these aren't nested classes
+@AutoValue @FirebaseValue
+abstract class SchemaIngredient {
+  abstract String name();
+}
+
+@AutoValue @FirebaseValue
+abstract class SchemaTaco {
+  @PropertyName("stars") abstract int rating();
+
+  abstract SchemaIngredient main();
+
+  abstract List<SchemaIngredient> sides();
+
+  abstract Map<String, SchemaIngredient> extras();
+
+  abstract double[] scores();
+}
@@ -0,0 +1,127 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelDecoderTest {
+
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+
+  private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+  private final ValueDecoder<String> decoder = new ValueDecoder<String>() {
+    @Override public String decode(Object value) {
+      threads.add(Thread.currentThread());
+      return "decoded " + value;
+    }
+  };
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void decodeListPreservesOrder() {
+    List<Integer> values = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      values.add(i);
+    }
+
+    List<String> decoded = new ParallelDecoder<>(decoder, 100, pool).decodeList(values);
+
+    assertEquals(10000, decoded.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals("decoded " + i, decoded.get(i));
+    }
+  }
+
+  @Test
+  public void decodeListFromIterable() {
+    final List<Integer> values = Arrays.asList(1, 2, 3);
+    Iterable<Integer> iterable = new Iterable<Integer>() {
+      @Override public Iterator<Integer> iterator() {
+        return values.iterator();
+      }
+    };
+
+    List<String> decoded = new ParallelDecoder<>(decoder, 1, pool).decodeList(iterable);
+
+    assertEquals(Arrays.asList("decoded 1", "decoded 2", "decoded 3"), decoded);
+  }
+
+  @Test
+  public void decodeMapPreservesOrder() {
+    Map<String, Object> values = new LinkedHashMap<>();
+    for (int i = 0; i < 10000; i++) {
+      values.put("key" + (9999 - i), i);
+    }
+
+    Map<String, String> decoded = new ParallelDecoder<>(decoder, 100, pool).decodeMap(values);
+
+    assertEquals(new ArrayList<>(values.keySet()), new ArrayList<>(decoded.keySet()));
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      assertEquals("decoded " + entry.getValue(), decoded.get(entry.getKey()));
+    }
+  }
+
+  @Test
+  public void belowThresholdStaysOnCallingThread() {
+    new ParallelDecoder<>(decoder, 100, pool).decodeList(Arrays.asList(1, 2, 3));
+
+    assertEquals(Collections.singleton(Thread.currentThread()), threads);
+  }
+
+  @Test
+  public void aboveThresholdUsesPool() {
+    List<Integer> values = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      values.add(i);
+    }
+
+    new ParallelDecoder<>(decoder, 10, pool).decodeList(values);
+
+    for (Thread thread : threads) {
+      assertTrue(thread == Thread.currentThread() || thread.getName().contains("ForkJoinPool"));
+    }
+  }
+
+  @Test
+  public void decoderExceptionIsRethrown() {
+    List<Integer> values = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      values.add(i);
+    }
+    ValueDecoder<String> failing = new ValueDecoder<String>() {
+      @Override public String decode(Object value) {
+        if (value.equals(500)) {
+          throw new IllegalStateException("bad child");
+        }
+        return value.toString();
+      }
+    };
+
+    try {
+      new ParallelDecoder<>(failing, 10, pool).decodeList(values);
+      fail();
+    } catch (IllegalStateException e) {
+      // ForkJoinPool may rethrow a copy that wraps the worker's exception
+      assertTrue(e.getMessage().endsWith("bad child"));
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package me.mattlogan.auto.value.firebase.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StringPoolTest {
+
+  private final StringPool pool = new StringPool(16);
+
+  @Test
+  public void internReturnsPooledInstance() {
+    String first = new String("cooked");
+    String second = new String("cooked");
+
+    assertSame(first, pool.intern(first));
+    assertSame(first, pool.intern(second));
+    assertNull(pool.intern(null));
+
+    assertEquals(1, pool.hitCount());
+    assertEquals(1, pool.missCount());
+    assertEquals(6, pool.dedupedChars());
+  }
+
+  @Test
+  public void internAllReplacesInPlace() {
+    String pooled = pool.intern(new String("salsa"));
+    List<String> values = new ArrayList<>(Arrays.asList(new String("salsa"), null, "lime"));
+
+    List<String> interned = pool.internAll(values);
+
+    assertSame(values, interned);
+    assertSame(pooled, values.get(0));
+    assertNull(values.get(1));
+  }
+
+  @Test
+  public void internAllCopiesUnmodifiableList() {
+    String pooled = pool.intern(new String("salsa"));
+    List<String> values = Collections.unmodifiableList(Arrays.asList(new String("salsa")));
+
+    assertSame(pooled, pool.internAll(values).get(0));
+  }
+
+  @Test
+  public void internKeys() {
+    String pooled = pool.intern(new String("salsa"));
+    Map<String, Long> values = new HashMap<>();
+    values.put(new String("salsa"), 2L);
+
+    Map<String, Long> interned = pool.internKeys(values);
+
+    assertEquals(values, interned);
+    assertSame(pooled, interned.keySet().iterator().next());
+  }
+
+  @Test
+  public void poolIsBounded() {
+    StringPool small = new StringPool(1);
+    small.intern("a");
+    small.intern("b");
+
+    String a = new String("a");
+    assertSame(a, small.intern(a));
+    assertEquals(3, small.missCount());
+  }
+
+  @Test
+  public void resetStatistics() {
+    pool.intern("a");
+    pool.intern(new String("a"));
+
+    pool.resetStatistics();
+
+    assertEquals(0, pool.hitCount());
+    assertEquals(0, pool.missCount());
+  }
+}
@@ -0,0 +1,435 @@
+package me.mattlogan.auto.value.firebase.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import me.mattlogan.auto.value.firebase.binary.BinaryCodec;
+
+/**
+ * Persists records keyed by push ID in an append-only, memory-mapped file.
+ *
+ * <p>Opening a store scans the records to check their checksums and rebuild a key-to-offset
+ * index, which lives off the heap. After an unclean shutdown, the store keeps the records before
+ * the first one that didn't reach the disk whole. No record is decoded until {@link #get(String)} asks for it, and then only that record
+ * is read from the mapped buffer. Writes append a new version of the record, so files grow with
+ * every {@link #put(String, Object)} and {@link #remove(String)} until {@link #compact()} rewrites
+ * them. Opening a store compacts it when more than half of the file is replaced or removed records,
+ * and so does a write that would otherwise fill the store.
+ *
+ * <pre>{@code
+ * MappedRecordStore<Taco> tacos = MappedRecordStore.open(new File(cacheDir, "tacos"), Taco.CODEC);
+ * tacos.put(snapshot.getKey(), taco);
+ * Taco cached = tacos.get(pushId);
+ * }</pre>
+ *
+ * <p>Files written with a different {@link RecordCodec#fingerprint()} are treated as empty. A store
+ * is limited to 2 GB of current records. Instances are thread safe, but a file must only be opened by one store at a
+ * time.
+ */
+public final class MappedRecordStore<T> implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // BinaryCodec header: magic and fingerprint
+    private static final int HEADER_SIZE = 12;
+    private static final int MIN_MAPPING_SIZE = 1 << 20;
+
+    // Each record is [int length][int CRC32][short key length][key][byte state][payload], and the
+    // checksum covers everything after it. A zero length marks the end of the file, so it's written
+    // last. Mapped pages can reach the disk in any order, so after a power loss the checksum is what
+    // tells a complete record from a length whose payload never made it.
+    private static final int CHECKSUM_OFFSET = 4;
+    private static final int KEY_LENGTH_OFFSET = 8;
+    private static final int KEY_OFFSET = 10;
+    private static final byte LIVE = 0;
+    private static final byte REMOVED = 1;
+
+    // Index slots are [long key hash][long record offset]. Offset 0 is the header, so it marks an
+    // empty slot.
+    private static final int SLOT_SIZE = 16;
+    private static final int MIN_INDEX_SLOTS = 1024;
+
+    private final File path;
+    private final RecordCodec<T> codec;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private final Scratch scratch = new Scratch();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private final CRC32 crc = new CRC32();
+    private final byte[] crcBuffer = new byte[8192];
+
+    private MappedByteBuffer mapped;
+    private int end;
+
+    private ByteBuffer index;
+    private int indexMask;
+    private int indexedKeys;
+    private int size;
+    // Bytes taken by the current version of each live record, the rest can be compacted away
+    private int liveBytes;
+
+    public static <T> MappedRecordStore<T> open(File file, RecordCodec<T> codec) throws IOException {
+        if (codec == null) {
+            throw new NullPointerException("codec == null");
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            return new MappedRecordStore<>(file, randomAccessFile, codec);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private MappedRecordStore(File path, RandomAccessFile file, RecordCodec<T> codec) throws IOException {
+        this.path = path;
+        this.codec = codec;
+        load(file);
+        if (end >= MIN_MAPPING_SIZE && end - HEADER_SIZE - liveBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    private void load(RandomAccessFile file) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+        size = 0;
+        indexedKeys = 0;
+        liveBytes = 0;
+        long length = channel.size();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Store is larger than 2 GB: " + length);
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(length, MIN_MAPPING_SIZE));
+        allocateIndex(MIN_INDEX_SLOTS);
+
+        ByteBuffer header = mapped.duplicate();
+        if (length >= HEADER_SIZE && BinaryCodec.readHeader(new ByteBufferDataInput(header), codec.fingerprint())) {
+            scan();
+        } else {
+            scratch.reset();
+            BinaryCodec.writeHeader(scratchOut, codec.fingerprint());
+            mapped.position(0);
+            mapped.put(scratch.buffer(), 0, scratch.size());
+            mapped.putInt(HEADER_SIZE, 0);
+            end = HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Returns the record stored under {@code key}, or null if there isn't one.
+     */
+    public synchronized T get(String key) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int offset = offsetOf(keyBytes);
+        if (offset == 0 || mapped.get(offset + KEY_OFFSET + keyBytes.length) == REMOVED) {
+            return null;
+        }
+        ByteBuffer record = mapped.duplicate();
+        record.limit(offset + 4 + mapped.getInt(offset));
+        record.position(offset + KEY_OFFSET + keyBytes.length + 1);
+        return codec.read(new ByteBufferDataInput(record));
+    }
+
+    public synchronized boolean containsKey(String key) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int offset = offsetOf(keyBytes);
+        return offset != 0 && mapped.get(offset + KEY_OFFSET + keyBytes.length) == LIVE;
+    }
+
+    /**
+     * Stores {@code value} under {@code key}, replacing any earlier record.
+     */
+    public synchronized void put(String key, T value) throws IOException {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        scratch.reset();
+        codec.write(value, scratchOut);
+        append(key.getBytes(UTF_8), LIVE, scratch.buffer(), scratch.size());
+    }
+
+    /**
+     * Removes the record stored under {@code key}, returning false if there wasn't one.
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int offset = offsetOf(keyBytes);
+        if (offset == 0 || mapped.get(offset + KEY_OFFSET + keyBytes.length) == REMOVED) {
+            return false;
+        }
+        append(keyBytes, REMOVED, null, 0);
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the keys of all stored records, in no particular order.
+     */
+    public synchronized List<String> keys() {
+        List<String> keys = new ArrayList<>(size);
+        for (int slot = 0; slot <= indexMask; slot++) {
+            int offset = (int) index.getLong(slot * SLOT_SIZE + 8);
+            if (offset == 0) {
+                continue;
+            }
+            byte[] keyBytes = keyAt(offset);
+            if (mapped.get(offset + KEY_OFFSET + keyBytes.length) == LIVE) {
+                keys.add(new String(keyBytes, UTF_8));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Rewrites the file with only the current version of each record, reclaiming the space taken by
+     * replaced and removed ones. The copy is written next to the file and then renamed over it, so
+     * a crash part way leaves the original intact.
+     */
+    public synchronized void compact() throws IOException {
+        File compacted = new File(path.getPath() + ".compact");
+        RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+        try {
+            out.setLength(0);
+            FileChannel outChannel = out.getChannel();
+            write(outChannel, 0, HEADER_SIZE);
+            int position = HEADER_SIZE;
+            while (position < end) {
+                int length = mapped.getInt(position);
+                int keyLength = mapped.getShort(position + KEY_LENGTH_OFFSET);
+                if (mapped.get(position + KEY_OFFSET + keyLength) == LIVE
+                    && offsetOf(mapped, position + KEY_OFFSET, keyLength) == position) {
+                    write(outChannel, position, 4 + length);
+                }
+                position += 4 + length;
+            }
+            // The end marker
+            outChannel.write(ByteBuffer.allocate(4));
+            outChannel.force(false);
+        } finally {
+            out.close();
+        }
+
+        file.close();
+        if (!compacted.renameTo(path)) {
+            compacted.delete();
+            load(new RandomAccessFile(path, "rw"));
+            throw new IOException("Couldn't replace " + path + " with its compacted copy");
+        }
+        load(new RandomAccessFile(path, "rw"));
+    }
+
+    /**
+     * Writes changes in the mapped buffer to the storage device.
+     */
+    public synchronized void flush() {
+        mapped.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            mapped.force();
+        } finally {
+            file.close();
+        }
+    }
+
+    private void scan() {
+        int position = HEADER_SIZE;
+        while (position + 4 <= mapped.capacity()) {
+            int length = mapped.getInt(position);
+            if (length <= 0 || (long) position + 4 + length > mapped.capacity()
+                || mapped.getInt(position + CHECKSUM_OFFSET) != checksum(position, length)) {
+                // Everything from the first torn record on is dropped, and overwritten by the next append
+                break;
+            }
+            int keyLength = mapped.getShort(position + KEY_LENGTH_OFFSET);
+            index(mapped, position + KEY_OFFSET, keyLength, position,
+                mapped.get(position + KEY_OFFSET + keyLength));
+            position += 4 + length;
+        }
+        end = position;
+    }
+
+    private void append(byte[] keyBytes, byte state, byte[] payload, int payloadSize) throws IOException {
+        if (keyBytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Key is longer than " + Short.MAX_VALUE + " bytes");
+        }
+        int length = 4 + 2 + keyBytes.length + 1 + payloadSize;
+        // Room for the record and the end marker after it
+        if ((long) end + 4 + length + 4 > Integer.MAX_VALUE) {
+            compact();
+        }
+        ensureMapped((long) end + 4 + length + 4);
+
+        ByteBuffer record = mapped.duplicate();
+        record.position(end + KEY_LENGTH_OFFSET);
+        record.putShort((short) keyBytes.length);
+        record.put(keyBytes);
+        record.put(state);
+        if (payloadSize > 0) {
+            record.put(payload, 0, payloadSize);
+        }
+        mapped.putInt(end + CHECKSUM_OFFSET, checksum(end, length));
+        mapped.putInt(end + 4 + length, 0);
+        mapped.putInt(end, length);
+
+        index(ByteBuffer.wrap(keyBytes), 0, keyBytes.length, end, state);
+        end += 4 + length;
+    }
+
+    // CRC32.update(ByteBuffer) is Java 8, so the record is copied through a buffer
+    private int checksum(int offset, int length) {
+        crc.reset();
+        ByteBuffer bytes = mapped.duplicate();
+        bytes.limit(offset + 4 + length);
+        bytes.position(offset + KEY_LENGTH_OFFSET);
+        while (bytes.hasRemaining()) {
+            int count = Math.min(bytes.remaining(), crcBuffer.length);
+            bytes.get(crcBuffer, 0, count);
+            crc.update(crcBuffer, 0, count);
+        }
+        return (int) crc.getValue();
+    }
+
+    private void ensureMapped(long required) throws IOException {
+        if (required <= mapped.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new IOException("Store is full");
+        }
+        long size = Math.min(Integer.MAX_VALUE, Math.max(required, 2L * mapped.capacity()));
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void write(FileChannel out, int start, int length) throws IOException {
+        ByteBuffer bytes = mapped.duplicate();
+        bytes.limit(start + length);
+        bytes.position(start);
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+    }
+
+    private byte[] keyAt(int offset) {
+        byte[] keyBytes = new byte[mapped.getShort(offset + KEY_LENGTH_OFFSET)];
+        for (int i = 0; i < keyBytes.length; i++) {
+            keyBytes[i] = mapped.get(offset + KEY_OFFSET + i);
+        }
+        return keyBytes;
+    }
+
+    private int offsetOf(byte[] keyBytes) {
+        return offsetOf(ByteBuffer.wrap(keyBytes), 0, keyBytes.length);
+    }
+
+    private int offsetOf(ByteBuffer key, int keyStart, int keyLength) {
+        int slot = slotOf(key, keyStart, keyLength, hash(key, keyStart, keyLength));
+        return (int) index.getLong(slot * SLOT_SIZE + 8);
+    }
+
+    // Keys are hashed and compared where they are, so scanning the file doesn't copy them
+    private void index(ByteBuffer key, int keyStart, int keyLength, int offset, byte state) {
+        long hash = hash(key, keyStart, keyLength);
+        int slot = slotOf(key, keyStart, keyLength, hash);
+        int previous = (int) index.getLong(slot * SLOT_SIZE + 8);
+        if (previous != 0 && mapped.get(previous + KEY_OFFSET + keyLength) == LIVE) {
+            size--;
+            liveBytes -= 4 + mapped.getInt(previous);
+        }
+        if (state == LIVE) {
+            size++;
+            liveBytes += 4 + mapped.getInt(offset);
+        }
+        index.putLong(slot * SLOT_SIZE, hash);
+        index.putLong(slot * SLOT_SIZE + 8, offset);
+        if (previous == 0 && ++indexedKeys > (indexMask + 1) / 4 * 3) {
+            rehash();
+        }
+    }
+
+    // Linear probing. Returns the slot holding the key, or the empty slot where it belongs.
+    private int slotOf(ByteBuffer key, int keyStart, int keyLength, long hash) {
+        int slot = (int) hash & indexMask;
+        while (true) {
+            int offset = (int) index.getLong(slot * SLOT_SIZE + 8);
+            if (offset == 0 || (index.getLong(slot * SLOT_SIZE) == hash
+                && keyEquals(offset, key, keyStart, keyLength))) {
+                return slot;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    private boolean keyEquals(int offset, ByteBuffer key, int keyStart, int keyLength) {
+        if (mapped.getShort(offset + KEY_LENGTH_OFFSET) != keyLength) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (mapped.get(offset + KEY_OFFSET + i) != key.get(keyStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        ByteBuffer old = index;
+        int oldSlots = indexMask + 1;
+        allocateIndex(oldSlots * 2);
+        for (int slot = 0; slot < oldSlots; slot++) {
+            long offset = old.getLong(slot * SLOT_SIZE + 8);
+            if (offset == 0) {
+                continue;
+            }
+            long hash = old.getLong(slot * SLOT_SIZE);
+            int newSlot = (int) hash & indexMask;
+            while (index.getLong(newSlot * SLOT_SIZE + 8) != 0) {
+                newSlot = (newSlot + 1) & indexMask;
+            }
+            index.putLong(newSlot * SLOT_SIZE, hash);
+            index.putLong(newSlot * SLOT_SIZE + 8, offset);
+        }
+    }
+
+    private void allocateIndex(int slots) {
+        index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+        indexMask = slots - 1;
+    }
+
+    // 64-bit FNV-1a, with the high bits folded in since only the low bits pick a slot
+    private static long hash(ByteBuffer key, int keyStart, int keyLength) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = keyStart; i < keyStart + keyLength; i++) {
+            hash ^= key.get(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ (hash >>> 32);
+    }
+
+    // Lets encoded records be copied into the mapped buffer without another array copy
+    private static final class Scratch extends ByteArrayOutputStream {
+        Scratch() {
+            super(256);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
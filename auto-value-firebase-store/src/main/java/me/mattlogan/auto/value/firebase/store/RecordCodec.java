@@ -0,0 +1,36 @@
+package me.mattlogan.auto.value.firebase.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes the records of a {@link MappedRecordStore}, usually by delegating to the generated binary
+ * codec:
+ *
+ * <pre>{@code
+ * static final RecordCodec<Taco> CODEC = new RecordCodec<Taco>() {
+ *     @Override public long fingerprint() {
+ *         return AutoValue_Taco.BINARY_FINGERPRINT;
+ *     }
+ *
+ *     @Override public void write(Taco value, DataOutput out) throws IOException {
+ *         AutoValue_Taco.writeTo(value, out);
+ *     }
+ *
+ *     @Override public Taco read(DataInput in) throws IOException {
+ *         return AutoValue_Taco.readFrom(in);
+ *     }
+ * };
+ * }</pre>
+ */
+public interface RecordCodec<T> {
+    /**
+     * Identifies the encoding. Files written with another fingerprint are discarded on open.
+     */
+    long fingerprint();
+
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,240 @@
+package me.mattlogan.auto.value.firebase.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedRecordStoreTest {
+
+  private File file;
+  private int reads;
+
+  private final RecordCodec<String> codec = codec(1L);
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("records", ".store");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private RecordCodec<String> codec(final long fingerprint) {
+    return new RecordCodec<String>() {
+      @Override public long fingerprint() {
+        return fingerprint;
+      }
+
+      @Override public void write(String value, DataOutput out) throws IOException {
+        out.writeUTF(value);
+      }
+
+      @Override public String read(DataInput in) throws IOException {
+        reads++;
+        return in.readUTF();
+      }
+    };
+  }
+
+  @Test
+  public void putAndGet() throws IOException {
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      store.put("-KpA", "Al pastor");
+      store.put("-KpB", "Carnitas");
+
+      assertEquals("Al pastor", store.get("-KpA"));
+      assertEquals("Carnitas", store.get("-KpB"));
+      assertNull(store.get("-KpC"));
+      assertEquals(2, store.size());
+    }
+  }
+
+  @Test
+  public void putReplaces() throws IOException {
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      store.put("-KpA", "Al pastor");
+      store.put("-KpA", "Carnitas");
+
+      assertEquals("Carnitas", store.get("-KpA"));
+      assertEquals(1, store.size());
+    }
+  }
+
+  @Test
+  public void remove() throws IOException {
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      store.put("-KpA", "Al pastor");
+
+      assertTrue(store.remove("-KpA"));
+      assertFalse(store.remove("-KpA"));
+      assertNull(store.get("-KpA"));
+      assertFalse(store.containsKey("-KpA"));
+      assertEquals(0, store.size());
+
+      store.put("-KpA", "Carnitas");
+      assertEquals("Carnitas", store.get("-KpA"));
+    }
+  }
+
+  @Test
+  public void reopenDecodesOnlyWhatIsRead() throws IOException {
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      for (int i = 0; i < 100; i++) {
+        store.put("key" + i, "value" + i);
+      }
+      store.put("key5", "replaced");
+      store.remove("key7");
+    }
+    reads = 0;
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      assertEquals(99, store.size());
+      assertEquals(0, reads);
+
+      assertEquals("value42", store.get("key42"));
+      assertEquals("replaced", store.get("key5"));
+      assertNull(store.get("key7"));
+      assertEquals(2, reads);
+    }
+  }
+
+  @Test
+  public void otherFingerprintIsDiscarded() throws IOException {
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      store.put("-KpA", "Al pastor");
+    }
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec(2L))) {
+      assertEquals(0, store.size());
+      assertNull(store.get("-KpA"));
+      store.put("-KpB", "Carnitas");
+    }
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec(2L))) {
+      assertEquals(Collections.singletonList("-KpB"), store.keys());
+    }
+  }
+
+  @Test
+  public void growsPastInitialMappingAndIndex() throws IOException {
+    char[] padding = new char[500];
+    Arrays.fill(padding, 'x');
+    String value = new String(padding);
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      for (int i = 0; i < 5000; i++) {
+        store.put("key" + i, value + i);
+      }
+      assertEquals(value + 4999, store.get("key4999"));
+    }
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      assertEquals(5000, store.size());
+      for (int i = 0; i < 5000; i++) {
+        assertEquals(value + i, store.get("key" + i));
+      }
+      List<String> keys = store.keys();
+      assertEquals(5000, keys.size());
+    }
+  }
+
+  @Test
+  public void compactKeepsOnlyCurrentRecords() throws IOException {
+    String value = padding(1000);
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      for (int i = 0; i < 3000; i++) {
+        store.put("key" + i % 10, value + i);
+      }
+      store.remove("key3");
+      long before = file.length();
+
+      store.compact();
+      assertEquals(9, store.size());
+      assertEquals(value + 2999, store.get("key9"));
+      assertNull(store.get("key3"));
+      store.put("key3", "back");
+      assertTrue(file.length() < before);
+    }
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      assertEquals(10, store.size());
+      assertEquals("back", store.get("key3"));
+      assertEquals(value + 2990, store.get("key0"));
+    }
+    assertFalse(new File(file.getPath() + ".compact").exists());
+  }
+
+  @Test
+  public void openCompactsMostlyDeadFiles() throws IOException {
+    String value = padding(1000);
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      for (int i = 0; i < 3000; i++) {
+        store.put("-KpA", value + i);
+      }
+    }
+    long before = file.length();
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      assertTrue(file.length() < before);
+      assertEquals(Collections.singletonList("-KpA"), store.keys());
+      assertEquals(value + 2999, store.get("-KpA"));
+    }
+  }
+
+  @Test
+  public void openStopsAtFirstTornRecord() throws IOException {
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      store.put("-KpA", "Al pastor");
+      store.put("-KpB", "Carnitas");
+      store.put("-KpC", "Barbacoa");
+    }
+
+    // A page holding part of the second record never reached the disk
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      byte[] contents = new byte[(int) raf.length()];
+      raf.readFully(contents);
+      int offset = new String(contents, Charset.forName("ISO-8859-1")).indexOf("Carnitas");
+      raf.seek(offset);
+      raf.write('K');
+    }
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      assertEquals("Al pastor", store.get("-KpA"));
+      assertNull(store.get("-KpB"));
+      assertNull(store.get("-KpC"));
+      assertEquals(1, store.size());
+
+      store.put("-KpD", "Suadero");
+    }
+
+    try (MappedRecordStore<String> store = MappedRecordStore.open(file, codec)) {
+      assertEquals(2, store.size());
+      assertEquals("Al pastor", store.get("-KpA"));
+      assertEquals("Suadero", store.get("-KpD"));
+    }
+  }
+
+  private static String padding(int length) {
+    char[] padding = new char[length];
+    Arrays.fill(padding, 'x');
+    return new String(padding);
+  }
+}
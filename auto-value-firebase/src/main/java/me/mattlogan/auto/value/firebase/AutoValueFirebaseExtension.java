@@ -4,6 +4,7 @@ import com.google.auto.service.AutoService;
 import com.google.auto.value.extension.AutoValueExtension;
 import com.google.common.collect.Lists;
 import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
@@ -14,8 +15,13 @@ import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
 import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -25,14 +31,19 @@ import java.util.Set;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
-import javax.lang.model.util.Types;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
 
 import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;
+import me.mattlogan.auto.value.firebase.adapter.Stateless;
 
 import static javax.lang.model.element.Modifier.ABSTRACT;
 import static javax.lang.model.element.Modifier.FINAL;
@@ -52,8 +63,57 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
   static final ClassName ARRAY_LIST = ClassName.get("java.util", "ArrayList");
   static final ClassName HASH_MAP = ClassName.get("java.util", "HashMap");
   static final ClassName MAP_ENTRY = ClassName.get("java.util", "Map", "Entry");
+  static final ClassName OBJECTS = ClassName.get("java.util", "Objects");
+  static final ClassName SYSTEM = ClassName.get("java.lang", "System");
+  static final ClassName ARRAYS = ClassName.get("java.util", "Arrays");
+  static final ClassName SET = ClassName.get("java.util", "Set");
+  static final ClassName ITERATOR = ClassName.get("java.util", "Iterator");
+  static final ClassName ABSTRACT_LIST = ClassName.get("java.util", "AbstractList");
+  static final ClassName ABSTRACT_MAP = ClassName.get("java.util", "AbstractMap");
+  static final ClassName ABSTRACT_SET = ClassName.get("java.util", "AbstractSet");
+  static final ClassName SIMPLE_IMMUTABLE_ENTRY =
+    ClassName.get("java.util", "AbstractMap", "SimpleImmutableEntry");
+  static final ClassName JSON_READER =
+    ClassName.get("me.mattlogan.auto.value.firebase.json", "JsonReader");
+  static final ClassName JSON_WRITER =
+    ClassName.get("me.mattlogan.auto.value.firebase.json", "JsonWriter");
+  static final ClassName JSON_DATA_EXCEPTION =
+    ClassName.get("me.mattlogan.auto.value.firebase.json", "JsonDataException");
+  static final ClassName IO_EXCEPTION = ClassName.get("java.io", "IOException");
+  static final ClassName DATA_INPUT = ClassName.get("java.io", "DataInput");
+  static final ClassName DATA_OUTPUT = ClassName.get("java.io", "DataOutput");
+  static final ClassName BINARY_CODEC =
+    ClassName.get("me.mattlogan.auto.value.firebase.binary", "BinaryCodec");
+  static final ClassName STRING_POOL =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "StringPool");
+  static final ClassName CANONICALIZER =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "Canonicalizer");
+  static final ClassName FIREBASE_VALUE_METRICS =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "FirebaseValueMetrics");
+  static final ClassName METRICS_OPERATION = FIREBASE_VALUE_METRICS.nestedClass("Operation");
+  static final ClassName FIREBASE_SCHEMA =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "FirebaseSchema");
+  static final ClassName SCHEMA_KIND = FIREBASE_SCHEMA.nestedClass("Kind");
+  static final ClassName FIREBASE_SCHEMAS =
+    ClassName.get("me.mattlogan.auto.value.firebase.runtime", "FirebaseSchemas");
+  static final ClassName CONCURRENT_HASH_MAP =
+    ClassName.get("java.util.concurrent", "ConcurrentHashMap");
+  // HotSpot never JIT-compiles a method with more than 8000 bytes of bytecode (HugeMethodLimit),
+  // and ART skips huge methods as well. Conversions estimated past this budget are split, with
+  // enough headroom for the estimate to be off.
+  static final int METHOD_BYTES_BUDGET = 4000;
+
+  static final TypeName WILDCARD_LIST = ParameterizedTypeName.get(LIST, WildcardTypeName.subtypeOf(Object.class));
+  static final TypeName WILDCARD_MAP = ParameterizedTypeName.get(MAP,
+    WildcardTypeName.subtypeOf(Object.class), WildcardTypeName.subtypeOf(Object.class));
+  static final TypeName WILDCARD_MAP_ENTRY = ParameterizedTypeName.get(MAP_ENTRY,
+    WildcardTypeName.subtypeOf(Object.class), WildcardTypeName.subtypeOf(Object.class));
   static final ClassName FIREBASE_VALUE_ANNOTATION =
     ClassName.get("me.mattlogan.auto.value.firebase.annotation", "FirebaseValue");
+  static final ClassName INTERN =
+    ClassName.get("me.mattlogan.auto.value.firebase.annotation", "Intern");
+  static final ClassName OMIT_NULL =
+    ClassName.get("me.mattlogan.auto.value.firebase.annotation", "OmitNull");
   static final ClassName IGNORE_EXTRA_PROPERTIES =
     ClassName.get("com.google.firebase.database", "IgnoreExtraProperties");
   static final ClassName THROW_ON_EXTRA_PROPERTIES =
@@ -62,44 +122,104 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
     ClassName.get("com.google.firebase.database", "Exclude");
   static final ClassName PROPERTY_NAME =
     ClassName.get("com.google.firebase.database", "PropertyName");
-  private static Types typeUtils;
 
   @Override
   public boolean applicable(Context context) {
-    for (AnnotationMirror annotation : context.autoValueClass().getAnnotationMirrors()) {
-      if (FIREBASE_VALUE_ANNOTATION.equals(AnnotationSpec.get(annotation).type)) {
-        return true;
-      }
-    }
-    return false;
+    return hasAnnotation(context.autoValueClass(), FIREBASE_VALUE_ANNOTATION);
   }
 
   @Override
   public String generateClass(Context context, String classNameString, String classToExtend, boolean isFinal) {
     String packageName = context.packageName();
-    typeUtils = context.processingEnvironment().getTypeUtils();
     TypeElement autoValueTypeElement = context.autoValueClass();
-    Map<String, ExecutableElement> properties = context.properties();
-    LinkedHashMap<String, TypeName> types = convertPropertiesToTypes(properties);
+    List<Property> properties = resolveProperties(context.properties(),
+      firebaseValueOption(autoValueTypeElement, "omitNulls"));
     ClassName className = ClassName.get(packageName, classNameString);
+    boolean lazyCollections = firebaseValueOption(autoValueTypeElement, "lazyCollections");
+    boolean readJson = runtimeIsAvailable(context, JSON_READER);
+    boolean writeJson = runtimeIsAvailable(context, JSON_WRITER);
+    boolean binary = runtimeIsAvailable(context, BINARY_CODEC);
+    boolean metrics = runtimeIsAvailable(context, FIREBASE_VALUE_METRICS);
+    boolean schema = runtimeIsAvailable(context, FIREBASE_SCHEMA);
+    Set<String> interned = getInternedProperties(properties,
+      firebaseValueOption(autoValueTypeElement, "intern"));
+    if (!interned.isEmpty() && !runtimeIsAvailable(context, STRING_POOL)) {
+      throw new RuntimeException("Interning needs auto-value-firebase-runtime on the classpath");
+    }
+    boolean canonicalize = firebaseValueOption(autoValueTypeElement, "canonicalize");
+    if (canonicalize && !runtimeIsAvailable(context, CANONICALIZER)) {
+      throw new RuntimeException("Canonicalizing needs auto-value-firebase-runtime on the classpath");
+    } else if (canonicalize && lazyCollections) {
+      // Hashing a value would convert every element of its lazy collections
+      throw new RuntimeException("canonicalize and lazyCollections can't be combined");
+    }
 
     TypeSpec firebaseValue = TypeSpec.classBuilder(FIREBASEVALUE)
                                      .addModifiers(STATIC, FINAL)
                                      .addAnnotations(generateFirebaseValueClassAnnotations(autoValueTypeElement))
-                                     .addFields(generateFirebaseValueFields(packageName, types))
-                                     .addFields(generateAdapterFields(types))
+                                     .addFields(generateFirebaseValueFields(packageName, properties))
+                                     .addFields(generateAdapterFields(properties))
                                      .addMethod(generateEmptyFirebaseValueConstructor())
-                                     .addMethod(generateFirebaseValueConstructorWithAutoValueParam(
-                                       packageName, autoValueTypeElement, types))
-                                     .addMethod(generateFirebaseValueToAutoValueMethod(
-                                       packageName, className, types))
-                                     .addMethod(generateToMapMethod(properties))
+                                     .addMethods(generateFirebaseValueConstructorWithAutoValueParam(
+                                       packageName, autoValueTypeElement, properties, metrics))
+                                     .addMethods(generateFirebaseValueToAutoValueMethod(
+                                       packageName, className, autoValueTypeElement, properties, interned,
+                                       lazyCollections, canonicalize, metrics))
+                                     .addMethods(generateToMapMethod(packageName, autoValueTypeElement, properties, metrics))
                                      .addMethods(generateFirebaseValueGetters(packageName, properties))
                                      .build();
 
     TypeSpec generatedClass = TypeSpec.classBuilder(className)
                                       .superclass(TypeVariableName.get(classToExtend))
-                                      .addMethod(generateStandardAutoValueConstructor(types))
+                                      .addFields(generateStatelessAdapterFields(properties))
+                                      .addFields(binary
+                                        ? Collections.singletonList(generateBinaryFingerprintField(
+                                            packageName, context.processingEnvironment().getElementUtils(),
+                                            autoValueTypeElement, context.properties()))
+                                        : Collections.<FieldSpec>emptyList())
+                                      .addFields(canonicalize
+                                        ? Collections.singletonList(generateCanonicalizerField(className))
+                                        : Collections.<FieldSpec>emptyList())
+                                      .addFields(schema
+                                        ? Collections.singletonList(generateSchemaField(
+                                            className, autoValueTypeElement, properties))
+                                        : Collections.<FieldSpec>emptyList())
+                                      .addMethod(generateStandardAutoValueConstructor(properties))
+                                      .addMethods(generateFromMapMethod(
+                                        packageName, className, autoValueTypeElement, properties, interned,
+                                        canonicalize, metrics))
+                                      .addMethod(generateFromValueMethod(className))
+                                      .addMethods(generateStaticToMapMethod(
+                                        packageName, autoValueTypeElement, properties, metrics))
+                                      .addMethod(generateStaticGetMethod(packageName, autoValueTypeElement, properties))
+                                      .addMethod(generateDiffMethod(autoValueTypeElement, properties))
+                                      .addMethod(generateDiffIntoMethod(
+                                        packageName, autoValueTypeElement, properties))
+                                      .addMethod(generateApplyPatchMethod(
+                                        packageName, className, autoValueTypeElement, properties, interned,
+                                        canonicalize))
+                                      .addMethod(generateSplitPatchMethod())
+                                      .addMethods(hasIndexedPatch(properties)
+                                        ? Collections.singletonList(generatePatchIndexMethod())
+                                        : Collections.<MethodSpec>emptyList())
+                                      .addMethods(readJson
+                                        ? Collections.singletonList(generateReadJsonMethod(
+                                            packageName, className, autoValueTypeElement, properties, interned,
+                                            canonicalize))
+                                        : Collections.<MethodSpec>emptyList())
+                                      .addMethods(writeJson
+                                        ? Collections.singletonList(generateWriteJsonMethod(
+                                            packageName, autoValueTypeElement, properties))
+                                        : Collections.<MethodSpec>emptyList())
+                                      .addMethods(binary
+                                        ? Arrays.asList(
+                                            generateWriteToMethod(packageName, autoValueTypeElement, properties),
+                                            generateReadFromMethod(
+                                              packageName, className, properties, interned, canonicalize))
+                                        : Collections.<MethodSpec>emptyList())
+                                      .addTypes(lazyCollections
+                                        ? generateLazyCollectionTypes(packageName, properties)
+                                        : new ArrayList<TypeSpec>())
                                       .addType(firebaseValue)
                                       .addModifiers(isFinal ? FINAL : ABSTRACT)
                                       .build();
@@ -107,40 +227,119 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
     return JavaFile.builder(packageName, generatedClass).build().toString();
   }
 
-  static Set<FieldSpec> generateAdapterFields(Map<String, TypeName> types) {
+  static Set<FieldSpec> generateAdapterFields(List<Property> properties) {
     Set<FieldSpec> fieldSpecs = new LinkedHashSet<>();
 
-    for (String key : types.keySet()) {
-      TypeName typeName = types.get(key);
-      if (typeHasAdapter(typeName)) {
-        AnnotationSpec typeAdapterSpec = getTypeAdapterSpec(typeName);
-        ClassName typeAdapterClassName = ClassName.bestGuess(typeAdapterSpec.members
-          .get("value")
-          .get(0)
-          .toString());
-        fieldSpecs.add(FieldSpec.builder(typeAdapterClassName,
-          firstLetterToLowerCase(typeAdapterClassName), PRIVATE, FINAL)
-                                .initializer("new $T()", typeAdapterClassName).build());
+    for (Property property : properties) {
+      if (property.hasAdapter() && !property.statelessAdapter) {
+        fieldSpecs.add(FieldSpec.builder(property.adapter, property.adapterName(), PRIVATE, FINAL)
+                                .initializer("new $T()", property.adapter).build());
       }
     }
 
     return fieldSpecs;
   }
-  static LinkedHashMap<String, TypeName> convertPropertiesToTypes(Map<String, ExecutableElement> properties) {
-    LinkedHashMap<String, TypeName> types = new LinkedHashMap<>();
-    for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
-      TypeName returnTypeName;
+
+  // Stateless adapters are shared by every FirebaseValue and every static encode or decode call.
+  // They're created when the generated class is initialized, which the JVM does lazily.
+  static Set<FieldSpec> generateStatelessAdapterFields(List<Property> properties) {
+    Set<FieldSpec> fieldSpecs = new LinkedHashSet<>();
+
+    for (Property property : properties) {
+      if (property.hasAdapter() && property.statelessAdapter) {
+        fieldSpecs.add(FieldSpec.builder(property.adapter, property.adapterName(), STATIC, FINAL)
+                                .initializer("new $T()", property.adapter).build());
+      }
+    }
+
+    return fieldSpecs;
+  }
+
+  // Looks up everything the generators need about each property once, in declaration order.
+  // Unsupported types are rejected here, before anything is generated.
+  static List<Property> resolveProperties(Map<String, ExecutableElement> elements, boolean omitNulls) {
+    List<Property> properties = new ArrayList<>(elements.size());
+
+    for (Map.Entry<String, ExecutableElement> entry : elements.entrySet()) {
+      String name = entry.getKey();
       ExecutableElement element = entry.getValue();
-      returnTypeName = getTypeNameForElement(element);
-      types.put(entry.getKey(), returnTypeName);
+      TypeName type = TypeName.get(element.getReturnType());
+
+      // This is important! This doesn't have to be here, but it's gotta be somewhere.
+      checkIfTypeIsSupported(type);
+
+      String firebaseName = name;
+      boolean excluded = false;
+      boolean nullable = false;
+      boolean intern = false;
+      Boolean omitNull = null;
+      List<AnnotationSpec> firebaseAnnotations = new ArrayList<>();
+      for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+        ClassName annotationType = annotationType(annotation);
+        if (EXCLUDE.equals(annotationType)) {
+          excluded = true;
+          firebaseAnnotations.add(AnnotationSpec.get(annotation));
+        } else if (PROPERTY_NAME.equals(annotationType)) {
+          AnnotationValue value = getAnnotationValue(annotation, element);
+          if (value != null) {
+            firebaseName = (String) value.getValue();
+          }
+          firebaseAnnotations.add(AnnotationSpec.get(annotation));
+        } else if (INTERN.equals(annotationType)) {
+          intern = true;
+        } else if (OMIT_NULL.equals(annotationType)) {
+          AnnotationValue value = getAnnotationValue(annotation, element);
+          omitNull = value == null || (Boolean) value.getValue();
+        } else if (annotationType.simpleName().equals("Nullable")) {
+          // Same rule as AutoValue: any annotation named @Nullable, whatever its package
+          nullable = true;
+        }
+      }
+
+      Property.Kind kind;
+      ClassName adapter = null;
+      ClassName adapterOutput = null;
+      boolean statelessAdapter = false;
+      FirebaseAdapter firebaseAdapter = element.getAnnotation(FirebaseAdapter.class);
+      if (firebaseAdapter != null) {
+        TypeMirror adapterClass = getTypeAdapterClass(firebaseAdapter);
+        TypeElement adapterElement = (TypeElement) ((DeclaredType) adapterClass).asElement();
+        DeclaredType adapterInterface = (DeclaredType) adapterElement.getInterfaces().get(0);
+        kind = Property.Kind.ADAPTED;
+        adapter = ClassName.bestGuess(TypeName.get(adapterClass).toString());
+        adapterOutput = ClassName.bestGuess(TypeName.get(adapterInterface.getTypeArguments().get(1)).toString());
+        statelessAdapter = adapterElement.getAnnotation(Stateless.class) != null;
+      } else if (typeIsPrimitive(type)) {
+        kind = Property.Kind.VALUE;
+      } else if (typeIsPrimitiveArray(type)) {
+        kind = Property.Kind.VALUE_ARRAY;
+      } else if (typeIsPrimitiveCollection(type)) {
+        kind = Property.Kind.VALUE_COLLECTION;
+      } else if (typeIsNonPrimitiveCollection(type)) {
+        kind = Property.Kind.NESTED_COLLECTION;
+      } else {
+        kind = Property.Kind.NESTED;
+      }
+
+      // Primitives are never null, so there's nothing to omit
+      if (Boolean.TRUE.equals(omitNull) && type.isPrimitive()) {
+        throw unsupportedType(type, "@OmitNull is only supported on properties that can be null");
+      }
+      boolean omit = omitNull != null ? omitNull : omitNulls && !type.isPrimitive();
+
+      properties.add(new Property(name, element, type, kind, excluded ? null : firebaseName,
+        firebaseAnnotations, nullable, intern, omit, adapter, adapterOutput, statelessAdapter));
     }
-    return types;
+
+    return properties;
   }
 
-  static MethodSpec generateStandardAutoValueConstructor(Map<String, TypeName> properties) {
+  static MethodSpec generateStandardAutoValueConstructor(List<Property> properties) {
     List<ParameterSpec> params = Lists.newArrayList();
-    for (Map.Entry<String, TypeName> entry : properties.entrySet()) {
-      params.add(ParameterSpec.builder(entry.getValue().withoutAnnotations(), entry.getKey()).build());
+    List<String> names = new ArrayList<>(properties.size());
+    for (Property property : properties) {
+      params.add(ParameterSpec.builder(property.type, property.name).build());
+      names.add(property.name);
     }
 
     MethodSpec.Builder builder = MethodSpec.constructorBuilder()
@@ -154,7 +353,7 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
       }
     }
     superFormat.append(")");
-    builder.addStatement(superFormat.toString(), properties.keySet().toArray());
+    builder.addStatement(superFormat.toString(), names.toArray());
 
     return builder.build();
   }
@@ -163,13 +362,12 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
     List<AnnotationSpec> annotations = new ArrayList<>();
 
     for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
-      AnnotationSpec annotationSpec = AnnotationSpec.get(annotation);
-      TypeName annotationType = AnnotationSpec.get(annotation).type;
+      ClassName annotationType = annotationType(annotation);
 
       if (IGNORE_EXTRA_PROPERTIES.equals(annotationType)) {
-        annotations.add(annotationSpec);
+        annotations.add(AnnotationSpec.get(annotation));
       } else if (THROW_ON_EXTRA_PROPERTIES.equals(annotationType)) {
-        annotations.add(annotationSpec);
+        annotations.add(AnnotationSpec.get(annotation));
       }
     }
 
@@ -177,53 +375,37 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
   }
 
   static List<FieldSpec> generateFirebaseValueFields(String packageName,
-                                                     Map<String, TypeName> types) {
+                                                     List<Property> properties) {
     List<FieldSpec> fields = new ArrayList<>();
 
-    for (Map.Entry<String, TypeName> entry : types.entrySet()) {
-      String fieldName = entry.getKey();
-      TypeName originalType = entry.getValue();
-
-      // This is important! This doesn't have to be here, but it's gotta be somewhere.
-      checkIfTypeIsSupported(entry.getValue());
-
-      if (typeHasAdapter(originalType)) {
-        ClassName output = getTypeAdapterOutputType(originalType);
-        fields.add(FieldSpec.builder(output, fieldName, PRIVATE).build());
-      } else if (typeIsPrimitive(originalType) || typeIsPrimitiveCollection(originalType)) {
-        fields.add(FieldSpec.builder(originalType, fieldName, PRIVATE).build());
-
-      } else if (typeIsNonPrimitiveCollection(originalType)) {
-        ParameterizedTypeName fullType = (ParameterizedTypeName) originalType;
-        ClassName rawType = fullType.rawType;
-        if (LIST.equals(rawType)) {
-          ClassName typeParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName newTypeParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + typeParam.simpleName(), FIREBASEVALUE);
-          ParameterizedTypeName newFullType =
-            ParameterizedTypeName.get(rawType, newTypeParam);
-
-          fields.add(FieldSpec.builder(newFullType, fieldName, PRIVATE).build());
+    for (Property property : properties) {
+      fields.add(FieldSpec.builder(firebaseValueFieldType(packageName, property), property.name, PRIVATE).build());
+    }
 
-        } else if (MAP.equals(rawType)) {
-          ClassName keyParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName valueParam = (ClassName) fullType.typeArguments.get(1);
-          ClassName newTypeParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + valueParam.simpleName(), FIREBASEVALUE);
-          ParameterizedTypeName newFullType =
-            ParameterizedTypeName.get(rawType, keyParam, newTypeParam);
+    return fields;
+  }
 
-          fields.add(FieldSpec.builder(newFullType, fieldName, PRIVATE).build());
+  // The type a property is held as by the FirebaseValue, and returned from its getter
+  static TypeName firebaseValueFieldType(String packageName, Property property) {
+    switch (property.kind) {
+      case ADAPTED:
+        return property.adapterOutput;
+      case VALUE:
+      case VALUE_COLLECTION:
+        return property.type;
+      case VALUE_ARRAY:
+        return firebaseListType(property.type);
+      case NESTED_COLLECTION:
+        ParameterizedTypeName fullType = (ParameterizedTypeName) property.type;
+        if (LIST.equals(fullType.rawType)) {
+          return ParameterizedTypeName.get(fullType.rawType,
+            firebaseValueClassName(packageName, fullType.typeArguments.get(0)));
         }
-      } else {
-        ClassName firebaseValueName =
-          ClassName.get(packageName, AUTOVALUE_PREFIX + ((ClassName) originalType).simpleName(), FIREBASEVALUE);
-
-        fields.add(FieldSpec.builder(firebaseValueName, fieldName, PRIVATE).build());
-      }
+        return ParameterizedTypeName.get(fullType.rawType, fullType.typeArguments.get(0),
+          firebaseValueClassName(packageName, fullType.typeArguments.get(1)));
+      default:
+        return firebaseValueClassName(packageName, property.type);
     }
-
-    return fields;
   }
 
   static MethodSpec generateEmptyFirebaseValueConstructor() {
@@ -233,34 +415,61 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
         .build()).build();
   }
 
-  static MethodSpec generateFirebaseValueConstructorWithAutoValueParam(String packageName,
-                                                                       TypeElement autoValueTypeElement,
-                                                                       Map<String, TypeName> types) {
+  static List<MethodSpec> generateFirebaseValueConstructorWithAutoValueParam(String packageName,
+                                                                             TypeElement autoValueTypeElement,
+                                                                             List<Property> properties,
+                                                                             boolean metrics) {
     MethodSpec.Builder autoValueConstructorBuilder = MethodSpec.constructorBuilder();
     ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
     String autoValueConstructorParamName = firstLetterToLowerCase(autoValueType);
-    autoValueConstructorBuilder.addParameter(
-      ParameterSpec.builder(autoValueType, autoValueConstructorParamName).build());
-
-    for (Map.Entry<String, TypeName> entry : types.entrySet()) {
-      String fieldName = entry.getKey();
-      TypeName originalType = entry.getValue();
-
-      if (typeHasAdapter(originalType)) {
-        AnnotationSpec typeAdapterSpec = getTypeAdapterSpec(originalType);
-        ClassName adapterInstance = ClassName.bestGuess(typeAdapterSpec.members
-          .get("value")
-          .get(0)
-          .toString());
+    ParameterSpec autoValueParam = ParameterSpec.builder(autoValueType, autoValueConstructorParamName).build();
+    autoValueConstructorBuilder.addParameter(autoValueParam);
+    if (metrics) {
+      addMetricsStart(autoValueConstructorBuilder);
+    }
+
+    List<MethodSpec> methods = new ArrayList<>();
+    List<List<Property>> chunks = chunkProperties(properties);
+    if (chunks.size() == 1) {
+      addFirebaseValueAssignments(autoValueConstructorBuilder, packageName, autoValueConstructorParamName,
+        properties);
+    } else {
+      for (int i = 0; i < chunks.size(); i++) {
+        MethodSpec.Builder chunkBuilder = MethodSpec.methodBuilder("fromAutoValue" + i)
+                                                    .addModifiers(PRIVATE)
+                                                    .addParameter(autoValueParam);
+        addFirebaseValueAssignments(chunkBuilder, packageName, autoValueConstructorParamName, chunks.get(i));
+        methods.add(chunkBuilder.build());
+        autoValueConstructorBuilder.addStatement("fromAutoValue$L($L)", i, autoValueConstructorParamName);
+      }
+    }
+
+    if (metrics) {
+      addMetricsRecord(autoValueConstructorBuilder, autoValueType, "FIREBASE_VALUE", properties);
+    }
+
+    methods.add(0, autoValueConstructorBuilder.build());
+    return methods;
+  }
+
+  static void addFirebaseValueAssignments(MethodSpec.Builder autoValueConstructorBuilder,
+                                          String packageName,
+                                          String autoValueConstructorParamName,
+                                          List<Property> properties) {
+    for (Property property : properties) {
+      String fieldName = property.name;
+      TypeName originalType = property.type;
+
+      if (property.hasAdapter()) {
         autoValueConstructorBuilder.addCode("this.$L = $L.$L() == null ? null " +
           ": $L.toFirebaseValue($L.$L());\n",
           fieldName, autoValueConstructorParamName, fieldName,
-          firstLetterToLowerCase(adapterInstance), autoValueConstructorParamName, fieldName);
-      } else if (typeIsPrimitive(originalType) || typeIsPrimitiveCollection(originalType)) {
+          property.adapterName(), autoValueConstructorParamName, fieldName);
+      } else if (property.kind == Property.Kind.VALUE || property.kind == Property.Kind.VALUE_COLLECTION) {
         autoValueConstructorBuilder.addCode("this.$L = $L.$L();\n",
           fieldName, autoValueConstructorParamName, fieldName);
 
-      } else if (typeIsNonPrimitiveCollection(originalType)) {
+      } else if (property.kind == Property.Kind.NESTED_COLLECTION) {
         ParameterizedTypeName fullType = (ParameterizedTypeName) originalType;
         ClassName rawType = fullType.rawType;
 
@@ -299,6 +508,21 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
             .endControlFlow()
             .endControlFlow();
         }
+      } else if (property.kind == Property.Kind.VALUE_ARRAY) {
+        TypeName componentType = ((ArrayTypeName) originalType).componentType;
+
+        // Firebase can't map arrays, so the FirebaseValue holds them as Lists
+        autoValueConstructorBuilder
+          .beginControlFlow("if ($L.$L() != null)",
+            autoValueConstructorParamName, fieldName)
+          .addStatement("this.$L = new $T<>($L.$L().length)",
+            fieldName, ARRAY_LIST, autoValueConstructorParamName, fieldName)
+          .beginControlFlow("for ($T item : $L.$L())",
+            componentType, autoValueConstructorParamName, fieldName)
+          .addStatement("this.$L.add($L)", fieldName, widenArrayItem(componentType, "item"))
+          .endControlFlow()
+          .endControlFlow();
+
       } else {
         ClassName firebaseValueName =
           ClassName.get(packageName, AUTOVALUE_PREFIX + ((ClassName) originalType).simpleName(), FIREBASEVALUE);
@@ -308,113 +532,260 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
           firebaseValueName, autoValueConstructorParamName, fieldName);
       }
     }
-
-    return autoValueConstructorBuilder.build();
   }
 
   static List<MethodSpec> generateFirebaseValueGetters(String packageName,
-                                                       Map<String, ExecutableElement> properties) {
+                                                       List<Property> properties) {
     List<MethodSpec> getters = new ArrayList<>();
 
-    for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
-      String fieldName = entry.getKey();
-      TypeName originalType = TypeName.get(entry.getValue().getReturnType());
-      checkIfTypeIsSupported(originalType);
-
-      MethodSpec.Builder methodBuilder =
-        MethodSpec.methodBuilder(fieldNameToGetterName(fieldName))
-                  .addModifiers(PUBLIC)
-                  .addCode("return " + fieldName + ";\n");
-
-      methodBuilder.addAnnotations(generateFirebaseValueMethodAnnotations(entry.getValue()));
-
-      if (typeHasAdapter(entry.getValue())) {
-        TypeName typeNameForElement = getTypeNameForElement(entry.getValue());
-        methodBuilder.returns(getTypeAdapterOutputType(typeNameForElement));
-      } else if (typeIsPrimitive(originalType) || typeIsPrimitiveCollection(originalType)) {
-        methodBuilder.returns(originalType);
-
-      } else if (typeIsNonPrimitiveCollection(originalType)) {
-        ParameterizedTypeName fullType = (ParameterizedTypeName) originalType;
-        ClassName rawType = fullType.rawType;
-
-        if (LIST.equals(rawType)) {
-          ClassName typeParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName newTypeParam =
-            ClassName.get(packageName, AUTOVALUE_PREFIX + typeParam.simpleName(), FIREBASEVALUE);
-          ParameterizedTypeName newFullType =
-            ParameterizedTypeName.get(rawType, newTypeParam);
-
-          methodBuilder.returns(newFullType);
-
-        } else if (MAP.equals(rawType)) {
-          ClassName keyParam = (ClassName) fullType.typeArguments.get(0);
-          ClassName valueParam = (ClassName) fullType.typeArguments.get(1);
-          ClassName newTypeParam = ClassName.get(packageName,
-            AUTOVALUE_PREFIX + valueParam.simpleName(),
-            FIREBASEVALUE);
-          ParameterizedTypeName newFullType =
-            ParameterizedTypeName.get(rawType, keyParam, newTypeParam);
+    for (Property property : properties) {
+      getters.add(MethodSpec.methodBuilder(fieldNameToGetterName(property.name))
+                            .addModifiers(PUBLIC)
+                            .addCode("return " + property.name + ";\n")
+                            .addAnnotations(property.firebaseAnnotations)
+                            .returns(firebaseValueFieldType(packageName, property))
+                            .build());
+    }
 
-          methodBuilder.returns(newFullType);
-        }
+    return getters;
+  }
 
-      } else {
-        ClassName firebaseValueName =
-          ClassName.get(packageName, AUTOVALUE_PREFIX + ((ClassName) originalType).simpleName(), FIREBASEVALUE);
+  // Read-only views used by toAutoValue() in lazyCollections mode. Each element is converted on
+  // first access and cached. Racing readers may convert the same element twice, which is harmless
+  // because the converted values are immutable.
+  static List<TypeSpec> generateLazyCollectionTypes(String packageName, List<Property> properties) {
+    Set<ClassName> listElementTypes = new LinkedHashSet<>();
+    Set<ClassName> mapValueTypes = new LinkedHashSet<>();
 
-        methodBuilder.returns(firebaseValueName);
+    for (Property property : properties) {
+      if (property.kind != Property.Kind.NESTED_COLLECTION) {
+        continue;
       }
+      ParameterizedTypeName pType = (ParameterizedTypeName) property.type;
+      if (LIST.equals(pType.rawType)) {
+        listElementTypes.add((ClassName) pType.typeArguments.get(0));
+      } else if (MAP.equals(pType.rawType)) {
+        mapValueTypes.add((ClassName) pType.typeArguments.get(1));
+      }
+    }
 
-      getters.add(methodBuilder.build());
+    List<TypeSpec> typeSpecs = new ArrayList<>();
+    for (ClassName elementType : listElementTypes) {
+      typeSpecs.add(generateLazyListType(packageName, elementType));
     }
+    for (ClassName valueType : mapValueTypes) {
+      typeSpecs.add(generateLazyMapType(packageName, valueType));
+    }
+    return typeSpecs;
+  }
 
-    return getters;
+  static TypeSpec generateLazyListType(String packageName, ClassName elementType) {
+    ClassName firebaseValueType = firebaseValueClassName(packageName, elementType);
+    TypeName valuesType = ParameterizedTypeName.get(LIST, firebaseValueType);
+
+    return TypeSpec.classBuilder(lazyListClassName(elementType))
+                   .addModifiers(STATIC, FINAL)
+                   .superclass(ParameterizedTypeName.get(ABSTRACT_LIST, elementType))
+                   .addField(valuesType, "values", PRIVATE, FINAL)
+                   .addField(ArrayTypeName.of(elementType), "cache", PRIVATE, FINAL)
+                   .addMethod(MethodSpec.constructorBuilder()
+                                        .addParameter(valuesType, "values")
+                                        .addStatement("this.values = values")
+                                        .addStatement("this.cache = new $T[values.size()]", elementType)
+                                        .build())
+                   .addMethod(MethodSpec.methodBuilder("get")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .addParameter(TypeName.INT, "index")
+                                        .returns(elementType)
+                                        .addStatement("$T value = cache[index]", elementType)
+                                        .beginControlFlow("if (value == null)")
+                                        .addStatement("$T firebaseValue = values.get(index)", firebaseValueType)
+                                        .beginControlFlow("if (firebaseValue != null)")
+                                        .addStatement("value = firebaseValue.toAutoValue()")
+                                        .addStatement("cache[index] = value")
+                                        .endControlFlow()
+                                        .endControlFlow()
+                                        .addStatement("return value")
+                                        .build())
+                   .addMethod(MethodSpec.methodBuilder("size")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .returns(TypeName.INT)
+                                        .addStatement("return cache.length")
+                                        .build())
+                   .build();
   }
 
-  static List<AnnotationSpec> generateFirebaseValueMethodAnnotations(ExecutableElement property) {
-    List<AnnotationSpec> annotations = new ArrayList<>();
+  static TypeSpec generateLazyMapType(String packageName, ClassName valueType) {
+    ClassName firebaseValueType = firebaseValueClassName(packageName, valueType);
+    TypeVariableName keyType = TypeVariableName.get("K");
+    TypeName valuesType = ParameterizedTypeName.get(MAP, keyType, firebaseValueType);
+    TypeName entryType = ParameterizedTypeName.get(MAP_ENTRY, keyType, valueType);
+
+    TypeSpec iterator = TypeSpec.anonymousClassBuilder("")
+                                .addSuperinterface(ParameterizedTypeName.get(ITERATOR, entryType))
+                                .addField(FieldSpec.builder(ParameterizedTypeName.get(ITERATOR, keyType), "keys", PRIVATE, FINAL)
+                                                   .initializer("values.keySet().iterator()")
+                                                   .build())
+                                .addMethod(MethodSpec.methodBuilder("hasNext")
+                                                     .addAnnotation(Override.class)
+                                                     .addModifiers(PUBLIC)
+                                                     .returns(TypeName.BOOLEAN)
+                                                     .addStatement("return keys.hasNext()")
+                                                     .build())
+                                .addMethod(MethodSpec.methodBuilder("next")
+                                                     .addAnnotation(Override.class)
+                                                     .addModifiers(PUBLIC)
+                                                     .returns(entryType)
+                                                     .addStatement("$T key = keys.next()", keyType)
+                                                     .addStatement("return new $T<>(key, get(key))", SIMPLE_IMMUTABLE_ENTRY)
+                                                     .build())
+                                .addMethod(MethodSpec.methodBuilder("remove")
+                                                     .addAnnotation(Override.class)
+                                                     .addModifiers(PUBLIC)
+                                                     .addStatement("throw new $T()", UnsupportedOperationException.class)
+                                                     .build())
+                                .build();
+
+    TypeSpec entrySet = TypeSpec.anonymousClassBuilder("")
+                                .superclass(ParameterizedTypeName.get(ABSTRACT_SET, entryType))
+                                .addMethod(MethodSpec.methodBuilder("size")
+                                                     .addAnnotation(Override.class)
+                                                     .addModifiers(PUBLIC)
+                                                     .returns(TypeName.INT)
+                                                     .addStatement("return values.size()")
+                                                     .build())
+                                .addMethod(MethodSpec.methodBuilder("iterator")
+                                                     .addAnnotation(Override.class)
+                                                     .addModifiers(PUBLIC)
+                                                     .returns(ParameterizedTypeName.get(ITERATOR, entryType))
+                                                     .addStatement("return $L", iterator)
+                                                     .build())
+                                .build();
+
+    return TypeSpec.classBuilder(lazyMapClassName(valueType))
+                   .addModifiers(STATIC, FINAL)
+                   .addTypeVariable(keyType)
+                   .superclass(ParameterizedTypeName.get(ABSTRACT_MAP, keyType, valueType))
+                   .addField(valuesType, "values", PRIVATE, FINAL)
+                   .addField(FieldSpec.builder(ParameterizedTypeName.get(MAP, TypeName.OBJECT, valueType),
+                                        "cache", PRIVATE, FINAL)
+                                      .initializer("new $T<>()", CONCURRENT_HASH_MAP)
+                                      .build())
+                   .addMethod(MethodSpec.constructorBuilder()
+                                        .addParameter(valuesType, "values")
+                                        .addStatement("this.values = values")
+                                        .build())
+                   .addMethod(MethodSpec.methodBuilder("get")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .addParameter(TypeName.OBJECT, "key")
+                                        .returns(valueType)
+                                        .beginControlFlow("if (key == null)")
+                                        .addStatement("return null")
+                                        .endControlFlow()
+                                        .addStatement("$T value = cache.get(key)", valueType)
+                                        .beginControlFlow("if (value == null)")
+                                        .addStatement("$T firebaseValue = values.get(key)", firebaseValueType)
+                                        .beginControlFlow("if (firebaseValue != null)")
+                                        .addStatement("value = firebaseValue.toAutoValue()")
+                                        .addStatement("cache.put(key, value)")
+                                        .endControlFlow()
+                                        .endControlFlow()
+                                        .addStatement("return value")
+                                        .build())
+                   .addMethod(MethodSpec.methodBuilder("containsKey")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .addParameter(TypeName.OBJECT, "key")
+                                        .returns(TypeName.BOOLEAN)
+                                        .addStatement("return key != null && values.containsKey(key)")
+                                        .build())
+                   .addMethod(MethodSpec.methodBuilder("size")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .returns(TypeName.INT)
+                                        .addStatement("return values.size()")
+                                        .build())
+                   .addMethod(MethodSpec.methodBuilder("entrySet")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(PUBLIC)
+                                        .returns(ParameterizedTypeName.get(SET, entryType))
+                                        .addStatement("return $L", entrySet)
+                                        .build())
+                   .build();
+  }
 
-    for (AnnotationMirror annotation : property.getAnnotationMirrors()) {
-      AnnotationSpec annotationSpec = AnnotationSpec.get(annotation);
-      TypeName annotationType = AnnotationSpec.get(annotation).type;
+  static String lazyListClassName(ClassName elementType) {
+    return "Lazy" + elementType.simpleName() + "List";
+  }
+
+  static String lazyMapClassName(ClassName valueType) {
+    return "Lazy" + valueType.simpleName() + "Map";
+  }
 
-      if (EXCLUDE.equals(annotationType)) {
-        annotations.add(annotationSpec);
-      } else if (PROPERTY_NAME.equals(annotationType)) {
-        annotations.add(annotationSpec);
+  // Reads a boolean member of the @FirebaseValue annotation, false when it isn't set
+  static boolean firebaseValueOption(TypeElement type, String name) {
+    for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+      if (!FIREBASE_VALUE_ANNOTATION.equals(annotationType(annotation))) {
+        continue;
+      }
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+        : annotation.getElementValues().entrySet()) {
+        if (entry.getKey().getSimpleName().contentEquals(name)) {
+          return (Boolean) entry.getValue().getValue();
+        }
       }
     }
-
-    return annotations;
+    return false;
   }
 
-  static MethodSpec generateFirebaseValueToAutoValueMethod(String packageName,
-                                                           ClassName autoValueClassName,
-                                                           LinkedHashMap<String, TypeName> types) {
+  static List<MethodSpec> generateFirebaseValueToAutoValueMethod(String packageName,
+                                                                 ClassName autoValueClassName,
+                                                                 TypeElement autoValueTypeElement,
+                                                                 List<Property> properties,
+                                                                 Set<String> interned,
+                                                                 boolean lazyCollections,
+                                                                 boolean canonicalize,
+                                                                 boolean metrics) {
     ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
     MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("toAutoValue")
                                                  .addAnnotation(EXCLUDE)
                                                  .returns(finalAutoValueClassName);
+    Set<String> internedLocals = new LinkedHashSet<>(interned);
+    if (metrics) {
+      addMetricsStart(methodBuilder);
+    }
 
-    for (Map.Entry<String, TypeName> entry : types.entrySet()) {
-      String fieldName = entry.getKey();
-      boolean hasTypeAdapter = typeHasAdapter(entry.getValue());
-      TypeName type = entry.getValue().withoutAnnotations();
+    // Every local is passed to one constructor call, so instead of chunking, a wide model converts
+    // each array and nested collection in its own method
+    List<MethodSpec> methods = new ArrayList<>();
+    boolean split = chunkProperties(properties).size() > 1;
+    MethodSpec.Builder mainBuilder = methodBuilder;
+
+    for (Property property : properties) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      boolean converted = property.kind == Property.Kind.VALUE_ARRAY
+        || (property.kind == Property.Kind.NESTED_COLLECTION && !lazyCollections);
+      if (split && converted) {
+        String helperName = fieldName + "ToAutoValue";
+        mainBuilder.addStatement("$T $L = $L()", type, fieldName, helperName);
+        methodBuilder = MethodSpec.methodBuilder(helperName)
+                                  .addModifiers(PRIVATE)
+                                  .returns(type);
+      }
 
-      if (hasTypeAdapter) {
-        AnnotationSpec typeAdapterSpec = getTypeAdapterSpec(entry.getValue());
-        Map<String, List<CodeBlock>> annotationmemebers = typeAdapterSpec.members;
-        ClassName adapterInstance = ClassName.bestGuess(annotationmemebers.get("value").get(0)
-          .toString());
+      if (property.hasAdapter()) {
         methodBuilder.addStatement("$T $L = this.$L == null ? null " +
           ": $L.fromFirebaseValue(this.$L)",
-          type, fieldName, fieldName, firstLetterToLowerCase(adapterInstance), fieldName);
+          type, fieldName, fieldName, property.adapterName(), fieldName);
 
-      } else if (typeIsPrimitive(type) || typeIsPrimitiveCollection(type)) {
+      } else if (property.kind == Property.Kind.VALUE || property.kind == Property.Kind.VALUE_COLLECTION) {
         methodBuilder.addStatement("$T $L = this.$L", type, fieldName, fieldName);
 
-      } else if (typeIsNonPrimitiveCollection(type)) {
+      } else if (property.kind == Property.Kind.NESTED_COLLECTION) {
         ParameterizedTypeName pType = (ParameterizedTypeName) type;
 
         if (LIST.equals(pType.rawType)) {
@@ -422,6 +793,12 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
           ClassName inputParam =
             ClassName.get(packageName, AUTOVALUE_PREFIX + outputParam.simpleName() + "." + FIREBASEVALUE);
 
+          if (lazyCollections) {
+            methodBuilder.addStatement("$T $L = this.$L == null ? null : new $L(this.$L)",
+              type, fieldName, fieldName, lazyListClassName(outputParam), fieldName);
+            continue;
+          }
+
           methodBuilder.addStatement("$T $L = null", type, fieldName)
                        .beginControlFlow("if (this.$L != null)", fieldName)
                        .addStatement("$L = new $T<>()", fieldName, ARRAY_LIST)
@@ -436,6 +813,14 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
           ClassName inputParam =
             ClassName.get(packageName, AUTOVALUE_PREFIX + outputParam.simpleName() + "." + FIREBASEVALUE);
 
+          if (lazyCollections) {
+            // Interning the keys would convert every value, which is what the view avoids
+            internedLocals.remove(fieldName);
+            methodBuilder.addStatement("$T $L = this.$L == null ? null : new $L<>(this.$L)",
+              type, fieldName, fieldName, lazyMapClassName(outputParam), fieldName);
+            continue;
+          }
+
           methodBuilder.addStatement("$T $L = null", type, fieldName)
                        .beginControlFlow("if (this.$L != null)", fieldName)
                        .addStatement("$L = new $T<>()", fieldName, HASH_MAP)
@@ -447,211 +832,2147 @@ public class AutoValueFirebaseExtension extends AutoValueExtension {
                        .endControlFlow();
         }
 
+      } else if (property.kind == Property.Kind.VALUE_ARRAY) {
+        TypeName componentType = ((ArrayTypeName) type).componentType;
+        methodBuilder.addStatement("$T $L = null", type, fieldName)
+                     .beginControlFlow("if (this.$L != null)", fieldName)
+                     .addStatement("$L = new $T[this.$L.size()]", fieldName, componentType, fieldName)
+                     .beginControlFlow("for (int i = 0; i < $L.length; i++)", fieldName)
+                     .addStatement("$T item = this.$L.get(i)", firebaseListType(type).typeArguments.get(0), fieldName)
+                     .addStatement("$L[i] = $L", fieldName, unboxArrayItem(componentType, "item"))
+                     .endControlFlow()
+                     .endControlFlow();
+
       } else {
         methodBuilder.addStatement("$T $L = this.$L == null ? null : this.$L.toAutoValue()",
           type, fieldName, fieldName, fieldName);
       }
-    }
 
-    methodBuilder.addCode("return new $T(", finalAutoValueClassName);
-    StringBuilder constructorArgsFormat = new StringBuilder();
-    for (int i = types.size(); i > 0; i--) {
-      constructorArgsFormat.append("$N");
-      if (i > 1) {
-        constructorArgsFormat.append(", ");
+      if (methodBuilder != mainBuilder) {
+        methods.add(methodBuilder.addStatement("return $L", fieldName).build());
+        methodBuilder = mainBuilder;
       }
     }
-    constructorArgsFormat.append(");\n");
-    methodBuilder.addCode(constructorArgsFormat.toString(), types.keySet().toArray());
 
-    return methodBuilder.build();
+    addInternStatements(methodBuilder, properties, internedLocals);
+    if (metrics) {
+      methodBuilder.addStatement("$T autoValue = $L", finalAutoValueClassName,
+        newAutoValue(finalAutoValueClassName, properties, canonicalize));
+      addMetricsRecord(methodBuilder, (ClassName) ClassName.get(autoValueTypeElement.asType()),
+        "TO_AUTO_VALUE", properties);
+      methodBuilder.addStatement("return autoValue");
+    } else {
+      addReturnAutoValue(methodBuilder, finalAutoValueClassName, properties, canonicalize);
+    }
+
+    methods.add(0, methodBuilder.build());
+    return methods;
   }
 
-  static MethodSpec generateToMapMethod(Map<String, ExecutableElement> properties) {
+  static List<MethodSpec> generateToMapMethod(String packageName,
+                                              TypeElement autoValueTypeElement,
+                                              List<Property> properties,
+                                              boolean metrics) {
     ParameterizedTypeName mapOfStringToObjectClassName = ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT);
     MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("toMap")
             .addAnnotation(EXCLUDE)
             .returns(mapOfStringToObjectClassName);
+    if (metrics) {
+      addMetricsStart(methodBuilder);
+    }
 
-    Map<String, String> propertyNameForValue = new LinkedHashMap<>(properties.size());
-    for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
-      AnnotationMirror excludeAnnotation = getAnnotationMirror(EXCLUDE, entry.getValue());
-      if (excludeAnnotation == null) {
-        AnnotationMirror propertyNameAnnotation = getAnnotationMirror(PROPERTY_NAME, entry.getValue());
-        AnnotationValue propertyNameValue = propertyNameAnnotation != null ? getAnnotationValue(propertyNameAnnotation, entry.getValue()) : null;
-        String propertyName = propertyNameValue != null ? (String) propertyNameValue.getValue() : entry.getKey();
-        propertyNameForValue.put(entry.getKey(), propertyName);
+    List<Property> stored = storedProperties(properties);
+
+    addToMapDeclaration(methodBuilder, stored, "this.$L");
+    List<MethodSpec> methods = new ArrayList<>();
+    List<List<Property>> chunks = chunkProperties(stored);
+    if (chunks.size() == 1) {
+      addToMapPuts(methodBuilder, packageName, stored);
+    } else {
+      for (int i = 0; i < chunks.size(); i++) {
+        MethodSpec.Builder chunkBuilder = MethodSpec.methodBuilder("toMap" + i)
+                                                    .addModifiers(PRIVATE)
+                                                    .addParameter(
+                                                      ParameterizedTypeName.get(HASH_MAP, STRING, TypeName.OBJECT), "map");
+        addToMapPuts(chunkBuilder, packageName, chunks.get(i));
+        methods.add(chunkBuilder.build());
+        methodBuilder.addStatement("toMap$L(map)", i);
       }
     }
-
-    methodBuilder.addStatement("$T map = new $T<>($L)", ParameterizedTypeName.get(HASH_MAP, STRING, TypeName.OBJECT), HASH_MAP, propertyNameForValue.size());
-    for (Map.Entry<String, String> entry : propertyNameForValue.entrySet()) {
-      methodBuilder.addStatement("map.put($S, this.$N)", entry.getValue(), entry.getKey());
+    if (metrics) {
+      addMetricsRecord(methodBuilder, (ClassName) ClassName.get(autoValueTypeElement.asType()),
+        "TO_MAP", properties);
     }
     methodBuilder.addStatement("return map");
-    return methodBuilder.build();
+    methods.add(0, methodBuilder.build());
+    return methods;
   }
 
+  static void addToMapPuts(MethodSpec.Builder methodBuilder, String packageName, List<Property> stored) {
+    for (Property property : stored) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      CodeBlock value = CodeBlock.of("this.$L", fieldName);
 
-  static boolean checkIfTypeIsSupported(TypeName type) {
-    if (typeIsPrimitive(type)) {
-      return true;
+      // Nested values are converted to plain Maps and Lists so Firebase never has to reflect on them
+      if (property.omitNull && property.kind != Property.Kind.NESTED_COLLECTION) {
+        addOmittablePut(methodBuilder, property, value, property.kind == Property.Kind.NESTED
+          ? CodeBlock.of("$L.toMap()", value)
+          : value);
 
-    } else if (type instanceof ParameterizedTypeName) {
-      ParameterizedTypeName pType = (ParameterizedTypeName) type;
+      } else if (property.kind != Property.Kind.NESTED_COLLECTION && property.kind != Property.Kind.NESTED) {
+        methodBuilder.addStatement("map.put($S, this.$N)", property.firebaseName, fieldName);
 
-      if (LIST.equals(pType.rawType)) {
-        if (pType.typeArguments.get(0) instanceof ParameterizedTypeName) {
-          throw unsupportedType(type, "Parameterized types are not allowed as List type arguments");
-        }
+      } else if (property.kind == Property.Kind.NESTED_COLLECTION) {
+        ParameterizedTypeName pType = (ParameterizedTypeName) type;
 
-      } else if (MAP.equals(pType.rawType)) {
-        if (!typeIsPrimitive(pType.typeArguments.get(0))) {
-          throw unsupportedType(type, "Only primitives, boxed primitives, and Strings are allowed as Map keys");
-        } else if (pType.typeArguments.get(1) instanceof ParameterizedTypeName) {
-          throw unsupportedType(type, "Parameterized types are not allowed as Map values");
+        if (LIST.equals(pType.rawType)) {
+          ClassName itemType = firebaseValueClassName(packageName, pType.typeArguments.get(0));
+          String listName = fieldName + "List";
+          beginCollectionPut(methodBuilder, property, value, ParameterizedTypeName.get(LIST, TypeName.OBJECT),
+            listName, CodeBlock.of("new $T<>(this.$L.size())", ARRAY_LIST, fieldName));
+          methodBuilder.beginControlFlow("for ($T item : this.$L)", itemType, fieldName)
+                       .addStatement("$L.add(item == null ? null : item.toMap())", listName)
+                       .endControlFlow();
+          endCollectionPut(methodBuilder, property, listName);
+
+        } else if (MAP.equals(pType.rawType)) {
+          TypeName keyType = pType.typeArguments.get(0);
+          ClassName valueType = firebaseValueClassName(packageName, pType.typeArguments.get(1));
+          String mapName = fieldName + "Map";
+          beginCollectionPut(methodBuilder, property, value, ParameterizedTypeName.get(MAP, keyType, TypeName.OBJECT),
+            mapName, CodeBlock.of("new $T<>((int) (this.$L.size() / 0.75f) + 1)", HASH_MAP, fieldName));
+          methodBuilder.beginControlFlow("for ($T<$T, $T> entry : this.$L.entrySet())",
+                         MAP_ENTRY, keyType, valueType, fieldName)
+                       .addStatement("$L.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().toMap())", mapName)
+                       .endControlFlow();
+          endCollectionPut(methodBuilder, property, mapName);
         }
 
       } else {
-        throw unsupportedType(type, "List and Map are the only supported parameterized types");
+        methodBuilder.addStatement("map.put($S, this.$N == null ? null : this.$N.toMap())",
+          property.firebaseName, fieldName, fieldName);
       }
     }
-    return true;
   }
 
-  static boolean typeHasAdapter(TypeName typeName) {
-    boolean hasAdapter = false;
-    for (AnnotationSpec annotation : typeName.annotations) {
-      if (annotation.type.equals(AnnotationSpec.builder(FirebaseAdapter.class).build().type)) {
-        hasAdapter = true;
+  // Decodes the raw value tree returned by DataSnapshot.getValue() without going through
+  // Firebase's reflective bean mapper or an intermediate FirebaseValue instance
+  static List<MethodSpec> generateFromMapMethod(String packageName,
+                                                ClassName autoValueClassName,
+                                                TypeElement autoValueTypeElement,
+                                                List<Property> properties,
+                                                Set<String> interned,
+                                                boolean canonicalize,
+                                                boolean metrics) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    TypeName mapType = ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT);
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("fromMap")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(mapType, "map")
+                                                 .returns(finalAutoValueClassName);
+    if (metrics) {
+      addMetricsStart(methodBuilder);
+    }
+
+    // Every local is passed to one constructor call, so like toAutoValue(), a wide model decodes
+    // each property that needs converting in its own method instead of chunking
+    List<MethodSpec> methods = new ArrayList<>();
+    boolean split = chunkProperties(properties).size() > 1;
+
+    if (hasAnnotation(autoValueTypeElement, THROW_ON_EXTRA_PROPERTIES)) {
+      MethodSpec.Builder checkBuilder = methodBuilder;
+      if (split) {
+        methodBuilder.addStatement("checkExtraProperties(map)");
+        checkBuilder = MethodSpec.methodBuilder("checkExtraProperties")
+                                 .addModifiers(PRIVATE, STATIC)
+                                 .addParameter(mapType, "map");
+      }
+      // Like Firebase's bean mapper and readJson, which don't know excluded properties either
+      checkBuilder.beginControlFlow("for ($T key : map.keySet())", STRING)
+                  .beginControlFlow("switch (key)");
+      List<Property> stored = storedProperties(properties);
+      for (Property property : stored) {
+        checkBuilder.addCode("case $S:\n", property.firebaseName);
+      }
+      if (!stored.isEmpty()) {
+        checkBuilder.addCode("$>")
+                    .addStatement("break")
+                    .addCode("$<");
+      }
+      checkBuilder.addCode("default:\n$>")
+                  .addStatement("throw new $T($S + key)", IllegalArgumentException.class,
+                    "Found a property not defined in " + finalAutoValueClassName.simpleName() + ": ")
+                  .addCode("$<")
+                  .endControlFlow()
+                  .endControlFlow();
+      if (split) {
+        methods.add(checkBuilder.build());
       }
     }
-    return hasAdapter;
-  }
 
-  static boolean typeHasAdapter(Element element) {
-    return element.getAnnotation(FirebaseAdapter.class) != null;
-  }
+    if (!split) {
+      addLocalAdapters(methodBuilder, properties);
+    }
 
-  static boolean typeIsPrimitive(TypeName typeName) {
-    return typeName.isPrimitive() || typeName.isBoxedPrimitive() || STRING.equals(typeName);
-  }
+    for (Property property : properties) {
+      String fieldName = property.name;
+      String rawName = fieldName + "Value";
+      TypeName type = property.type;
 
-  static boolean typeIsPrimitiveCollection(TypeName typeName) {
-    if (typeName instanceof ParameterizedTypeName) {
-      ParameterizedTypeName pTypeName = (ParameterizedTypeName) typeName;
-      TypeName rawType = pTypeName.rawType;
+      if (property.excluded()) {
+        // Firebase ignores excluded properties when reading, too
+        methodBuilder.addStatement("$T $L = $L", type, fieldName, defaultValue(type));
+        continue;
+      }
 
-      if (LIST.equals(rawType)) {
-        return typeIsPrimitive(pTypeName.typeArguments.get(0));
-      } else if (MAP.equals(rawType)) {
-        return typeIsPrimitive(pTypeName.typeArguments.get(1));
+      // Values that are read more than once get a local
+      String raw = CodeBlock.of("map.get($S)", property.firebaseName).toString();
+      if (property.hasAdapter() || type.isPrimitive() || typeIsNumber(type)
+        || property.kind == Property.Kind.VALUE_ARRAY || type instanceof ParameterizedTypeName) {
+        if (split) {
+          String helperName = fieldName + "FromMap";
+          methodBuilder.addStatement("$T $L = $L(map.get($S))", type, fieldName, helperName, property.firebaseName);
+          MethodSpec.Builder helperBuilder = MethodSpec.methodBuilder(helperName)
+                                                       .addModifiers(PRIVATE, STATIC)
+                                                       .addParameter(TypeName.OBJECT, rawName)
+                                                       .returns(type);
+          addLocalAdapters(helperBuilder, Collections.singletonList(property));
+          addDecodeStatements(helperBuilder, packageName, property, rawName, CodeBlock.of("$T $L", type, fieldName));
+          methods.add(helperBuilder.addStatement("return $L", fieldName).build());
+          continue;
+        }
+        methodBuilder.addStatement("$T $L = map.get($S)", TypeName.OBJECT, rawName, property.firebaseName);
+        raw = rawName;
       }
+      addDecodeStatements(methodBuilder, packageName, property, raw, CodeBlock.of("$T $L", type, fieldName));
     }
-    return false;
-  }
-
-  static boolean typeIsNonPrimitiveCollection(TypeName typeName) {
-    if (typeName instanceof ParameterizedTypeName) {
-      ParameterizedTypeName pTypeName = (ParameterizedTypeName) typeName;
-      TypeName rawType = pTypeName.rawType;
 
-      if (LIST.equals(rawType)) {
-        return !typeIsPrimitive(pTypeName.typeArguments.get(0));
-      } else if (MAP.equals(rawType)) {
-        return !typeIsPrimitive(pTypeName.typeArguments.get(1));
-      }
+    addInternStatements(methodBuilder, properties, interned);
+    if (metrics) {
+      methodBuilder.addStatement("$T autoValue = $L", finalAutoValueClassName,
+        newAutoValue(finalAutoValueClassName, properties, canonicalize));
+      addMetricsRecord(methodBuilder, (ClassName) ClassName.get(autoValueTypeElement.asType()),
+        "FROM_MAP", properties, "$L", "length");
+      methodBuilder.addStatement("return autoValue");
+    } else {
+      addReturnAutoValue(methodBuilder, finalAutoValueClassName, properties, canonicalize);
     }
-    return false;
-  }
 
-  static String firstLetterToLowerCase(ClassName className) {
-    return className.simpleName().substring(0, 1).toLowerCase() +
-           className.simpleName().substring(1);
+    methods.add(0, methodBuilder.build());
+    return methods;
   }
 
-  static String fieldNameToGetterName(String fieldName) {
-    return "get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
-  }
+  // Decodes a raw Firebase value into target, which either declares the property's local or
+  // assigns to it
+  static void addDecodeStatements(MethodSpec.Builder methodBuilder,
+                                  String packageName,
+                                  Property property,
+                                  String raw,
+                                  CodeBlock target) {
+    String fieldName = property.name;
+    TypeName type = property.type;
+
+    if (property.hasAdapter()) {
+      methodBuilder.addStatement("$L = $L == null ? null : $L.fromFirebaseValue($L)",
+        target, raw, property.adapterName(), decodePrimitive(property.adapterOutput, raw, false));
+
+    } else if (property.kind == Property.Kind.VALUE && !type.isPrimitive() && !typeIsNumber(type)) {
+      methodBuilder.addStatement("$L = ($T) $L", target, type, raw);
+
+    } else if (property.kind == Property.Kind.VALUE) {
+      methodBuilder.addStatement("$L = $L", target, decodePrimitive(type, raw, true));
+
+    } else if (property.kind == Property.Kind.VALUE_ARRAY) {
+      TypeName componentType = ((ArrayTypeName) type).componentType;
+      String listName = fieldName + "List";
+      methodBuilder.addStatement("$L = null", target)
+                   .beginControlFlow("if ($L != null)", raw)
+                   .addStatement("$T $L = ($T) $L", WILDCARD_LIST, listName, WILDCARD_LIST, raw)
+                   .addStatement("$L = new $T[$L.size()]", fieldName, componentType, listName)
+                   .beginControlFlow("for (int i = 0; i < $L.length; i++)", fieldName)
+                   .addStatement("$T item = $L.get(i)", TypeName.OBJECT, listName)
+                   .addStatement("$L[i] = $L", fieldName, decodePrimitive(componentType, "item", true))
+                   .endControlFlow()
+                   .endControlFlow();
 
-  static RuntimeException unsupportedType(TypeName type, String message) {
-    return new RuntimeException("Type is not supported: " + type + "\n" + message);
-  }
+    } else if (type instanceof ParameterizedTypeName) {
+      ParameterizedTypeName pType = (ParameterizedTypeName) type;
+      methodBuilder.addStatement("$L = null", target)
+                   .beginControlFlow("if ($L != null)", raw);
 
-  // Get the "final" class in the AutoValue chain, if multiple extensions
-  static ClassName stripDollarSignsFromClassName(ClassName className) {
-    String simpleName = className.simpleName();
-    if (!simpleName.startsWith("$")) {
-      return className;
-    }
+      if (LIST.equals(pType.rawType)) {
+        TypeName itemType = pType.typeArguments.get(0);
+        String listName = fieldName + "List";
+        methodBuilder.addStatement("$T $L = ($T) $L", WILDCARD_LIST, listName, WILDCARD_LIST, raw)
+                     .addStatement("$L = new $T<>($L.size())", fieldName, ARRAY_LIST, listName)
+                     .beginControlFlow("for ($T item : $L)", TypeName.OBJECT, listName)
+                     .addStatement("$L.add($L)", fieldName, decodeItem(packageName, itemType, "item"))
+                     .endControlFlow();
 
-    int numDollarSigns = 0;
-    char dollarSign = "$".charAt(0);
-    for (int i = 0; i < simpleName.length(); i++) {
-      if (dollarSign == simpleName.charAt(i)) {
-        numDollarSigns++;
+      } else if (MAP.equals(pType.rawType)) {
+        TypeName keyType = pType.typeArguments.get(0);
+        TypeName valueType = pType.typeArguments.get(1);
+        String mapName = fieldName + "Map";
+        methodBuilder.addStatement("$T $L = ($T) $L", WILDCARD_MAP, mapName, WILDCARD_MAP, raw)
+                     .addStatement("$L = new $T<>()", fieldName, HASH_MAP)
+                     .beginControlFlow("for ($T entry : $L.entrySet())", WILDCARD_MAP_ENTRY, mapName)
+                     .addStatement("$L.put($L, $L)", fieldName, decodeKey(keyType, "entry.getKey()"),
+                       decodeItem(packageName, valueType, "entry.getValue()"))
+                     .endControlFlow();
       }
+
+      methodBuilder.endControlFlow();
+
+    } else {
+      methodBuilder.addStatement("$L = $L", target, decodeItem(packageName, type, raw));
     }
+  }
 
-    String strippedSimpleName = simpleName.substring(numDollarSigns);
-    return ClassName.get(className.packageName(), strippedSimpleName);
+  static MethodSpec generateFromValueMethod(ClassName autoValueClassName) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    return MethodSpec.methodBuilder("fromValue")
+                     .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                       .addMember("value", "\"unchecked\"")
+                       .build())
+                     .addModifiers(STATIC)
+                     .addParameter(TypeName.OBJECT, "value")
+                     .returns(finalAutoValueClassName)
+                     .addStatement("return value == null ? null : fromMap(($T) value)",
+                       ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT))
+                     .build();
   }
 
-  static TypeMirror getTypeAdapterClass(FirebaseAdapter firebaseAdapter) {
-    try {
-      firebaseAdapter.value();
-    } catch (MirroredTypeException e) {
-      return e.getTypeMirror();
+  // Encodes straight from the AutoValue accessors, so writes don't need a FirebaseValue copy. Wide
+  // models put their properties in chunks, like FirebaseValue.toMap() does.
+  static List<MethodSpec> generateStaticToMapMethod(String packageName,
+                                                    TypeElement autoValueTypeElement,
+                                                    List<Property> properties,
+                                                    boolean metrics) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    String paramName = firstLetterToLowerCase(autoValueType);
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("toMap")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, paramName)
+                                                 .returns(ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT))
+                                                 .beginControlFlow("if ($L == null)", paramName)
+                                                 .addStatement("return null")
+                                                 .endControlFlow();
+    if (metrics) {
+      addMetricsStart(methodBuilder);
     }
-    return null;
-  }
 
-  static AnnotationSpec getTypeAdapterSpec(TypeName originalType) {
-    AnnotationSpec firebaseAdapter = AnnotationSpec.builder(FirebaseAdapter.class).build();
-    AnnotationSpec typeAdapterSpec = null;
-    for (AnnotationSpec annotation : originalType.annotations) {
-      if (annotation.type.withoutAnnotations().equals(firebaseAdapter.type)) {
-        typeAdapterSpec= annotation;
-        break;
+    List<Property> stored = storedProperties(properties);
+    List<List<Property>> chunks = chunkProperties(stored);
+    if (chunks.size() == 1) {
+      addLocalAdapters(methodBuilder, stored);
+    }
+
+    addToMapDeclaration(methodBuilder, stored, paramName + ".$L()");
+    List<MethodSpec> methods = new ArrayList<>();
+    if (chunks.size() == 1) {
+      addStaticToMapPuts(methodBuilder, packageName, paramName, stored);
+    } else {
+      for (int i = 0; i < chunks.size(); i++) {
+        MethodSpec.Builder chunkBuilder = MethodSpec.methodBuilder("toMap" + i)
+                                                    .addModifiers(PRIVATE, STATIC)
+                                                    .addParameter(autoValueType, paramName)
+                                                    .addParameter(
+                                                      ParameterizedTypeName.get(HASH_MAP, STRING, TypeName.OBJECT), "map");
+        addLocalAdapters(chunkBuilder, chunks.get(i));
+        addStaticToMapPuts(chunkBuilder, packageName, paramName, chunks.get(i));
+        methods.add(chunkBuilder.build());
+        methodBuilder.addStatement("toMap$L($L, map)", i, paramName);
       }
     }
-    return typeAdapterSpec;
+    if (metrics) {
+      addMetricsRecord(methodBuilder, autoValueType, "STATIC_TO_MAP", properties, paramName + ".$L()", "length");
+    }
+    methodBuilder.addStatement("return map");
+    methods.add(0, methodBuilder.build());
+    return methods;
   }
 
-  private static ClassName getTypeAdapterOutputType(TypeName originalType) {
-    Map<String, List<CodeBlock>> members = originalType.annotations.get(0).members;
-    return ClassName.bestGuess(members.get("output").get(0).toString());
-  }
+  static void addStaticToMapPuts(MethodSpec.Builder methodBuilder,
+                                 String packageName,
+                                 String paramName,
+                                 List<Property> stored) {
+    for (Property property : stored) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      CodeBlock value = CodeBlock.of("$L.$L()", paramName, fieldName);
 
-  private static TypeName getTypeNameForElement(ExecutableElement element) {
-    TypeName returnTypeName;
-    if (typeHasAdapter(element)) {
-      TypeMirror typeAdapterClass = getTypeAdapterClass(element
-        .getAnnotation(FirebaseAdapter.class));
+      if (property.hasAdapter() && property.omitNull) {
+        addOmittablePut(methodBuilder, property, value,
+          CodeBlock.of("$L.toFirebaseValue($L)", property.adapterName(), value));
 
-      TypeElement typeAdapterTypeElement = (TypeElement) typeUtils.asElement(typeAdapterClass);
-      List<? extends TypeMirror> interfaces = typeAdapterTypeElement.getInterfaces();
-      DeclaredType typeAdapterDeclaredType = (DeclaredType) interfaces.get(0);
-      List<? extends TypeMirror> typeArguments = typeAdapterDeclaredType.getTypeArguments();
+      } else if (property.hasAdapter()) {
+        methodBuilder.addStatement("map.put($S, $L.$L() == null ? null : $L.toFirebaseValue($L.$L()))",
+          property.firebaseName, paramName, fieldName,
+          property.adapterName(), paramName, fieldName);
 
-      returnTypeName = TypeName.get(element.getReturnType());
-      returnTypeName = returnTypeName.annotated(AnnotationSpec.builder(FirebaseAdapter.class)
-        .addMember("value", "$T", TypeName.get(typeAdapterClass))
-        .addMember("input", "$T", TypeName.get(typeArguments.get(0)))
-        .addMember("output", "$T", TypeName.get(typeArguments.get(1)))
-        .build());
-    } else {
-      returnTypeName = TypeName.get(element.getReturnType());
-    }
-    return returnTypeName;
-  }
+      } else if (typeIsPrimitive(type) || typeIsPrimitiveCollection(type)) {
+        if (property.omitNull) {
+          addOmittablePut(methodBuilder, property, value, value);
+        } else {
+          methodBuilder.addStatement("map.put($S, $L.$L())", property.firebaseName, paramName, fieldName);
+        }
 
-  private static AnnotationMirror getAnnotationMirror(ClassName annotation, ExecutableElement element) {
-    for (AnnotationMirror elementAnnotation : element.getAnnotationMirrors()) {
-      TypeName annotationType = AnnotationSpec.get(elementAnnotation).type;
-      if (annotation.equals(annotationType)) {
-        return elementAnnotation;
-      }
+      } else if (typeIsPrimitiveArray(type)) {
+        String listName = fieldName + "List";
+        beginCollectionPut(methodBuilder, property, value, ParameterizedTypeName.get(LIST, TypeName.OBJECT),
+          listName, CodeBlock.of("new $T<>($L.length)", ARRAY_LIST, value));
+        methodBuilder.beginControlFlow("for ($T item : $L.$L())",
+                       ((ArrayTypeName) type).componentType, paramName, fieldName)
+                     .addStatement("$L.add(item)", listName)
+                     .endControlFlow();
+        endCollectionPut(methodBuilder, property, listName);
+
+      } else if (typeIsNonPrimitiveCollection(type)) {
+        ParameterizedTypeName pType = (ParameterizedTypeName) type;
+
+        if (LIST.equals(pType.rawType)) {
+          ClassName itemType = (ClassName) pType.typeArguments.get(0);
+          String listName = fieldName + "List";
+          beginCollectionPut(methodBuilder, property, value, ParameterizedTypeName.get(LIST, TypeName.OBJECT),
+            listName, CodeBlock.of("new $T<>($L.size())", ARRAY_LIST, value));
+          methodBuilder.beginControlFlow("for ($T item : $L.$L())", itemType, paramName, fieldName)
+                       .addStatement("$L.add($T.toMap(item))", listName, autoValueClassName(packageName, itemType))
+                       .endControlFlow();
+          endCollectionPut(methodBuilder, property, listName);
+
+        } else if (MAP.equals(pType.rawType)) {
+          TypeName keyType = pType.typeArguments.get(0);
+          ClassName valueType = (ClassName) pType.typeArguments.get(1);
+          String mapName = fieldName + "Map";
+          beginCollectionPut(methodBuilder, property, value, ParameterizedTypeName.get(MAP, keyType, TypeName.OBJECT),
+            mapName, CodeBlock.of("new $T<>((int) ($L.size() / 0.75f) + 1)", HASH_MAP, value));
+          methodBuilder.beginControlFlow("for ($T<$T, $T> entry : $L.$L().entrySet())",
+                         MAP_ENTRY, keyType, valueType, paramName, fieldName)
+                       .addStatement("$L.put(entry.getKey(), $T.toMap(entry.getValue()))",
+                         mapName, autoValueClassName(packageName, valueType))
+                       .endControlFlow();
+          endCollectionPut(methodBuilder, property, mapName);
+        }
+
+      } else if (property.omitNull) {
+        addOmittablePut(methodBuilder, property, value,
+          CodeBlock.of("$T.toMap($L)", autoValueClassName(packageName, type), value));
+
+      } else {
+        methodBuilder.addStatement("map.put($S, $T.toMap($L.$L()))",
+          property.firebaseName, autoValueClassName(packageName, type), paramName, fieldName);
+      }
+    }
+  }
+
+  // Reads one property by the key Firebase stores it under, for evaluating orderByChild() and
+  // equalTo() style queries locally. A Java 7 string switch dispatches on the key's hash. Values
+  // are converted like the static toMap converts them.
+  static MethodSpec generateStaticGetMethod(String packageName,
+                                            TypeElement autoValueTypeElement,
+                                            List<Property> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    String paramName = firstLetterToLowerCase(autoValueType);
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("get")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, paramName)
+                                                 .addParameter(STRING, "firebaseKey")
+                                                 .returns(TypeName.OBJECT)
+                                                 .beginControlFlow("if ($L == null || firebaseKey == null)", paramName)
+                                                 .addStatement("return null")
+                                                 .endControlFlow()
+                                                 .beginControlFlow("switch (firebaseKey)");
+
+    for (Property property : storedProperties(properties)) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      CodeBlock value = CodeBlock.of("$L.$L()", paramName, fieldName);
+      methodBuilder.addCode("case $S:\n$>", property.firebaseName);
+
+      if (property.hasAdapter()) {
+        // Adapted values are compared the way Firebase stores them. Each call reads one property,
+        // so only the adapter it needs is created, unlike addLocalAdapters in the other methods.
+        CodeBlock adapter = property.statelessAdapter
+          ? CodeBlock.of("$L", property.adapterName())
+          : CodeBlock.of("new $T()", property.adapter);
+        methodBuilder.addStatement("return $L == null ? null : $L.toFirebaseValue($L)", value, adapter, value);
+
+      } else if (typeIsPrimitive(type) || typeIsPrimitiveCollection(type)) {
+        methodBuilder.addStatement("return $L", value);
+
+      } else if (typeIsPrimitiveArray(type)) {
+        String listName = fieldName + "List";
+        methodBuilder.beginControlFlow("if ($L == null)", value)
+                     .addStatement("return null")
+                     .endControlFlow()
+                     .addStatement("$T $L = new $T<>($L.length)",
+                       ParameterizedTypeName.get(LIST, TypeName.OBJECT), listName, ARRAY_LIST, value)
+                     .beginControlFlow("for ($T item : $L)", ((ArrayTypeName) type).componentType, value)
+                     .addStatement("$L.add(item)", listName)
+                     .endControlFlow()
+                     .addStatement("return $L", listName);
+
+      } else if (typeIsNonPrimitiveCollection(type)) {
+        ParameterizedTypeName pType = (ParameterizedTypeName) type;
+        methodBuilder.beginControlFlow("if ($L == null)", value)
+                     .addStatement("return null")
+                     .endControlFlow();
+
+        if (LIST.equals(pType.rawType)) {
+          ClassName itemType = (ClassName) pType.typeArguments.get(0);
+          String listName = fieldName + "List";
+          methodBuilder.addStatement("$T $L = new $T<>($L.size())",
+                         ParameterizedTypeName.get(LIST, TypeName.OBJECT), listName, ARRAY_LIST, value)
+                       .beginControlFlow("for ($T item : $L)", itemType, value)
+                       .addStatement("$L.add($T.toMap(item))", listName, autoValueClassName(packageName, itemType))
+                       .endControlFlow()
+                       .addStatement("return $L", listName);
+
+        } else if (MAP.equals(pType.rawType)) {
+          TypeName keyType = pType.typeArguments.get(0);
+          ClassName valueType = (ClassName) pType.typeArguments.get(1);
+          String mapName = fieldName + "Map";
+          methodBuilder.addStatement("$T $L = new $T<>((int) ($L.size() / 0.75f) + 1)",
+                         ParameterizedTypeName.get(MAP, keyType, TypeName.OBJECT), mapName, HASH_MAP, value)
+                       .beginControlFlow("for ($T<$T, $T> entry : $L.entrySet())",
+                         MAP_ENTRY, keyType, valueType, value)
+                       .addStatement("$L.put(entry.getKey(), $T.toMap(entry.getValue()))",
+                         mapName, autoValueClassName(packageName, valueType))
+                       .endControlFlow()
+                       .addStatement("return $L", mapName);
+        }
+
+      } else {
+        methodBuilder.addStatement("return $T.toMap($L)", autoValueClassName(packageName, type), value);
+      }
+      methodBuilder.addCode("$<");
+    }
+
+    return methodBuilder.addCode("default:\n$>")
+                        .addStatement("return null")
+                        .addCode("$<")
+                        .endControlFlow()
+                        .build();
+  }
+
+  static MethodSpec generateDiffMethod(TypeElement autoValueTypeElement,
+                                       List<Property> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("diff")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, "before")
+                                                 .addParameter(autoValueType, "after")
+                                                 .returns(ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT));
+
+    methodBuilder.addStatement("$T updates = new $T<>()", ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT), HASH_MAP)
+                 .beginControlFlow("if (after == null)")
+                 .beginControlFlow("if (before != null)");
+    for (Property property : storedProperties(properties)) {
+      methodBuilder.addStatement("updates.put($S, null)", property.firebaseName);
+    }
+    methodBuilder.endControlFlow()
+                 .nextControlFlow("else if (before == null)")
+                 .addStatement("updates.putAll(toMap(after))")
+                 .nextControlFlow("else")
+                 .addStatement("diff($S, before, after, updates)", "")
+                 .endControlFlow()
+                 .addStatement("return updates");
+
+    return methodBuilder.build();
+  }
+
+  // Writes the changed leaves below path into updates as slash-separated keys. Lists are treated
+  // like maps keyed by index, so only the entries that changed are written.
+  static MethodSpec generateDiffIntoMethod(String packageName,
+                                           TypeElement autoValueTypeElement,
+                                           List<Property> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("diff")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(STRING, "path")
+                                                 .addParameter(autoValueType, "before")
+                                                 .addParameter(autoValueType, "after")
+                                                 .addParameter(ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT), "updates");
+
+    methodBuilder.beginControlFlow("if (before == after)")
+                 .addStatement("return")
+                 .endControlFlow()
+                 .beginControlFlow("if (before == null || after == null)")
+                 .addStatement("updates.put(path, toMap(after))")
+                 .addStatement("return")
+                 .endControlFlow()
+                 .addStatement("$T prefix = path.isEmpty() ? $S : path + $S", STRING, "", "/");
+
+    List<Property> stored = storedProperties(properties);
+    addLocalAdapters(methodBuilder, stored);
+
+    for (Property property : stored) {
+      String fieldName = property.name;
+      String key = property.firebaseName;
+      TypeName type = property.type;
+
+      if (property.hasAdapter()) {
+        methodBuilder.beginControlFlow("if (!$T.equals(before.$L(), after.$L()))", OBJECTS, fieldName, fieldName)
+                     .addStatement("updates.put(prefix + $S, after.$L() == null ? null : $L.toFirebaseValue(after.$L()))",
+                       key, fieldName, property.adapterName(), fieldName)
+                     .endControlFlow();
+
+      } else if (TypeName.FLOAT.equals(type) || TypeName.DOUBLE.equals(type)) {
+        methodBuilder.beginControlFlow("if ($T.compare(before.$L(), after.$L()) != 0)", type.box(), fieldName, fieldName)
+                     .addStatement("updates.put(prefix + $S, after.$L())", key, fieldName)
+                     .endControlFlow();
+
+      } else if (type.isPrimitive()) {
+        methodBuilder.beginControlFlow("if (before.$L() != after.$L())", fieldName, fieldName)
+                     .addStatement("updates.put(prefix + $S, after.$L())", key, fieldName)
+                     .endControlFlow();
+
+      } else if (typeIsPrimitive(type)) {
+        methodBuilder.beginControlFlow("if (!$T.equals(before.$L(), after.$L()))", OBJECTS, fieldName, fieldName)
+                     .addStatement("updates.put(prefix + $S, after.$L())", key, fieldName)
+                     .endControlFlow();
+
+      } else if (typeIsPrimitiveArray(type)) {
+        // Arrays are diffed by index, like Lists
+        TypeName componentType = ((ArrayTypeName) type).componentType;
+        String capitalized = fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
+        String beforeName = "before" + capitalized;
+        String afterName = "after" + capitalized;
+        CodeBlock changed = TypeName.FLOAT.equals(componentType) || TypeName.DOUBLE.equals(componentType)
+          ? CodeBlock.of("$T.compare($L[i], $L[i]) != 0", componentType.box(), beforeName, afterName)
+          : CodeBlock.of("$L[i] != $L[i]", beforeName, afterName);
+        methodBuilder.addStatement("$T $L = before.$L()", type, beforeName, fieldName)
+                     .addStatement("$T $L = after.$L()", type, afterName, fieldName)
+                     .beginControlFlow("if ($L == null)", afterName)
+                     .beginControlFlow("if ($L != null)", beforeName)
+                     .addStatement("updates.put(prefix + $S, null)", key)
+                     .endControlFlow()
+                     .nextControlFlow("else if ($L != $L)", beforeName, afterName)
+                     .addStatement("int beforeSize = $L == null ? 0 : $L.length", beforeName, beforeName)
+                     .beginControlFlow("for (int i = 0; i < $L.length; i++)", afterName)
+                     .beginControlFlow("if (i >= beforeSize || $L)", changed)
+                     .addStatement("updates.put(prefix + $S + i, $L[i])", key + "/", afterName)
+                     .endControlFlow()
+                     .endControlFlow()
+                     .beginControlFlow("for (int i = $L.length; i < beforeSize; i++)", afterName)
+                     .addStatement("updates.put(prefix + $S + i, null)", key + "/")
+                     .endControlFlow()
+                     .endControlFlow();
+
+      } else if (type instanceof ParameterizedTypeName) {
+        ParameterizedTypeName pType = (ParameterizedTypeName) type;
+        String capitalized = fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
+        String beforeName = "before" + capitalized;
+        String afterName = "after" + capitalized;
+        methodBuilder.addStatement("$T $L = before.$L()", type, beforeName, fieldName)
+                     .addStatement("$T $L = after.$L()", type, afterName, fieldName)
+                     .beginControlFlow("if ($L == null)", afterName)
+                     .beginControlFlow("if ($L != null)", beforeName)
+                     .addStatement("updates.put(prefix + $S, null)", key)
+                     .endControlFlow()
+                     .nextControlFlow("else if ($L != $L)", beforeName, afterName);
+
+        if (LIST.equals(pType.rawType)) {
+          TypeName itemType = pType.typeArguments.get(0);
+          methodBuilder.addStatement("int beforeSize = $L == null ? 0 : $L.size()", beforeName, beforeName)
+                       .beginControlFlow("for (int i = 0; i < $L.size(); i++)", afterName);
+          if (typeIsPrimitive(itemType)) {
+            methodBuilder.beginControlFlow("if (i >= beforeSize || !$T.equals($L.get(i), $L.get(i)))",
+                           OBJECTS, beforeName, afterName)
+                         .addStatement("updates.put(prefix + $S + i, $L.get(i))", key + "/", afterName)
+                         .endControlFlow();
+          } else {
+            methodBuilder.addStatement("$T.diff(prefix + $S + i, i < beforeSize ? $L.get(i) : null, $L.get(i), updates)",
+              autoValueClassName(packageName, itemType), key + "/", beforeName, afterName);
+          }
+          methodBuilder.endControlFlow()
+                       .beginControlFlow("for (int i = $L.size(); i < beforeSize; i++)", afterName)
+                       .addStatement("updates.put(prefix + $S + i, null)", key + "/")
+                       .endControlFlow();
+
+        } else if (MAP.equals(pType.rawType)) {
+          TypeName keyType = pType.typeArguments.get(0);
+          TypeName valueType = pType.typeArguments.get(1);
+          methodBuilder.beginControlFlow("for ($T<$T, $T> entry : $L.entrySet())", MAP_ENTRY, keyType, valueType, afterName);
+          if (typeIsPrimitive(valueType)) {
+            methodBuilder.beginControlFlow("if ($L == null || !$T.equals($L.get(entry.getKey()), entry.getValue()))",
+                           beforeName, OBJECTS, beforeName)
+                         .addStatement("updates.put(prefix + $S + entry.getKey(), entry.getValue())", key + "/")
+                         .endControlFlow();
+          } else {
+            methodBuilder.addStatement("$T.diff(prefix + $S + entry.getKey(), $L == null ? null : $L.get(entry.getKey()), entry.getValue(), updates)",
+              autoValueClassName(packageName, valueType), key + "/", beforeName, beforeName);
+          }
+          methodBuilder.endControlFlow()
+                       .beginControlFlow("if ($L != null)", beforeName)
+                       .beginControlFlow("for ($T key : $L.keySet())", keyType, beforeName)
+                       .beginControlFlow("if (!$L.containsKey(key))", afterName)
+                       .addStatement("updates.put(prefix + $S + key, null)", key + "/")
+                       .endControlFlow()
+                       .endControlFlow()
+                       .endControlFlow();
+        }
+
+        methodBuilder.endControlFlow();
+
+      } else {
+        methodBuilder.addStatement("$T.diff(prefix + $S, before.$L(), after.$L(), updates)",
+          autoValueClassName(packageName, type), key, fieldName, fieldName);
+      }
+    }
+
+    return methodBuilder.build();
+  }
+
+  // Applies slash-separated updates, like the ones diff() writes, to current. Only the properties
+  // the paths touch are decoded again; everything else is carried over by reference.
+  static MethodSpec generateApplyPatchMethod(String packageName,
+                                             ClassName autoValueClassName,
+                                             TypeElement autoValueTypeElement,
+                                             List<Property> properties,
+                                             Set<String> interned,
+                                             boolean canonicalize) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    TypeName updatesType = ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT);
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("applyPatch")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, "current")
+                                                 .addParameter(updatesType, "updates")
+                                                 .returns(autoValueType);
+
+    methodBuilder.beginControlFlow("if (updates.isEmpty())")
+                 .addStatement("return current")
+                 .endControlFlow()
+                 .beginControlFlow("if (updates.containsKey($S))", "")
+                 .addStatement("current = fromValue(updates.get($S))", "")
+                 .beginControlFlow("if (updates.size() == 1)")
+                 .addStatement("return current")
+                 .endControlFlow()
+                 .endControlFlow();
+
+    List<Property> stored = storedProperties(properties);
+    addLocalAdapters(methodBuilder, stored);
+
+    for (Property property : properties) {
+      methodBuilder.addStatement("$T $L = current == null ? $L : current.$L()",
+        property.type, property.name, defaultValue(property.type), property.name);
+    }
+
+    methodBuilder.beginControlFlow("for ($T<$T, $T> child : splitPatch(updates).entrySet())",
+                   MAP_ENTRY, STRING, updatesType)
+                 .addStatement("$T childUpdates = child.getValue()", updatesType)
+                 .beginControlFlow("switch (child.getKey())");
+
+    for (Property property : stored) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      methodBuilder.addCode("case $S:\n$>", property.firebaseName);
+
+      if (property.kind == Property.Kind.NESTED) {
+        methodBuilder.addStatement("$L = $T.applyPatch($L, childUpdates)",
+          fieldName, autoValueClassName(packageName, type), fieldName);
+      } else {
+        // Paths below adapted and primitive values have nothing to patch, so they're ignored
+        String rawName = fieldName + "Value";
+        methodBuilder.beginControlFlow("if (childUpdates.containsKey($S))", "")
+                     .addStatement("$T $L = childUpdates.remove($S)", TypeName.OBJECT, rawName, "");
+        addDecodeStatements(methodBuilder, packageName, property, rawName, CodeBlock.of("$L", fieldName));
+        methodBuilder.endControlFlow();
+
+        if (property.kind == Property.Kind.VALUE_ARRAY) {
+          methodBuilder.beginControlFlow("if (!childUpdates.isEmpty())");
+          addPatchArrayStatements(methodBuilder, property.firebaseName, fieldName, (ArrayTypeName) type);
+          methodBuilder.endControlFlow();
+        } else if (property.kind == Property.Kind.VALUE_COLLECTION
+          || property.kind == Property.Kind.NESTED_COLLECTION) {
+          methodBuilder.beginControlFlow("if (!childUpdates.isEmpty())");
+          addPatchCollectionStatements(methodBuilder, packageName, property.firebaseName, fieldName,
+            (ParameterizedTypeName) type);
+          methodBuilder.endControlFlow();
+        }
+      }
+
+      if (interned.contains(fieldName)) {
+        addInternStatements(methodBuilder, Collections.singletonList(property), interned);
+      }
+      methodBuilder.addStatement("break")
+                   .addCode("$<");
+    }
+
+    methodBuilder.endControlFlow()
+                 .endControlFlow();
+
+    addReturnAutoValue(methodBuilder, finalAutoValueClassName, properties, canonicalize);
+
+    return methodBuilder.build();
+  }
+
+  // Lists are patched by index and Maps by key, reusing the items nobody touched. Firebase drops
+  // null items, so a null removes a Map entry and trailing nulls shorten a List.
+  static void addPatchCollectionStatements(MethodSpec.Builder methodBuilder,
+                                           String packageName,
+                                           String firebaseName,
+                                           String fieldName,
+                                           ParameterizedTypeName type) {
+    TypeName updatesType = ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT);
+
+    if (LIST.equals(type.rawType)) {
+      TypeName itemType = type.typeArguments.get(0);
+      methodBuilder.addStatement("$T patched = $L == null ? new $T<$T>() : new $T<>($L)",
+                     type, fieldName, ARRAY_LIST, itemType, ARRAY_LIST, fieldName)
+                   .addStatement("$T<$T, $T> itemPatches = splitPatch(childUpdates)", MAP, STRING, updatesType)
+                   .addStatement("int indexLimit = patched.size() + itemPatches.size()")
+                   .beginControlFlow("for ($T<$T, $T> item : itemPatches.entrySet())",
+                     MAP_ENTRY, STRING, updatesType)
+                   .addStatement("$T itemUpdates = item.getValue()", updatesType);
+      if (typeIsPrimitive(itemType)) {
+        methodBuilder.beginControlFlow("if (!itemUpdates.containsKey($S))", "")
+                     .addStatement("continue")
+                     .endControlFlow();
+      }
+      methodBuilder.addStatement("int index = patchIndex($S, item.getKey(), indexLimit)", firebaseName)
+                   .beginControlFlow("while (patched.size() <= index)")
+                   .addStatement("patched.add(null)")
+                   .endControlFlow();
+      if (typeIsPrimitive(itemType)) {
+        methodBuilder.addStatement("$T rawItem = itemUpdates.get($S)", TypeName.OBJECT, "")
+                     .addStatement("patched.set(index, $L)", decodeItem(packageName, itemType, "rawItem"));
+      } else {
+        methodBuilder.addStatement("patched.set(index, $T.applyPatch(patched.get(index), itemUpdates))",
+          autoValueClassName(packageName, itemType));
+      }
+      methodBuilder.endControlFlow()
+                   .beginControlFlow("while (!patched.isEmpty() && patched.get(patched.size() - 1) == null)")
+                   .addStatement("patched.remove(patched.size() - 1)")
+                   .endControlFlow();
+
+    } else if (MAP.equals(type.rawType)) {
+      TypeName keyType = type.typeArguments.get(0);
+      TypeName valueType = type.typeArguments.get(1);
+      methodBuilder.addStatement("$T patched = $L == null ? new $T<$T, $T>() : new $T<>($L)",
+                     type, fieldName, HASH_MAP, keyType, valueType, HASH_MAP, fieldName)
+                   .beginControlFlow("for ($T<$T, $T> item : splitPatch(childUpdates).entrySet())",
+                     MAP_ENTRY, STRING, updatesType)
+                   .addStatement("$T itemUpdates = item.getValue()", updatesType);
+      if (typeIsPrimitive(valueType)) {
+        methodBuilder.beginControlFlow("if (!itemUpdates.containsKey($S))", "")
+                     .addStatement("continue")
+                     .endControlFlow();
+      }
+      methodBuilder.addStatement("$T itemKey = $L", keyType, parseKey(keyType, "item.getKey()"));
+      if (typeIsPrimitive(valueType)) {
+        methodBuilder.addStatement("$T rawItem = itemUpdates.get($S)", TypeName.OBJECT, "")
+                     .addStatement("$T itemValue = $L", valueType, decodeItem(packageName, valueType, "rawItem"));
+      } else {
+        methodBuilder.addStatement("$T itemValue = $T.applyPatch(patched.get(itemKey), itemUpdates)",
+          valueType, autoValueClassName(packageName, valueType));
+      }
+      methodBuilder.beginControlFlow("if (itemValue == null)")
+                   .addStatement("patched.remove(itemKey)")
+                   .nextControlFlow("else")
+                   .addStatement("patched.put(itemKey, itemValue)")
+                   .endControlFlow()
+                   .endControlFlow();
+    }
+
+    methodBuilder.addStatement("$L = patched", fieldName);
+  }
+
+  // Arrays are patched by index like Lists. Only the trailing items that were set to null are
+  // dropped, since a zero in the array can't be told apart from one.
+  static void addPatchArrayStatements(MethodSpec.Builder methodBuilder,
+                                      String firebaseName,
+                                      String fieldName,
+                                      ArrayTypeName type) {
+    TypeName updatesType = ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT);
+    TypeName componentType = type.componentType;
+    methodBuilder.addStatement("$T patched = $L == null ? new $T[0] : $L.clone()",
+                   type, fieldName, componentType, fieldName)
+                 .addStatement("boolean[] removed = new boolean[patched.length]")
+                 .addStatement("$T<$T, $T> itemPatches = splitPatch(childUpdates)", MAP, STRING, updatesType)
+                 .addStatement("int indexLimit = patched.length + itemPatches.size()")
+                 .beginControlFlow("for ($T<$T, $T> item : itemPatches.entrySet())",
+                   MAP_ENTRY, STRING, updatesType)
+                 .addStatement("$T itemUpdates = item.getValue()", updatesType)
+                 .beginControlFlow("if (!itemUpdates.containsKey($S))", "")
+                 .addStatement("continue")
+                 .endControlFlow()
+                 .addStatement("int index = patchIndex($S, item.getKey(), indexLimit)", firebaseName)
+                 .beginControlFlow("if (index >= patched.length)")
+                 .addStatement("patched = $T.copyOf(patched, index + 1)", ARRAYS)
+                 .addStatement("removed = $T.copyOf(removed, index + 1)", ARRAYS)
+                 .endControlFlow()
+                 .addStatement("$T rawItem = itemUpdates.get($S)", TypeName.OBJECT, "")
+                 .addStatement("patched[index] = $L", decodePrimitive(componentType, "rawItem", true))
+                 .addStatement("removed[index] = rawItem == null")
+                 .endControlFlow()
+                 .addStatement("int length = patched.length")
+                 .beginControlFlow("while (length > 0 && removed[length - 1])")
+                 .addStatement("length--")
+                 .endControlFlow()
+                 .addStatement("$L = length == patched.length ? patched : $T.copyOf(patched, length)",
+                   fieldName, ARRAYS);
+  }
+
+  static boolean hasIndexedPatch(List<Property> properties) {
+    for (Property property : storedProperties(properties)) {
+      if (property.kind == Property.Kind.VALUE_ARRAY
+        || ((property.kind == Property.Kind.VALUE_COLLECTION || property.kind == Property.Kind.NESTED_COLLECTION)
+            && LIST.equals(((ParameterizedTypeName) property.type).rawType))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Groups slash-separated updates by their first path segment. The rest of each path keys the
+  // group, with an empty key for an update to the segment itself.
+  static MethodSpec generateSplitPatchMethod() {
+    TypeName updatesType = ParameterizedTypeName.get(MAP, STRING, TypeName.OBJECT);
+    return MethodSpec.methodBuilder("splitPatch")
+                     .addModifiers(STATIC)
+                     .addParameter(updatesType, "updates")
+                     .returns(ParameterizedTypeName.get(MAP, STRING, updatesType))
+                     .addStatement("$T<$T, $T> children = new $T<>()", MAP, STRING, updatesType, HASH_MAP)
+                     .beginControlFlow("for ($T<$T, $T> update : updates.entrySet())", MAP_ENTRY, STRING, TypeName.OBJECT)
+                     .addStatement("$T path = update.getKey()", STRING)
+                     .beginControlFlow("if (path.isEmpty())")
+                     .addStatement("continue")
+                     .endControlFlow()
+                     .addStatement("int slash = path.indexOf('/')")
+                     .addStatement("$T child = slash < 0 ? path : path.substring(0, slash)", STRING)
+                     .addStatement("$T childUpdates = children.get(child)", updatesType)
+                     .beginControlFlow("if (childUpdates == null)")
+                     .addStatement("childUpdates = new $T<>()", HASH_MAP)
+                     .addStatement("children.put(child, childUpdates)")
+                     .endControlFlow()
+                     .addStatement("childUpdates.put(slash < 0 ? $S : path.substring(slash + 1), update.getValue())", "")
+                     .endControlFlow()
+                     .addStatement("return children")
+                     .build();
+  }
+
+  // Parses the index of a List or array item from a patch path. Each patched item can add at most
+  // one item, so an index past that is a malformed patch, not a reason to pad the List with nulls.
+  static MethodSpec generatePatchIndexMethod() {
+    return MethodSpec.methodBuilder("patchIndex")
+                     .addModifiers(STATIC)
+                     .addParameter(STRING, "firebaseName")
+                     .addParameter(STRING, "key")
+                     .addParameter(TypeName.INT, "limit")
+                     .returns(TypeName.INT)
+                     .addStatement("int index")
+                     .beginControlFlow("try")
+                     .addStatement("index = $T.parseInt(key)", Integer.class)
+                     .nextControlFlow("catch ($T e)", NumberFormatException.class)
+                     .addStatement("index = -1")
+                     .endControlFlow()
+                     .beginControlFlow("if (index < 0 || index >= limit)")
+                     .addStatement("throw new $T($S + firebaseName + $S + key)", IllegalArgumentException.class,
+                       "Invalid list index in patch path ", "/")
+                     .endControlFlow()
+                     .addStatement("return index")
+                     .build();
+  }
+
+  // Streams a JSON object straight into the AutoValue class, without an intermediate Map tree
+  static MethodSpec generateReadJsonMethod(String packageName,
+                                           ClassName autoValueClassName,
+                                           TypeElement autoValueTypeElement,
+                                           List<Property> properties,
+                                           Set<String> interned,
+                                           boolean canonicalize) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("readJson")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(JSON_READER, "reader")
+                                                 .addException(IO_EXCEPTION)
+                                                 .returns(finalAutoValueClassName);
+
+    methodBuilder.beginControlFlow("if (reader.skipNull())")
+                 .addStatement("return null")
+                 .endControlFlow();
+
+    addLocalAdapters(methodBuilder, properties);
+
+    for (Property property : properties) {
+      methodBuilder.addStatement("$T $L = $L", property.type, property.name, defaultValue(property.type));
+    }
+
+    methodBuilder.addStatement("reader.beginObject()")
+                 .beginControlFlow("while (reader.hasNext())")
+                 .beginControlFlow("switch (reader.nextName())");
+
+    for (Property property : storedProperties(properties)) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      methodBuilder.addCode("case $S:\n$>", property.firebaseName);
+
+      if (property.hasAdapter()) {
+        TypeName outputType = property.adapterOutput;
+        String adapter = property.adapterName();
+        if (typeIsPrimitive(outputType)) {
+          methodBuilder.addStatement("$L = reader.skipNull() ? null : $L.fromFirebaseValue($L)",
+            fieldName, adapter, readJsonValue(outputType));
+        } else {
+          String rawName = fieldName + "Value";
+          methodBuilder.addStatement("$T $L = reader.readValue()", TypeName.OBJECT, rawName)
+                       .addStatement("$L = $L == null ? null : $L.fromFirebaseValue(($T) $L)",
+                         fieldName, rawName, adapter, outputType, rawName);
+        }
+
+      } else if (property.kind == Property.Kind.VALUE_ARRAY) {
+        // The length isn't known up front, so values go into a growing buffer that's trimmed once
+        TypeName componentType = ((ArrayTypeName) type).componentType;
+        String bufferName = fieldName + "Buffer";
+        String sizeName = fieldName + "Size";
+        methodBuilder.beginControlFlow("if (!reader.skipNull())")
+                     .addStatement("$T $L = new $T[16]", type, bufferName, componentType)
+                     .addStatement("int $L = 0", sizeName)
+                     .addStatement("reader.beginArray()")
+                     .beginControlFlow("while (reader.hasNext())")
+                     .beginControlFlow("if ($L == $L.length)", sizeName, bufferName)
+                     .addStatement("$L = $T.copyOf($L, $L * 2)", bufferName, ARRAYS, bufferName, sizeName)
+                     .endControlFlow()
+                     .addStatement("$L[$L++] = $L", bufferName, sizeName, readJsonItem(packageName, componentType))
+                     .endControlFlow()
+                     .addStatement("reader.endArray()")
+                     .addStatement("$L = $T.copyOf($L, $L)", fieldName, ARRAYS, bufferName, sizeName)
+                     .endControlFlow();
+
+      } else if (type instanceof ParameterizedTypeName) {
+        ParameterizedTypeName pType = (ParameterizedTypeName) type;
+        methodBuilder.beginControlFlow("if (!reader.skipNull())");
+
+        if (LIST.equals(pType.rawType)) {
+          methodBuilder.addStatement("$L = new $T<>()", fieldName, ARRAY_LIST)
+                       .addStatement("reader.beginArray()")
+                       .beginControlFlow("while (reader.hasNext())")
+                       .addStatement("$L.add($L)", fieldName,
+                         readJsonItem(packageName, pType.typeArguments.get(0)))
+                       .endControlFlow()
+                       .addStatement("reader.endArray()");
+
+        } else if (MAP.equals(pType.rawType)) {
+          methodBuilder.addStatement("$L = new $T<>()", fieldName, HASH_MAP)
+                       .addStatement("reader.beginObject()")
+                       .beginControlFlow("while (reader.hasNext())")
+                       .addStatement("$L.put($L, $L)", fieldName,
+                         readJsonKey(pType.typeArguments.get(0)),
+                         readJsonItem(packageName, pType.typeArguments.get(1)))
+                       .endControlFlow()
+                       .addStatement("reader.endObject()");
+        }
+
+        methodBuilder.endControlFlow();
+
+      } else {
+        methodBuilder.addStatement("$L = $L", fieldName, readJsonItem(packageName, type));
+      }
+
+      methodBuilder.addStatement("break")
+                   .addCode("$<");
+    }
+
+    methodBuilder.addCode("default:\n$>");
+    if (hasAnnotation(autoValueTypeElement, THROW_ON_EXTRA_PROPERTIES)) {
+      methodBuilder.addStatement("throw new $T($S)", JSON_DATA_EXCEPTION,
+        "Found a property not defined in " + finalAutoValueClassName.simpleName());
+    } else {
+      methodBuilder.addStatement("reader.skipValue()");
+    }
+    methodBuilder.addCode("$<")
+                 .endControlFlow()
+                 .endControlFlow()
+                 .addStatement("reader.endObject()");
+
+    addInternStatements(methodBuilder, properties, interned);
+    addReturnAutoValue(methodBuilder, finalAutoValueClassName, properties, canonicalize);
+
+    return methodBuilder.build();
+  }
+
+  // Streams JSON straight from the AutoValue accessors, without building a Map or FirebaseValue
+  static MethodSpec generateWriteJsonMethod(String packageName,
+                                            TypeElement autoValueTypeElement,
+                                            List<Property> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    String paramName = firstLetterToLowerCase(autoValueType);
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("writeJson")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, paramName)
+                                                 .addParameter(JSON_WRITER, "writer")
+                                                 .addException(IO_EXCEPTION)
+                                                 .beginControlFlow("if ($L == null)", paramName)
+                                                 .addStatement("writer.nullValue()")
+                                                 .addStatement("return")
+                                                 .endControlFlow();
+
+    List<Property> stored = storedProperties(properties);
+    addLocalAdapters(methodBuilder, stored);
+
+    methodBuilder.addStatement("writer.beginObject()");
+    for (Property property : stored) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      String value = paramName + "." + fieldName + "()";
+      // Primitives and nested values write their own nulls
+      boolean writesNull = property.hasAdapter() || typeIsPrimitiveArray(type)
+        || (!typeIsPrimitive(type) && type instanceof ParameterizedTypeName);
+      if (property.omitNull) {
+        methodBuilder.beginControlFlow("if ($L != null)", value)
+                     .addStatement("writer.name($S)", property.firebaseName);
+      } else {
+        methodBuilder.addStatement("writer.name($S)", property.firebaseName);
+        if (writesNull) {
+          methodBuilder.beginControlFlow("if ($L == null)", value)
+                       .addStatement("writer.nullValue()")
+                       .nextControlFlow("else");
+        }
+      }
+
+      if (property.hasAdapter()) {
+        methodBuilder.addStatement("writer.value($L.toFirebaseValue($L.$L()))",
+          property.adapterName(), paramName, fieldName);
+
+      } else if (typeIsPrimitive(type)) {
+        methodBuilder.addStatement("$L", writeJsonItem(packageName, type, value));
+
+      } else if (typeIsPrimitiveArray(type)) {
+        methodBuilder.addStatement("writer.beginArray()")
+                     .beginControlFlow("for ($T item : $L.$L())",
+                       ((ArrayTypeName) type).componentType, paramName, fieldName)
+                     .addStatement("writer.value(item)")
+                     .endControlFlow()
+                     .addStatement("writer.endArray()");
+
+      } else if (type instanceof ParameterizedTypeName) {
+        ParameterizedTypeName pType = (ParameterizedTypeName) type;
+
+        if (LIST.equals(pType.rawType)) {
+          TypeName itemType = pType.typeArguments.get(0);
+          methodBuilder.addStatement("writer.beginArray()")
+                       .beginControlFlow("for ($T item : $L.$L())", itemType, paramName, fieldName)
+                       .addStatement("$L", writeJsonItem(packageName, itemType, "item"))
+                       .endControlFlow()
+                       .addStatement("writer.endArray()");
+
+        } else if (MAP.equals(pType.rawType)) {
+          TypeName keyType = pType.typeArguments.get(0);
+          TypeName valueType = pType.typeArguments.get(1);
+          methodBuilder.addStatement("writer.beginObject()")
+                       .beginControlFlow("for ($T<$T, $T> entry : $L.$L().entrySet())",
+                         MAP_ENTRY, keyType, valueType, paramName, fieldName)
+                       .addStatement("$L", STRING.equals(keyType)
+                         ? CodeBlock.of("writer.name(entry.getKey())")
+                         : CodeBlock.of("writer.name($T.valueOf(entry.getKey()))", STRING))
+                       .addStatement("$L", writeJsonItem(packageName, valueType, "entry.getValue()"))
+                       .endControlFlow()
+                       .addStatement("writer.endObject()");
+        }
+
+      } else {
+        methodBuilder.addStatement("$L", writeJsonItem(packageName, type, value));
+      }
+
+      if (property.omitNull || writesNull) {
+        methodBuilder.endControlFlow();
+      }
+    }
+    methodBuilder.addStatement("writer.endObject()");
+
+    return methodBuilder.build();
+  }
+
+  static CodeBlock writeJsonItem(String packageName, TypeName type, String value) {
+    if (TypeName.CHAR.equals(type)) {
+      // Would widen to value(long). Boxed Characters are written as Strings by value(Object).
+      return CodeBlock.of("writer.value($T.valueOf($L))", STRING, value);
+    } else if (typeIsPrimitive(type)) {
+      return CodeBlock.of("writer.value($L)", value);
+    }
+    return CodeBlock.of("$T.writeJson($L, writer)", autoValueClassName(packageName, type), value);
+  }
+
+  // Reads a single, possibly null, List item, Map value or property from the JsonReader
+  static CodeBlock readJsonItem(String packageName, TypeName type) {
+    if (typeIsPrimitive(type)) {
+      return CodeBlock.of("reader.skipNull() ? $L : $L", defaultValue(type), readJsonValue(type));
+    }
+    return CodeBlock.of("$T.readJson(reader)", autoValueClassName(packageName, type));
+  }
+
+  static CodeBlock readJsonKey(TypeName type) {
+    return parseKey(type, "reader.nextName()");
+  }
+
+  // Like decodeKey, for keys that are already Strings
+  static CodeBlock parseKey(TypeName type, String key) {
+    if (STRING.equals(type)) {
+      return CodeBlock.of("$L", key);
+    } else if (TypeName.CHAR.box().equals(type)) {
+      return CodeBlock.of("$L.charAt(0)", key);
+    }
+    return CodeBlock.of("$T.valueOf($L)", type, key);
+  }
+
+  // Reads a non-null primitive, boxed primitive or String from the JsonReader
+  static CodeBlock readJsonValue(TypeName type) {
+    TypeName unboxed = type.isBoxedPrimitive() ? type.unbox() : type;
+    if (TypeName.BOOLEAN.equals(unboxed)) {
+      return CodeBlock.of("reader.nextBoolean()");
+    } else if (TypeName.CHAR.equals(unboxed)) {
+      return CodeBlock.of("reader.nextString().charAt(0)");
+    } else if (TypeName.LONG.equals(unboxed)) {
+      return CodeBlock.of("reader.nextLong()");
+    } else if (TypeName.INT.equals(unboxed)) {
+      return CodeBlock.of("reader.nextInt()");
+    } else if (TypeName.DOUBLE.equals(unboxed)) {
+      return CodeBlock.of("reader.nextDouble()");
+    } else if (TypeName.FLOAT.equals(unboxed)) {
+      return CodeBlock.of("(float) reader.nextDouble()");
+    } else if (TypeName.SHORT.equals(unboxed) || TypeName.BYTE.equals(unboxed)) {
+      return CodeBlock.of("($T) reader.nextInt()", unboxed);
+    }
+    return CodeBlock.of("reader.nextString()");
+  }
+
+  // The binary format has no field tags, so the fingerprint covers everything that changes the
+  // layout: property names, order, types, nullability, adapters and nested FirebaseValue types.
+  // Nested types fold in their own BINARY_FINGERPRINT, which keeps the initializer a constant
+  // without walking everything they nest. A type nested in a cycle with this one can't, since the
+  // constants would depend on each other, so its signature is hashed in directly instead.
+  // @FirebaseValue isn't kept in class files, so a nested type from another module or jar is
+  // recognized by the BINARY_FINGERPRINT of its generated class.
+  static FieldSpec generateBinaryFingerprintField(String packageName,
+                                                  Elements elements,
+                                                  TypeElement autoValueTypeElement,
+                                                  Map<String, ExecutableElement> properties) {
+    StringBuilder signature = new StringBuilder();
+    Set<String> folded = new LinkedHashSet<>();
+    appendBinarySignature(signature, elements, autoValueTypeElement, autoValueTypeElement, properties,
+      new HashSet<String>(), folded, new HashMap<String, List<String>>());
+
+    // 64-bit FNV-1a
+    long fingerprint = 0xcbf29ce484222325L;
+    for (int i = 0; i < signature.length(); i++) {
+      fingerprint ^= signature.charAt(i);
+      fingerprint *= 0x100000001b3L;
+    }
+
+    CodeBlock initializer = CodeBlock.of("$L", String.format("0x%016xL", fingerprint));
+    String format = "$L * 31 + $T.BINARY_FINGERPRINT";
+    for (String name : folded) {
+      ClassName nested = autoValueClassName(packageName, ClassName.get(elements.getTypeElement(name)));
+      initializer = CodeBlock.of(format, initializer, nested);
+      format = "($L) * 31 + $T.BINARY_FINGERPRINT";
+    }
+    return FieldSpec.builder(TypeName.LONG, "BINARY_FINGERPRINT", STATIC, FINAL)
+                    .initializer(initializer)
+                    .build();
+  }
+
+  static void appendBinarySignature(StringBuilder signature,
+                                    Elements elements,
+                                    TypeElement root,
+                                    TypeElement type,
+                                    Map<String, ExecutableElement> properties,
+                                    Set<String> visited,
+                                    Set<String> folded,
+                                    Map<String, List<String>> nestedTypes) {
+    signature.append(type.getQualifiedName());
+    if (!visited.add(type.getQualifiedName().toString())) {
+      return;
+    }
+
+    signature.append('{');
+    for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
+      ExecutableElement property = entry.getValue();
+      signature.append(entry.getKey()).append(':').append(property.getReturnType());
+      if (isNullable(property)) {
+        signature.append('?');
+      }
+      if (typeHasAdapter(property)) {
+        signature.append('@').append(getTypeAdapterClass(property.getAnnotation(FirebaseAdapter.class)));
+      }
+
+      for (TypeElement element : nestedFirebaseValueTypes(elements, property)) {
+        String name = element.getQualifiedName().toString();
+        if (reaches(elements, name, root.getQualifiedName().toString(), new HashSet<String>(), nestedTypes)) {
+          appendBinarySignature(signature, elements, root, element, abstractProperties(elements, element), visited,
+            folded, nestedTypes);
+        } else {
+          folded.add(name);
+        }
+      }
+      signature.append(';');
+    }
+    signature.append('}');
+  }
+
+  // The FirebaseValue types a property holds, as its own type or as the type arguments of a collection
+  static List<TypeElement> nestedFirebaseValueTypes(Elements elements, ExecutableElement property) {
+    List<TypeMirror> referencedTypes = new ArrayList<>();
+    referencedTypes.add(property.getReturnType());
+    if (property.getReturnType() instanceof DeclaredType) {
+      referencedTypes.addAll(((DeclaredType) property.getReturnType()).getTypeArguments());
+    }
+    List<TypeElement> nested = new ArrayList<>();
+    for (TypeMirror referencedType : referencedTypes) {
+      if (!(referencedType instanceof DeclaredType)) {
+        continue;
+      }
+      TypeElement element = (TypeElement) ((DeclaredType) referencedType).asElement();
+      if (hasAnnotation(element, FIREBASE_VALUE_ANNOTATION) || hasBinaryFingerprint(elements, element)) {
+        nested.add(element);
+      }
+    }
+    return nested;
+  }
+
+  static boolean hasBinaryFingerprint(Elements elements, TypeElement type) {
+    if (type.getKind() != ElementKind.CLASS || !type.getModifiers().contains(ABSTRACT)) {
+      return false;
+    }
+    TypeElement generated = elements.getTypeElement(
+      elements.getPackageOf(type).getQualifiedName() + "." + AUTOVALUE_PREFIX + type.getSimpleName());
+    if (generated == null) {
+      return false;
+    }
+    for (VariableElement field : ElementFilter.fieldsIn(generated.getEnclosedElements())) {
+      if (field.getSimpleName().contentEquals("BINARY_FINGERPRINT")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Whether target is nested in from, however deeply. The FirebaseValue types each type nests
+  // directly are remembered in nestedTypes, keyed by qualified name, so every type's members are
+  // only read once per generated class however many of its types nest it.
+  static boolean reaches(Elements elements,
+                         String from,
+                         String target,
+                         Set<String> visited,
+                         Map<String, List<String>> nestedTypes) {
+    if (from.equals(target)) {
+      return true;
+    } else if (!visited.add(from)) {
+      return false;
+    }
+    List<String> nested = nestedTypes.get(from);
+    if (nested == null) {
+      nested = new ArrayList<>();
+      for (ExecutableElement property : abstractProperties(elements, elements.getTypeElement(from)).values()) {
+        for (TypeElement element : nestedFirebaseValueTypes(elements, property)) {
+          nested.add(element.getQualifiedName().toString());
+        }
+      }
+      nestedTypes.put(from, nested);
+    }
+    for (String name : nested) {
+      if (reaches(elements, name, target, visited, nestedTypes)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The properties AutoValue will find on a nested type, which isn't the one being processed
+  static Map<String, ExecutableElement> abstractProperties(Elements elements, TypeElement type) {
+    Map<String, ExecutableElement> properties = new LinkedHashMap<>();
+    for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+      if (method.getModifiers().contains(ABSTRACT) && method.getParameters().isEmpty()
+        && method.getReturnType().getKind() != TypeKind.VOID) {
+        properties.put(method.getSimpleName().toString(), method);
+      }
+    }
+    return properties;
+  }
+
+  // Encodes every property, @Exclude ones included, since the binary format is a local cache of
+  // the whole model. Only @Nullable properties get a presence bit, AutoValue rejects nulls elsewhere.
+  static MethodSpec generateWriteToMethod(String packageName,
+                                          TypeElement autoValueTypeElement,
+                                          List<Property> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    String paramName = firstLetterToLowerCase(autoValueType);
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("writeTo")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(autoValueType, paramName)
+                                                 .addParameter(DATA_OUTPUT, "out")
+                                                 .addException(IO_EXCEPTION);
+
+    addLocalAdapters(methodBuilder, properties);
+
+    List<String> nullableProperties = nullableProperties(properties);
+    for (int word = 0; word * 64 < nullableProperties.size(); word++) {
+      methodBuilder.addStatement("long presence$L = 0L", word);
+    }
+    for (int i = 0; i < nullableProperties.size(); i++) {
+      methodBuilder.beginControlFlow("if ($L.$L() != null)", paramName, nullableProperties.get(i))
+                   .addStatement("presence$L |= 1L << $L", i / 64, i % 64)
+                   .endControlFlow();
+    }
+    for (int word = 0; word * 64 < nullableProperties.size(); word++) {
+      methodBuilder.addStatement("$T.writeUnsignedVarLong(out, presence$L)", BINARY_CODEC, word);
+    }
+
+    for (Property property : properties) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      String value = paramName + "." + fieldName + "()";
+      if (property.nullable) {
+        methodBuilder.beginControlFlow("if ($L != null)", value);
+      }
+
+      if (property.hasAdapter()) {
+        TypeName outputType = property.adapterOutput;
+        CodeBlock adapted = CodeBlock.of("$L.toFirebaseValue($L)", property.adapterName(), value);
+        methodBuilder.addStatement("$L", typeIsPrimitive(outputType)
+          ? writeBinaryValue(packageName, outputType, adapted.toString())
+          : CodeBlock.of("$T.writeValue(out, $L)", BINARY_CODEC, adapted));
+
+      } else if (property.kind == Property.Kind.VALUE_ARRAY) {
+        TypeName componentType = ((ArrayTypeName) type).componentType;
+        methodBuilder.addStatement("$T.writeSize(out, $L.length)", BINARY_CODEC, value)
+                     .beginControlFlow("for ($T item : $L)", componentType, value)
+                     .addStatement("$L", writeBinaryValue(packageName, componentType, "item"))
+                     .endControlFlow();
+
+      } else if (type instanceof ParameterizedTypeName) {
+        ParameterizedTypeName pType = (ParameterizedTypeName) type;
+        methodBuilder.addStatement("$T.writeSize(out, $L.size())", BINARY_CODEC, value);
+
+        if (LIST.equals(pType.rawType)) {
+          TypeName itemType = pType.typeArguments.get(0);
+          methodBuilder.beginControlFlow("for ($T item : $L)", itemType, value)
+                       .addStatement("out.writeBoolean(item != null)")
+                       .beginControlFlow("if (item != null)")
+                       .addStatement("$L", writeBinaryValue(packageName, itemType, "item"))
+                       .endControlFlow()
+                       .endControlFlow();
+
+        } else if (MAP.equals(pType.rawType)) {
+          TypeName keyType = pType.typeArguments.get(0);
+          TypeName valueType = pType.typeArguments.get(1);
+          methodBuilder.beginControlFlow("for ($T<$T, $T> entry : $L.entrySet())",
+                         MAP_ENTRY, keyType, valueType, value)
+                       .addStatement("$L", writeBinaryValue(packageName, keyType, "entry.getKey()"))
+                       .addStatement("out.writeBoolean(entry.getValue() != null)")
+                       .beginControlFlow("if (entry.getValue() != null)")
+                       .addStatement("$L", writeBinaryValue(packageName, valueType, "entry.getValue()"))
+                       .endControlFlow()
+                       .endControlFlow();
+        }
+
+      } else {
+        methodBuilder.addStatement("$L", writeBinaryValue(packageName, type, value));
+      }
+
+      if (property.nullable) {
+        methodBuilder.endControlFlow();
+      }
+    }
+
+    return methodBuilder.build();
+  }
+
+  static MethodSpec generateReadFromMethod(String packageName,
+                                           ClassName autoValueClassName,
+                                           List<Property> properties,
+                                           Set<String> interned,
+                                           boolean canonicalize) {
+    ClassName finalAutoValueClassName = stripDollarSignsFromClassName(autoValueClassName);
+    MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("readFrom")
+                                                 .addModifiers(STATIC)
+                                                 .addParameter(DATA_INPUT, "in")
+                                                 .addException(IO_EXCEPTION)
+                                                 .returns(finalAutoValueClassName);
+
+    addLocalAdapters(methodBuilder, properties);
+
+    List<String> nullableProperties = nullableProperties(properties);
+    for (int word = 0; word * 64 < nullableProperties.size(); word++) {
+      methodBuilder.addStatement("long presence$L = $T.readUnsignedVarLong(in)", word, BINARY_CODEC);
+    }
+
+    for (Property property : properties) {
+      String fieldName = property.name;
+      TypeName type = property.type;
+      int presenceBit = nullableProperties.indexOf(fieldName);
+      if (presenceBit >= 0) {
+        methodBuilder.addStatement("$T $L = null", type, fieldName)
+                     .beginControlFlow("if ((presence$L & 1L << $L) != 0)", presenceBit / 64, presenceBit % 64);
+      }
+      CodeBlock target = presenceBit >= 0 ? CodeBlock.of("$L", fieldName) : CodeBlock.of("$T $L", type, fieldName);
+
+      if (property.hasAdapter()) {
+        TypeName outputType = property.adapterOutput;
+        String adapter = property.adapterName();
+        methodBuilder.addStatement("$L = $L.fromFirebaseValue($L)", target, adapter, typeIsPrimitive(outputType)
+          ? readBinaryValue(packageName, outputType)
+          : CodeBlock.of("($T) $T.readValue(in)", outputType, BINARY_CODEC));
+
+      } else if (property.kind == Property.Kind.VALUE_ARRAY) {
+        TypeName componentType = ((ArrayTypeName) type).componentType;
+        methodBuilder.addStatement("$L = new $T[$T.readSize(in)]", target, componentType, BINARY_CODEC)
+                     .beginControlFlow("for (int i = 0; i < $L.length; i++)", fieldName)
+                     .addStatement("$L[i] = $L", fieldName, readBinaryValue(packageName, componentType))
+                     .endControlFlow();
+
+      } else if (type instanceof ParameterizedTypeName) {
+        ParameterizedTypeName pType = (ParameterizedTypeName) type;
+        String sizeName = fieldName + "Size";
+        methodBuilder.addStatement("int $L = $T.readSize(in)", sizeName, BINARY_CODEC);
+
+        if (LIST.equals(pType.rawType)) {
+          TypeName itemType = pType.typeArguments.get(0);
+          methodBuilder.addStatement("$L = new $T<>($L)", target, ARRAY_LIST, sizeName)
+                       .beginControlFlow("for (int i = 0; i < $L; i++)", sizeName)
+                       .addStatement("$L.add(in.readBoolean() ? $L : null)", fieldName,
+                         readBinaryValue(packageName, itemType))
+                       .endControlFlow();
+
+        } else if (MAP.equals(pType.rawType)) {
+          TypeName keyType = pType.typeArguments.get(0);
+          TypeName valueType = pType.typeArguments.get(1);
+          methodBuilder.addStatement("$L = new $T<>((int) ($L / 0.75f) + 1)", target, HASH_MAP, sizeName)
+                       .beginControlFlow("for (int i = 0; i < $L; i++)", sizeName)
+                       .addStatement("$L.put($L, in.readBoolean() ? $L : null)", fieldName,
+                         readBinaryValue(packageName, keyType), readBinaryValue(packageName, valueType))
+                       .endControlFlow();
+        }
+
+      } else {
+        methodBuilder.addStatement("$L = $L", target, readBinaryValue(packageName, type));
+      }
+
+      if (presenceBit >= 0) {
+        methodBuilder.endControlFlow();
+      }
+    }
+
+    addInternStatements(methodBuilder, properties, interned);
+    addReturnAutoValue(methodBuilder, finalAutoValueClassName, properties, canonicalize);
+
+    return methodBuilder.build();
+  }
+
+  // Writes a non-null primitive, boxed primitive, String or nested FirebaseValue type
+  static CodeBlock writeBinaryValue(String packageName, TypeName type, String value) {
+    TypeName unboxed = type.isBoxedPrimitive() ? type.unbox() : type;
+    if (STRING.equals(type)) {
+      return CodeBlock.of("$T.writeString(out, $L)", BINARY_CODEC, value);
+    } else if (TypeName.BOOLEAN.equals(unboxed)) {
+      return CodeBlock.of("out.writeBoolean($L)", value);
+    } else if (TypeName.CHAR.equals(unboxed)) {
+      return CodeBlock.of("out.writeChar($L)", value);
+    } else if (TypeName.LONG.equals(unboxed)) {
+      return CodeBlock.of("$T.writeVarLong(out, $L)", BINARY_CODEC, value);
+    } else if (TypeName.DOUBLE.equals(unboxed)) {
+      return CodeBlock.of("out.writeDouble($L)", value);
+    } else if (TypeName.FLOAT.equals(unboxed)) {
+      return CodeBlock.of("out.writeFloat($L)", value);
+    } else if (unboxed.isPrimitive()) {
+      return CodeBlock.of("$T.writeVarInt(out, $L)", BINARY_CODEC, value);
+    }
+    return CodeBlock.of("$T.writeTo($L, out)", autoValueClassName(packageName, type), value);
+  }
+
+  static CodeBlock readBinaryValue(String packageName, TypeName type) {
+    TypeName unboxed = type.isBoxedPrimitive() ? type.unbox() : type;
+    if (STRING.equals(type)) {
+      return CodeBlock.of("$T.readString(in)", BINARY_CODEC);
+    } else if (TypeName.BOOLEAN.equals(unboxed)) {
+      return CodeBlock.of("in.readBoolean()");
+    } else if (TypeName.CHAR.equals(unboxed)) {
+      return CodeBlock.of("in.readChar()");
+    } else if (TypeName.LONG.equals(unboxed)) {
+      return CodeBlock.of("$T.readVarLong(in)", BINARY_CODEC);
+    } else if (TypeName.DOUBLE.equals(unboxed)) {
+      return CodeBlock.of("in.readDouble()");
+    } else if (TypeName.FLOAT.equals(unboxed)) {
+      return CodeBlock.of("in.readFloat()");
+    } else if (TypeName.INT.equals(unboxed)) {
+      return CodeBlock.of("$T.readVarInt(in)", BINARY_CODEC);
+    } else if (unboxed.isPrimitive()) {
+      return CodeBlock.of("($T) $T.readVarInt(in)", unboxed, BINARY_CODEC);
+    }
+    return CodeBlock.of("$T.readFrom(in)", autoValueClassName(packageName, type));
+  }
+
+  static List<String> nullableProperties(List<Property> properties) {
+    List<String> nullableProperties = new ArrayList<>();
+    for (Property property : properties) {
+      if (property.nullable) {
+        nullableProperties.add(property.name);
+      }
+    }
+    return nullableProperties;
+  }
+
+  // Same rule as AutoValue: any annotation named @Nullable, whatever its package
+  static boolean isNullable(ExecutableElement property) {
+    for (AnnotationMirror annotation : property.getAnnotationMirrors()) {
+      if (annotation.getAnnotationType().asElement().getSimpleName().contentEquals("Nullable")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Properties annotated with @Intern, or every eligible property with @FirebaseValue(intern = true)
+  static Set<String> getInternedProperties(List<Property> properties, boolean internAll) {
+    Set<String> interned = new LinkedHashSet<>();
+    for (Property property : properties) {
+      boolean internable = !property.hasAdapter() && typeIsInternable(property.type);
+      if (property.intern && !internable) {
+        throw unsupportedType(property.type,
+          "@Intern is only supported on String, List<String> and Map<String, ?> properties");
+      }
+      if (internable && (property.intern || internAll)) {
+        interned.add(property.name);
+      }
+    }
+    return interned;
+  }
+
+  static boolean typeIsInternable(TypeName type) {
+    if (STRING.equals(type)) {
+      return true;
+    } else if (type instanceof ParameterizedTypeName) {
+      ParameterizedTypeName pType = (ParameterizedTypeName) type;
+      return (LIST.equals(pType.rawType) || MAP.equals(pType.rawType))
+        && STRING.equals(pType.typeArguments.get(0));
+    }
+    return false;
+  }
+
+  // Decoders build their locals as usual, then swap in pooled strings just before construction
+  static void addInternStatements(MethodSpec.Builder methodBuilder,
+                                  List<Property> properties,
+                                  Set<String> interned) {
+    for (Property property : properties) {
+      if (!interned.contains(property.name)) {
+        continue;
+      }
+      TypeName type = property.type;
+      String method = STRING.equals(type) ? "intern"
+        : LIST.equals(((ParameterizedTypeName) type).rawType) ? "internAll" : "internKeys";
+      methodBuilder.addStatement("$L = $T.SHARED.$L($L)", property.name, STRING_POOL, method, property.name);
+    }
+  }
+
+  static FieldSpec generateCanonicalizerField(ClassName autoValueClassName) {
+    TypeName type = ParameterizedTypeName.get(CANONICALIZER, stripDollarSignsFromClassName(autoValueClassName));
+    return FieldSpec.builder(type, "CANONICALIZER", STATIC, FINAL)
+                    .initializer("new $T<>()", CANONICALIZER)
+                    .build();
+  }
+
+  // A description of every property, registered with FirebaseSchemas when the class is initialized,
+  // so generic tooling can read values by index without reflection
+  static FieldSpec generateSchemaField(ClassName className,
+                                       TypeElement autoValueTypeElement,
+                                       List<Property> properties) {
+    ClassName autoValueType = (ClassName) ClassName.get(autoValueTypeElement.asType());
+    TypeName schemaType = ParameterizedTypeName.get(FIREBASE_SCHEMA, autoValueType);
+
+    CodeBlock.Builder names = CodeBlock.builder();
+    CodeBlock.Builder firebaseKeys = CodeBlock.builder();
+    CodeBlock.Builder kinds = CodeBlock.builder();
+    MethodSpec.Builder getBuilder = MethodSpec.methodBuilder("get")
+                                              .addAnnotation(Override.class)
+                                              .addModifiers(PUBLIC)
+                                              .returns(TypeName.OBJECT)
+                                              .addParameter(autoValueType, "value")
+                                              .addParameter(TypeName.INT, "index")
+                                              .beginControlFlow("switch (index)");
+    for (int i = 0; i < properties.size(); i++) {
+      Property property = properties.get(i);
+      String separator = i < properties.size() - 1 ? ", " : "";
+      names.add("$S$L", property.name, separator);
+      firebaseKeys.add("$S$L", property.firebaseName, separator);
+      kinds.add("$T.$L$L", SCHEMA_KIND, schemaKind(property), separator);
+      getBuilder.addCode("case $L:\n$>", i)
+                .addStatement("return value.$L()", property.name)
+                .addCode("$<");
+    }
+    getBuilder.addCode("default:\n$>")
+              .addStatement("throw new $T($S + index)", IndexOutOfBoundsException.class, "No property at ")
+              .addCode("$<")
+              .endControlFlow();
+
+    TypeSpec schema = TypeSpec.anonymousClassBuilder("$T.class,\n$>$>"
+                                                       + "new $T[] {$L},\n"
+                                                       + "new $T[] {$L},\n"
+                                                       + "new $T[] {$L}$<$<",
+                                autoValueType,
+                                STRING, names.build(),
+                                STRING, firebaseKeys.build(),
+                                SCHEMA_KIND, kinds.build())
+                              .superclass(schemaType)
+                              .addMethod(getBuilder.build())
+                              .addMethod(MethodSpec.methodBuilder("get")
+                                                   .addAnnotation(Override.class)
+                                                   .addModifiers(PUBLIC)
+                                                   .returns(TypeName.OBJECT)
+                                                   .addParameter(autoValueType, "value")
+                                                   .addParameter(STRING, "firebaseKey")
+                                                   .addStatement("return $T.get(value, firebaseKey)", className)
+                                                   .build())
+                              .build();
+    return FieldSpec.builder(schemaType, "SCHEMA", STATIC, FINAL)
+                    .initializer("$T.register($L)", FIREBASE_SCHEMAS, schema)
+                    .build();
+  }
+
+  static String schemaKind(Property property) {
+    switch (property.kind) {
+      case ADAPTED:
+        return "ADAPTED";
+      case VALUE:
+        return "PRIMITIVE";
+      case VALUE_ARRAY:
+        return "ARRAY";
+      case NESTED:
+        return "NESTED";
+      default:
+        return LIST.equals(((ParameterizedTypeName) property.type).rawType) ? "LIST" : "MAP";
+    }
+  }
+
+  // Every decoder ends by constructing the AutoValue class, which goes through the canonicalizer
+  // when the type has one
+  static void addReturnAutoValue(MethodSpec.Builder methodBuilder,
+                                 ClassName finalAutoValueClassName,
+                                 List<Property> properties,
+                                 boolean canonicalize) {
+    methodBuilder.addStatement("return $L", newAutoValue(finalAutoValueClassName, properties, canonicalize));
+  }
+
+  static CodeBlock newAutoValue(ClassName finalAutoValueClassName,
+                                List<Property> properties,
+                                boolean canonicalize) {
+    CodeBlock.Builder constructorCall = CodeBlock.builder().add("new $T(", finalAutoValueClassName);
+    int remaining = properties.size();
+    for (Property property : properties) {
+      constructorCall.add(--remaining > 0 ? "$N, " : "$N", property.name);
+    }
+    constructorCall.add(")");
+
+    return canonicalize
+      ? CodeBlock.of("CANONICALIZER.canonicalize($L)", constructorCall.build())
+      : constructorCall.build();
+  }
+
+  // Conversions report to FirebaseValueMetrics when the runtime is on the classpath. Without a
+  // registered listener they're not timed, and the only cost is reading registered().
+  static void addMetricsStart(MethodSpec.Builder methodBuilder) {
+    methodBuilder.addStatement("$T metrics = $T.registered()", FIREBASE_VALUE_METRICS, FIREBASE_VALUE_METRICS)
+                 .addStatement("long metricsStart = metrics == null ? 0L : $T.nanoTime()", SYSTEM);
+  }
+
+  static void addMetricsRecord(MethodSpec.Builder methodBuilder,
+                               ClassName autoValueType,
+                               String operation,
+                               List<Property> properties) {
+    // The FirebaseValue holds every collection and array as a List or Map
+    addMetricsRecord(methodBuilder, autoValueType, operation, properties, "this.$L", "size()");
+  }
+
+  // Reads each property through valueFormat, and the size of an array through arraySize
+  static void addMetricsRecord(MethodSpec.Builder methodBuilder,
+                               ClassName autoValueType,
+                               String operation,
+                               List<Property> properties,
+                               String valueFormat,
+                               String arraySize) {
+    List<CodeBlock> sizes = new ArrayList<>();
+    for (Property property : properties) {
+      if (property.kind == Property.Kind.VALUE_COLLECTION || property.kind == Property.Kind.NESTED_COLLECTION
+        || property.kind == Property.Kind.VALUE_ARRAY) {
+        CodeBlock value = CodeBlock.of(valueFormat, property.name);
+        sizes.add(CodeBlock.of("$L == null ? 0 : $L.$L", value, value,
+          property.kind == Property.Kind.VALUE_ARRAY ? arraySize : "size()"));
+      }
+    }
+    CodeBlock.Builder elements = CodeBlock.builder();
+    if (sizes.isEmpty()) {
+      elements.add("0");
+    } else if (sizes.size() == 1) {
+      elements.add("$L", sizes.get(0));
+    } else {
+      for (int i = 0; i < sizes.size(); i++) {
+        elements.add(i == 0 ? "($L)" : " + ($L)", sizes.get(i));
+      }
+    }
+
+    methodBuilder.beginControlFlow("if (metrics != null)")
+                 .addStatement("metrics.record($T.class, $T.$L, $L, $T.nanoTime() - metricsStart)",
+                   autoValueType, METRICS_OPERATION, operation, elements.build(), SYSTEM)
+                 .endControlFlow();
+  }
+
+  // Generated code that needs the runtime module is only emitted when it's on the classpath
+  static boolean runtimeIsAvailable(Context context, ClassName runtimeClass) {
+    return context.processingEnvironment().getElementUtils()
+                  .getTypeElement(runtimeClass.toString()) != null;
+  }
+
+  static boolean hasAnnotation(TypeElement typeElement, ClassName annotationType) {
+    for (AnnotationMirror annotation : typeElement.getAnnotationMirrors()) {
+      TypeElement type = (TypeElement) annotation.getAnnotationType().asElement();
+      if (type.getQualifiedName().contentEquals(annotationType.toString())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static ClassName annotationType(AnnotationMirror annotation) {
+    return ClassName.get((TypeElement) annotation.getAnnotationType().asElement());
+  }
+
+  // The properties Firebase reads and writes, leaving out @Exclude'd ones
+  static List<Property> storedProperties(List<Property> properties) {
+    List<Property> stored = new ArrayList<>(properties.size());
+    for (Property property : properties) {
+      if (!property.excluded()) {
+        stored.add(property);
+      }
+    }
+    return stored;
+  }
+
+  // Static methods can't use the FirebaseValue's adapter fields, so adapters that aren't shared
+  // are created for the duration of the call
+  static void addLocalAdapters(MethodSpec.Builder methodBuilder, Iterable<Property> properties) {
+    Set<ClassName> adapters = new LinkedHashSet<>();
+    for (Property property : properties) {
+      if (property.hasAdapter() && !property.statelessAdapter) {
+        adapters.add(property.adapter);
+      }
+    }
+    for (ClassName adapter : adapters) {
+      methodBuilder.addStatement("$T $L = new $T()", adapter, firstLetterToLowerCase(adapter), adapter);
+    }
+  }
+
+  // Decodes a List item or Map value, which is either a primitive or a nested FirebaseValue type
+  static CodeBlock decodeItem(String packageName, TypeName type, String raw) {
+    if (typeIsPrimitive(type)) {
+      return decodePrimitive(type, raw, true);
+    }
+    return CodeBlock.of("$T.fromValue($L)", autoValueClassName(packageName, type), raw);
+  }
+
+  // Firebase hands back integral numbers as Long and decimals as Double, so every numeric
+  // type is narrowed through Number rather than cast directly
+  static CodeBlock decodePrimitive(TypeName type, String raw, boolean nullable) {
+    if (!typeIsPrimitive(type) || (!type.isPrimitive() && !typeIsNumber(type))) {
+      return CodeBlock.of("($T) $L", type, raw);
+    } else if (TypeName.BOOLEAN.equals(type)) {
+      return nullable ? CodeBlock.of("$L != null && ($T) $L", raw, type.box(), raw)
+        : CodeBlock.of("($T) $L", type.box(), raw);
+    } else if (TypeName.CHAR.equals(type)) {
+      return nullable ? CodeBlock.of("$L == null ? $L : ($T) $L", raw, defaultValue(type), type.box(), raw)
+        : CodeBlock.of("($T) $L", type.box(), raw);
+    }
+
+    CodeBlock number = CodeBlock.of("(($T) $L).$LValue()", Number.class, raw, type.unbox());
+    if (!nullable) {
+      return number;
+    }
+    return CodeBlock.of("$L == null ? $L : $L", raw, type.isPrimitive() ? defaultValue(type) : "null", number);
+  }
+
+  // Firebase always uses String keys, so other key types are parsed back from their String form
+  static CodeBlock decodeKey(TypeName type, String raw) {
+    if (STRING.equals(type)) {
+      return CodeBlock.of("($T) $L", STRING, raw);
+    } else if (TypeName.CHAR.box().equals(type)) {
+      return CodeBlock.of("(($T) $L).charAt(0)", STRING, raw);
+    }
+    return CodeBlock.of("$T.valueOf(($T) $L)", type, STRING, raw);
+  }
+
+  static ClassName autoValueClassName(String packageName, TypeName type) {
+    return ClassName.get(packageName, AUTOVALUE_PREFIX + ((ClassName) type).simpleName());
+  }
+
+  static ClassName firebaseValueClassName(String packageName, TypeName type) {
+    return ClassName.get(packageName, AUTOVALUE_PREFIX + ((ClassName) type).simpleName(), FIREBASEVALUE);
+  }
+
+  // Declares the map every toMap() fills. When properties are omitted while null, it's sized for
+  // the ones that aren't.
+  static void addToMapDeclaration(MethodSpec.Builder methodBuilder, List<Property> stored, String valueFormat) {
+    TypeName mapType = ParameterizedTypeName.get(HASH_MAP, STRING, TypeName.OBJECT);
+    int alwaysPut = 0;
+    for (Property property : stored) {
+      alwaysPut += property.omitNull ? 0 : 1;
+    }
+    if (alwaysPut == stored.size()) {
+      methodBuilder.addStatement("$T map = new $T<>($L)", mapType, HASH_MAP, hashMapCapacity(stored.size()));
+      return;
+    }
+
+    methodBuilder.addStatement("int size = $L", alwaysPut);
+    for (Property property : stored) {
+      if (property.omitNull) {
+        methodBuilder.beginControlFlow("if ($L != null)", CodeBlock.of(valueFormat, property.name))
+                     .addStatement("size++")
+                     .endControlFlow();
+      }
+    }
+    methodBuilder.addStatement("$T map = new $T<>((int) (size / 0.75f) + 1)", mapType, HASH_MAP);
+  }
+
+  static void addOmittablePut(MethodSpec.Builder methodBuilder, Property property, CodeBlock value,
+                              CodeBlock encoded) {
+    methodBuilder.beginControlFlow("if ($L != null)", value)
+                 .addStatement("map.put($S, $L)", property.firebaseName, encoded)
+                 .endControlFlow();
+  }
+
+  // Converted collections are put as null when the property is null, unless it's omitted instead
+  static void beginCollectionPut(MethodSpec.Builder methodBuilder, Property property, CodeBlock value,
+                                 TypeName localType, String local, CodeBlock initializer) {
+    if (property.omitNull) {
+      methodBuilder.beginControlFlow("if ($L != null)", value)
+                   .addStatement("$T $L = $L", localType, local, initializer);
+    } else {
+      methodBuilder.addStatement("$T $L = null", localType, local)
+                   .beginControlFlow("if ($L != null)", value)
+                   .addStatement("$L = $L", local, initializer);
+    }
+  }
+
+  static void endCollectionPut(MethodSpec.Builder methodBuilder, Property property, String local) {
+    if (property.omitNull) {
+      methodBuilder.addStatement("map.put($S, $L)", property.firebaseName, local)
+                   .endControlFlow();
+    } else {
+      methodBuilder.endControlFlow()
+                   .addStatement("map.put($S, $L)", property.firebaseName, local);
+    }
+  }
+
+  // Groups properties into runs whose estimated bytecode fits METHOD_BYTES_BUDGET. A single group
+  // means the method can stay whole.
+  static List<List<Property>> chunkProperties(List<Property> properties) {
+    List<List<Property>> chunks = new ArrayList<>();
+    List<Property> chunk = new ArrayList<>();
+    int chunkBytes = 0;
+    for (Property property : properties) {
+      int bytes = estimatedBytecodeSize(property);
+      if (!chunk.isEmpty() && chunkBytes + bytes > METHOD_BYTES_BUDGET) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>();
+        chunkBytes = 0;
+      }
+      chunk.add(property);
+      chunkBytes += bytes;
+    }
+    chunks.add(chunk);
+    return chunks;
+  }
+
+  // An upper bound on what javac emits to convert one property in the FirebaseValue constructor,
+  // toAutoValue() or toMap(), measured on each kind
+  static int estimatedBytecodeSize(Property property) {
+    int bytes;
+    switch (property.kind) {
+      case NESTED_COLLECTION:
+        bytes = 160;
+        break;
+      case VALUE_ARRAY:
+        bytes = 100;
+        break;
+      case ADAPTED:
+      case NESTED:
+        bytes = 30;
+        break;
+      default:
+        bytes = 16;
+    }
+    return property.omitNull ? bytes + 20 : bytes;
+  }
+
+  // The smallest HashMap capacity that holds the given number of entries without rehashing
+  static int hashMapCapacity(int expectedSize) {
+    return (int) (expectedSize / 0.75f) + 1;
+  }
+
+  static String defaultValue(TypeName type) {
+    if (TypeName.BOOLEAN.equals(type)) {
+      return "false";
+    } else if (TypeName.CHAR.equals(type)) {
+      return "'\\0'";
+    } else if (type.isPrimitive()) {
+      return "0";
+    }
+    return "null";
+  }
+
+  static boolean checkIfTypeIsSupported(TypeName type) {
+    if (typeIsPrimitive(type)) {
+      return true;
+
+    } else if (type instanceof ParameterizedTypeName) {
+      ParameterizedTypeName pType = (ParameterizedTypeName) type;
+
+      if (LIST.equals(pType.rawType)) {
+        if (pType.typeArguments.get(0) instanceof ParameterizedTypeName) {
+          throw unsupportedType(type, "Parameterized types are not allowed as List type arguments");
+        } else if (pType.typeArguments.get(0) instanceof ArrayTypeName) {
+          throw unsupportedType(type, "Arrays are not allowed as List type arguments");
+        }
+
+      } else if (MAP.equals(pType.rawType)) {
+        if (!typeIsPrimitive(pType.typeArguments.get(0))) {
+          throw unsupportedType(type, "Only primitives, boxed primitives, and Strings are allowed as Map keys");
+        } else if (pType.typeArguments.get(1) instanceof ParameterizedTypeName) {
+          throw unsupportedType(type, "Parameterized types are not allowed as Map values");
+        } else if (pType.typeArguments.get(1) instanceof ArrayTypeName) {
+          throw unsupportedType(type, "Arrays are not allowed as Map values");
+        }
+
+      } else {
+        throw unsupportedType(type, "List and Map are the only supported parameterized types");
+      }
+
+    } else if (type instanceof ArrayTypeName && !typeIsPrimitiveArray(type)) {
+      throw unsupportedType(type, "long[], int[], double[], float[] and boolean[] are the only supported arrays");
+    }
+    return true;
+  }
+
+  static boolean typeHasAdapter(Element element) {
+    return element.getAnnotation(FirebaseAdapter.class) != null;
+  }
+
+  static boolean typeIsPrimitive(TypeName typeName) {
+    return typeName.isPrimitive() || typeName.isBoxedPrimitive() || STRING.equals(typeName);
+  }
+
+  static boolean typeIsNumber(TypeName typeName) {
+    if (!typeName.isPrimitive() && !typeName.isBoxedPrimitive()) {
+      return false;
+    }
+    TypeName unboxed = typeName.unbox();
+    return !TypeName.BOOLEAN.equals(unboxed) && !TypeName.CHAR.equals(unboxed);
+  }
+
+  static boolean typeIsPrimitiveCollection(TypeName typeName) {
+    if (typeName instanceof ParameterizedTypeName) {
+      ParameterizedTypeName pTypeName = (ParameterizedTypeName) typeName;
+      TypeName rawType = pTypeName.rawType;
+
+      if (LIST.equals(rawType)) {
+        return typeIsPrimitive(pTypeName.typeArguments.get(0));
+      } else if (MAP.equals(rawType)) {
+        return typeIsPrimitive(pTypeName.typeArguments.get(1));
+      }
+    }
+    return false;
+  }
+
+  static boolean typeIsPrimitiveArray(TypeName typeName) {
+    if (!(typeName instanceof ArrayTypeName)) {
+      return false;
+    }
+    TypeName componentType = ((ArrayTypeName) typeName).componentType;
+    return TypeName.LONG.equals(componentType) || TypeName.INT.equals(componentType)
+      || TypeName.DOUBLE.equals(componentType) || TypeName.FLOAT.equals(componentType)
+      || TypeName.BOOLEAN.equals(componentType);
+  }
+
+  // The List a primitive array is kept in by the FirebaseValue. Firebase returns every integral
+  // number as a Long and every decimal as a Double, so int and float arrays are widened.
+  static ParameterizedTypeName firebaseListType(TypeName arrayType) {
+    TypeName componentType = ((ArrayTypeName) arrayType).componentType;
+    if (TypeName.INT.equals(componentType)) {
+      componentType = TypeName.LONG;
+    } else if (TypeName.FLOAT.equals(componentType)) {
+      componentType = TypeName.DOUBLE;
+    }
+    return ParameterizedTypeName.get(LIST, componentType.box());
+  }
+
+  static CodeBlock widenArrayItem(TypeName componentType, String item) {
+    if (TypeName.INT.equals(componentType)) {
+      return CodeBlock.of("(long) $L", item);
+    } else if (TypeName.FLOAT.equals(componentType)) {
+      return CodeBlock.of("(double) $L", item);
+    }
+    return CodeBlock.of("$L", item);
+  }
+
+  // Narrows a List item from firebaseListType() back to the array's component type. Firebase
+  // lists can have holes, which become default values.
+  static CodeBlock unboxArrayItem(TypeName componentType, String item) {
+    if (TypeName.BOOLEAN.equals(componentType)) {
+      return CodeBlock.of("$L != null && $L", item, item);
+    }
+    return CodeBlock.of("$L == null ? 0 : $L.$LValue()", item, item, componentType);
+  }
+
+  static boolean typeIsNonPrimitiveCollection(TypeName typeName) {
+    if (typeName instanceof ParameterizedTypeName) {
+      ParameterizedTypeName pTypeName = (ParameterizedTypeName) typeName;
+      TypeName rawType = pTypeName.rawType;
+
+      if (LIST.equals(rawType)) {
+        return !typeIsPrimitive(pTypeName.typeArguments.get(0));
+      } else if (MAP.equals(rawType)) {
+        return !typeIsPrimitive(pTypeName.typeArguments.get(1));
+      }
+    }
+    return false;
+  }
+
+  static String firstLetterToLowerCase(ClassName className) {
+    return className.simpleName().substring(0, 1).toLowerCase() +
+           className.simpleName().substring(1);
+  }
+
+  static String fieldNameToGetterName(String fieldName) {
+    return "get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
+  }
+
+  static RuntimeException unsupportedType(TypeName type, String message) {
+    return new RuntimeException("Type is not supported: " + type + "\n" + message);
+  }
+
+  // Get the "final" class in the AutoValue chain, if multiple extensions
+  static ClassName stripDollarSignsFromClassName(ClassName className) {
+    String simpleName = className.simpleName();
+    if (!simpleName.startsWith("$")) {
+      return className;
+    }
+
+    int numDollarSigns = 0;
+    char dollarSign = "$".charAt(0);
+    for (int i = 0; i < simpleName.length(); i++) {
+      if (dollarSign == simpleName.charAt(i)) {
+        numDollarSigns++;
+      }
+    }
+
+    String strippedSimpleName = simpleName.substring(numDollarSigns);
+    return ClassName.get(className.packageName(), strippedSimpleName);
+  }
+
+  static TypeMirror getTypeAdapterClass(FirebaseAdapter firebaseAdapter) {
+    try {
+      firebaseAdapter.value();
+    } catch (MirroredTypeException e) {
+      return e.getTypeMirror();
     }
     return null;
   }
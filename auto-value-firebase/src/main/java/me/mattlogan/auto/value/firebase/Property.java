@@ -0,0 +1,87 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.TypeName;
+
+import java.util.List;
+
+import javax.lang.model.element.ExecutableElement;
+
+/**
+ * Everything the generators need to know about one AutoValue property. Properties are resolved
+ * once per generated class, so annotations and adapters aren't looked up again by every method.
+ */
+final class Property {
+
+  enum Kind {
+    // Converted by a @FirebaseAdapter, whatever the declared type
+    ADAPTED,
+    // Primitives, boxed primitives and Strings
+    VALUE,
+    // long[], int[], double[], float[] and boolean[]
+    VALUE_ARRAY,
+    // Lists and Maps of VALUEs
+    VALUE_COLLECTION,
+    // Lists and Maps of other @FirebaseValue types
+    NESTED_COLLECTION,
+    // Another @FirebaseValue type
+    NESTED
+  }
+
+  final String name;
+  final ExecutableElement element;
+  final TypeName type;
+  final Kind kind;
+  // The key Firebase stores the property under, null when it's @Exclude'd
+  final String firebaseName;
+  // @Exclude and @PropertyName, copied onto the FirebaseValue getter
+  final List<AnnotationSpec> firebaseAnnotations;
+  final boolean nullable;
+  // Annotated with @Intern
+  final boolean intern;
+  // Left out of toMap() and writeJson() when null
+  final boolean omitNull;
+  final ClassName adapter;
+  final ClassName adapterOutput;
+  final boolean statelessAdapter;
+
+  Property(String name,
+           ExecutableElement element,
+           TypeName type,
+           Kind kind,
+           String firebaseName,
+           List<AnnotationSpec> firebaseAnnotations,
+           boolean nullable,
+           boolean intern,
+           boolean omitNull,
+           ClassName adapter,
+           ClassName adapterOutput,
+           boolean statelessAdapter) {
+    this.name = name;
+    this.element = element;
+    this.type = type;
+    this.kind = kind;
+    this.firebaseName = firebaseName;
+    this.firebaseAnnotations = firebaseAnnotations;
+    this.nullable = nullable;
+    this.intern = intern;
+    this.omitNull = omitNull;
+    this.adapter = adapter;
+    this.adapterOutput = adapterOutput;
+    this.statelessAdapter = statelessAdapter;
+  }
+
+  boolean excluded() {
+    return firebaseName == null;
+  }
+
+  boolean hasAdapter() {
+    return kind == Kind.ADAPTED;
+  }
+
+  // The adapter field or local generated code calls
+  String adapterName() {
+    return AutoValueFirebaseExtension.firstLetterToLowerCase(adapter);
+  }
+}
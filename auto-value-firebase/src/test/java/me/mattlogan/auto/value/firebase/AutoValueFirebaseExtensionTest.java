@@ -2,15 +2,29 @@ package me.mattlogan.auto.value.firebase;
 
 import com.google.auto.value.processor.AutoValueProcessor;
 import com.google.testing.compile.JavaFileObjects;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.Arrays;
+import java.util.Collections;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static com.google.common.truth.Truth.assertAbout;
 import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class AutoValueFirebaseExtensionTest {
 
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   private static final JavaFileObject INGREDIENT = JavaFileObjects.forSourceString("test.Ingredient",
     "package test;\n"
     + "\n"
@@ -90,6 +104,138 @@ public class AutoValueFirebaseExtensionTest {
       + "public @interface ThrowOnExtraProperties {\n"
       + "}\n");
 
+  private static final JavaFileObject JSON_READER =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.json.JsonReader",
+      "package me.mattlogan.auto.value.firebase.json;\n"
+      + "\n"
+      + "import java.io.IOException;\n"
+      + "\n"
+      + "public final class JsonReader {\n"
+      + "  public boolean hasNext() throws IOException { return false; }\n"
+      + "  public void beginArray() throws IOException {}\n"
+      + "  public void endArray() throws IOException {}\n"
+      + "  public void beginObject() throws IOException {}\n"
+      + "  public void endObject() throws IOException {}\n"
+      + "  public String nextName() throws IOException { return null; }\n"
+      + "  public String nextString() throws IOException { return null; }\n"
+      + "  public boolean nextBoolean() throws IOException { return false; }\n"
+      + "  public boolean skipNull() throws IOException { return false; }\n"
+      + "  public long nextLong() throws IOException { return 0; }\n"
+      + "  public int nextInt() throws IOException { return 0; }\n"
+      + "  public double nextDouble() throws IOException { return 0; }\n"
+      + "  public void skipValue() throws IOException {}\n"
+      + "  public Object readValue() throws IOException { return null; }\n"
+      + "}\n");
+
+  private static final JavaFileObject JSON_WRITER =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.json.JsonWriter",
+      "package me.mattlogan.auto.value.firebase.json;\n"
+      + "\n"
+      + "import java.io.IOException;\n"
+      + "\n"
+      + "public final class JsonWriter {\n"
+      + "  public JsonWriter beginArray() throws IOException { return this; }\n"
+      + "  public JsonWriter endArray() throws IOException { return this; }\n"
+      + "  public JsonWriter beginObject() throws IOException { return this; }\n"
+      + "  public JsonWriter endObject() throws IOException { return this; }\n"
+      + "  public JsonWriter name(String name) throws IOException { return this; }\n"
+      + "  public JsonWriter nullValue() throws IOException { return this; }\n"
+      + "  public JsonWriter value(String value) throws IOException { return this; }\n"
+      + "  public JsonWriter value(boolean value) throws IOException { return this; }\n"
+      + "  public JsonWriter value(Boolean value) throws IOException { return this; }\n"
+      + "  public JsonWriter value(long value) throws IOException { return this; }\n"
+      + "  public JsonWriter value(double value) throws IOException { return this; }\n"
+      + "  public JsonWriter value(Number value) throws IOException { return this; }\n"
+      + "  public JsonWriter value(Object value) throws IOException { return this; }\n"
+      + "}\n");
+
+  private static final JavaFileObject JSON_DATA_EXCEPTION =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.json.JsonDataException",
+      "package me.mattlogan.auto.value.firebase.json;\n"
+      + "\n"
+      + "import java.io.IOException;\n"
+      + "\n"
+      + "public final class JsonDataException extends IOException {\n"
+      + "  public JsonDataException(String message) {\n"
+      + "    super(message);\n"
+      + "  }\n"
+      + "}\n");
+
+  private static final JavaFileObject BINARY_CODEC =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.binary.BinaryCodec",
+      "package me.mattlogan.auto.value.firebase.binary;\n"
+      + "\n"
+      + "import java.io.DataInput;\n"
+      + "import java.io.DataOutput;\n"
+      + "import java.io.IOException;\n"
+      + "\n"
+      + "public final class BinaryCodec {\n"
+      + "  public static void writeVarInt(DataOutput out, int value) throws IOException {}\n"
+      + "  public static int readVarInt(DataInput in) throws IOException { return 0; }\n"
+      + "  public static void writeVarLong(DataOutput out, long value) throws IOException {}\n"
+      + "  public static long readVarLong(DataInput in) throws IOException { return 0; }\n"
+      + "  public static void writeUnsignedVarLong(DataOutput out, long value) throws IOException {}\n"
+      + "  public static long readUnsignedVarLong(DataInput in) throws IOException { return 0; }\n"
+      + "  public static void writeSize(DataOutput out, int size) throws IOException {}\n"
+      + "  public static int readSize(DataInput in) throws IOException { return 0; }\n"
+      + "  public static void writeString(DataOutput out, String value) throws IOException {}\n"
+      + "  public static String readString(DataInput in) throws IOException { return null; }\n"
+      + "  public static void writeValue(DataOutput out, Object value) throws IOException {}\n"
+      + "  public static Object readValue(DataInput in) throws IOException { return null; }\n"
+      + "}\n");
+
+  private static final JavaFileObject STRING_POOL =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.StringPool",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "\n"
+      + "public final class StringPool {\n"
+      + "  public static final StringPool SHARED = new StringPool();\n"
+      + "  public String intern(String value) { return value; }\n"
+      + "  public List<String> internAll(List<String> values) { return values; }\n"
+      + "  public <V> Map<String, V> internKeys(Map<String, V> values) { return values; }\n"
+      + "}\n");
+
+  private static final JavaFileObject CANONICALIZER =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.Canonicalizer",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "public final class Canonicalizer<T> {\n"
+      + "  public T canonicalize(T value) { return value; }\n"
+      + "}\n");
+
+  private static final JavaFileObject FIREBASE_VALUE_METRICS =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.FirebaseValueMetrics",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "public abstract class FirebaseValueMetrics {\n"
+      + "  public enum Operation { FIREBASE_VALUE, TO_AUTO_VALUE, TO_MAP, STATIC_TO_MAP, FROM_MAP }\n"
+      + "  public static FirebaseValueMetrics registered() { return null; }\n"
+      + "  public abstract void record(Class<?> type, Operation operation, int elements, long nanos);\n"
+      + "}\n");
+
+  private static final JavaFileObject FIREBASE_SCHEMA =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.FirebaseSchema",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "public abstract class FirebaseSchema<T> {\n"
+      + "  public enum Kind { PRIMITIVE, ARRAY, LIST, MAP, NESTED, ADAPTED }\n"
+      + "  protected FirebaseSchema(Class<T> type, String[] names, String[] firebaseKeys, Kind[] kinds) {}\n"
+      + "  public Class<T> type() { return null; }\n"
+      + "  public abstract Object get(T value, int index);\n"
+      + "  public abstract Object get(T value, String firebaseKey);\n"
+      + "}\n");
+
+  private static final JavaFileObject FIREBASE_SCHEMAS =
+    JavaFileObjects.forSourceString("me.mattlogan.auto.value.firebase.runtime.FirebaseSchemas",
+      "package me.mattlogan.auto.value.firebase.runtime;\n"
+      + "\n"
+      + "public final class FirebaseSchemas {\n"
+      + "  public static <T> FirebaseSchema<T> register(FirebaseSchema<T> schema) { return schema; }\n"
+      + "}\n");
+
   @Test
   public void primitive() throws Exception {
     JavaFileObject source = JavaFileObjects.forSourceString("test.Ingredient",
@@ -107,6 +253,7 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Number;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
@@ -118,6 +265,110 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object spicinessValue = map.get(\"spiciness\");\n"
+      + "    int spiciness = spicinessValue == null ? 0 : ((Number) spicinessValue).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Ingredient fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Ingredient ingredient) {\n"
+      + "    if (ingredient == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"spiciness\", ingredient.spiciness());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Ingredient ingredient, String firebaseKey) {\n"
+      + "    if (ingredient == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"spiciness\":\n"
+      + "        return ingredient.spiciness();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"spiciness\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Ingredient before, Ingredient after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (before.spiciness() != after.spiciness()) {\n"
+      + "      updates.put(prefix + \"spiciness\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Ingredient applyPatch(Ingredient current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    int spiciness = current == null ? 0 : current.spiciness();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"spiciness\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object spicinessValue = childUpdates.remove(\"\");\n"
+      + "            spiciness = spicinessValue == null ? 0 : ((Number) spicinessValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private int spiciness;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -133,7 +384,7 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
       + "      map.put(\"spiciness\", this.spiciness);\n"
       + "      return map;\n"
       + "    }\n"
@@ -169,17 +420,123 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import java.lang.Integer;\n"
+      + "import java.lang.Number;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
       + "import java.util.HashMap;\n"
       + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
       + "\n"
       + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
       + "  AutoValue_Ingredient(Integer spiciness) {\n"
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object spicinessValue = map.get(\"spiciness\");\n"
+      + "    Integer spiciness = spicinessValue == null ? null : ((Number) spicinessValue).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Ingredient fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Ingredient ingredient) {\n"
+      + "    if (ingredient == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"spiciness\", ingredient.spiciness());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Ingredient ingredient, String firebaseKey) {\n"
+      + "    if (ingredient == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"spiciness\":\n"
+      + "        return ingredient.spiciness();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"spiciness\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Ingredient before, Ingredient after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.spiciness(), after.spiciness())) {\n"
+      + "      updates.put(prefix + \"spiciness\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Ingredient applyPatch(Ingredient current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Integer spiciness = current == null ? null : current.spiciness();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"spiciness\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object spicinessValue = childUpdates.remove(\"\");\n"
+      + "            spiciness = spicinessValue == null ? null : ((Number) spicinessValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private Integer spiciness;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -195,7 +552,7 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
       + "      map.put(\"spiciness\", this.spiciness);\n"
       + "      return map;\n"
       + "    }\n"
@@ -235,12 +592,116 @@ public class AutoValueFirebaseExtensionTest {
       + "import java.lang.SuppressWarnings;\n"
       + "import java.util.HashMap;\n"
       + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
       + "\n"
       + "final class AutoValue_Review extends $AutoValue_Review {\n"
       + "  AutoValue_Review(String description) {\n"
       + "    super(description);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Review fromMap(Map<String, Object> map) {\n"
+      + "    String description = (String) map.get(\"description\");\n"
+      + "    return new AutoValue_Review(description);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Review fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Review review) {\n"
+      + "    if (review == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"description\", review.description());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Review review, String firebaseKey) {\n"
+      + "    if (review == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"description\":\n"
+      + "        return review.description();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Review before, Review after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"description\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Review before, Review after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.description(), after.description())) {\n"
+      + "      updates.put(prefix + \"description\", after.description());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Review applyPatch(Review current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String description = current == null ? null : current.description();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"description\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object descriptionValue = childUpdates.remove(\"\");\n"
+      + "            description = (String) descriptionValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Review(description);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private String description;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -256,7 +717,7 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
       + "      map.put(\"description\", this.description);\n"
       + "      return map;\n"
       + "    }\n"
@@ -302,6 +763,104 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(ingredient);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Ingredient ingredient = AutoValue_Ingredient.fromValue(map.get(\"ingredient\"));\n"
+      + "    return new AutoValue_Taco(ingredient);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"ingredient\", AutoValue_Ingredient.toMap(taco.ingredient()));\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"ingredient\":\n"
+      + "        return AutoValue_Ingredient.toMap(taco.ingredient());\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"ingredient\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    AutoValue_Ingredient.diff(prefix + \"ingredient\", before.ingredient(), after.ingredient(), updates);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Ingredient ingredient = current == null ? null : current.ingredient();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"ingredient\":\n"
+      + "          ingredient = AutoValue_Ingredient.applyPatch(ingredient, childUpdates);\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredient);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private AutoValue_Ingredient.FirebaseValue ingredient;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -317,8 +876,8 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
-      + "      map.put(\"ingredient\", this.ingredient);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "      map.put(\"ingredient\", this.ingredient == null ? null : this.ingredient.toMap());\n"
       + "      return map;\n"
       + "    }\n"
       + "    public AutoValue_Ingredient.FirebaseValue getIngredient() {\n"
@@ -353,19 +912,190 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.IllegalArgumentException;\n"
       + "import java.lang.Integer;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.NumberFormatException;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
       + "import java.util.HashMap;\n"
       + "import java.util.List;\n"
       + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(List<Integer> ingredients) {\n"
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Integer> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(item == null ? null : ((Number) item).intValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"ingredients\", taco.ingredients());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"ingredients\":\n"
+      + "        return taco.ingredients();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    List<Integer> beforeIngredients = before.ingredients();\n"
+      + "    List<Integer> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        if (i >= beforeSize || !Objects.equals(beforeIngredients.get(i), afterIngredients.get(i))) {\n"
+      + "          updates.put(prefix + \"ingredients/\" + i, afterIngredients.get(i));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    List<Integer> ingredients = current == null ? null : current.ingredients();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(item == null ? null : ((Number) item).intValue());\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Integer> patched = ingredients == null ? new ArrayList<Integer>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched.set(index, rawItem == null ? null : ((Number) rawItem).intValue());\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private List<Integer> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -381,7 +1111,7 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
       + "      map.put(\"ingredients\", this.ingredients);\n"
       + "      return map;\n"
       + "    }\n"
@@ -417,18 +1147,189 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.NumberFormatException;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
       + "import java.util.HashMap;\n"
       + "import java.util.List;\n"
       + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(List<String> ingredients) {\n"
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<String> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add((String) item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"ingredients\", taco.ingredients());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"ingredients\":\n"
+      + "        return taco.ingredients();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    List<String> beforeIngredients = before.ingredients();\n"
+      + "    List<String> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        if (i >= beforeSize || !Objects.equals(beforeIngredients.get(i), afterIngredients.get(i))) {\n"
+      + "          updates.put(prefix + \"ingredients/\" + i, afterIngredients.get(i));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    List<String> ingredients = current == null ? null : current.ingredients();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add((String) item);\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<String> patched = ingredients == null ? new ArrayList<String>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched.set(index, (String) rawItem);\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private List<String> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -444,7 +1345,7 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
       + "      map.put(\"ingredients\", this.ingredients);\n"
       + "      return map;\n"
       + "    }\n"
@@ -480,6 +1381,9 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.NumberFormatException;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
@@ -493,6 +1397,180 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -519,8 +1597,15 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
-      + "      map.put(\"ingredients\", this.ingredients);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
       + "      return map;\n"
       + "    }\n"
       + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
@@ -556,17 +1641,172 @@ public class AutoValueFirebaseExtensionTest {
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
       + "import java.lang.Integer;\n"
+      + "import java.lang.Number;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
       + "import java.util.HashMap;\n"
       + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(Map<Integer, Integer> ingredients) {\n"
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    Map<Integer, Integer> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      Map<?, ?> ingredientsMap = (Map<?, ?>) ingredientsValue;\n"
+      + "      ingredients = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : ingredientsMap.entrySet()) {\n"
+      + "        ingredients.put(Integer.valueOf((String) entry.getKey()), entry.getValue() == null ? null : ((Number) entry.getValue()).intValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"ingredients\", taco.ingredients());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"ingredients\":\n"
+      + "        return taco.ingredients();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    Map<Integer, Integer> beforeIngredients = before.ingredients();\n"
+      + "    Map<Integer, Integer> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      for (Map.Entry<Integer, Integer> entry : afterIngredients.entrySet()) {\n"
+      + "        if (beforeIngredients == null || !Objects.equals(beforeIngredients.get(entry.getKey()), entry.getValue())) {\n"
+      + "          updates.put(prefix + \"ingredients/\" + entry.getKey(), entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        for (Integer key : beforeIngredients.keySet()) {\n"
+      + "          if (!afterIngredients.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"ingredients/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Map<Integer, Integer> ingredients = current == null ? null : current.ingredients();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              Map<?, ?> ingredientsMap = (Map<?, ?>) ingredientsValue;\n"
+      + "              ingredients = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : ingredientsMap.entrySet()) {\n"
+      + "                ingredients.put(Integer.valueOf((String) entry.getKey()), entry.getValue() == null ? null : ((Number) entry.getValue()).intValue());\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<Integer, Integer> patched = ingredients == null ? new HashMap<Integer, Integer>() : new HashMap<>(ingredients);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              Integer itemKey = Integer.valueOf(item.getKey());\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              Integer itemValue = rawItem == null ? null : ((Number) rawItem).intValue();\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private Map<Integer, Integer> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -582,7 +1822,7 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
       + "      map.put(\"ingredients\", this.ingredients);\n"
       + "      return map;\n"
       + "    }\n"
@@ -624,12 +1864,166 @@ public class AutoValueFirebaseExtensionTest {
       + "import java.lang.SuppressWarnings;\n"
       + "import java.util.HashMap;\n"
       + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
       + "  AutoValue_Taco(Map<Integer, String> ingredients) {\n"
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    Map<Integer, String> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      Map<?, ?> ingredientsMap = (Map<?, ?>) ingredientsValue;\n"
+      + "      ingredients = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : ingredientsMap.entrySet()) {\n"
+      + "        ingredients.put(Integer.valueOf((String) entry.getKey()), (String) entry.getValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"ingredients\", taco.ingredients());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"ingredients\":\n"
+      + "        return taco.ingredients();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    Map<Integer, String> beforeIngredients = before.ingredients();\n"
+      + "    Map<Integer, String> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      for (Map.Entry<Integer, String> entry : afterIngredients.entrySet()) {\n"
+      + "        if (beforeIngredients == null || !Objects.equals(beforeIngredients.get(entry.getKey()), entry.getValue())) {\n"
+      + "          updates.put(prefix + \"ingredients/\" + entry.getKey(), entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        for (Integer key : beforeIngredients.keySet()) {\n"
+      + "          if (!afterIngredients.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"ingredients/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Map<Integer, String> ingredients = current == null ? null : current.ingredients();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              Map<?, ?> ingredientsMap = (Map<?, ?>) ingredientsValue;\n"
+      + "              ingredients = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : ingredientsMap.entrySet()) {\n"
+      + "                ingredients.put(Integer.valueOf((String) entry.getKey()), (String) entry.getValue());\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<Integer, String> patched = ingredients == null ? new HashMap<Integer, String>() : new HashMap<>(ingredients);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              Integer itemKey = Integer.valueOf(item.getKey());\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              String itemValue = (String) rawItem;\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private Map<Integer, String> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -645,7 +2039,7 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
       + "      map.put(\"ingredients\", this.ingredients);\n"
       + "      return map;\n"
       + "    }\n"
@@ -692,6 +2086,167 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(ingredients);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    Map<String, Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      Map<?, ?> ingredientsMap = (Map<?, ?>) ingredientsValue;\n"
+      + "      ingredients = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : ingredientsMap.entrySet()) {\n"
+      + "        ingredients.put((String) entry.getKey(), AutoValue_Ingredient.fromValue(entry.getValue()));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    Map<String, Object> ingredientsMap = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsMap = new HashMap<>((int) (taco.ingredients().size() / 0.75f) + 1);\n"
+      + "      for (Map.Entry<String, Ingredient> entry : taco.ingredients().entrySet()) {\n"
+      + "        ingredientsMap.put(entry.getKey(), AutoValue_Ingredient.toMap(entry.getValue()));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsMap);\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        Map<String, Object> ingredientsMap = new HashMap<>((int) (taco.ingredients().size() / 0.75f) + 1);\n"
+      + "        for (Map.Entry<String, Ingredient> entry : taco.ingredients().entrySet()) {\n"
+      + "          ingredientsMap.put(entry.getKey(), AutoValue_Ingredient.toMap(entry.getValue()));\n"
+      + "        }\n"
+      + "        return ingredientsMap;\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    Map<String, Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    Map<String, Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      for (Map.Entry<String, Ingredient> entry : afterIngredients.entrySet()) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + entry.getKey(), beforeIngredients == null ? null : beforeIngredients.get(entry.getKey()), entry.getValue(), updates);\n"
+      + "      }\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        for (String key : beforeIngredients.keySet()) {\n"
+      + "          if (!afterIngredients.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"ingredients/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Map<String, Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              Map<?, ?> ingredientsMap = (Map<?, ?>) ingredientsValue;\n"
+      + "              ingredients = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : ingredientsMap.entrySet()) {\n"
+      + "                ingredients.put((String) entry.getKey(), AutoValue_Ingredient.fromValue(entry.getValue()));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<String, Ingredient> patched = ingredients == null ? new HashMap<String, Ingredient>() : new HashMap<>(ingredients);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              String itemKey = item.getKey();\n"
+      + "              Ingredient itemValue = AutoValue_Ingredient.applyPatch(patched.get(itemKey), itemUpdates);\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private Map<String, AutoValue_Ingredient.FirebaseValue> ingredients;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -718,8 +2273,15 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
-      + "      map.put(\"ingredients\", this.ingredients);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "      Map<String, Object> ingredientsMap = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsMap = new HashMap<>((int) (this.ingredients.size() / 0.75f) + 1);\n"
+      + "        for (Map.Entry<String, AutoValue_Ingredient.FirebaseValue> entry : this.ingredients.entrySet()) {\n"
+      + "          ingredientsMap.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsMap);\n"
       + "      return map;\n"
       + "    }\n"
       + "    public Map<String, AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
@@ -737,90 +2299,438 @@ public class AutoValueFirebaseExtensionTest {
   }
 
   @Test
-  public void multipleProperties() throws Exception {
+  public void lazyCollections() throws Exception {
     JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
       "package test;\n"
       + "\n"
       + "import com.google.auto.value.AutoValue;\n"
       + "import java.util.List;\n"
+      + "import java.util.Map;\n"
       + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
-      + "@AutoValue @FirebaseValue\n"
+      + "@AutoValue @FirebaseValue(lazyCollections = true)\n"
       + "public abstract class Taco {\n"
-      + "  public abstract String name();\n"
       + "  public abstract List<Ingredient> ingredients();\n"
-      + "  public abstract Review review();\n"
+      + "  public abstract Map<String, Ingredient> extras();\n"
       + "}\n");
 
     JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.NumberFormatException;\n"
       + "import java.lang.Object;\n"
+      + "import java.lang.Override;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.lang.UnsupportedOperationException;\n"
+      + "import java.util.AbstractList;\n"
+      + "import java.util.AbstractMap;\n"
+      + "import java.util.AbstractSet;\n"
       + "import java.util.ArrayList;\n"
       + "import java.util.HashMap;\n"
+      + "import java.util.Iterator;\n"
       + "import java.util.List;\n"
       + "import java.util.Map;\n"
+      + "import java.util.Set;\n"
+      + "import java.util.concurrent.ConcurrentHashMap;\n"
       + "\n"
       + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
-      + "  AutoValue_Taco(String name, List<Ingredient> ingredients, Review review) {\n"
-      + "    super(name, ingredients, review);\n"
+      + "  AutoValue_Taco(List<Ingredient> ingredients, Map<String, Ingredient> extras) {\n"
+      + "    super(ingredients, extras);\n"
       + "  }\n"
       + "\n"
-      + "  static final class FirebaseValue {\n"
-      + "    private String name;\n"
-      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
-      + "    private AutoValue_Review.FirebaseValue review;\n"
-      + "    @SuppressWarnings(\"unused\")\n"
-      + "    FirebaseValue() {\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
       + "    }\n"
-      + "    FirebaseValue(Taco taco) {\n"
-      + "      this.name = taco.name();\n"
-      + "      if (taco.ingredients() != null) {\n"
-      + "        this.ingredients = new ArrayList<>();\n"
-      + "        for (Ingredient item : taco.ingredients()) {\n"
-      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
-      + "        }\n"
+      + "    Object extrasValue = map.get(\"extras\");\n"
+      + "    Map<String, Ingredient> extras = null;\n"
+      + "    if (extrasValue != null) {\n"
+      + "      Map<?, ?> extrasMap = (Map<?, ?>) extrasValue;\n"
+      + "      extras = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : extrasMap.entrySet()) {\n"
+      + "        extras.put((String) entry.getKey(), AutoValue_Ingredient.fromValue(entry.getValue()));\n"
       + "      }\n"
-      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
       + "    }\n"
-      + "    @Exclude\n"
-      + "    AutoValue_Taco toAutoValue() {\n"
-      + "      String name = this.name;\n"
-      + "      List<Ingredient> ingredients = null;\n"
-      + "      if (this.ingredients != null) {\n"
-      + "        ingredients = new ArrayList<>();\n"
-      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
-      + "          ingredients.add(item.toAutoValue());\n"
+      + "    return new AutoValue_Taco(ingredients, extras);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(3);\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    Map<String, Object> extrasMap = null;\n"
+      + "    if (taco.extras() != null) {\n"
+      + "      extrasMap = new HashMap<>((int) (taco.extras().size() / 0.75f) + 1);\n"
+      + "      for (Map.Entry<String, Ingredient> entry : taco.extras().entrySet()) {\n"
+      + "        extrasMap.put(entry.getKey(), AutoValue_Ingredient.toMap(entry.getValue()));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"extras\", extrasMap);\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
       + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      case \"extras\":\n"
+      + "        if (taco.extras() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        Map<String, Object> extrasMap = new HashMap<>((int) (taco.extras().size() / 0.75f) + 1);\n"
+      + "        for (Map.Entry<String, Ingredient> entry : taco.extras().entrySet()) {\n"
+      + "          extrasMap.put(entry.getKey(), AutoValue_Ingredient.toMap(entry.getValue()));\n"
+      + "        }\n"
+      + "        return extrasMap;\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "        updates.put(\"extras\", null);\n"
       + "      }\n"
-      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
-      + "      return new AutoValue_Taco(name, ingredients, review);\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
       + "    }\n"
-      + "    @Exclude\n"
-      + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(3);\n"
-      + "      map.put(\"name\", this.name);\n"
-      + "      map.put(\"ingredients\", this.ingredients);\n"
-      + "      map.put(\"review\", this.review);\n"
-      + "      return map;\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
       + "    }\n"
-      + "    public String getName() {\n"
-      + "      return name;\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
       + "    }\n"
-      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
-      + "      return ingredients;\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
       + "    }\n"
-      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
-      + "      return review;\n"
+      + "    Map<String, Ingredient> beforeExtras = before.extras();\n"
+      + "    Map<String, Ingredient> afterExtras = after.extras();\n"
+      + "    if (afterExtras == null) {\n"
+      + "      if (beforeExtras != null) {\n"
+      + "        updates.put(prefix + \"extras\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeExtras != afterExtras) {\n"
+      + "      for (Map.Entry<String, Ingredient> entry : afterExtras.entrySet()) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"extras/\" + entry.getKey(), beforeExtras == null ? null : beforeExtras.get(entry.getKey()), entry.getValue(), updates);\n"
+      + "      }\n"
+      + "      if (beforeExtras != null) {\n"
+      + "        for (String key : beforeExtras.keySet()) {\n"
+      + "          if (!afterExtras.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"extras/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
       + "    }\n"
       + "  }\n"
-      + "}\n");
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    Map<String, Ingredient> extras = current == null ? null : current.extras();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"extras\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object extrasValue = childUpdates.remove(\"\");\n"
+      + "            extras = null;\n"
+      + "            if (extrasValue != null) {\n"
+      + "              Map<?, ?> extrasMap = (Map<?, ?>) extrasValue;\n"
+      + "              extras = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : extrasMap.entrySet()) {\n"
+      + "                extras.put((String) entry.getKey(), AutoValue_Ingredient.fromValue(entry.getValue()));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<String, Ingredient> patched = extras == null ? new HashMap<String, Ingredient>() : new HashMap<>(extras);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              String itemKey = item.getKey();\n"
+      + "              Ingredient itemValue = AutoValue_Ingredient.applyPatch(patched.get(itemKey), itemUpdates);\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            extras = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(ingredients, extras);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class LazyIngredientList extends AbstractList<Ingredient> {\n"
+      + "    private final List<AutoValue_Ingredient.FirebaseValue> values;\n"
+      + "    private final Ingredient[] cache;\n"
+      + "    LazyIngredientList(List<AutoValue_Ingredient.FirebaseValue> values) {\n"
+      + "      this.values = values;\n"
+      + "      this.cache = new Ingredient[values.size()];\n"
+      + "    }\n"
+      + "    @Override\n"
+      + "    public Ingredient get(int index) {\n"
+      + "      Ingredient value = cache[index];\n"
+      + "      if (value == null) {\n"
+      + "        AutoValue_Ingredient.FirebaseValue firebaseValue = values.get(index);\n"
+      + "        if (firebaseValue != null) {\n"
+      + "          value = firebaseValue.toAutoValue();\n"
+      + "          cache[index] = value;\n"
+      + "        }\n"
+      + "      }\n"
+      + "      return value;\n"
+      + "    }\n"
+      + "    @Override\n"
+      + "    public int size() {\n"
+      + "      return cache.length;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class LazyIngredientMap<K> extends AbstractMap<K, Ingredient> {\n"
+      + "    private final Map<K, AutoValue_Ingredient.FirebaseValue> values;\n"
+      + "    private final Map<Object, Ingredient> cache = new ConcurrentHashMap<>();\n"
+      + "    LazyIngredientMap(Map<K, AutoValue_Ingredient.FirebaseValue> values) {\n"
+      + "      this.values = values;\n"
+      + "    }\n"
+      + "    @Override\n"
+      + "    public Ingredient get(Object key) {\n"
+      + "      if (key == null) {\n"
+      + "        return null;\n"
+      + "      }\n"
+      + "      Ingredient value = cache.get(key);\n"
+      + "      if (value == null) {\n"
+      + "        AutoValue_Ingredient.FirebaseValue firebaseValue = values.get(key);\n"
+      + "        if (firebaseValue != null) {\n"
+      + "          value = firebaseValue.toAutoValue();\n"
+      + "          cache.put(key, value);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      return value;\n"
+      + "    }\n"
+      + "    @Override\n"
+      + "    public boolean containsKey(Object key) {\n"
+      + "      return key != null && values.containsKey(key);\n"
+      + "    }\n"
+      + "    @Override\n"
+      + "    public int size() {\n"
+      + "      return values.size();\n"
+      + "    }\n"
+      + "    @Override\n"
+      + "    public Set<Map.Entry<K, Ingredient>> entrySet() {\n"
+      + "      return new AbstractSet<Map.Entry<K, Ingredient>>() {\n"
+      + "        @Override\n"
+      + "        public int size() {\n"
+      + "          return values.size();\n"
+      + "        }\n"
+      + "        @Override\n"
+      + "        public Iterator<Map.Entry<K, Ingredient>> iterator() {\n"
+      + "          return new Iterator<Map.Entry<K, Ingredient>>() {\n"
+      + "            private final Iterator<K> keys = values.keySet().iterator();\n"
+      + "            @Override\n"
+      + "            public boolean hasNext() {\n"
+      + "              return keys.hasNext();\n"
+      + "            }\n"
+      + "            @Override\n"
+      + "            public Map.Entry<K, Ingredient> next() {\n"
+      + "              K key = keys.next();\n"
+      + "              return new AbstractMap.SimpleImmutableEntry<>(key, get(key));\n"
+      + "            }\n"
+      + "            @Override\n"
+      + "            public void remove() {\n"
+      + "              throw new UnsupportedOperationException();\n"
+      + "            }\n"
+      + "          };\n"
+      + "        }\n"
+      + "      };\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private Map<String, AutoValue_Ingredient.FirebaseValue> extras;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.extras() != null) {\n"
+      + "        this.extras = new HashMap<>();\n"
+      + "        for (Map.Entry<String, Ingredient> entry : taco.extras().entrySet()) {\n"
+      + "          this.extras.put(entry.getKey(), new AutoValue_Ingredient.FirebaseValue(entry.getValue()));\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      List<Ingredient> ingredients = this.ingredients == null ? null : new LazyIngredientList(this.ingredients);\n"
+      + "      Map<String, Ingredient> extras = this.extras == null ? null : new LazyIngredientMap<>(this.extras);\n"
+      + "      return new AutoValue_Taco(ingredients, extras);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(3);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "      Map<String, Object> extrasMap = null;\n"
+      + "      if (this.extras != null) {\n"
+      + "        extrasMap = new HashMap<>((int) (this.extras.size() / 0.75f) + 1);\n"
+      + "        for (Map.Entry<String, AutoValue_Ingredient.FirebaseValue> entry : this.extras.entrySet()) {\n"
+      + "          extrasMap.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"extras\", extrasMap);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public Map<String, AutoValue_Ingredient.FirebaseValue> getExtras() {\n"
+      + "      return extras;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}");
 
     assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, INGREDIENT, REVIEW, source))
+      .that(Arrays.asList(EXCLUDE, INGREDIENT, source))
       .processedWith(new AutoValueProcessor())
       .compilesWithoutError()
       .and()
@@ -828,62 +2738,300 @@ public class AutoValueFirebaseExtensionTest {
   }
 
   @Test
-  public void excludeAnnotation() throws Exception {
-    JavaFileObject source = JavaFileObjects.forSourceString("test.Ingredient",
+  public void multipleProperties() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
       "package test;\n"
       + "\n"
       + "import com.google.auto.value.AutoValue;\n"
-      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.util.List;\n"
       + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
       + "@AutoValue @FirebaseValue\n"
-      + "public abstract class Ingredient {\n"
-      + "  @Exclude\n"
-      + "  public abstract int spiciness();\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Review review();\n"
       + "}\n");
 
-    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Ingredient",
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.NumberFormatException;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
       + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
       + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
       + "\n"
-      + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
-      + "  AutoValue_Ingredient(int spiciness) {\n"
-      + "    super(spiciness);\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(String name, List<Ingredient> ingredients, Review review) {\n"
+      + "    super(name, ingredients, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Review review = AutoValue_Review.fromValue(map.get(\"review\"));\n"
+      + "    return new AutoValue_Taco(name, ingredients, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(5);\n"
+      + "    map.put(\"name\", taco.name());\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    map.put(\"review\", AutoValue_Review.toMap(taco.review()));\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      case \"review\":\n"
+      + "        return AutoValue_Review.toMap(taco.review());\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "        updates.put(\"review\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    AutoValue_Review.diff(prefix + \"review\", before.review(), after.review(), updates);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    Review review = current == null ? null : current.review();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"review\":\n"
+      + "          review = AutoValue_Review.applyPatch(review, childUpdates);\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, ingredients, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
       + "  }\n"
       + "\n"
       + "  static final class FirebaseValue {\n"
-      + "    private int spiciness;\n"
+      + "    private String name;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private AutoValue_Review.FirebaseValue review;\n"
       + "    @SuppressWarnings(\"unused\")\n"
       + "    FirebaseValue() {\n"
       + "    }\n"
-      + "    FirebaseValue(Ingredient ingredient) {\n"
-      + "      this.spiciness = ingredient.spiciness();\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
       + "    }\n"
       + "    @Exclude\n"
-      + "    AutoValue_Ingredient toAutoValue() {\n"
-      + "      int spiciness = this.spiciness;\n"
-      + "      return new AutoValue_Ingredient(spiciness);\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
+      + "      return new AutoValue_Taco(name, ingredients, review);\n"
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(0);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(5);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
       + "      return map;\n"
       + "    }\n"
-      + "    @Exclude\n"
-      + "    public int getSpiciness() {\n"
-      + "      return spiciness;\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
+      + "      return review;\n"
       + "    }\n"
       + "  }\n"
       + "}\n");
 
     assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, source))
+      .that(Arrays.asList(EXCLUDE, INGREDIENT, REVIEW, source))
       .processedWith(new AutoValueProcessor())
       .compilesWithoutError()
       .and()
@@ -891,17 +3039,17 @@ public class AutoValueFirebaseExtensionTest {
   }
 
   @Test
-  public void propertyNameAnnotation() throws Exception {
+  public void excludeAnnotation() throws Exception {
     JavaFileObject source = JavaFileObjects.forSourceString("test.Ingredient",
       "package test;\n"
       + "\n"
       + "import com.google.auto.value.AutoValue;\n"
-      + "import com.google.firebase.database.PropertyName;\n"
+      + "import com.google.firebase.database.Exclude;\n"
       + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
       + "@AutoValue @FirebaseValue\n"
       + "public abstract class Ingredient {\n"
-      + "  @PropertyName(\"picante\")\n"
+      + "  @Exclude\n"
       + "  public abstract int spiciness();\n"
       + "}\n");
 
@@ -909,7 +3057,6 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
-      + "import com.google.firebase.database.PropertyName;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
@@ -921,6 +3068,96 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    int spiciness = 0;\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Ingredient fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Ingredient ingredient) {\n"
+      + "    if (ingredient == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Ingredient ingredient, String firebaseKey) {\n"
+      + "    if (ingredient == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Ingredient before, Ingredient after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "  }\n"
+      + "\n"
+      + "  static Ingredient applyPatch(Ingredient current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    int spiciness = current == null ? 0 : current.spiciness();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
       + "  static final class FirebaseValue {\n"
       + "    private int spiciness;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -937,10 +3174,9 @@ public class AutoValueFirebaseExtensionTest {
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
       + "      HashMap<String, Object> map = new HashMap<>(1);\n"
-      + "      map.put(\"picante\", this.spiciness);\n"
       + "      return map;\n"
       + "    }\n"
-      + "    @PropertyName(\"picante\")\n"
+      + "    @Exclude\n"
       + "    public int getSpiciness() {\n"
       + "      return spiciness;\n"
       + "    }\n"
@@ -948,7 +3184,7 @@ public class AutoValueFirebaseExtensionTest {
       + "}\n");
 
     assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, source))
+      .that(Arrays.asList(EXCLUDE, source))
       .processedWith(new AutoValueProcessor())
       .compilesWithoutError()
       .and()
@@ -956,16 +3192,17 @@ public class AutoValueFirebaseExtensionTest {
   }
 
   @Test
-  public void ignoreExtraPropertiesAnnotation() throws Exception {
+  public void propertyNameAnnotation() throws Exception {
     JavaFileObject source = JavaFileObjects.forSourceString("test.Ingredient",
       "package test;\n"
       + "\n"
       + "import com.google.auto.value.AutoValue;\n"
-      + "import com.google.firebase.database.IgnoreExtraProperties;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
       + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
-      + "@AutoValue @FirebaseValue @IgnoreExtraProperties\n"
+      + "@AutoValue @FirebaseValue\n"
       + "public abstract class Ingredient {\n"
+      + "  @PropertyName(\"picante\")\n"
       + "  public abstract int spiciness();\n"
       + "}\n");
 
@@ -973,7 +3210,8 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
-      + "import com.google.firebase.database.IgnoreExtraProperties;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.lang.Number;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
@@ -985,14 +3223,117 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
-      + "  @IgnoreExtraProperties\n"
-      + "  static final class FirebaseValue {\n"
-      + "    private int spiciness;\n"
-      + "    @SuppressWarnings(\"unused\")\n"
-      + "    FirebaseValue() {\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object spicinessValue = map.get(\"picante\");\n"
+      + "    int spiciness = spicinessValue == null ? 0 : ((Number) spicinessValue).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Ingredient fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Ingredient ingredient) {\n"
+      + "    if (ingredient == null) {\n"
+      + "      return null;\n"
       + "    }\n"
-      + "    FirebaseValue(Ingredient ingredient) {\n"
-      + "      this.spiciness = ingredient.spiciness();\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"picante\", ingredient.spiciness());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Ingredient ingredient, String firebaseKey) {\n"
+      + "    if (ingredient == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"picante\":\n"
+      + "        return ingredient.spiciness();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"picante\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Ingredient before, Ingredient after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (before.spiciness() != after.spiciness()) {\n"
+      + "      updates.put(prefix + \"picante\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Ingredient applyPatch(Ingredient current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    int spiciness = current == null ? 0 : current.spiciness();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"picante\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object spicinessValue = childUpdates.remove(\"\");\n"
+      + "            spiciness = spicinessValue == null ? 0 : ((Number) spicinessValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private int spiciness;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Ingredient ingredient) {\n"
+      + "      this.spiciness = ingredient.spiciness();\n"
       + "    }\n"
       + "    @Exclude\n"
       + "    AutoValue_Ingredient toAutoValue() {\n"
@@ -1001,10 +3342,11 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
-      + "      map.put(\"spiciness\", this.spiciness);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "      map.put(\"picante\", this.spiciness);\n"
       + "      return map;\n"
       + "    }\n"
+      + "    @PropertyName(\"picante\")\n"
       + "    public int getSpiciness() {\n"
       + "      return spiciness;\n"
       + "    }\n"
@@ -1012,7 +3354,7 @@ public class AutoValueFirebaseExtensionTest {
       + "}\n");
 
     assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, IGNORE_EXTRA_PROPERTIES, source))
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, source))
       .processedWith(new AutoValueProcessor())
       .compilesWithoutError()
       .and()
@@ -1020,15 +3362,15 @@ public class AutoValueFirebaseExtensionTest {
   }
 
   @Test
-  public void throwOnExtraPropertiesAnnotation() throws Exception {
+  public void ignoreExtraPropertiesAnnotation() throws Exception {
     JavaFileObject source = JavaFileObjects.forSourceString("test.Ingredient",
       "package test;\n"
       + "\n"
       + "import com.google.auto.value.AutoValue;\n"
-      + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
+      + "import com.google.firebase.database.IgnoreExtraProperties;\n"
       + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
-      + "@AutoValue @FirebaseValue @ThrowOnExtraProperties\n"
+      + "@AutoValue @FirebaseValue @IgnoreExtraProperties\n"
       + "public abstract class Ingredient {\n"
       + "  public abstract int spiciness();\n"
       + "}\n");
@@ -1037,7 +3379,8 @@ public class AutoValueFirebaseExtensionTest {
       "package test;\n"
       + "\n"
       + "import com.google.firebase.database.Exclude;\n"
-      + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
+      + "import com.google.firebase.database.IgnoreExtraProperties;\n"
+      + "import java.lang.Number;\n"
       + "import java.lang.Object;\n"
       + "import java.lang.String;\n"
       + "import java.lang.SuppressWarnings;\n"
@@ -1049,7 +3392,111 @@ public class AutoValueFirebaseExtensionTest {
       + "    super(spiciness);\n"
       + "  }\n"
       + "\n"
-      + "  @ThrowOnExtraProperties\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    Object spicinessValue = map.get(\"spiciness\");\n"
+      + "    int spiciness = spicinessValue == null ? 0 : ((Number) spicinessValue).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Ingredient fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Ingredient ingredient) {\n"
+      + "    if (ingredient == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"spiciness\", ingredient.spiciness());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Ingredient ingredient, String firebaseKey) {\n"
+      + "    if (ingredient == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"spiciness\":\n"
+      + "        return ingredient.spiciness();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"spiciness\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Ingredient before, Ingredient after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (before.spiciness() != after.spiciness()) {\n"
+      + "      updates.put(prefix + \"spiciness\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Ingredient applyPatch(Ingredient current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    int spiciness = current == null ? 0 : current.spiciness();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"spiciness\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object spicinessValue = childUpdates.remove(\"\");\n"
+      + "            spiciness = spicinessValue == null ? 0 : ((Number) spicinessValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  @IgnoreExtraProperties\n"
       + "  static final class FirebaseValue {\n"
       + "    private int spiciness;\n"
       + "    @SuppressWarnings(\"unused\")\n"
@@ -1065,7 +3512,7 @@ public class AutoValueFirebaseExtensionTest {
       + "    }\n"
       + "    @Exclude\n"
       + "    Map<String, Object> toMap() {\n"
-      + "      HashMap<String, Object> map = new HashMap<>(1);\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
       + "      map.put(\"spiciness\", this.spiciness);\n"
       + "      return map;\n"
       + "    }\n"
@@ -1076,7 +3523,7 @@ public class AutoValueFirebaseExtensionTest {
       + "}\n");
 
     assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, THROW_ON_EXTRA_PROPERTIES, source))
+      .that(Arrays.asList(EXCLUDE, IGNORE_EXTRA_PROPERTIES, source))
       .processedWith(new AutoValueProcessor())
       .compilesWithoutError()
       .and()
@@ -1084,116 +3531,511 @@ public class AutoValueFirebaseExtensionTest {
   }
 
   @Test
-  public void listOfParameterizedTypes() throws Exception {
-    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+  public void throwOnExtraPropertiesAnnotation() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Ingredient",
       "package test;\n"
       + "\n"
       + "import com.google.auto.value.AutoValue;\n"
-      + "import java.util.List;\n"
+      + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
       + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
-      + "@AutoValue @FirebaseValue\n"
-      + "public abstract class Taco {\n"
-      + "  public abstract List<List<String>> ingredients();\n"
+      + "@AutoValue @FirebaseValue @ThrowOnExtraProperties\n"
+      + "public abstract class Ingredient {\n"
+      + "  public abstract int spiciness();\n"
       + "}\n");
 
-    assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, source))
-      .processedWith(new AutoValueProcessor())
-      .failsToCompile();
-  }
-
-  @Test
-  public void mapWithNonPrimitiveKeyTypes() throws Exception {
-    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Ingredient",
       "package test;\n"
       + "\n"
-      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.HashMap;\n"
       + "import java.util.Map;\n"
-      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
-      + "@AutoValue @FirebaseValue\n"
-      + "public abstract class Taco {\n"
-      + "  public abstract Map<Ingredient, Integer> ingredients();\n"
-      + "}\n");
-
-    assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, source))
-      .processedWith(new AutoValueProcessor())
-      .failsToCompile();
-  }
-
-  @Test
-  public void mapWithParemeterizedValueTypes() throws Exception {
-    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
-      "package test;\n"
+      + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
+      + "  AutoValue_Ingredient(int spiciness) {\n"
+      + "    super(spiciness);\n"
+      + "  }\n"
       + "\n"
-      + "import com.google.auto.value.AutoValue;\n"
-      + "import java.util.List;\n"
-      + "import java.util.Map;\n"
-      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    for (String key : map.keySet()) {\n"
+      + "      switch (key) {\n"
+      + "        case \"spiciness\":\n"
+      + "          break;\n"
+      + "        default:\n"
+      + "          throw new IllegalArgumentException(\"Found a property not defined in AutoValue_Ingredient: \" + key);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object spicinessValue = map.get(\"spiciness\");\n"
+      + "    int spiciness = spicinessValue == null ? 0 : ((Number) spicinessValue).intValue();\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
       + "\n"
-      + "@AutoValue @FirebaseValue\n"
-      + "public abstract class Taco {\n"
-      + "  public abstract Map<Integer, List<Ingredient>> ingredients();\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Ingredient fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Ingredient ingredient) {\n"
+      + "    if (ingredient == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"spiciness\", ingredient.spiciness());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Ingredient ingredient, String firebaseKey) {\n"
+      + "    if (ingredient == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"spiciness\":\n"
+      + "        return ingredient.spiciness();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"spiciness\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Ingredient before, Ingredient after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (before.spiciness() != after.spiciness()) {\n"
+      + "      updates.put(prefix + \"spiciness\", after.spiciness());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Ingredient applyPatch(Ingredient current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    int spiciness = current == null ? 0 : current.spiciness();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"spiciness\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object spicinessValue = childUpdates.remove(\"\");\n"
+      + "            spiciness = spicinessValue == null ? 0 : ((Number) spicinessValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(spiciness);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  @ThrowOnExtraProperties\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private int spiciness;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Ingredient ingredient) {\n"
+      + "      this.spiciness = ingredient.spiciness();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Ingredient toAutoValue() {\n"
+      + "      int spiciness = this.spiciness;\n"
+      + "      return new AutoValue_Ingredient(spiciness);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "      map.put(\"spiciness\", this.spiciness);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public int getSpiciness() {\n"
+      + "      return spiciness;\n"
+      + "    }\n"
+      + "  }\n"
       + "}\n");
 
     assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, source))
+      .that(Arrays.asList(EXCLUDE, THROW_ON_EXTRA_PROPERTIES, source))
       .processedWith(new AutoValueProcessor())
-      .failsToCompile();
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
   }
 
   @Test
-  public void set() throws Exception {
-    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+  public void throwOnExtraPropertiesInFromMap() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Ingredient",
       "package test;\n"
       + "\n"
       + "import com.google.auto.value.AutoValue;\n"
-      + "import java.util.Set;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
       + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
       + "\n"
-      + "@AutoValue @FirebaseValue\n"
-      + "public abstract class Taco {\n"
-      + "  public abstract Set<Ingredient> ingredients();\n"
+      + "@AutoValue @FirebaseValue @ThrowOnExtraProperties\n"
+      + "public abstract class Ingredient {\n"
+      + "  public abstract String name();\n"
+      + "  @PropertyName(\"picante\") public abstract boolean spicy();\n"
+      + "  @Exclude public abstract String secret();\n"
       + "}\n");
 
-    assertAbout(javaSources())
-      .that(Arrays.asList(EXCLUDE, source))
-      .processedWith(new AutoValueProcessor())
-      .failsToCompile();
-  }
-
-  @Test
-  public void toMapCollision() throws Exception {
-    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
-        "package test;\n"
-            + "\n"
-            + "import com.google.auto.value.AutoValue;\n"
-            + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
-            + "\n"
-            + "@AutoValue @FirebaseValue\n"
-            + "public abstract class Taco {\n"
-            + "  public abstract Object toMap();\n"
-            + "}\n");
-
-    assertAbout(javaSources())
-        .that(Arrays.asList(EXCLUDE, source))
-        .processedWith(new AutoValueProcessor())
-        .failsToCompile();
-  }
-
-  @Test
-  public void arrayList() throws Exception {
-    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Ingredient",
       "package test;\n"
       + "\n"
-      + "import com.google.auto.value.AutoValue;\n"
-      + "import java.util.ArrayList;\n"
-      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import com.google.firebase.database.ThrowOnExtraProperties;\n"
+      + "import java.lang.Boolean;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
       + "\n"
-      + "@AutoValue @FirebaseValue\n"
-      + "public abstract class Taco {\n"
+      + "final class AutoValue_Ingredient extends $AutoValue_Ingredient {\n"
+      + "  AutoValue_Ingredient(String name, boolean spicy, String secret) {\n"
+      + "    super(name, spicy, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Ingredient fromMap(Map<String, Object> map) {\n"
+      + "    for (String key : map.keySet()) {\n"
+      + "      switch (key) {\n"
+      + "        case \"name\":\n"
+      + "        case \"picante\":\n"
+      + "          break;\n"
+      + "        default:\n"
+      + "          throw new IllegalArgumentException(\"Found a property not defined in AutoValue_Ingredient: \" + key);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    Object spicyValue = map.get(\"picante\");\n"
+      + "    boolean spicy = spicyValue != null && (Boolean) spicyValue;\n"
+      + "    String secret = null;\n"
+      + "    return new AutoValue_Ingredient(name, spicy, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Ingredient fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Ingredient ingredient) {\n"
+      + "    if (ingredient == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(3);\n"
+      + "    map.put(\"name\", ingredient.name());\n"
+      + "    map.put(\"picante\", ingredient.spicy());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Ingredient ingredient, String firebaseKey) {\n"
+      + "    if (ingredient == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return ingredient.name();\n"
+      + "      case \"picante\":\n"
+      + "        return ingredient.spicy();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Ingredient before, Ingredient after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"picante\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Ingredient before, Ingredient after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (before.spicy() != after.spicy()) {\n"
+      + "      updates.put(prefix + \"picante\", after.spicy());\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Ingredient applyPatch(Ingredient current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    boolean spicy = current == null ? false : current.spicy();\n"
+      + "    String secret = current == null ? null : current.secret();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"picante\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object spicyValue = childUpdates.remove(\"\");\n"
+      + "            spicy = spicyValue != null && (Boolean) spicyValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Ingredient(name, spicy, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  @ThrowOnExtraProperties\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private boolean spicy;\n"
+      + "    private String secret;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Ingredient ingredient) {\n"
+      + "      this.name = ingredient.name();\n"
+      + "      this.spicy = ingredient.spicy();\n"
+      + "      this.secret = ingredient.secret();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Ingredient toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      boolean spicy = this.spicy;\n"
+      + "      String secret = this.secret;\n"
+      + "      return new AutoValue_Ingredient(name, spicy, secret);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(3);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      map.put(\"picante\", this.spicy);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    @PropertyName(\"picante\")\n"
+      + "    public boolean getSpicy() {\n"
+      + "      return spicy;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    public String getSecret() {\n"
+      + "      return secret;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, THROW_ON_EXTRA_PROPERTIES, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void listOfParameterizedTypes() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<List<String>> ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void mapWithNonPrimitiveKeyTypes() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract Map<Ingredient, Integer> ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void mapWithParemeterizedValueTypes() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract Map<Integer, List<Ingredient>> ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void set() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.Set;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract Set<Ingredient> ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void toMapCollision() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+        "package test;\n"
+            + "\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+            + "\n"
+            + "@AutoValue @FirebaseValue\n"
+            + "public abstract class Taco {\n"
+            + "  public abstract Object toMap();\n"
+            + "}\n");
+
+    assertAbout(javaSources())
+        .that(Arrays.asList(EXCLUDE, source))
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile();
+  }
+
+  @Test
+  public void arrayList() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.ArrayList;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
       + "  public abstract ArrayList<Ingredient> ingredients();\n"
       + "}\n");
 
@@ -1260,12 +4102,121 @@ public class AutoValueFirebaseExtensionTest {
         "import java.lang.SuppressWarnings;" +
         "import java.util.HashMap;\n" +
         "import java.util.Map;\n" +
+        "import java.util.Objects;\n" +
         "final class AutoValue_Taco extends $AutoValue_Taco {\n" +
         "\n" +
         "  AutoValue_TestTaco(Taco.Status status) {\n" +
         "    super(status);\n" +
         "  }\n" +
         "\n" +
+        "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n" +
+        "    StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    Object statusValue = map.get(\"status\");\n" +
+        "    Taco.Status status = statusValue == null ? null : statusAdapter.fromFirebaseValue((String) statusValue);\n" +
+        "    return new AutoValue_Taco(status);\n" +
+        "  }\n" +
+        "\n" +
+        "  @SuppressWarnings(\"unchecked\")\n" +
+        "  static AutoValue_Taco fromValue(Object value) {\n" +
+        "    return value == null ? null : fromMap((Map<String, Object>) value);\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Object> toMap(Taco taco) {\n" +
+        "    if (taco == null) {\n" +
+        "      return null;\n" +
+        "    }\n" +
+        "    StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    HashMap<String, Object> map = new HashMap<>(2);\n" +
+        "    map.put(\"status\", taco.status() == null ? null : statusAdapter.toFirebaseValue(taco.status()));\n" +
+        "    return map;\n" +
+        "  }\n" +
+        "\n" +
+        "  static Object get(Taco taco, String firebaseKey) {\n" +
+        "    if (taco == null || firebaseKey == null) {\n" +
+        "      return null;\n" +
+        "    }\n" +
+        "    switch (firebaseKey) {\n" +
+        "      case \"status\":\n" +
+        "        return taco.status() == null ? null : new StatusAdapter().toFirebaseValue(taco.status());\n" +
+        "      default:\n" +
+        "        return null;\n" +
+        "    }\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Object> diff(Taco before, Taco after) {\n" +
+        "    Map<String, Object> updates = new HashMap<>();\n" +
+        "    if (after == null) {\n" +
+        "      if (before != null) {\n" +
+        "        updates.put(\"status\", null);\n" +
+        "      }\n" +
+        "    } else if (before == null) {\n" +
+        "      updates.putAll(toMap(after));\n" +
+        "    } else {\n" +
+        "      diff(\"\", before, after, updates);\n" +
+        "    }\n" +
+        "    return updates;\n" +
+        "  }\n" +
+        "\n" +
+        "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n" +
+        "    if (before == after) {\n" +
+        "      return;\n" +
+        "    }\n" +
+        "    if (before == null || after == null) {\n" +
+        "      updates.put(path, toMap(after));\n" +
+        "      return;\n" +
+        "    }\n" +
+        "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n" +
+        "    StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    if (!Objects.equals(before.status(), after.status())) {\n" +
+        "      updates.put(prefix + \"status\", after.status() == null ? null : statusAdapter.toFirebaseValue(after.status()));\n" +
+        "    }\n" +
+        "  }\n" +
+        "\n" +
+        "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n" +
+        "    if (updates.isEmpty()) {\n" +
+        "      return current;\n" +
+        "    }\n" +
+        "    if (updates.containsKey(\"\")) {\n" +
+        "      current = fromValue(updates.get(\"\"));\n" +
+        "      if (updates.size() == 1) {\n" +
+        "        return current;\n" +
+        "      }\n" +
+        "    }\n" +
+        "    StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    Taco.Status status = current == null ? null : current.status();\n" +
+        "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n" +
+        "      Map<String, Object> childUpdates = child.getValue();\n" +
+        "      switch (child.getKey()) {\n" +
+        "        case \"status\":\n" +
+        "          if (childUpdates.containsKey(\"\")) {\n" +
+        "            Object statusValue = childUpdates.remove(\"\");\n" +
+        "            status = statusValue == null ? null : statusAdapter.fromFirebaseValue((String) statusValue);\n" +
+        "          }\n" +
+        "          break;\n" +
+        "      }\n" +
+        "    }\n" +
+        "    return new AutoValue_Taco(status);\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n" +
+        "    Map<String, Map<String, Object>> children = new HashMap<>();\n" +
+        "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n" +
+        "      String path = update.getKey();\n" +
+        "      if (path.isEmpty()) {\n" +
+        "        continue;\n" +
+        "      }\n" +
+        "      int slash = path.indexOf('/');\n" +
+        "      String child = slash < 0 ? path : path.substring(0, slash);\n" +
+        "      Map<String, Object> childUpdates = children.get(child);\n" +
+        "      if (childUpdates == null) {\n" +
+        "        childUpdates = new HashMap<>();\n" +
+        "        children.put(child, childUpdates);\n" +
+        "      }\n" +
+        "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n" +
+        "    }\n" +
+        "    return children;\n" +
+        "  }\n" +
+        "\n" +
         "  static final class FirebaseValue {\n" +
         "    private String status;\n" +
         "    private final StatusAdapter statusAdapter = new StatusAdapter();\n" +
@@ -1282,7 +4233,7 @@ public class AutoValueFirebaseExtensionTest {
         "    }\n" +
         "    @Exclude\n" +
         "    Map<String, Object> toMap() {\n" +
-        "      HashMap<String, Object> map = new HashMap<>(1);\n" +
+        "      HashMap<String, Object> map = new HashMap<>(2);\n" +
         "      map.put(\"status\", this.status);\n" +
         "      return map;\n" +
         "    }\n" +
@@ -1300,13 +4251,15 @@ public class AutoValueFirebaseExtensionTest {
   }
 
   @Test
-  public void typeAdapterEnumDuplicateAdapter() throws Exception {
+  public void typeAdapterStateless() throws Exception {
     JavaFileObject typeAdapterSource = JavaFileObjects.forSourceLines("test.StatusAdapter",
       "package test;\n" +
         "\n" +
+        "import me.mattlogan.auto.value.firebase.adapter.Stateless;\n" +
         "import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;\n" +
-        "import test.Taco.Status;\n" +
+        "import test.Taco.Status;\n"+
         "\n" +
+        "@Stateless\n" +
         "public class StatusAdapter implements TypeAdapter<Status, String> {\n" +
         "  @Override\n" +
         "  public Status fromFirebaseValue(String value) {\n" +
@@ -1345,7 +4298,6 @@ public class AutoValueFirebaseExtensionTest {
         + "public abstract class Taco {\n"
         + "  enum Status { UNCOOKED, COOKED }; "
         + "  @FirebaseAdapter(StatusAdapter.class) abstract Status status();"
-        + "  @FirebaseAdapter(StatusAdapter.class) abstract Status secondaryStatus();"
         + "}\n");
 
     JavaFileObject expectedOutput = JavaFileObjects.forSourceString("test.AutoValue_Taco",
@@ -1354,45 +4306,144 @@ public class AutoValueFirebaseExtensionTest {
         "import com.google.firebase.database.Exclude;\n" +
         "import java.lang.Object;\n" +
         "import java.lang.String;\n" +
-        "import java.lang.SuppressWarnings;" +
+        "import java.lang.SuppressWarnings;\n" +
         "import java.util.HashMap;\n" +
         "import java.util.Map;\n" +
+        "import java.util.Objects;\n" +
+        "\n" +
         "final class AutoValue_Taco extends $AutoValue_Taco {\n" +
+        "  static final StatusAdapter statusAdapter = new StatusAdapter();\n" +
         "\n" +
-        "  AutoValue_TestTaco(Taco.Status status, Taco.Status secondaryStatus) {\n" +
-        "    super(status, secondaryStatus);\n" +
+        "  AutoValue_Taco(Taco.Status status) {\n" +
+        "    super(status);\n" +
+        "  }\n" +
+        "\n" +
+        "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n" +
+        "    Object statusValue = map.get(\"status\");\n" +
+        "    Taco.Status status = statusValue == null ? null : statusAdapter.fromFirebaseValue((String) statusValue);\n" +
+        "    return new AutoValue_Taco(status);\n" +
+        "  }\n" +
+        "\n" +
+        "  @SuppressWarnings(\"unchecked\")\n" +
+        "  static AutoValue_Taco fromValue(Object value) {\n" +
+        "    return value == null ? null : fromMap((Map<String, Object>) value);\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Object> toMap(Taco taco) {\n" +
+        "    if (taco == null) {\n" +
+        "      return null;\n" +
+        "    }\n" +
+        "    HashMap<String, Object> map = new HashMap<>(2);\n" +
+        "    map.put(\"status\", taco.status() == null ? null : statusAdapter.toFirebaseValue(taco.status()));\n" +
+        "    return map;\n" +
+        "  }\n" +
+        "\n" +
+        "  static Object get(Taco taco, String firebaseKey) {\n" +
+        "    if (taco == null || firebaseKey == null) {\n" +
+        "      return null;\n" +
+        "    }\n" +
+        "    switch (firebaseKey) {\n" +
+        "      case \"status\":\n" +
+        "        return taco.status() == null ? null : statusAdapter.toFirebaseValue(taco.status());\n" +
+        "      default:\n" +
+        "        return null;\n" +
+        "    }\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Object> diff(Taco before, Taco after) {\n" +
+        "    Map<String, Object> updates = new HashMap<>();\n" +
+        "    if (after == null) {\n" +
+        "      if (before != null) {\n" +
+        "        updates.put(\"status\", null);\n" +
+        "      }\n" +
+        "    } else if (before == null) {\n" +
+        "      updates.putAll(toMap(after));\n" +
+        "    } else {\n" +
+        "      diff(\"\", before, after, updates);\n" +
+        "    }\n" +
+        "    return updates;\n" +
+        "  }\n" +
+        "\n" +
+        "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n" +
+        "    if (before == after) {\n" +
+        "      return;\n" +
+        "    }\n" +
+        "    if (before == null || after == null) {\n" +
+        "      updates.put(path, toMap(after));\n" +
+        "      return;\n" +
+        "    }\n" +
+        "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n" +
+        "    if (!Objects.equals(before.status(), after.status())) {\n" +
+        "      updates.put(prefix + \"status\", after.status() == null ? null : statusAdapter.toFirebaseValue(after.status()));\n" +
+        "    }\n" +
+        "  }\n" +
+        "\n" +
+        "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n" +
+        "    if (updates.isEmpty()) {\n" +
+        "      return current;\n" +
+        "    }\n" +
+        "    if (updates.containsKey(\"\")) {\n" +
+        "      current = fromValue(updates.get(\"\"));\n" +
+        "      if (updates.size() == 1) {\n" +
+        "        return current;\n" +
+        "      }\n" +
+        "    }\n" +
+        "    Taco.Status status = current == null ? null : current.status();\n" +
+        "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n" +
+        "      Map<String, Object> childUpdates = child.getValue();\n" +
+        "      switch (child.getKey()) {\n" +
+        "        case \"status\":\n" +
+        "          if (childUpdates.containsKey(\"\")) {\n" +
+        "            Object statusValue = childUpdates.remove(\"\");\n" +
+        "            status = statusValue == null ? null : statusAdapter.fromFirebaseValue((String) statusValue);\n" +
+        "          }\n" +
+        "          break;\n" +
+        "      }\n" +
+        "    }\n" +
+        "    return new AutoValue_Taco(status);\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n" +
+        "    Map<String, Map<String, Object>> children = new HashMap<>();\n" +
+        "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n" +
+        "      String path = update.getKey();\n" +
+        "      if (path.isEmpty()) {\n" +
+        "        continue;\n" +
+        "      }\n" +
+        "      int slash = path.indexOf('/');\n" +
+        "      String child = slash < 0 ? path : path.substring(0, slash);\n" +
+        "      Map<String, Object> childUpdates = children.get(child);\n" +
+        "      if (childUpdates == null) {\n" +
+        "        childUpdates = new HashMap<>();\n" +
+        "        children.put(child, childUpdates);\n" +
+        "      }\n" +
+        "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n" +
+        "    }\n" +
+        "    return children;\n" +
         "  }\n" +
         "\n" +
         "  static final class FirebaseValue {\n" +
         "    private String status;\n" +
-        "    private String secondaryStatus;\n"+
-        "    private final StatusAdapter statusAdapter = new StatusAdapter();\n" +
         "    @SuppressWarnings(\"unused\")\n" +
         "    FirebaseValue() {\n" +
         "    }\n" +
         "    FirebaseValue(Taco taco) {\n" +
         "      this.status = taco.status() == null ? null : statusAdapter.toFirebaseValue(taco.status());\n" +
-        "      this.secondaryStatus = taco.secondaryStatus() == null ? null: statusAdapter.toFirebaseValue(taco.secondaryStatus());\n"+
         "    }\n" +
         "    @Exclude\n" +
         "    AutoValue_Taco toAutoValue() {\n" +
         "      Taco.Status status = this.status == null ? null : statusAdapter.fromFirebaseValue(this.status);\n" +
-        "      Taco.Status secondaryStatus = this.secondaryStatus == null ? null : statusAdapter.fromFirebaseValue(this.secondaryStatus);\n" +
-        "      return new AutoValue_Taco(status, secondaryStatus);\n" +
+        "      return new AutoValue_Taco(status);\n" +
         "    }\n" +
         "    @Exclude\n" +
         "    Map<String, Object> toMap() {\n" +
         "      HashMap<String, Object> map = new HashMap<>(2);\n" +
         "      map.put(\"status\", this.status);\n" +
-        "      map.put(\"secondaryStatus\", this.secondaryStatus);\n" +
         "      return map;\n" +
         "    }\n" +
         "    public String getStatus() {\n" +
         "      return status;\n" +
         "    }\n" +
-        "    public String getSecondaryStatus() {\n" +
-        "      return secondaryStatus;\n" +
-        "    }\n" +
         "  }\n" +
         "}");
     assertAbout(javaSources())
@@ -1402,4 +4453,4864 @@ public class AutoValueFirebaseExtensionTest {
       .and()
       .generatesSources(expectedOutput);
   }
+
+  @Test
+  public void readJson() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  @PropertyName(\"stars\") public abstract int rating();\n"
+      + "  public abstract Double price();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Map<String, Long> counts();\n"
+      + "  public abstract Review review();\n"
+      + "  @Exclude public abstract String secret();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.io.IOException;\n"
+      + "import java.lang.Double;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Long;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "import me.mattlogan.auto.value.firebase.json.JsonReader;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(String name, int rating, Double price, List<Ingredient> ingredients, Map<String, Long> counts, Review review, String secret) {\n"
+      + "    super(name, rating, price, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    Object ratingValue = map.get(\"stars\");\n"
+      + "    int rating = ratingValue == null ? 0 : ((Number) ratingValue).intValue();\n"
+      + "    Object priceValue = map.get(\"price\");\n"
+      + "    Double price = priceValue == null ? null : ((Number) priceValue).doubleValue();\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object countsValue = map.get(\"counts\");\n"
+      + "    Map<String, Long> counts = null;\n"
+      + "    if (countsValue != null) {\n"
+      + "      Map<?, ?> countsMap = (Map<?, ?>) countsValue;\n"
+      + "      counts = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : countsMap.entrySet()) {\n"
+      + "        counts.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).longValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Review review = AutoValue_Review.fromValue(map.get(\"review\"));\n"
+      + "    String secret = null;\n"
+      + "    return new AutoValue_Taco(name, rating, price, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(9);\n"
+      + "    map.put(\"name\", taco.name());\n"
+      + "    map.put(\"stars\", taco.rating());\n"
+      + "    map.put(\"price\", taco.price());\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    map.put(\"counts\", taco.counts());\n"
+      + "    map.put(\"review\", AutoValue_Review.toMap(taco.review()));\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"stars\":\n"
+      + "        return taco.rating();\n"
+      + "      case \"price\":\n"
+      + "        return taco.price();\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      case \"counts\":\n"
+      + "        return taco.counts();\n"
+      + "      case \"review\":\n"
+      + "        return AutoValue_Review.toMap(taco.review());\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"stars\", null);\n"
+      + "        updates.put(\"price\", null);\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "        updates.put(\"counts\", null);\n"
+      + "        updates.put(\"review\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (before.rating() != after.rating()) {\n"
+      + "      updates.put(prefix + \"stars\", after.rating());\n"
+      + "    }\n"
+      + "    if (!Objects.equals(before.price(), after.price())) {\n"
+      + "      updates.put(prefix + \"price\", after.price());\n"
+      + "    }\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Map<String, Long> beforeCounts = before.counts();\n"
+      + "    Map<String, Long> afterCounts = after.counts();\n"
+      + "    if (afterCounts == null) {\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        updates.put(prefix + \"counts\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeCounts != afterCounts) {\n"
+      + "      for (Map.Entry<String, Long> entry : afterCounts.entrySet()) {\n"
+      + "        if (beforeCounts == null || !Objects.equals(beforeCounts.get(entry.getKey()), entry.getValue())) {\n"
+      + "          updates.put(prefix + \"counts/\" + entry.getKey(), entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        for (String key : beforeCounts.keySet()) {\n"
+      + "          if (!afterCounts.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"counts/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    AutoValue_Review.diff(prefix + \"review\", before.review(), after.review(), updates);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    int rating = current == null ? 0 : current.rating();\n"
+      + "    Double price = current == null ? null : current.price();\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    Map<String, Long> counts = current == null ? null : current.counts();\n"
+      + "    Review review = current == null ? null : current.review();\n"
+      + "    String secret = current == null ? null : current.secret();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"stars\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ratingValue = childUpdates.remove(\"\");\n"
+      + "            rating = ratingValue == null ? 0 : ((Number) ratingValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"price\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object priceValue = childUpdates.remove(\"\");\n"
+      + "            price = priceValue == null ? null : ((Number) priceValue).doubleValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"counts\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object countsValue = childUpdates.remove(\"\");\n"
+      + "            counts = null;\n"
+      + "            if (countsValue != null) {\n"
+      + "              Map<?, ?> countsMap = (Map<?, ?>) countsValue;\n"
+      + "              counts = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : countsMap.entrySet()) {\n"
+      + "                counts.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).longValue());\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<String, Long> patched = counts == null ? new HashMap<String, Long>() : new HashMap<>(counts);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              String itemKey = item.getKey();\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              Long itemValue = rawItem == null ? null : ((Number) rawItem).longValue();\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            counts = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"review\":\n"
+      + "          review = AutoValue_Review.applyPatch(review, childUpdates);\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, rating, price, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco readJson(JsonReader reader) throws IOException {\n"
+      + "    if (reader.skipNull()) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    String name = null;\n"
+      + "    int rating = 0;\n"
+      + "    Double price = null;\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    Map<String, Long> counts = null;\n"
+      + "    Review review = null;\n"
+      + "    String secret = null;\n"
+      + "    reader.beginObject();\n"
+      + "    while (reader.hasNext()) {\n"
+      + "      switch (reader.nextName()) {\n"
+      + "        case \"name\":\n"
+      + "          name = reader.skipNull() ? null : reader.nextString();\n"
+      + "          break;\n"
+      + "        case \"stars\":\n"
+      + "          rating = reader.skipNull() ? 0 : reader.nextInt();\n"
+      + "          break;\n"
+      + "        case \"price\":\n"
+      + "          price = reader.skipNull() ? null : reader.nextDouble();\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (!reader.skipNull()) {\n"
+      + "            ingredients = new ArrayList<>();\n"
+      + "            reader.beginArray();\n"
+      + "            while (reader.hasNext()) {\n"
+      + "              ingredients.add(AutoValue_Ingredient.readJson(reader));\n"
+      + "            }\n"
+      + "            reader.endArray();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"counts\":\n"
+      + "          if (!reader.skipNull()) {\n"
+      + "            counts = new HashMap<>();\n"
+      + "            reader.beginObject();\n"
+      + "            while (reader.hasNext()) {\n"
+      + "              counts.put(reader.nextName(), reader.skipNull() ? null : reader.nextLong());\n"
+      + "            }\n"
+      + "            reader.endObject();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"review\":\n"
+      + "          review = AutoValue_Review.readJson(reader);\n"
+      + "          break;\n"
+      + "        default:\n"
+      + "          reader.skipValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    reader.endObject();\n"
+      + "    return new AutoValue_Taco(name, rating, price, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private int rating;\n"
+      + "    private Double price;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private Map<String, Long> counts;\n"
+      + "    private AutoValue_Review.FirebaseValue review;\n"
+      + "    private String secret;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      this.rating = taco.rating();\n"
+      + "      this.price = taco.price();\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.counts = taco.counts();\n"
+      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
+      + "      this.secret = taco.secret();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      int rating = this.rating;\n"
+      + "      Double price = this.price;\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Map<String, Long> counts = this.counts;\n"
+      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
+      + "      String secret = this.secret;\n"
+      + "      return new AutoValue_Taco(name, rating, price, ingredients, counts, review, secret);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(9);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      map.put(\"stars\", this.rating);\n"
+      + "      map.put(\"price\", this.price);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "      map.put(\"counts\", this.counts);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    @PropertyName(\"stars\")\n"
+      + "    public int getRating() {\n"
+      + "      return rating;\n"
+      + "    }\n"
+      + "    public Double getPrice() {\n"
+      + "      return price;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public Map<String, Long> getCounts() {\n"
+      + "      return counts;\n"
+      + "    }\n"
+      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
+      + "      return review;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    public String getSecret() {\n"
+      + "      return secret;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, JSON_READER, JSON_DATA_EXCEPTION, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void writeJson() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  @PropertyName(\"stars\") public abstract int rating();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Map<String, Long> counts();\n"
+      + "  public abstract Review review();\n"
+      + "  @Exclude public abstract String secret();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "\n"
+      + "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.io.IOException;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Long;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "import me.mattlogan.auto.value.firebase.json.JsonWriter;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(String name, int rating, List<Ingredient> ingredients, Map<String, Long> counts, Review review, String secret) {\n"
+      + "    super(name, rating, ingredients, counts, review, secret);\n"
+      + "\n"
+      + "\n"
+      + "\n"
+      + "    }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    Object ratingValue = map.get(\"stars\");\n"
+      + "    int rating = ratingValue == null ? 0 : ((Number) ratingValue).intValue();\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "    }\n"
+      + "    }\n"
+      + "    Object countsValue = map.get(\"counts\");\n"
+      + "    Map<String, Long> counts = null;\n"
+      + "    if (countsValue != null) {\n"
+      + "      Map<?, ?> countsMap = (Map<?, ?>) countsValue;\n"
+      + "      counts = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : countsMap.entrySet()) {\n"
+      + "        counts.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).longValue());\n"
+      + "    }\n"
+      + "    }\n"
+      + "    Review review = AutoValue_Review.fromValue(map.get(\"review\"));\n"
+      + "    String secret = null;\n"
+      + "    return new AutoValue_Taco(name, rating, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(7);\n"
+      + "    map.put(\"name\", taco.name());\n"
+      + "    map.put(\"stars\", taco.rating());\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    map.put(\"counts\", taco.counts());\n"
+      + "    map.put(\"review\", AutoValue_Review.toMap(taco.review()));\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"stars\":\n"
+      + "        return taco.rating();\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      case \"counts\":\n"
+      + "        return taco.counts();\n"
+      + "      case \"review\":\n"
+      + "        return AutoValue_Review.toMap(taco.review());\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"stars\", null);\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "        updates.put(\"counts\", null);\n"
+      + "        updates.put(\"review\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (before.rating() != after.rating()) {\n"
+      + "      updates.put(prefix + \"stars\", after.rating());\n"
+      + "    }\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Map<String, Long> beforeCounts = before.counts();\n"
+      + "    Map<String, Long> afterCounts = after.counts();\n"
+      + "    if (afterCounts == null) {\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        updates.put(prefix + \"counts\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeCounts != afterCounts) {\n"
+      + "      for (Map.Entry<String, Long> entry : afterCounts.entrySet()) {\n"
+      + "        if (beforeCounts == null || !Objects.equals(beforeCounts.get(entry.getKey()), entry.getValue())) {\n"
+      + "          updates.put(prefix + \"counts/\" + entry.getKey(), entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        for (String key : beforeCounts.keySet()) {\n"
+      + "          if (!afterCounts.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"counts/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    AutoValue_Review.diff(prefix + \"review\", before.review(), after.review(), updates);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    int rating = current == null ? 0 : current.rating();\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    Map<String, Long> counts = current == null ? null : current.counts();\n"
+      + "    Review review = current == null ? null : current.review();\n"
+      + "    String secret = current == null ? null : current.secret();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"stars\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ratingValue = childUpdates.remove(\"\");\n"
+      + "            rating = ratingValue == null ? 0 : ((Number) ratingValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"counts\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object countsValue = childUpdates.remove(\"\");\n"
+      + "            counts = null;\n"
+      + "            if (countsValue != null) {\n"
+      + "              Map<?, ?> countsMap = (Map<?, ?>) countsValue;\n"
+      + "              counts = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : countsMap.entrySet()) {\n"
+      + "                counts.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).longValue());\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<String, Long> patched = counts == null ? new HashMap<String, Long>() : new HashMap<>(counts);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              String itemKey = item.getKey();\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              Long itemValue = rawItem == null ? null : ((Number) rawItem).longValue();\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            counts = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"review\":\n"
+      + "          review = AutoValue_Review.applyPatch(review, childUpdates);\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, rating, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void writeJson(Taco taco, JsonWriter writer) throws IOException {\n"
+      + "    if (taco == null) {\n"
+      + "      writer.nullValue();\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    writer.beginObject();\n"
+      + "    writer.name(\"name\");\n"
+      + "    writer.value(taco.name());\n"
+      + "    writer.name(\"stars\");\n"
+      + "    writer.value(taco.rating());\n"
+      + "    writer.name(\"ingredients\");\n"
+      + "    if (taco.ingredients() == null) {\n"
+      + "      writer.nullValue();\n"
+      + "    } else {\n"
+      + "      writer.beginArray();\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        AutoValue_Ingredient.writeJson(item, writer);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    writer.name(\"counts\");\n"
+      + "    if (taco.counts() == null) {\n"
+      + "      writer.nullValue();\n"
+      + "    } else {\n"
+      + "      writer.beginObject();\n"
+      + "      for (Map.Entry<String, Long> entry : taco.counts().entrySet()) {\n"
+      + "        writer.name(entry.getKey());\n"
+      + "        writer.value(entry.getValue());\n"
+      + "      }\n"
+      + "      writer.endObject();\n"
+      + "    }\n"
+      + "    writer.name(\"review\");\n"
+      + "    AutoValue_Review.writeJson(taco.review(), writer);\n"
+      + "    writer.endObject();\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private int rating;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private Map<String, Long> counts;\n"
+      + "    private AutoValue_Review.FirebaseValue review;\n"
+      + "    private String secret;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      this.rating = taco.rating();\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.counts = taco.counts();\n"
+      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
+      + "      this.secret = taco.secret();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      int rating = this.rating;\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Map<String, Long> counts = this.counts;\n"
+      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
+      + "      String secret = this.secret;\n"
+      + "      return new AutoValue_Taco(name, rating, ingredients, counts, review, secret);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(7);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      map.put(\"stars\", this.rating);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "      map.put(\"counts\", this.counts);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "    return name;\n"
+      + "  }\n"
+      + "\n"
+      + "    @PropertyName(\"stars\")\n"
+      + "    public int getRating() {\n"
+      + "    return rating;\n"
+      + "  }\n"
+      + "\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "    return ingredients;\n"
+      + "  }\n"
+      + "\n"
+      + "    public Map<String, Long> getCounts() {\n"
+      + "    return counts;\n"
+      + "  }\n"
+      + "\n"
+      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
+      + "    return review;\n"
+      + "  }\n"
+      + "\n"
+      + "  @Exclude\n"
+      + "    public String getSecret() {\n"
+      + "    return secret;\n"
+      + "  }\n"
+      + "\n"
+      + "\n"
+      + "\n"
+      + "  }\n"
+      + "\n"
+      + "}");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, JSON_WRITER, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void binaryCodec() throws Exception {
+    JavaFileObject nullable = JavaFileObjects.forSourceString("test.Nullable",
+      "package test;\n"
+      + "\n"
+      + "public @interface Nullable {\n"
+      + "}\n");
+
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  public abstract short rating();\n"
+      + "  @Nullable public abstract Long count();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  @Nullable public abstract Map<String, Double> prices();\n"
+      + "  public abstract Review review();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.io.DataInput;\n"
+      + "import java.io.DataOutput;\n"
+      + "import java.io.IOException;\n"
+      + "import java.lang.Double;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Long;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "import me.mattlogan.auto.value.firebase.binary.BinaryCodec;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  static final long BINARY_FINGERPRINT = (0x83d3053bacf7fd31L * 31 + AutoValue_Ingredient.BINARY_FINGERPRINT) * 31 + AutoValue_Review.BINARY_FINGERPRINT;\n"
+      + "\n"
+      + "  AutoValue_Taco(String name, short rating, Long count, List<Ingredient> ingredients, Map<String, Double> prices, Review review) {\n"
+      + "    super(name, rating, count, ingredients, prices, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    Object ratingValue = map.get(\"rating\");\n"
+      + "    short rating = ratingValue == null ? 0 : ((Number) ratingValue).shortValue();\n"
+      + "    Object countValue = map.get(\"count\");\n"
+      + "    Long count = countValue == null ? null : ((Number) countValue).longValue();\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object pricesValue = map.get(\"prices\");\n"
+      + "    Map<String, Double> prices = null;\n"
+      + "    if (pricesValue != null) {\n"
+      + "      Map<?, ?> pricesMap = (Map<?, ?>) pricesValue;\n"
+      + "      prices = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : pricesMap.entrySet()) {\n"
+      + "        prices.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).doubleValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Review review = AutoValue_Review.fromValue(map.get(\"review\"));\n"
+      + "    return new AutoValue_Taco(name, rating, count, ingredients, prices, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(9);\n"
+      + "    map.put(\"name\", taco.name());\n"
+      + "    map.put(\"rating\", taco.rating());\n"
+      + "    map.put(\"count\", taco.count());\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    map.put(\"prices\", taco.prices());\n"
+      + "    map.put(\"review\", AutoValue_Review.toMap(taco.review()));\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"rating\":\n"
+      + "        return taco.rating();\n"
+      + "      case \"count\":\n"
+      + "        return taco.count();\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      case \"prices\":\n"
+      + "        return taco.prices();\n"
+      + "      case \"review\":\n"
+      + "        return AutoValue_Review.toMap(taco.review());\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"rating\", null);\n"
+      + "        updates.put(\"count\", null);\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "        updates.put(\"prices\", null);\n"
+      + "        updates.put(\"review\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (before.rating() != after.rating()) {\n"
+      + "      updates.put(prefix + \"rating\", after.rating());\n"
+      + "    }\n"
+      + "    if (!Objects.equals(before.count(), after.count())) {\n"
+      + "      updates.put(prefix + \"count\", after.count());\n"
+      + "    }\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Map<String, Double> beforePrices = before.prices();\n"
+      + "    Map<String, Double> afterPrices = after.prices();\n"
+      + "    if (afterPrices == null) {\n"
+      + "      if (beforePrices != null) {\n"
+      + "        updates.put(prefix + \"prices\", null);\n"
+      + "      }\n"
+      + "    } else if (beforePrices != afterPrices) {\n"
+      + "      for (Map.Entry<String, Double> entry : afterPrices.entrySet()) {\n"
+      + "        if (beforePrices == null || !Objects.equals(beforePrices.get(entry.getKey()), entry.getValue())) {\n"
+      + "          updates.put(prefix + \"prices/\" + entry.getKey(), entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (beforePrices != null) {\n"
+      + "        for (String key : beforePrices.keySet()) {\n"
+      + "          if (!afterPrices.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"prices/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    AutoValue_Review.diff(prefix + \"review\", before.review(), after.review(), updates);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    short rating = current == null ? 0 : current.rating();\n"
+      + "    Long count = current == null ? null : current.count();\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    Map<String, Double> prices = current == null ? null : current.prices();\n"
+      + "    Review review = current == null ? null : current.review();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"rating\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ratingValue = childUpdates.remove(\"\");\n"
+      + "            rating = ratingValue == null ? 0 : ((Number) ratingValue).shortValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"count\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object countValue = childUpdates.remove(\"\");\n"
+      + "            count = countValue == null ? null : ((Number) countValue).longValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"prices\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object pricesValue = childUpdates.remove(\"\");\n"
+      + "            prices = null;\n"
+      + "            if (pricesValue != null) {\n"
+      + "              Map<?, ?> pricesMap = (Map<?, ?>) pricesValue;\n"
+      + "              prices = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : pricesMap.entrySet()) {\n"
+      + "                prices.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).doubleValue());\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<String, Double> patched = prices == null ? new HashMap<String, Double>() : new HashMap<>(prices);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              String itemKey = item.getKey();\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              Double itemValue = rawItem == null ? null : ((Number) rawItem).doubleValue();\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            prices = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"review\":\n"
+      + "          review = AutoValue_Review.applyPatch(review, childUpdates);\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, rating, count, ingredients, prices, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void writeTo(Taco taco, DataOutput out) throws IOException {\n"
+      + "    long presence0 = 0L;\n"
+      + "    if (taco.count() != null) {\n"
+      + "      presence0 |= 1L << 0;\n"
+      + "    }\n"
+      + "    if (taco.prices() != null) {\n"
+      + "      presence0 |= 1L << 1;\n"
+      + "    }\n"
+      + "    BinaryCodec.writeUnsignedVarLong(out, presence0);\n"
+      + "    BinaryCodec.writeString(out, taco.name());\n"
+      + "    BinaryCodec.writeVarInt(out, taco.rating());\n"
+      + "    if (taco.count() != null) {\n"
+      + "      BinaryCodec.writeVarLong(out, taco.count());\n"
+      + "    }\n"
+      + "    BinaryCodec.writeSize(out, taco.ingredients().size());\n"
+      + "    for (Ingredient item : taco.ingredients()) {\n"
+      + "      out.writeBoolean(item != null);\n"
+      + "      if (item != null) {\n"
+      + "        AutoValue_Ingredient.writeTo(item, out);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    if (taco.prices() != null) {\n"
+      + "      BinaryCodec.writeSize(out, taco.prices().size());\n"
+      + "      for (Map.Entry<String, Double> entry : taco.prices().entrySet()) {\n"
+      + "        BinaryCodec.writeString(out, entry.getKey());\n"
+      + "        out.writeBoolean(entry.getValue() != null);\n"
+      + "        if (entry.getValue() != null) {\n"
+      + "          out.writeDouble(entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    AutoValue_Review.writeTo(taco.review(), out);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco readFrom(DataInput in) throws IOException {\n"
+      + "    long presence0 = BinaryCodec.readUnsignedVarLong(in);\n"
+      + "    String name = BinaryCodec.readString(in);\n"
+      + "    short rating = (short) BinaryCodec.readVarInt(in);\n"
+      + "    Long count = null;\n"
+      + "    if ((presence0 & 1L << 0) != 0) {\n"
+      + "      count = BinaryCodec.readVarLong(in);\n"
+      + "    }\n"
+      + "    int ingredientsSize = BinaryCodec.readSize(in);\n"
+      + "    List<Ingredient> ingredients = new ArrayList<>(ingredientsSize);\n"
+      + "    for (int i = 0; i < ingredientsSize; i++) {\n"
+      + "      ingredients.add(in.readBoolean() ? AutoValue_Ingredient.readFrom(in) : null);\n"
+      + "    }\n"
+      + "    Map<String, Double> prices = null;\n"
+      + "    if ((presence0 & 1L << 1) != 0) {\n"
+      + "      int pricesSize = BinaryCodec.readSize(in);\n"
+      + "      prices = new HashMap<>((int) (pricesSize / 0.75f) + 1);\n"
+      + "      for (int i = 0; i < pricesSize; i++) {\n"
+      + "        prices.put(BinaryCodec.readString(in), in.readBoolean() ? in.readDouble() : null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Review review = AutoValue_Review.readFrom(in);\n"
+      + "    return new AutoValue_Taco(name, rating, count, ingredients, prices, review);\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private short rating;\n"
+      + "    private Long count;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private Map<String, Double> prices;\n"
+      + "    private AutoValue_Review.FirebaseValue review;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      this.rating = taco.rating();\n"
+      + "      this.count = taco.count();\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.prices = taco.prices();\n"
+      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      short rating = this.rating;\n"
+      + "      Long count = this.count;\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Map<String, Double> prices = this.prices;\n"
+      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
+      + "      return new AutoValue_Taco(name, rating, count, ingredients, prices, review);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(9);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      map.put(\"rating\", this.rating);\n"
+      + "      map.put(\"count\", this.count);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "      map.put(\"prices\", this.prices);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public short getRating() {\n"
+      + "      return rating;\n"
+      + "    }\n"
+      + "    public Long getCount() {\n"
+      + "      return count;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public Map<String, Double> getPrices() {\n"
+      + "      return prices;\n"
+      + "    }\n"
+      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
+      + "      return review;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, BINARY_CODEC, nullable, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void binaryFingerprintIsConstantWithCycles() throws Exception {
+    JavaFileObject nullable = JavaFileObjects.forSourceString("test.Nullable",
+      "package test;\n"
+      + "\n"
+      + "public @interface Nullable {\n"
+      + "}\n");
+
+    JavaFileObject parent = JavaFileObjects.forSourceString("test.Parent",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Parent {\n"
+      + "  public abstract List<Child> children();\n"
+      + "}\n");
+
+    JavaFileObject child = JavaFileObjects.forSourceString("test.Child",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Child {\n"
+      + "  @Nullable public abstract Parent parent();\n"
+      + "  public abstract Node first();\n"
+      + "}\n");
+
+    JavaFileObject node = JavaFileObjects.forSourceString("test.Node",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Node {\n"
+      + "  public abstract String name();\n"
+      + "  @Nullable public abstract Node next();\n"
+      + "}\n");
+
+    // Annotation values have to be constants, which fingerprints folded in a cycle wouldn't be
+    JavaFileObject fingerprints = JavaFileObjects.forSourceString("test.Fingerprints",
+      "package test;\n"
+      + "\n"
+      + "@Fingerprints.Of({\n"
+      + "  AutoValue_Parent.BINARY_FINGERPRINT,\n"
+      + "  AutoValue_Child.BINARY_FINGERPRINT,\n"
+      + "  AutoValue_Node.BINARY_FINGERPRINT\n"
+      + "})\n"
+      + "class Fingerprints {\n"
+      + "  @interface Of {\n"
+      + "    long[] value();\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, BINARY_CODEC, nullable, parent, child, node, fingerprints))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError();
+  }
+
+  @Test
+  public void binaryFingerprintFoldsTypesFromOtherModules() throws Exception {
+    JavaFileObject taco = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract Ingredient ingredient();\n"
+      + "}\n");
+
+    JavaFileObject ingredientWithCount = JavaFileObjects.forSourceString("test.Ingredient",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Ingredient {\n"
+      + "  public abstract String name();\n"
+      + "  public abstract int count();\n"
+      + "}\n");
+
+    // Ingredient comes from class files, where its @FirebaseValue is gone
+    File ingredients = compile("", EXCLUDE, BINARY_CODEC, INGREDIENT);
+    File ingredientsWithCount = compile("", EXCLUDE, BINARY_CODEC, ingredientWithCount);
+    assertNotEquals(binaryFingerprint(ingredients, taco), binaryFingerprint(ingredientsWithCount, taco));
+  }
+
+  private long binaryFingerprint(File classpath, JavaFileObject taco) throws Exception {
+    File out = compile(classpath.getPath() + File.pathSeparator, taco);
+    ClassLoader loader = new URLClassLoader(new URL[] {out.toURI().toURL(), classpath.toURI().toURL()},
+      getClass().getClassLoader());
+    Field fingerprint = loader.loadClass("test.AutoValue_Taco").getDeclaredField("BINARY_FINGERPRINT");
+    fingerprint.setAccessible(true);
+    return fingerprint.getLong(null);
+  }
+
+  private File compile(String classpath, JavaFileObject... sources) throws Exception {
+    File out = temporaryFolder.newFolder();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavaCompiler.CompilationTask task = ToolProvider.getSystemJavaCompiler().getTask(null, null, diagnostics,
+      Arrays.asList("-d", out.getPath(), "-classpath", classpath + System.getProperty("java.class.path")), null,
+      Arrays.asList(sources));
+    task.setProcessors(Collections.singletonList(new AutoValueProcessor()));
+    assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+    return out;
+  }
+
+  @Test
+  public void intern() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.Intern;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  @Intern public abstract String category();\n"
+      + "  @Intern public abstract List<String> tags();\n"
+      + "  @Intern public abstract Map<String, Long> counts();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Long;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.StringPool;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(String name, String category, List<String> tags, Map<String, Long> counts) {\n"
+      + "    super(name, category, tags, counts);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    String category = (String) map.get(\"category\");\n"
+      + "    Object tagsValue = map.get(\"tags\");\n"
+      + "    List<String> tags = null;\n"
+      + "    if (tagsValue != null) {\n"
+      + "      List<?> tagsList = (List<?>) tagsValue;\n"
+      + "      tags = new ArrayList<>(tagsList.size());\n"
+      + "      for (Object item : tagsList) {\n"
+      + "        tags.add((String) item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object countsValue = map.get(\"counts\");\n"
+      + "    Map<String, Long> counts = null;\n"
+      + "    if (countsValue != null) {\n"
+      + "      Map<?, ?> countsMap = (Map<?, ?>) countsValue;\n"
+      + "      counts = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : countsMap.entrySet()) {\n"
+      + "        counts.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).longValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    category = StringPool.SHARED.intern(category);\n"
+      + "    tags = StringPool.SHARED.internAll(tags);\n"
+      + "    counts = StringPool.SHARED.internKeys(counts);\n"
+      + "    return new AutoValue_Taco(name, category, tags, counts);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(6);\n"
+      + "    map.put(\"name\", taco.name());\n"
+      + "    map.put(\"category\", taco.category());\n"
+      + "    map.put(\"tags\", taco.tags());\n"
+      + "    map.put(\"counts\", taco.counts());\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"category\":\n"
+      + "        return taco.category();\n"
+      + "      case \"tags\":\n"
+      + "        return taco.tags();\n"
+      + "      case \"counts\":\n"
+      + "        return taco.counts();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"category\", null);\n"
+      + "        updates.put(\"tags\", null);\n"
+      + "        updates.put(\"counts\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (!Objects.equals(before.category(), after.category())) {\n"
+      + "      updates.put(prefix + \"category\", after.category());\n"
+      + "    }\n"
+      + "    List<String> beforeTags = before.tags();\n"
+      + "    List<String> afterTags = after.tags();\n"
+      + "    if (afterTags == null) {\n"
+      + "      if (beforeTags != null) {\n"
+      + "        updates.put(prefix + \"tags\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeTags != afterTags) {\n"
+      + "      int beforeSize = beforeTags == null ? 0 : beforeTags.size();\n"
+      + "      for (int i = 0; i < afterTags.size(); i++) {\n"
+      + "        if (i >= beforeSize || !Objects.equals(beforeTags.get(i), afterTags.get(i))) {\n"
+      + "          updates.put(prefix + \"tags/\" + i, afterTags.get(i));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterTags.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"tags/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Map<String, Long> beforeCounts = before.counts();\n"
+      + "    Map<String, Long> afterCounts = after.counts();\n"
+      + "    if (afterCounts == null) {\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        updates.put(prefix + \"counts\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeCounts != afterCounts) {\n"
+      + "      for (Map.Entry<String, Long> entry : afterCounts.entrySet()) {\n"
+      + "        if (beforeCounts == null || !Objects.equals(beforeCounts.get(entry.getKey()), entry.getValue())) {\n"
+      + "          updates.put(prefix + \"counts/\" + entry.getKey(), entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        for (String key : beforeCounts.keySet()) {\n"
+      + "          if (!afterCounts.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"counts/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    String category = current == null ? null : current.category();\n"
+      + "    List<String> tags = current == null ? null : current.tags();\n"
+      + "    Map<String, Long> counts = current == null ? null : current.counts();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"category\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object categoryValue = childUpdates.remove(\"\");\n"
+      + "            category = (String) categoryValue;\n"
+      + "          }\n"
+      + "          category = StringPool.SHARED.intern(category);\n"
+      + "          break;\n"
+      + "        case \"tags\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object tagsValue = childUpdates.remove(\"\");\n"
+      + "            tags = null;\n"
+      + "            if (tagsValue != null) {\n"
+      + "              List<?> tagsList = (List<?>) tagsValue;\n"
+      + "              tags = new ArrayList<>(tagsList.size());\n"
+      + "              for (Object item : tagsList) {\n"
+      + "                tags.add((String) item);\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<String> patched = tags == null ? new ArrayList<String>() : new ArrayList<>(tags);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"tags\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched.set(index, (String) rawItem);\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            tags = patched;\n"
+      + "          }\n"
+      + "          tags = StringPool.SHARED.internAll(tags);\n"
+      + "          break;\n"
+      + "        case \"counts\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object countsValue = childUpdates.remove(\"\");\n"
+      + "            counts = null;\n"
+      + "            if (countsValue != null) {\n"
+      + "              Map<?, ?> countsMap = (Map<?, ?>) countsValue;\n"
+      + "              counts = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : countsMap.entrySet()) {\n"
+      + "                counts.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).longValue());\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<String, Long> patched = counts == null ? new HashMap<String, Long>() : new HashMap<>(counts);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              String itemKey = item.getKey();\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              Long itemValue = rawItem == null ? null : ((Number) rawItem).longValue();\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            counts = patched;\n"
+      + "          }\n"
+      + "          counts = StringPool.SHARED.internKeys(counts);\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, category, tags, counts);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private String category;\n"
+      + "    private List<String> tags;\n"
+      + "    private Map<String, Long> counts;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      this.category = taco.category();\n"
+      + "      this.tags = taco.tags();\n"
+      + "      this.counts = taco.counts();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      String category = this.category;\n"
+      + "      List<String> tags = this.tags;\n"
+      + "      Map<String, Long> counts = this.counts;\n"
+      + "      category = StringPool.SHARED.intern(category);\n"
+      + "      tags = StringPool.SHARED.internAll(tags);\n"
+      + "      counts = StringPool.SHARED.internKeys(counts);\n"
+      + "      return new AutoValue_Taco(name, category, tags, counts);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(6);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      map.put(\"category\", this.category);\n"
+      + "      map.put(\"tags\", this.tags);\n"
+      + "      map.put(\"counts\", this.counts);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public String getCategory() {\n"
+      + "      return category;\n"
+      + "    }\n"
+      + "    public List<String> getTags() {\n"
+      + "      return tags;\n"
+      + "    }\n"
+      + "    public Map<String, Long> getCounts() {\n"
+      + "      return counts;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, STRING_POOL, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void internUnsupportedType() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.Intern;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  @Intern public abstract Integer rating();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, STRING_POOL, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void internWithoutRuntime() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(intern = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void primitiveArray() throws Exception {
+    JavaFileObject nullable = JavaFileObjects.forSourceString("test.Nullable",
+      "package test;\n"
+      + "\n"
+      + "public @interface Nullable {\n"
+      + "}\n");
+
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract long[] timestamps();\n"
+      + "  public abstract int[] counts();\n"
+      + "  public abstract double[] temperatures();\n"
+      + "  @Nullable public abstract float[] weights();\n"
+      + "  public abstract boolean[] flags();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.io.DataInput;\n"
+      + "import java.io.DataOutput;\n"
+      + "import java.io.IOException;\n"
+      + "import java.lang.Boolean;\n"
+      + "import java.lang.Double;\n"
+      + "import java.lang.Float;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Long;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Arrays;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.binary.BinaryCodec;\n"
+      + "import me.mattlogan.auto.value.firebase.json.JsonReader;\n"
+      + "import me.mattlogan.auto.value.firebase.json.JsonWriter;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  static final long BINARY_FINGERPRINT = 0x7a18497bbf878a28L;\n"
+      + "\n"
+      + "  AutoValue_Taco(long[] timestamps, int[] counts, double[] temperatures, float[] weights, boolean[] flags) {\n"
+      + "    super(timestamps, counts, temperatures, weights, flags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    Object timestampsValue = map.get(\"timestamps\");\n"
+      + "    long[] timestamps = null;\n"
+      + "    if (timestampsValue != null) {\n"
+      + "      List<?> timestampsList = (List<?>) timestampsValue;\n"
+      + "      timestamps = new long[timestampsList.size()];\n"
+      + "      for (int i = 0; i < timestamps.length; i++) {\n"
+      + "        Object item = timestampsList.get(i);\n"
+      + "        timestamps[i] = item == null ? 0 : ((Number) item).longValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object countsValue = map.get(\"counts\");\n"
+      + "    int[] counts = null;\n"
+      + "    if (countsValue != null) {\n"
+      + "      List<?> countsList = (List<?>) countsValue;\n"
+      + "      counts = new int[countsList.size()];\n"
+      + "      for (int i = 0; i < counts.length; i++) {\n"
+      + "        Object item = countsList.get(i);\n"
+      + "        counts[i] = item == null ? 0 : ((Number) item).intValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object temperaturesValue = map.get(\"temperatures\");\n"
+      + "    double[] temperatures = null;\n"
+      + "    if (temperaturesValue != null) {\n"
+      + "      List<?> temperaturesList = (List<?>) temperaturesValue;\n"
+      + "      temperatures = new double[temperaturesList.size()];\n"
+      + "      for (int i = 0; i < temperatures.length; i++) {\n"
+      + "        Object item = temperaturesList.get(i);\n"
+      + "        temperatures[i] = item == null ? 0 : ((Number) item).doubleValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object weightsValue = map.get(\"weights\");\n"
+      + "    float[] weights = null;\n"
+      + "    if (weightsValue != null) {\n"
+      + "      List<?> weightsList = (List<?>) weightsValue;\n"
+      + "      weights = new float[weightsList.size()];\n"
+      + "      for (int i = 0; i < weights.length; i++) {\n"
+      + "        Object item = weightsList.get(i);\n"
+      + "        weights[i] = item == null ? 0 : ((Number) item).floatValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object flagsValue = map.get(\"flags\");\n"
+      + "    boolean[] flags = null;\n"
+      + "    if (flagsValue != null) {\n"
+      + "      List<?> flagsList = (List<?>) flagsValue;\n"
+      + "      flags = new boolean[flagsList.size()];\n"
+      + "      for (int i = 0; i < flags.length; i++) {\n"
+      + "        Object item = flagsList.get(i);\n"
+      + "        flags[i] = item != null && (Boolean) item;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(timestamps, counts, temperatures, weights, flags);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(7);\n"
+      + "    List<Object> timestampsList = null;\n"
+      + "    if (taco.timestamps() != null) {\n"
+      + "      timestampsList = new ArrayList<>(taco.timestamps().length);\n"
+      + "      for (long item : taco.timestamps()) {\n"
+      + "        timestampsList.add(item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"timestamps\", timestampsList);\n"
+      + "    List<Object> countsList = null;\n"
+      + "    if (taco.counts() != null) {\n"
+      + "      countsList = new ArrayList<>(taco.counts().length);\n"
+      + "      for (int item : taco.counts()) {\n"
+      + "        countsList.add(item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"counts\", countsList);\n"
+      + "    List<Object> temperaturesList = null;\n"
+      + "    if (taco.temperatures() != null) {\n"
+      + "      temperaturesList = new ArrayList<>(taco.temperatures().length);\n"
+      + "      for (double item : taco.temperatures()) {\n"
+      + "        temperaturesList.add(item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"temperatures\", temperaturesList);\n"
+      + "    List<Object> weightsList = null;\n"
+      + "    if (taco.weights() != null) {\n"
+      + "      weightsList = new ArrayList<>(taco.weights().length);\n"
+      + "      for (float item : taco.weights()) {\n"
+      + "        weightsList.add(item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"weights\", weightsList);\n"
+      + "    List<Object> flagsList = null;\n"
+      + "    if (taco.flags() != null) {\n"
+      + "      flagsList = new ArrayList<>(taco.flags().length);\n"
+      + "      for (boolean item : taco.flags()) {\n"
+      + "        flagsList.add(item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"flags\", flagsList);\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"timestamps\":\n"
+      + "        if (taco.timestamps() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> timestampsList = new ArrayList<>(taco.timestamps().length);\n"
+      + "        for (long item : taco.timestamps()) {\n"
+      + "          timestampsList.add(item);\n"
+      + "        }\n"
+      + "        return timestampsList;\n"
+      + "      case \"counts\":\n"
+      + "        if (taco.counts() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> countsList = new ArrayList<>(taco.counts().length);\n"
+      + "        for (int item : taco.counts()) {\n"
+      + "          countsList.add(item);\n"
+      + "        }\n"
+      + "        return countsList;\n"
+      + "      case \"temperatures\":\n"
+      + "        if (taco.temperatures() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> temperaturesList = new ArrayList<>(taco.temperatures().length);\n"
+      + "        for (double item : taco.temperatures()) {\n"
+      + "          temperaturesList.add(item);\n"
+      + "        }\n"
+      + "        return temperaturesList;\n"
+      + "      case \"weights\":\n"
+      + "        if (taco.weights() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> weightsList = new ArrayList<>(taco.weights().length);\n"
+      + "        for (float item : taco.weights()) {\n"
+      + "          weightsList.add(item);\n"
+      + "        }\n"
+      + "        return weightsList;\n"
+      + "      case \"flags\":\n"
+      + "        if (taco.flags() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> flagsList = new ArrayList<>(taco.flags().length);\n"
+      + "        for (boolean item : taco.flags()) {\n"
+      + "          flagsList.add(item);\n"
+      + "        }\n"
+      + "        return flagsList;\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"timestamps\", null);\n"
+      + "        updates.put(\"counts\", null);\n"
+      + "        updates.put(\"temperatures\", null);\n"
+      + "        updates.put(\"weights\", null);\n"
+      + "        updates.put(\"flags\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    long[] beforeTimestamps = before.timestamps();\n"
+      + "    long[] afterTimestamps = after.timestamps();\n"
+      + "    if (afterTimestamps == null) {\n"
+      + "      if (beforeTimestamps != null) {\n"
+      + "        updates.put(prefix + \"timestamps\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeTimestamps != afterTimestamps) {\n"
+      + "      int beforeSize = beforeTimestamps == null ? 0 : beforeTimestamps.length;\n"
+      + "      for (int i = 0; i < afterTimestamps.length; i++) {\n"
+      + "        if (i >= beforeSize || beforeTimestamps[i] != afterTimestamps[i]) {\n"
+      + "          updates.put(prefix + \"timestamps/\" + i, afterTimestamps[i]);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterTimestamps.length; i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"timestamps/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    int[] beforeCounts = before.counts();\n"
+      + "    int[] afterCounts = after.counts();\n"
+      + "    if (afterCounts == null) {\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        updates.put(prefix + \"counts\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeCounts != afterCounts) {\n"
+      + "      int beforeSize = beforeCounts == null ? 0 : beforeCounts.length;\n"
+      + "      for (int i = 0; i < afterCounts.length; i++) {\n"
+      + "        if (i >= beforeSize || beforeCounts[i] != afterCounts[i]) {\n"
+      + "          updates.put(prefix + \"counts/\" + i, afterCounts[i]);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterCounts.length; i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"counts/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    double[] beforeTemperatures = before.temperatures();\n"
+      + "    double[] afterTemperatures = after.temperatures();\n"
+      + "    if (afterTemperatures == null) {\n"
+      + "      if (beforeTemperatures != null) {\n"
+      + "        updates.put(prefix + \"temperatures\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeTemperatures != afterTemperatures) {\n"
+      + "      int beforeSize = beforeTemperatures == null ? 0 : beforeTemperatures.length;\n"
+      + "      for (int i = 0; i < afterTemperatures.length; i++) {\n"
+      + "        if (i >= beforeSize || Double.compare(beforeTemperatures[i], afterTemperatures[i]) != 0) {\n"
+      + "          updates.put(prefix + \"temperatures/\" + i, afterTemperatures[i]);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterTemperatures.length; i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"temperatures/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    float[] beforeWeights = before.weights();\n"
+      + "    float[] afterWeights = after.weights();\n"
+      + "    if (afterWeights == null) {\n"
+      + "      if (beforeWeights != null) {\n"
+      + "        updates.put(prefix + \"weights\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeWeights != afterWeights) {\n"
+      + "      int beforeSize = beforeWeights == null ? 0 : beforeWeights.length;\n"
+      + "      for (int i = 0; i < afterWeights.length; i++) {\n"
+      + "        if (i >= beforeSize || Float.compare(beforeWeights[i], afterWeights[i]) != 0) {\n"
+      + "          updates.put(prefix + \"weights/\" + i, afterWeights[i]);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterWeights.length; i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"weights/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    boolean[] beforeFlags = before.flags();\n"
+      + "    boolean[] afterFlags = after.flags();\n"
+      + "    if (afterFlags == null) {\n"
+      + "      if (beforeFlags != null) {\n"
+      + "        updates.put(prefix + \"flags\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeFlags != afterFlags) {\n"
+      + "      int beforeSize = beforeFlags == null ? 0 : beforeFlags.length;\n"
+      + "      for (int i = 0; i < afterFlags.length; i++) {\n"
+      + "        if (i >= beforeSize || beforeFlags[i] != afterFlags[i]) {\n"
+      + "          updates.put(prefix + \"flags/\" + i, afterFlags[i]);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterFlags.length; i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"flags/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    long[] timestamps = current == null ? null : current.timestamps();\n"
+      + "    int[] counts = current == null ? null : current.counts();\n"
+      + "    double[] temperatures = current == null ? null : current.temperatures();\n"
+      + "    float[] weights = current == null ? null : current.weights();\n"
+      + "    boolean[] flags = current == null ? null : current.flags();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"timestamps\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object timestampsValue = childUpdates.remove(\"\");\n"
+      + "            timestamps = null;\n"
+      + "            if (timestampsValue != null) {\n"
+      + "              List<?> timestampsList = (List<?>) timestampsValue;\n"
+      + "              timestamps = new long[timestampsList.size()];\n"
+      + "              for (int i = 0; i < timestamps.length; i++) {\n"
+      + "                Object item = timestampsList.get(i);\n"
+      + "                timestamps[i] = item == null ? 0 : ((Number) item).longValue();\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            long[] patched = timestamps == null ? new long[0] : timestamps.clone();\n"
+      + "            boolean[] removed = new boolean[patched.length];\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.length + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"timestamps\", item.getKey(), indexLimit);\n"
+      + "              if (index >= patched.length) {\n"
+      + "                patched = Arrays.copyOf(patched, index + 1);\n"
+      + "                removed = Arrays.copyOf(removed, index + 1);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched[index] = rawItem == null ? 0 : ((Number) rawItem).longValue();\n"
+      + "              removed[index] = rawItem == null;\n"
+      + "            }\n"
+      + "            int length = patched.length;\n"
+      + "            while (length > 0 && removed[length - 1]) {\n"
+      + "              length--;\n"
+      + "            }\n"
+      + "            timestamps = length == patched.length ? patched : Arrays.copyOf(patched, length);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"counts\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object countsValue = childUpdates.remove(\"\");\n"
+      + "            counts = null;\n"
+      + "            if (countsValue != null) {\n"
+      + "              List<?> countsList = (List<?>) countsValue;\n"
+      + "              counts = new int[countsList.size()];\n"
+      + "              for (int i = 0; i < counts.length; i++) {\n"
+      + "                Object item = countsList.get(i);\n"
+      + "                counts[i] = item == null ? 0 : ((Number) item).intValue();\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            int[] patched = counts == null ? new int[0] : counts.clone();\n"
+      + "            boolean[] removed = new boolean[patched.length];\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.length + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"counts\", item.getKey(), indexLimit);\n"
+      + "              if (index >= patched.length) {\n"
+      + "                patched = Arrays.copyOf(patched, index + 1);\n"
+      + "                removed = Arrays.copyOf(removed, index + 1);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched[index] = rawItem == null ? 0 : ((Number) rawItem).intValue();\n"
+      + "              removed[index] = rawItem == null;\n"
+      + "            }\n"
+      + "            int length = patched.length;\n"
+      + "            while (length > 0 && removed[length - 1]) {\n"
+      + "              length--;\n"
+      + "            }\n"
+      + "            counts = length == patched.length ? patched : Arrays.copyOf(patched, length);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"temperatures\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object temperaturesValue = childUpdates.remove(\"\");\n"
+      + "            temperatures = null;\n"
+      + "            if (temperaturesValue != null) {\n"
+      + "              List<?> temperaturesList = (List<?>) temperaturesValue;\n"
+      + "              temperatures = new double[temperaturesList.size()];\n"
+      + "              for (int i = 0; i < temperatures.length; i++) {\n"
+      + "                Object item = temperaturesList.get(i);\n"
+      + "                temperatures[i] = item == null ? 0 : ((Number) item).doubleValue();\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            double[] patched = temperatures == null ? new double[0] : temperatures.clone();\n"
+      + "            boolean[] removed = new boolean[patched.length];\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.length + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"temperatures\", item.getKey(), indexLimit);\n"
+      + "              if (index >= patched.length) {\n"
+      + "                patched = Arrays.copyOf(patched, index + 1);\n"
+      + "                removed = Arrays.copyOf(removed, index + 1);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched[index] = rawItem == null ? 0 : ((Number) rawItem).doubleValue();\n"
+      + "              removed[index] = rawItem == null;\n"
+      + "            }\n"
+      + "            int length = patched.length;\n"
+      + "            while (length > 0 && removed[length - 1]) {\n"
+      + "              length--;\n"
+      + "            }\n"
+      + "            temperatures = length == patched.length ? patched : Arrays.copyOf(patched, length);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"weights\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object weightsValue = childUpdates.remove(\"\");\n"
+      + "            weights = null;\n"
+      + "            if (weightsValue != null) {\n"
+      + "              List<?> weightsList = (List<?>) weightsValue;\n"
+      + "              weights = new float[weightsList.size()];\n"
+      + "              for (int i = 0; i < weights.length; i++) {\n"
+      + "                Object item = weightsList.get(i);\n"
+      + "                weights[i] = item == null ? 0 : ((Number) item).floatValue();\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            float[] patched = weights == null ? new float[0] : weights.clone();\n"
+      + "            boolean[] removed = new boolean[patched.length];\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.length + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"weights\", item.getKey(), indexLimit);\n"
+      + "              if (index >= patched.length) {\n"
+      + "                patched = Arrays.copyOf(patched, index + 1);\n"
+      + "                removed = Arrays.copyOf(removed, index + 1);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched[index] = rawItem == null ? 0 : ((Number) rawItem).floatValue();\n"
+      + "              removed[index] = rawItem == null;\n"
+      + "            }\n"
+      + "            int length = patched.length;\n"
+      + "            while (length > 0 && removed[length - 1]) {\n"
+      + "              length--;\n"
+      + "            }\n"
+      + "            weights = length == patched.length ? patched : Arrays.copyOf(patched, length);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"flags\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object flagsValue = childUpdates.remove(\"\");\n"
+      + "            flags = null;\n"
+      + "            if (flagsValue != null) {\n"
+      + "              List<?> flagsList = (List<?>) flagsValue;\n"
+      + "              flags = new boolean[flagsList.size()];\n"
+      + "              for (int i = 0; i < flags.length; i++) {\n"
+      + "                Object item = flagsList.get(i);\n"
+      + "                flags[i] = item != null && (Boolean) item;\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            boolean[] patched = flags == null ? new boolean[0] : flags.clone();\n"
+      + "            boolean[] removed = new boolean[patched.length];\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.length + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"flags\", item.getKey(), indexLimit);\n"
+      + "              if (index >= patched.length) {\n"
+      + "                patched = Arrays.copyOf(patched, index + 1);\n"
+      + "                removed = Arrays.copyOf(removed, index + 1);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched[index] = rawItem != null && (Boolean) rawItem;\n"
+      + "              removed[index] = rawItem == null;\n"
+      + "            }\n"
+      + "            int length = patched.length;\n"
+      + "            while (length > 0 && removed[length - 1]) {\n"
+      + "              length--;\n"
+      + "            }\n"
+      + "            flags = length == patched.length ? patched : Arrays.copyOf(patched, length);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(timestamps, counts, temperatures, weights, flags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco readJson(JsonReader reader) throws IOException {\n"
+      + "    if (reader.skipNull()) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    long[] timestamps = null;\n"
+      + "    int[] counts = null;\n"
+      + "    double[] temperatures = null;\n"
+      + "    float[] weights = null;\n"
+      + "    boolean[] flags = null;\n"
+      + "    reader.beginObject();\n"
+      + "    while (reader.hasNext()) {\n"
+      + "      switch (reader.nextName()) {\n"
+      + "        case \"timestamps\":\n"
+      + "          if (!reader.skipNull()) {\n"
+      + "            long[] timestampsBuffer = new long[16];\n"
+      + "            int timestampsSize = 0;\n"
+      + "            reader.beginArray();\n"
+      + "            while (reader.hasNext()) {\n"
+      + "              if (timestampsSize == timestampsBuffer.length) {\n"
+      + "                timestampsBuffer = Arrays.copyOf(timestampsBuffer, timestampsSize * 2);\n"
+      + "              }\n"
+      + "              timestampsBuffer[timestampsSize++] = reader.skipNull() ? 0 : reader.nextLong();\n"
+      + "            }\n"
+      + "            reader.endArray();\n"
+      + "            timestamps = Arrays.copyOf(timestampsBuffer, timestampsSize);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"counts\":\n"
+      + "          if (!reader.skipNull()) {\n"
+      + "            int[] countsBuffer = new int[16];\n"
+      + "            int countsSize = 0;\n"
+      + "            reader.beginArray();\n"
+      + "            while (reader.hasNext()) {\n"
+      + "              if (countsSize == countsBuffer.length) {\n"
+      + "                countsBuffer = Arrays.copyOf(countsBuffer, countsSize * 2);\n"
+      + "              }\n"
+      + "              countsBuffer[countsSize++] = reader.skipNull() ? 0 : reader.nextInt();\n"
+      + "            }\n"
+      + "            reader.endArray();\n"
+      + "            counts = Arrays.copyOf(countsBuffer, countsSize);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"temperatures\":\n"
+      + "          if (!reader.skipNull()) {\n"
+      + "            double[] temperaturesBuffer = new double[16];\n"
+      + "            int temperaturesSize = 0;\n"
+      + "            reader.beginArray();\n"
+      + "            while (reader.hasNext()) {\n"
+      + "              if (temperaturesSize == temperaturesBuffer.length) {\n"
+      + "                temperaturesBuffer = Arrays.copyOf(temperaturesBuffer, temperaturesSize * 2);\n"
+      + "              }\n"
+      + "              temperaturesBuffer[temperaturesSize++] = reader.skipNull() ? 0 : reader.nextDouble();\n"
+      + "            }\n"
+      + "            reader.endArray();\n"
+      + "            temperatures = Arrays.copyOf(temperaturesBuffer, temperaturesSize);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"weights\":\n"
+      + "          if (!reader.skipNull()) {\n"
+      + "            float[] weightsBuffer = new float[16];\n"
+      + "            int weightsSize = 0;\n"
+      + "            reader.beginArray();\n"
+      + "            while (reader.hasNext()) {\n"
+      + "              if (weightsSize == weightsBuffer.length) {\n"
+      + "                weightsBuffer = Arrays.copyOf(weightsBuffer, weightsSize * 2);\n"
+      + "              }\n"
+      + "              weightsBuffer[weightsSize++] = reader.skipNull() ? 0 : (float) reader.nextDouble();\n"
+      + "            }\n"
+      + "            reader.endArray();\n"
+      + "            weights = Arrays.copyOf(weightsBuffer, weightsSize);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"flags\":\n"
+      + "          if (!reader.skipNull()) {\n"
+      + "            boolean[] flagsBuffer = new boolean[16];\n"
+      + "            int flagsSize = 0;\n"
+      + "            reader.beginArray();\n"
+      + "            while (reader.hasNext()) {\n"
+      + "              if (flagsSize == flagsBuffer.length) {\n"
+      + "                flagsBuffer = Arrays.copyOf(flagsBuffer, flagsSize * 2);\n"
+      + "              }\n"
+      + "              flagsBuffer[flagsSize++] = reader.skipNull() ? false : reader.nextBoolean();\n"
+      + "            }\n"
+      + "            reader.endArray();\n"
+      + "            flags = Arrays.copyOf(flagsBuffer, flagsSize);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        default:\n"
+      + "          reader.skipValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    reader.endObject();\n"
+      + "    return new AutoValue_Taco(timestamps, counts, temperatures, weights, flags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static void writeJson(Taco taco, JsonWriter writer) throws IOException {\n"
+      + "    if (taco == null) {\n"
+      + "      writer.nullValue();\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    writer.beginObject();\n"
+      + "    writer.name(\"timestamps\");\n"
+      + "    if (taco.timestamps() == null) {\n"
+      + "      writer.nullValue();\n"
+      + "    } else {\n"
+      + "      writer.beginArray();\n"
+      + "      for (long item : taco.timestamps()) {\n"
+      + "        writer.value(item);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    writer.name(\"counts\");\n"
+      + "    if (taco.counts() == null) {\n"
+      + "      writer.nullValue();\n"
+      + "    } else {\n"
+      + "      writer.beginArray();\n"
+      + "      for (int item : taco.counts()) {\n"
+      + "        writer.value(item);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    writer.name(\"temperatures\");\n"
+      + "    if (taco.temperatures() == null) {\n"
+      + "      writer.nullValue();\n"
+      + "    } else {\n"
+      + "      writer.beginArray();\n"
+      + "      for (double item : taco.temperatures()) {\n"
+      + "        writer.value(item);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    writer.name(\"weights\");\n"
+      + "    if (taco.weights() == null) {\n"
+      + "      writer.nullValue();\n"
+      + "    } else {\n"
+      + "      writer.beginArray();\n"
+      + "      for (float item : taco.weights()) {\n"
+      + "        writer.value(item);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    writer.name(\"flags\");\n"
+      + "    if (taco.flags() == null) {\n"
+      + "      writer.nullValue();\n"
+      + "    } else {\n"
+      + "      writer.beginArray();\n"
+      + "      for (boolean item : taco.flags()) {\n"
+      + "        writer.value(item);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    writer.endObject();\n"
+      + "  }\n"
+      + "\n"
+      + "  static void writeTo(Taco taco, DataOutput out) throws IOException {\n"
+      + "    long presence0 = 0L;\n"
+      + "    if (taco.weights() != null) {\n"
+      + "      presence0 |= 1L << 0;\n"
+      + "    }\n"
+      + "    BinaryCodec.writeUnsignedVarLong(out, presence0);\n"
+      + "    BinaryCodec.writeSize(out, taco.timestamps().length);\n"
+      + "    for (long item : taco.timestamps()) {\n"
+      + "      BinaryCodec.writeVarLong(out, item);\n"
+      + "    }\n"
+      + "    BinaryCodec.writeSize(out, taco.counts().length);\n"
+      + "    for (int item : taco.counts()) {\n"
+      + "      BinaryCodec.writeVarInt(out, item);\n"
+      + "    }\n"
+      + "    BinaryCodec.writeSize(out, taco.temperatures().length);\n"
+      + "    for (double item : taco.temperatures()) {\n"
+      + "      out.writeDouble(item);\n"
+      + "    }\n"
+      + "    if (taco.weights() != null) {\n"
+      + "      BinaryCodec.writeSize(out, taco.weights().length);\n"
+      + "      for (float item : taco.weights()) {\n"
+      + "        out.writeFloat(item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    BinaryCodec.writeSize(out, taco.flags().length);\n"
+      + "    for (boolean item : taco.flags()) {\n"
+      + "      out.writeBoolean(item);\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco readFrom(DataInput in) throws IOException {\n"
+      + "    long presence0 = BinaryCodec.readUnsignedVarLong(in);\n"
+      + "    long[] timestamps = new long[BinaryCodec.readSize(in)];\n"
+      + "    for (int i = 0; i < timestamps.length; i++) {\n"
+      + "      timestamps[i] = BinaryCodec.readVarLong(in);\n"
+      + "    }\n"
+      + "    int[] counts = new int[BinaryCodec.readSize(in)];\n"
+      + "    for (int i = 0; i < counts.length; i++) {\n"
+      + "      counts[i] = BinaryCodec.readVarInt(in);\n"
+      + "    }\n"
+      + "    double[] temperatures = new double[BinaryCodec.readSize(in)];\n"
+      + "    for (int i = 0; i < temperatures.length; i++) {\n"
+      + "      temperatures[i] = in.readDouble();\n"
+      + "    }\n"
+      + "    float[] weights = null;\n"
+      + "    if ((presence0 & 1L << 0) != 0) {\n"
+      + "      weights = new float[BinaryCodec.readSize(in)];\n"
+      + "      for (int i = 0; i < weights.length; i++) {\n"
+      + "        weights[i] = in.readFloat();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    boolean[] flags = new boolean[BinaryCodec.readSize(in)];\n"
+      + "    for (int i = 0; i < flags.length; i++) {\n"
+      + "      flags[i] = in.readBoolean();\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(timestamps, counts, temperatures, weights, flags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private List<Long> timestamps;\n"
+      + "    private List<Long> counts;\n"
+      + "    private List<Double> temperatures;\n"
+      + "    private List<Double> weights;\n"
+      + "    private List<Boolean> flags;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      if (taco.timestamps() != null) {\n"
+      + "        this.timestamps = new ArrayList<>(taco.timestamps().length);\n"
+      + "        for (long item : taco.timestamps()) {\n"
+      + "          this.timestamps.add(item);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.counts() != null) {\n"
+      + "        this.counts = new ArrayList<>(taco.counts().length);\n"
+      + "        for (int item : taco.counts()) {\n"
+      + "          this.counts.add((long) item);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.temperatures() != null) {\n"
+      + "        this.temperatures = new ArrayList<>(taco.temperatures().length);\n"
+      + "        for (double item : taco.temperatures()) {\n"
+      + "          this.temperatures.add(item);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.weights() != null) {\n"
+      + "        this.weights = new ArrayList<>(taco.weights().length);\n"
+      + "        for (float item : taco.weights()) {\n"
+      + "          this.weights.add((double) item);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.flags() != null) {\n"
+      + "        this.flags = new ArrayList<>(taco.flags().length);\n"
+      + "        for (boolean item : taco.flags()) {\n"
+      + "          this.flags.add(item);\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      long[] timestamps = null;\n"
+      + "      if (this.timestamps != null) {\n"
+      + "        timestamps = new long[this.timestamps.size()];\n"
+      + "        for (int i = 0; i < timestamps.length; i++) {\n"
+      + "          Long item = this.timestamps.get(i);\n"
+      + "          timestamps[i] = item == null ? 0 : item.longValue();\n"
+      + "        }\n"
+      + "      }\n"
+      + "      int[] counts = null;\n"
+      + "      if (this.counts != null) {\n"
+      + "        counts = new int[this.counts.size()];\n"
+      + "        for (int i = 0; i < counts.length; i++) {\n"
+      + "          Long item = this.counts.get(i);\n"
+      + "          counts[i] = item == null ? 0 : item.intValue();\n"
+      + "        }\n"
+      + "      }\n"
+      + "      double[] temperatures = null;\n"
+      + "      if (this.temperatures != null) {\n"
+      + "        temperatures = new double[this.temperatures.size()];\n"
+      + "        for (int i = 0; i < temperatures.length; i++) {\n"
+      + "          Double item = this.temperatures.get(i);\n"
+      + "          temperatures[i] = item == null ? 0 : item.doubleValue();\n"
+      + "        }\n"
+      + "      }\n"
+      + "      float[] weights = null;\n"
+      + "      if (this.weights != null) {\n"
+      + "        weights = new float[this.weights.size()];\n"
+      + "        for (int i = 0; i < weights.length; i++) {\n"
+      + "          Double item = this.weights.get(i);\n"
+      + "          weights[i] = item == null ? 0 : item.floatValue();\n"
+      + "        }\n"
+      + "      }\n"
+      + "      boolean[] flags = null;\n"
+      + "      if (this.flags != null) {\n"
+      + "        flags = new boolean[this.flags.size()];\n"
+      + "        for (int i = 0; i < flags.length; i++) {\n"
+      + "          Boolean item = this.flags.get(i);\n"
+      + "          flags[i] = item != null && item;\n"
+      + "        }\n"
+      + "      }\n"
+      + "      return new AutoValue_Taco(timestamps, counts, temperatures, weights, flags);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(7);\n"
+      + "      map.put(\"timestamps\", this.timestamps);\n"
+      + "      map.put(\"counts\", this.counts);\n"
+      + "      map.put(\"temperatures\", this.temperatures);\n"
+      + "      map.put(\"weights\", this.weights);\n"
+      + "      map.put(\"flags\", this.flags);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public List<Long> getTimestamps() {\n"
+      + "      return timestamps;\n"
+      + "    }\n"
+      + "    public List<Long> getCounts() {\n"
+      + "      return counts;\n"
+      + "    }\n"
+      + "    public List<Double> getTemperatures() {\n"
+      + "      return temperatures;\n"
+      + "    }\n"
+      + "    public List<Double> getWeights() {\n"
+      + "      return weights;\n"
+      + "    }\n"
+      + "    public List<Boolean> getFlags() {\n"
+      + "      return flags;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, JSON_READER, JSON_WRITER, BINARY_CODEC, nullable, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void unsupportedArray() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String[] ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void listOfArrays() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<long[]> samples();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void canonicalize() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(canonicalize = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.Canonicalizer;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  static final Canonicalizer<AutoValue_Taco> CANONICALIZER = new Canonicalizer<>();\n"
+      + "\n"
+      + "  AutoValue_Taco(String name, List<Ingredient> ingredients) {\n"
+      + "    super(name, ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return CANONICALIZER.canonicalize(new AutoValue_Taco(name, ingredients));\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(3);\n"
+      + "    map.put(\"name\", taco.name());\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return CANONICALIZER.canonicalize(new AutoValue_Taco(name, ingredients));\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      return CANONICALIZER.canonicalize(new AutoValue_Taco(name, ingredients));\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(3);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, CANONICALIZER, INGREDIENT, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void canonicalizeWithoutRuntime() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(canonicalize = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void canonicalizeLazyCollections() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(canonicalize = true, lazyCollections = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, CANONICALIZER, INGREDIENT, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void typeAdapterEnumDuplicateAdapter() throws Exception {
+    JavaFileObject typeAdapterSource = JavaFileObjects.forSourceLines("test.StatusAdapter",
+      "package test;\n" +
+        "\n" +
+        "import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;\n" +
+        "import test.Taco.Status;\n" +
+        "\n" +
+        "public class StatusAdapter implements TypeAdapter<Status, String> {\n" +
+        "  @Override\n" +
+        "  public Status fromFirebaseValue(String value) {\n" +
+        "    if(\"cooked\".equals(value)){\n" +
+        "      return Status.COOKED;\n" +
+        "    }\n" +
+        "    else if(\"uncooked\".equals(value)){\n" +
+        "      return Status.UNCOOKED;\n" +
+        "    }\n" +
+        "    else {\n" +
+        "      throw new IllegalStateException(\"unsupported\");\n" +
+        "    }\n" +
+        "  }\n" +
+        "\n" +
+        "  @Override\n" +
+        "  public String toFirebaseValue(Status value) {\n" +
+        "    switch (value){\n" +
+        "      case COOKED:\n" +
+        "        return \"cooked\";\n" +
+        "      case UNCOOKED:\n" +
+        "        return \"uncooked\";\n" +
+        "      default:\n" +
+        "        throw new IllegalStateException(\"unsupported\");\n" +
+        "    }\n" +
+        "  }\n" +
+        "}");
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+        + "\n"
+        + "import com.google.auto.value.AutoValue;\n"
+        + "import java.util.ArrayList;\n"
+        + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+        + "import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;\n"
+        + "\n"
+        + "@AutoValue @FirebaseValue\n"
+        + "public abstract class Taco {\n"
+        + "  enum Status { UNCOOKED, COOKED }; "
+        + "  @FirebaseAdapter(StatusAdapter.class) abstract Status status();"
+        + "  @FirebaseAdapter(StatusAdapter.class) abstract Status secondaryStatus();"
+        + "}\n");
+
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceString("test.AutoValue_Taco",
+      "package test;\n" +
+        "\n" +
+        "import com.google.firebase.database.Exclude;\n" +
+        "import java.lang.Object;\n" +
+        "import java.lang.String;\n" +
+        "import java.lang.SuppressWarnings;" +
+        "import java.util.HashMap;\n" +
+        "import java.util.Map;\n" +
+        "import java.util.Objects;\n" +
+        "final class AutoValue_Taco extends $AutoValue_Taco {\n" +
+        "\n" +
+        "  AutoValue_TestTaco(Taco.Status status, Taco.Status secondaryStatus) {\n" +
+        "    super(status, secondaryStatus);\n" +
+        "  }\n" +
+        "\n" +
+        "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n" +
+        "    StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    Object statusValue = map.get(\"status\");\n" +
+        "    Taco.Status status = statusValue == null ? null : statusAdapter.fromFirebaseValue((String) statusValue);\n" +
+        "    Object secondaryStatusValue = map.get(\"secondaryStatus\");\n" +
+        "    Taco.Status secondaryStatus = secondaryStatusValue == null ? null : statusAdapter.fromFirebaseValue((String) secondaryStatusValue);\n" +
+        "    return new AutoValue_Taco(status, secondaryStatus);\n" +
+        "  }\n" +
+        "\n" +
+        "  @SuppressWarnings(\"unchecked\")\n" +
+        "  static AutoValue_Taco fromValue(Object value) {\n" +
+        "    return value == null ? null : fromMap((Map<String, Object>) value);\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Object> toMap(Taco taco) {\n" +
+        "    if (taco == null) {\n" +
+        "      return null;\n" +
+        "    }\n" +
+        "    StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    HashMap<String, Object> map = new HashMap<>(3);\n" +
+        "    map.put(\"status\", taco.status() == null ? null : statusAdapter.toFirebaseValue(taco.status()));\n" +
+        "    map.put(\"secondaryStatus\", taco.secondaryStatus() == null ? null : statusAdapter.toFirebaseValue(taco.secondaryStatus()));\n" +
+        "    return map;\n" +
+        "  }\n" +
+        "\n" +
+        "  static Object get(Taco taco, String firebaseKey) {\n" +
+        "    if (taco == null || firebaseKey == null) {\n" +
+        "      return null;\n" +
+        "    }\n" +
+        "    switch (firebaseKey) {\n" +
+        "      case \"status\":\n" +
+        "        return taco.status() == null ? null : new StatusAdapter().toFirebaseValue(taco.status());\n" +
+        "      case \"secondaryStatus\":\n" +
+        "        return taco.secondaryStatus() == null ? null : new StatusAdapter().toFirebaseValue(taco.secondaryStatus());\n" +
+        "      default:\n" +
+        "        return null;\n" +
+        "    }\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Object> diff(Taco before, Taco after) {\n" +
+        "    Map<String, Object> updates = new HashMap<>();\n" +
+        "    if (after == null) {\n" +
+        "      if (before != null) {\n" +
+        "        updates.put(\"status\", null);\n" +
+        "        updates.put(\"secondaryStatus\", null);\n" +
+        "      }\n" +
+        "    } else if (before == null) {\n" +
+        "      updates.putAll(toMap(after));\n" +
+        "    } else {\n" +
+        "      diff(\"\", before, after, updates);\n" +
+        "    }\n" +
+        "    return updates;\n" +
+        "  }\n" +
+        "\n" +
+        "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n" +
+        "    if (before == after) {\n" +
+        "      return;\n" +
+        "    }\n" +
+        "    if (before == null || after == null) {\n" +
+        "      updates.put(path, toMap(after));\n" +
+        "      return;\n" +
+        "    }\n" +
+        "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n" +
+        "    StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    if (!Objects.equals(before.status(), after.status())) {\n" +
+        "      updates.put(prefix + \"status\", after.status() == null ? null : statusAdapter.toFirebaseValue(after.status()));\n" +
+        "    }\n" +
+        "    if (!Objects.equals(before.secondaryStatus(), after.secondaryStatus())) {\n" +
+        "      updates.put(prefix + \"secondaryStatus\", after.secondaryStatus() == null ? null : statusAdapter.toFirebaseValue(after.secondaryStatus()));\n" +
+        "    }\n" +
+        "  }\n" +
+        "\n" +
+        "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n" +
+        "    if (updates.isEmpty()) {\n" +
+        "      return current;\n" +
+        "    }\n" +
+        "    if (updates.containsKey(\"\")) {\n" +
+        "      current = fromValue(updates.get(\"\"));\n" +
+        "      if (updates.size() == 1) {\n" +
+        "        return current;\n" +
+        "      }\n" +
+        "    }\n" +
+        "    StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    Taco.Status status = current == null ? null : current.status();\n" +
+        "    Taco.Status secondaryStatus = current == null ? null : current.secondaryStatus();\n" +
+        "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n" +
+        "      Map<String, Object> childUpdates = child.getValue();\n" +
+        "      switch (child.getKey()) {\n" +
+        "        case \"status\":\n" +
+        "          if (childUpdates.containsKey(\"\")) {\n" +
+        "            Object statusValue = childUpdates.remove(\"\");\n" +
+        "            status = statusValue == null ? null : statusAdapter.fromFirebaseValue((String) statusValue);\n" +
+        "          }\n" +
+        "          break;\n" +
+        "        case \"secondaryStatus\":\n" +
+        "          if (childUpdates.containsKey(\"\")) {\n" +
+        "            Object secondaryStatusValue = childUpdates.remove(\"\");\n" +
+        "            secondaryStatus = secondaryStatusValue == null ? null : statusAdapter.fromFirebaseValue((String) secondaryStatusValue);\n" +
+        "          }\n" +
+        "          break;\n" +
+        "      }\n" +
+        "    }\n" +
+        "    return new AutoValue_Taco(status, secondaryStatus);\n" +
+        "  }\n" +
+        "\n" +
+        "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n" +
+        "    Map<String, Map<String, Object>> children = new HashMap<>();\n" +
+        "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n" +
+        "      String path = update.getKey();\n" +
+        "      if (path.isEmpty()) {\n" +
+        "        continue;\n" +
+        "      }\n" +
+        "      int slash = path.indexOf('/');\n" +
+        "      String child = slash < 0 ? path : path.substring(0, slash);\n" +
+        "      Map<String, Object> childUpdates = children.get(child);\n" +
+        "      if (childUpdates == null) {\n" +
+        "        childUpdates = new HashMap<>();\n" +
+        "        children.put(child, childUpdates);\n" +
+        "      }\n" +
+        "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n" +
+        "    }\n" +
+        "    return children;\n" +
+        "  }\n" +
+        "\n" +
+        "  static final class FirebaseValue {\n" +
+        "    private String status;\n" +
+        "    private String secondaryStatus;\n"+
+        "    private final StatusAdapter statusAdapter = new StatusAdapter();\n" +
+        "    @SuppressWarnings(\"unused\")\n" +
+        "    FirebaseValue() {\n" +
+        "    }\n" +
+        "    FirebaseValue(Taco taco) {\n" +
+        "      this.status = taco.status() == null ? null : statusAdapter.toFirebaseValue(taco.status());\n" +
+        "      this.secondaryStatus = taco.secondaryStatus() == null ? null: statusAdapter.toFirebaseValue(taco.secondaryStatus());\n"+
+        "    }\n" +
+        "    @Exclude\n" +
+        "    AutoValue_Taco toAutoValue() {\n" +
+        "      Taco.Status status = this.status == null ? null : statusAdapter.fromFirebaseValue(this.status);\n" +
+        "      Taco.Status secondaryStatus = this.secondaryStatus == null ? null : statusAdapter.fromFirebaseValue(this.secondaryStatus);\n" +
+        "      return new AutoValue_Taco(status, secondaryStatus);\n" +
+        "    }\n" +
+        "    @Exclude\n" +
+        "    Map<String, Object> toMap() {\n" +
+        "      HashMap<String, Object> map = new HashMap<>(3);\n" +
+        "      map.put(\"status\", this.status);\n" +
+        "      map.put(\"secondaryStatus\", this.secondaryStatus);\n" +
+        "      return map;\n" +
+        "    }\n" +
+        "    public String getStatus() {\n" +
+        "      return status;\n" +
+        "    }\n" +
+        "    public String getSecondaryStatus() {\n" +
+        "      return secondaryStatus;\n" +
+        "    }\n" +
+        "  }\n" +
+        "}");
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, typeAdapterSource, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expectedOutput);
+  }
+
+  @Test
+  public void metrics() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract List<String> tags();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.lang.System;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.FirebaseValueMetrics;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(String name, List<Ingredient> ingredients, List<String> tags) {\n"
+      + "    super(name, ingredients, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    FirebaseValueMetrics metrics = FirebaseValueMetrics.registered();\n"
+      + "    long metricsStart = metrics == null ? 0L : System.nanoTime();\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object tagsValue = map.get(\"tags\");\n"
+      + "    List<String> tags = null;\n"
+      + "    if (tagsValue != null) {\n"
+      + "      List<?> tagsList = (List<?>) tagsValue;\n"
+      + "      tags = new ArrayList<>(tagsList.size());\n"
+      + "      for (Object item : tagsList) {\n"
+      + "        tags.add((String) item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    AutoValue_Taco autoValue = new AutoValue_Taco(name, ingredients, tags);\n"
+      + "    if (metrics != null) {\n"
+      + "      metrics.record(Taco.class, FirebaseValueMetrics.Operation.FROM_MAP, (ingredients == null ? 0 : ingredients.size()) + (tags == null ? 0 : tags.size()), System.nanoTime() - metricsStart);\n"
+      + "    }\n"
+      + "    return autoValue;\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    FirebaseValueMetrics metrics = FirebaseValueMetrics.registered();\n"
+      + "    long metricsStart = metrics == null ? 0L : System.nanoTime();\n"
+      + "    HashMap<String, Object> map = new HashMap<>(5);\n"
+      + "    map.put(\"name\", taco.name());\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    map.put(\"tags\", taco.tags());\n"
+      + "    if (metrics != null) {\n"
+      + "      metrics.record(Taco.class, FirebaseValueMetrics.Operation.STATIC_TO_MAP, (taco.ingredients() == null ? 0 : taco.ingredients().size()) + (taco.tags() == null ? 0 : taco.tags().size()), System.nanoTime() - metricsStart);\n"
+      + "    }\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      case \"tags\":\n"
+      + "        return taco.tags();\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "        updates.put(\"tags\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    List<String> beforeTags = before.tags();\n"
+      + "    List<String> afterTags = after.tags();\n"
+      + "    if (afterTags == null) {\n"
+      + "      if (beforeTags != null) {\n"
+      + "        updates.put(prefix + \"tags\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeTags != afterTags) {\n"
+      + "      int beforeSize = beforeTags == null ? 0 : beforeTags.size();\n"
+      + "      for (int i = 0; i < afterTags.size(); i++) {\n"
+      + "        if (i >= beforeSize || !Objects.equals(beforeTags.get(i), afterTags.get(i))) {\n"
+      + "          updates.put(prefix + \"tags/\" + i, afterTags.get(i));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterTags.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"tags/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    List<String> tags = current == null ? null : current.tags();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"tags\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object tagsValue = childUpdates.remove(\"\");\n"
+      + "            tags = null;\n"
+      + "            if (tagsValue != null) {\n"
+      + "              List<?> tagsList = (List<?>) tagsValue;\n"
+      + "              tags = new ArrayList<>(tagsList.size());\n"
+      + "              for (Object item : tagsList) {\n"
+      + "                tags.add((String) item);\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<String> patched = tags == null ? new ArrayList<String>() : new ArrayList<>(tags);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"tags\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched.set(index, (String) rawItem);\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            tags = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, ingredients, tags);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private List<String> tags;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      FirebaseValueMetrics metrics = FirebaseValueMetrics.registered();\n"
+      + "      long metricsStart = metrics == null ? 0L : System.nanoTime();\n"
+      + "      this.name = taco.name();\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.tags = taco.tags();\n"
+      + "      if (metrics != null) {\n"
+      + "        metrics.record(Taco.class, FirebaseValueMetrics.Operation.FIREBASE_VALUE, (this.ingredients == null ? 0 : this.ingredients.size()) + (this.tags == null ? 0 : this.tags.size()), System.nanoTime() - metricsStart);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      FirebaseValueMetrics metrics = FirebaseValueMetrics.registered();\n"
+      + "      long metricsStart = metrics == null ? 0L : System.nanoTime();\n"
+      + "      String name = this.name;\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      List<String> tags = this.tags;\n"
+      + "      AutoValue_Taco autoValue = new AutoValue_Taco(name, ingredients, tags);\n"
+      + "      if (metrics != null) {\n"
+      + "        metrics.record(Taco.class, FirebaseValueMetrics.Operation.TO_AUTO_VALUE, (this.ingredients == null ? 0 : this.ingredients.size()) + (this.tags == null ? 0 : this.tags.size()), System.nanoTime() - metricsStart);\n"
+      + "      }\n"
+      + "      return autoValue;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      FirebaseValueMetrics metrics = FirebaseValueMetrics.registered();\n"
+      + "      long metricsStart = metrics == null ? 0L : System.nanoTime();\n"
+      + "      HashMap<String, Object> map = new HashMap<>(5);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "      map.put(\"tags\", this.tags);\n"
+      + "      if (metrics != null) {\n"
+      + "        metrics.record(Taco.class, FirebaseValueMetrics.Operation.TO_MAP, (this.ingredients == null ? 0 : this.ingredients.size()) + (this.tags == null ? 0 : this.tags.size()), System.nanoTime() - metricsStart);\n"
+      + "      }\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public List<String> getTags() {\n"
+      + "      return tags;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, FIREBASE_VALUE_METRICS, INGREDIENT, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void omitNulls() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import java.util.List;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.OmitNull;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue(omitNulls = true)\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  @OmitNull(false) public abstract String description();\n"
+      + "  public abstract int rating();\n"
+      + "  public abstract Ingredient side();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.io.IOException;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "import me.mattlogan.auto.value.firebase.json.JsonWriter;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  AutoValue_Taco(String name, String description, int rating, Ingredient side, List<Ingredient> ingredients) {\n"
+      + "    super(name, description, rating, side, ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    String description = (String) map.get(\"description\");\n"
+      + "    Object ratingValue = map.get(\"rating\");\n"
+      + "    int rating = ratingValue == null ? 0 : ((Number) ratingValue).intValue();\n"
+      + "    Ingredient side = AutoValue_Ingredient.fromValue(map.get(\"side\"));\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, description, rating, side, ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    int size = 2;\n"
+      + "    if (taco.name() != null) {\n"
+      + "      size++;\n"
+      + "    }\n"
+      + "    if (taco.side() != null) {\n"
+      + "      size++;\n"
+      + "    }\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      size++;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>((int) (size / 0.75f) + 1);\n"
+      + "    if (taco.name() != null) {\n"
+      + "      map.put(\"name\", taco.name());\n"
+      + "    }\n"
+      + "    map.put(\"description\", taco.description());\n"
+      + "    map.put(\"rating\", taco.rating());\n"
+      + "    if (taco.side() != null) {\n"
+      + "      map.put(\"side\", AutoValue_Ingredient.toMap(taco.side()));\n"
+      + "    }\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "    }\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"description\":\n"
+      + "        return taco.description();\n"
+      + "      case \"rating\":\n"
+      + "        return taco.rating();\n"
+      + "      case \"side\":\n"
+      + "        return AutoValue_Ingredient.toMap(taco.side());\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"description\", null);\n"
+      + "        updates.put(\"rating\", null);\n"
+      + "        updates.put(\"side\", null);\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (!Objects.equals(before.description(), after.description())) {\n"
+      + "      updates.put(prefix + \"description\", after.description());\n"
+      + "    }\n"
+      + "    if (before.rating() != after.rating()) {\n"
+      + "      updates.put(prefix + \"rating\", after.rating());\n"
+      + "    }\n"
+      + "    AutoValue_Ingredient.diff(prefix + \"side\", before.side(), after.side(), updates);\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    String description = current == null ? null : current.description();\n"
+      + "    int rating = current == null ? 0 : current.rating();\n"
+      + "    Ingredient side = current == null ? null : current.side();\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"description\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object descriptionValue = childUpdates.remove(\"\");\n"
+      + "            description = (String) descriptionValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"rating\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ratingValue = childUpdates.remove(\"\");\n"
+      + "            rating = ratingValue == null ? 0 : ((Number) ratingValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"side\":\n"
+      + "          side = AutoValue_Ingredient.applyPatch(side, childUpdates);\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, description, rating, side, ingredients);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void writeJson(Taco taco, JsonWriter writer) throws IOException {\n"
+      + "    if (taco == null) {\n"
+      + "      writer.nullValue();\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    writer.beginObject();\n"
+      + "    if (taco.name() != null) {\n"
+      + "      writer.name(\"name\");\n"
+      + "      writer.value(taco.name());\n"
+      + "    }\n"
+      + "    writer.name(\"description\");\n"
+      + "    writer.value(taco.description());\n"
+      + "    writer.name(\"rating\");\n"
+      + "    writer.value(taco.rating());\n"
+      + "    if (taco.side() != null) {\n"
+      + "      writer.name(\"side\");\n"
+      + "      AutoValue_Ingredient.writeJson(taco.side(), writer);\n"
+      + "    }\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      writer.name(\"ingredients\");\n"
+      + "      writer.beginArray();\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        AutoValue_Ingredient.writeJson(item, writer);\n"
+      + "      }\n"
+      + "      writer.endArray();\n"
+      + "    }\n"
+      + "    writer.endObject();\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private String description;\n"
+      + "    private int rating;\n"
+      + "    private AutoValue_Ingredient.FirebaseValue side;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      this.description = taco.description();\n"
+      + "      this.rating = taco.rating();\n"
+      + "      this.side = taco.side() == null ? null : new AutoValue_Ingredient.FirebaseValue(taco.side());\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      String description = this.description;\n"
+      + "      int rating = this.rating;\n"
+      + "      Ingredient side = this.side == null ? null : this.side.toAutoValue();\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      return new AutoValue_Taco(name, description, rating, side, ingredients);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      int size = 2;\n"
+      + "      if (this.name != null) {\n"
+      + "        size++;\n"
+      + "      }\n"
+      + "      if (this.side != null) {\n"
+      + "        size++;\n"
+      + "      }\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        size++;\n"
+      + "      }\n"
+      + "      HashMap<String, Object> map = new HashMap<>((int) (size / 0.75f) + 1);\n"
+      + "      if (this.name != null) {\n"
+      + "        map.put(\"name\", this.name);\n"
+      + "      }\n"
+      + "      map.put(\"description\", this.description);\n"
+      + "      map.put(\"rating\", this.rating);\n"
+      + "      if (this.side != null) {\n"
+      + "        map.put(\"side\", this.side.toMap());\n"
+      + "      }\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "        map.put(\"ingredients\", ingredientsList);\n"
+      + "      }\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    public String getDescription() {\n"
+      + "      return description;\n"
+      + "    }\n"
+      + "    public int getRating() {\n"
+      + "      return rating;\n"
+      + "    }\n"
+      + "    public AutoValue_Ingredient.FirebaseValue getSide() {\n"
+      + "      return side;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, JSON_WRITER, INGREDIENT, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
+
+  @Test
+  public void omitNullPrimitive() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.OmitNull;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  @OmitNull public abstract int rating();\n"
+      + "}\n");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, source))
+      .processedWith(new AutoValueProcessor())
+      .failsToCompile();
+  }
+
+  @Test
+  public void schema() throws Exception {
+    JavaFileObject source = JavaFileObjects.forSourceString("test.Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  public abstract String name();\n"
+      + "  @PropertyName(\"stars\") public abstract int rating();\n"
+      + "  public abstract double[] scores();\n"
+      + "  public abstract List<Ingredient> ingredients();\n"
+      + "  public abstract Map<String, Long> counts();\n"
+      + "  public abstract Review review();\n"
+      + "  @Exclude public abstract String secret();\n"
+      + "}\n");
+
+    JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Taco",
+      "package test;\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import com.google.firebase.database.PropertyName;\n"
+      + "import java.lang.Double;\n"
+      + "import java.lang.IllegalArgumentException;\n"
+      + "import java.lang.IndexOutOfBoundsException;\n"
+      + "import java.lang.Integer;\n"
+      + "import java.lang.Long;\n"
+      + "import java.lang.Number;\n"
+      + "import java.lang.NumberFormatException;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.Override;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.ArrayList;\n"
+      + "import java.util.Arrays;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.List;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.FirebaseSchema;\n"
+      + "import me.mattlogan.auto.value.firebase.runtime.FirebaseSchemas;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "  static final FirebaseSchema<Taco> SCHEMA = FirebaseSchemas.register(new FirebaseSchema<Taco>(Taco.class,\n"
+      + "      new String[] {\"name\", \"rating\", \"scores\", \"ingredients\", \"counts\", \"review\", \"secret\"},\n"
+      + "      new String[] {\"name\", \"stars\", \"scores\", \"ingredients\", \"counts\", \"review\", null},\n"
+      + "      new FirebaseSchema.Kind[] {FirebaseSchema.Kind.PRIMITIVE, FirebaseSchema.Kind.PRIMITIVE, FirebaseSchema.Kind.ARRAY, FirebaseSchema.Kind.LIST, FirebaseSchema.Kind.MAP, FirebaseSchema.Kind.NESTED, FirebaseSchema.Kind.PRIMITIVE}) {\n"
+      + "    @Override\n"
+      + "    public Object get(Taco value, int index) {\n"
+      + "      switch (index) {\n"
+      + "        case 0:\n"
+      + "          return value.name();\n"
+      + "        case 1:\n"
+      + "          return value.rating();\n"
+      + "        case 2:\n"
+      + "          return value.scores();\n"
+      + "        case 3:\n"
+      + "          return value.ingredients();\n"
+      + "        case 4:\n"
+      + "          return value.counts();\n"
+      + "        case 5:\n"
+      + "          return value.review();\n"
+      + "        case 6:\n"
+      + "          return value.secret();\n"
+      + "        default:\n"
+      + "          throw new IndexOutOfBoundsException(\"No property at \" + index);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    @Override\n"
+      + "    public Object get(Taco value, String firebaseKey) {\n"
+      + "      return AutoValue_Taco.get(value, firebaseKey);\n"
+      + "    }\n"
+      + "  });\n"
+      + "\n"
+      + "  AutoValue_Taco(String name, int rating, double[] scores, List<Ingredient> ingredients, Map<String, Long> counts, Review review, String secret) {\n"
+      + "    super(name, rating, scores, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    String name = (String) map.get(\"name\");\n"
+      + "    Object ratingValue = map.get(\"stars\");\n"
+      + "    int rating = ratingValue == null ? 0 : ((Number) ratingValue).intValue();\n"
+      + "    Object scoresValue = map.get(\"scores\");\n"
+      + "    double[] scores = null;\n"
+      + "    if (scoresValue != null) {\n"
+      + "      List<?> scoresList = (List<?>) scoresValue;\n"
+      + "      scores = new double[scoresList.size()];\n"
+      + "      for (int i = 0; i < scores.length; i++) {\n"
+      + "        Object item = scoresList.get(i);\n"
+      + "        scores[i] = item == null ? 0 : ((Number) item).doubleValue();\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object ingredientsValue = map.get(\"ingredients\");\n"
+      + "    List<Ingredient> ingredients = null;\n"
+      + "    if (ingredientsValue != null) {\n"
+      + "      List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "      ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "      for (Object item : ingredientsList) {\n"
+      + "        ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Object countsValue = map.get(\"counts\");\n"
+      + "    Map<String, Long> counts = null;\n"
+      + "    if (countsValue != null) {\n"
+      + "      Map<?, ?> countsMap = (Map<?, ?>) countsValue;\n"
+      + "      counts = new HashMap<>();\n"
+      + "      for (Map.Entry<?, ?> entry : countsMap.entrySet()) {\n"
+      + "        counts.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).longValue());\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Review review = AutoValue_Review.fromValue(map.get(\"review\"));\n"
+      + "    String secret = null;\n"
+      + "    return new AutoValue_Taco(name, rating, scores, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    HashMap<String, Object> map = new HashMap<>(9);\n"
+      + "    map.put(\"name\", taco.name());\n"
+      + "    map.put(\"stars\", taco.rating());\n"
+      + "    List<Object> scoresList = null;\n"
+      + "    if (taco.scores() != null) {\n"
+      + "      scoresList = new ArrayList<>(taco.scores().length);\n"
+      + "      for (double item : taco.scores()) {\n"
+      + "        scoresList.add(item);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"scores\", scoresList);\n"
+      + "    List<Object> ingredientsList = null;\n"
+      + "    if (taco.ingredients() != null) {\n"
+      + "      ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "      for (Ingredient item : taco.ingredients()) {\n"
+      + "        ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "      }\n"
+      + "    }\n"
+      + "    map.put(\"ingredients\", ingredientsList);\n"
+      + "    map.put(\"counts\", taco.counts());\n"
+      + "    map.put(\"review\", AutoValue_Review.toMap(taco.review()));\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"name\":\n"
+      + "        return taco.name();\n"
+      + "      case \"stars\":\n"
+      + "        return taco.rating();\n"
+      + "      case \"scores\":\n"
+      + "        if (taco.scores() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> scoresList = new ArrayList<>(taco.scores().length);\n"
+      + "        for (double item : taco.scores()) {\n"
+      + "          scoresList.add(item);\n"
+      + "        }\n"
+      + "        return scoresList;\n"
+      + "      case \"ingredients\":\n"
+      + "        if (taco.ingredients() == null) {\n"
+      + "          return null;\n"
+      + "        }\n"
+      + "        List<Object> ingredientsList = new ArrayList<>(taco.ingredients().size());\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          ingredientsList.add(AutoValue_Ingredient.toMap(item));\n"
+      + "        }\n"
+      + "        return ingredientsList;\n"
+      + "      case \"counts\":\n"
+      + "        return taco.counts();\n"
+      + "      case \"review\":\n"
+      + "        return AutoValue_Review.toMap(taco.review());\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"name\", null);\n"
+      + "        updates.put(\"stars\", null);\n"
+      + "        updates.put(\"scores\", null);\n"
+      + "        updates.put(\"ingredients\", null);\n"
+      + "        updates.put(\"counts\", null);\n"
+      + "        updates.put(\"review\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    if (!Objects.equals(before.name(), after.name())) {\n"
+      + "      updates.put(prefix + \"name\", after.name());\n"
+      + "    }\n"
+      + "    if (before.rating() != after.rating()) {\n"
+      + "      updates.put(prefix + \"stars\", after.rating());\n"
+      + "    }\n"
+      + "    double[] beforeScores = before.scores();\n"
+      + "    double[] afterScores = after.scores();\n"
+      + "    if (afterScores == null) {\n"
+      + "      if (beforeScores != null) {\n"
+      + "        updates.put(prefix + \"scores\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeScores != afterScores) {\n"
+      + "      int beforeSize = beforeScores == null ? 0 : beforeScores.length;\n"
+      + "      for (int i = 0; i < afterScores.length; i++) {\n"
+      + "        if (i >= beforeSize || Double.compare(beforeScores[i], afterScores[i]) != 0) {\n"
+      + "          updates.put(prefix + \"scores/\" + i, afterScores[i]);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      for (int i = afterScores.length; i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"scores/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    List<Ingredient> beforeIngredients = before.ingredients();\n"
+      + "    List<Ingredient> afterIngredients = after.ingredients();\n"
+      + "    if (afterIngredients == null) {\n"
+      + "      if (beforeIngredients != null) {\n"
+      + "        updates.put(prefix + \"ingredients\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeIngredients != afterIngredients) {\n"
+      + "      int beforeSize = beforeIngredients == null ? 0 : beforeIngredients.size();\n"
+      + "      for (int i = 0; i < afterIngredients.size(); i++) {\n"
+      + "        AutoValue_Ingredient.diff(prefix + \"ingredients/\" + i, i < beforeSize ? beforeIngredients.get(i) : null, afterIngredients.get(i), updates);\n"
+      + "      }\n"
+      + "      for (int i = afterIngredients.size(); i < beforeSize; i++) {\n"
+      + "        updates.put(prefix + \"ingredients/\" + i, null);\n"
+      + "      }\n"
+      + "    }\n"
+      + "    Map<String, Long> beforeCounts = before.counts();\n"
+      + "    Map<String, Long> afterCounts = after.counts();\n"
+      + "    if (afterCounts == null) {\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        updates.put(prefix + \"counts\", null);\n"
+      + "      }\n"
+      + "    } else if (beforeCounts != afterCounts) {\n"
+      + "      for (Map.Entry<String, Long> entry : afterCounts.entrySet()) {\n"
+      + "        if (beforeCounts == null || !Objects.equals(beforeCounts.get(entry.getKey()), entry.getValue())) {\n"
+      + "          updates.put(prefix + \"counts/\" + entry.getKey(), entry.getValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (beforeCounts != null) {\n"
+      + "        for (String key : beforeCounts.keySet()) {\n"
+      + "          if (!afterCounts.containsKey(key)) {\n"
+      + "            updates.put(prefix + \"counts/\" + key, null);\n"
+      + "          }\n"
+      + "        }\n"
+      + "      }\n"
+      + "    }\n"
+      + "    AutoValue_Review.diff(prefix + \"review\", before.review(), after.review(), updates);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    String name = current == null ? null : current.name();\n"
+      + "    int rating = current == null ? 0 : current.rating();\n"
+      + "    double[] scores = current == null ? null : current.scores();\n"
+      + "    List<Ingredient> ingredients = current == null ? null : current.ingredients();\n"
+      + "    Map<String, Long> counts = current == null ? null : current.counts();\n"
+      + "    Review review = current == null ? null : current.review();\n"
+      + "    String secret = current == null ? null : current.secret();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"name\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object nameValue = childUpdates.remove(\"\");\n"
+      + "            name = (String) nameValue;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"stars\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ratingValue = childUpdates.remove(\"\");\n"
+      + "            rating = ratingValue == null ? 0 : ((Number) ratingValue).intValue();\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"scores\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object scoresValue = childUpdates.remove(\"\");\n"
+      + "            scores = null;\n"
+      + "            if (scoresValue != null) {\n"
+      + "              List<?> scoresList = (List<?>) scoresValue;\n"
+      + "              scores = new double[scoresList.size()];\n"
+      + "              for (int i = 0; i < scores.length; i++) {\n"
+      + "                Object item = scoresList.get(i);\n"
+      + "                scores[i] = item == null ? 0 : ((Number) item).doubleValue();\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            double[] patched = scores == null ? new double[0] : scores.clone();\n"
+      + "            boolean[] removed = new boolean[patched.length];\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.length + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              int index = patchIndex(\"scores\", item.getKey(), indexLimit);\n"
+      + "              if (index >= patched.length) {\n"
+      + "                patched = Arrays.copyOf(patched, index + 1);\n"
+      + "                removed = Arrays.copyOf(removed, index + 1);\n"
+      + "              }\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              patched[index] = rawItem == null ? 0 : ((Number) rawItem).doubleValue();\n"
+      + "              removed[index] = rawItem == null;\n"
+      + "            }\n"
+      + "            int length = patched.length;\n"
+      + "            while (length > 0 && removed[length - 1]) {\n"
+      + "              length--;\n"
+      + "            }\n"
+      + "            scores = length == patched.length ? patched : Arrays.copyOf(patched, length);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"ingredients\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object ingredientsValue = childUpdates.remove(\"\");\n"
+      + "            ingredients = null;\n"
+      + "            if (ingredientsValue != null) {\n"
+      + "              List<?> ingredientsList = (List<?>) ingredientsValue;\n"
+      + "              ingredients = new ArrayList<>(ingredientsList.size());\n"
+      + "              for (Object item : ingredientsList) {\n"
+      + "                ingredients.add(AutoValue_Ingredient.fromValue(item));\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            List<Ingredient> patched = ingredients == null ? new ArrayList<Ingredient>() : new ArrayList<>(ingredients);\n"
+      + "            Map<String, Map<String, Object>> itemPatches = splitPatch(childUpdates);\n"
+      + "            int indexLimit = patched.size() + itemPatches.size();\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : itemPatches.entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              int index = patchIndex(\"ingredients\", item.getKey(), indexLimit);\n"
+      + "              while (patched.size() <= index) {\n"
+      + "                patched.add(null);\n"
+      + "              }\n"
+      + "              patched.set(index, AutoValue_Ingredient.applyPatch(patched.get(index), itemUpdates));\n"
+      + "            }\n"
+      + "            while (!patched.isEmpty() && patched.get(patched.size() - 1) == null) {\n"
+      + "              patched.remove(patched.size() - 1);\n"
+      + "            }\n"
+      + "            ingredients = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"counts\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object countsValue = childUpdates.remove(\"\");\n"
+      + "            counts = null;\n"
+      + "            if (countsValue != null) {\n"
+      + "              Map<?, ?> countsMap = (Map<?, ?>) countsValue;\n"
+      + "              counts = new HashMap<>();\n"
+      + "              for (Map.Entry<?, ?> entry : countsMap.entrySet()) {\n"
+      + "                counts.put((String) entry.getKey(), entry.getValue() == null ? null : ((Number) entry.getValue()).longValue());\n"
+      + "              }\n"
+      + "            }\n"
+      + "          }\n"
+      + "          if (!childUpdates.isEmpty()) {\n"
+      + "            Map<String, Long> patched = counts == null ? new HashMap<String, Long>() : new HashMap<>(counts);\n"
+      + "            for (Map.Entry<String, Map<String, Object>> item : splitPatch(childUpdates).entrySet()) {\n"
+      + "              Map<String, Object> itemUpdates = item.getValue();\n"
+      + "              if (!itemUpdates.containsKey(\"\")) {\n"
+      + "                continue;\n"
+      + "              }\n"
+      + "              String itemKey = item.getKey();\n"
+      + "              Object rawItem = itemUpdates.get(\"\");\n"
+      + "              Long itemValue = rawItem == null ? null : ((Number) rawItem).longValue();\n"
+      + "              if (itemValue == null) {\n"
+      + "                patched.remove(itemKey);\n"
+      + "              } else {\n"
+      + "                patched.put(itemKey, itemValue);\n"
+      + "              }\n"
+      + "            }\n"
+      + "            counts = patched;\n"
+      + "          }\n"
+      + "          break;\n"
+      + "        case \"review\":\n"
+      + "          review = AutoValue_Review.applyPatch(review, childUpdates);\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(name, rating, scores, ingredients, counts, review, secret);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static int patchIndex(String firebaseName, String key, int limit) {\n"
+      + "    int index;\n"
+      + "    try {\n"
+      + "      index = Integer.parseInt(key);\n"
+      + "    } catch (NumberFormatException e) {\n"
+      + "      index = -1;\n"
+      + "    }\n"
+      + "    if (index < 0 || index >= limit) {\n"
+      + "      throw new IllegalArgumentException(\"Invalid list index in patch path \" + firebaseName + \"/\" + key);\n"
+      + "    }\n"
+      + "    return index;\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String name;\n"
+      + "    private int rating;\n"
+      + "    private List<Double> scores;\n"
+      + "    private List<AutoValue_Ingredient.FirebaseValue> ingredients;\n"
+      + "    private Map<String, Long> counts;\n"
+      + "    private AutoValue_Review.FirebaseValue review;\n"
+      + "    private String secret;\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.name = taco.name();\n"
+      + "      this.rating = taco.rating();\n"
+      + "      if (taco.scores() != null) {\n"
+      + "        this.scores = new ArrayList<>(taco.scores().length);\n"
+      + "        for (double item : taco.scores()) {\n"
+      + "          this.scores.add(item);\n"
+      + "        }\n"
+      + "      }\n"
+      + "      if (taco.ingredients() != null) {\n"
+      + "        this.ingredients = new ArrayList<>();\n"
+      + "        for (Ingredient item : taco.ingredients()) {\n"
+      + "          this.ingredients.add(new AutoValue_Ingredient.FirebaseValue(item));\n"
+      + "        }\n"
+      + "      }\n"
+      + "      this.counts = taco.counts();\n"
+      + "      this.review = taco.review() == null ? null : new AutoValue_Review.FirebaseValue(taco.review());\n"
+      + "      this.secret = taco.secret();\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      String name = this.name;\n"
+      + "      int rating = this.rating;\n"
+      + "      double[] scores = null;\n"
+      + "      if (this.scores != null) {\n"
+      + "        scores = new double[this.scores.size()];\n"
+      + "        for (int i = 0; i < scores.length; i++) {\n"
+      + "          Double item = this.scores.get(i);\n"
+      + "          scores[i] = item == null ? 0 : item.doubleValue();\n"
+      + "        }\n"
+      + "      }\n"
+      + "      List<Ingredient> ingredients = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredients = new ArrayList<>();\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredients.add(item.toAutoValue());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      Map<String, Long> counts = this.counts;\n"
+      + "      Review review = this.review == null ? null : this.review.toAutoValue();\n"
+      + "      String secret = this.secret;\n"
+      + "      return new AutoValue_Taco(name, rating, scores, ingredients, counts, review, secret);\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(9);\n"
+      + "      map.put(\"name\", this.name);\n"
+      + "      map.put(\"stars\", this.rating);\n"
+      + "      map.put(\"scores\", this.scores);\n"
+      + "      List<Object> ingredientsList = null;\n"
+      + "      if (this.ingredients != null) {\n"
+      + "        ingredientsList = new ArrayList<>(this.ingredients.size());\n"
+      + "        for (AutoValue_Ingredient.FirebaseValue item : this.ingredients) {\n"
+      + "          ingredientsList.add(item == null ? null : item.toMap());\n"
+      + "        }\n"
+      + "      }\n"
+      + "      map.put(\"ingredients\", ingredientsList);\n"
+      + "      map.put(\"counts\", this.counts);\n"
+      + "      map.put(\"review\", this.review == null ? null : this.review.toMap());\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "    public String getName() {\n"
+      + "      return name;\n"
+      + "    }\n"
+      + "    @PropertyName(\"stars\")\n"
+      + "    public int getRating() {\n"
+      + "      return rating;\n"
+      + "    }\n"
+      + "    public List<Double> getScores() {\n"
+      + "      return scores;\n"
+      + "    }\n"
+      + "    public List<AutoValue_Ingredient.FirebaseValue> getIngredients() {\n"
+      + "      return ingredients;\n"
+      + "    }\n"
+      + "    public Map<String, Long> getCounts() {\n"
+      + "      return counts;\n"
+      + "    }\n"
+      + "    public AutoValue_Review.FirebaseValue getReview() {\n"
+      + "      return review;\n"
+      + "    }\n"
+      + "    @Exclude\n"
+      + "    public String getSecret() {\n"
+      + "      return secret;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}");
+
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, PROPERTY_NAME, FIREBASE_SCHEMA, FIREBASE_SCHEMAS, INGREDIENT, REVIEW, source))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError()
+      .and()
+      .generatesSources(expected);
+  }
 }
@@ -0,0 +1,261 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.JavaFileObjects;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+/**
+ * Runs many compilations at once in one classloader, the way build daemons and persistent workers
+ * do, and checks that each one generates the same code it would on its own.
+ */
+public class ConcurrentProcessingTest {
+
+  private static final int THREADS = 8;
+  private static final int COMPILATIONS = 64;
+
+  private static final JavaFileObject EXCLUDE = JavaFileObjects.forSourceString("com.google.firebase.database.Exclude",
+    "package com.google.firebase.database;\n"
+    + "\n"
+    + "import java.lang.annotation.ElementType;\n"
+    + "import java.lang.annotation.Retention;\n"
+    + "import java.lang.annotation.RetentionPolicy;\n"
+    + "import java.lang.annotation.Target;\n"
+    + "\n"
+    + "@Retention(RetentionPolicy.RUNTIME)\n"
+    + "@Target({ElementType.METHOD, ElementType.FIELD})\n"
+    + "public @interface Exclude {\n"
+    + "}\n");
+
+  @Test
+  public void parallelCompilations() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < COMPILATIONS; i++) {
+        final String packageName = "test" + i;
+        results.add(executor.submit(new Callable<Void>() {
+          @Override public Void call() {
+            assertAbout(javaSources())
+              .that(Arrays.asList(EXCLUDE, statusAdapter(packageName), taco(packageName)))
+              .processedWith(new AutoValueProcessor())
+              .compilesWithoutError()
+              .and()
+              .generatesSources(expectedTaco(packageName));
+            return null;
+          }
+        }));
+      }
+
+      // Rethrows the first failure
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  // Each compilation has its own adapter type, which the extension resolves through the compiler
+  private static JavaFileObject statusAdapter(String packageName) {
+    return JavaFileObjects.forSourceString(packageName + ".StatusAdapter",
+      "package " + packageName + ";\n"
+      + "\n"
+      + "import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;\n"
+      + "\n"
+      + "public class StatusAdapter implements TypeAdapter<Taco.Status, String> {\n"
+      + "  @Override\n"
+      + "  public Taco.Status fromFirebaseValue(String value) {\n"
+      + "    return Taco.Status.valueOf(value);\n"
+      + "  }\n"
+      + "\n"
+      + "  @Override\n"
+      + "  public String toFirebaseValue(Taco.Status value) {\n"
+      + "    return value.name();\n"
+      + "  }\n"
+      + "}\n");
+  }
+
+  private static JavaFileObject taco(String packageName) {
+    return JavaFileObjects.forSourceString(packageName + ".Taco",
+      "package " + packageName + ";\n"
+      + "\n"
+      + "import com.google.auto.value.AutoValue;\n"
+      + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+      + "import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;\n"
+      + "\n"
+      + "@AutoValue @FirebaseValue\n"
+      + "public abstract class Taco {\n"
+      + "  enum Status { UNCOOKED, COOKED }\n"
+      + "  @FirebaseAdapter(StatusAdapter.class) abstract Status status();\n"
+      + "}\n");
+  }
+
+  private static JavaFileObject expectedTaco(String packageName) {
+    return JavaFileObjects.forSourceString(packageName + ".AutoValue_Taco",
+      "package " + packageName + ";\n"
+      + "\n"
+      + "import com.google.firebase.database.Exclude;\n"
+      + "import java.lang.Object;\n"
+      + "import java.lang.String;\n"
+      + "import java.lang.SuppressWarnings;\n"
+      + "import java.util.HashMap;\n"
+      + "import java.util.Map;\n"
+      + "import java.util.Objects;\n"
+      + "\n"
+      + "final class AutoValue_Taco extends $AutoValue_Taco {\n"
+      + "\n"
+      + "  AutoValue_Taco(Taco.Status status) {\n"
+      + "    super(status);\n"
+      + "  }\n"
+      + "\n"
+      + "  static AutoValue_Taco fromMap(Map<String, Object> map) {\n"
+      + "    StatusAdapter statusAdapter = new StatusAdapter();\n"
+      + "    Object statusValue = map.get(\"status\");\n"
+      + "    Taco.Status status = statusValue == null ? null : statusAdapter.fromFirebaseValue((String) statusValue);\n"
+      + "    return new AutoValue_Taco(status);\n"
+      + "  }\n"
+      + "\n"
+      + "  @SuppressWarnings(\"unchecked\")\n"
+      + "  static AutoValue_Taco fromValue(Object value) {\n"
+      + "    return value == null ? null : fromMap((Map<String, Object>) value);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> toMap(Taco taco) {\n"
+      + "    if (taco == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    StatusAdapter statusAdapter = new StatusAdapter();\n"
+      + "    HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "    map.put(\"status\", taco.status() == null ? null : statusAdapter.toFirebaseValue(taco.status()));\n"
+      + "    return map;\n"
+      + "  }\n"
+      + "\n"
+      + "  static Object get(Taco taco, String firebaseKey) {\n"
+      + "    if (taco == null || firebaseKey == null) {\n"
+      + "      return null;\n"
+      + "    }\n"
+      + "    switch (firebaseKey) {\n"
+      + "      case \"status\":\n"
+      + "        return taco.status() == null ? null : new StatusAdapter().toFirebaseValue(taco.status());\n"
+      + "      default:\n"
+      + "        return null;\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Object> diff(Taco before, Taco after) {\n"
+      + "    Map<String, Object> updates = new HashMap<>();\n"
+      + "    if (after == null) {\n"
+      + "      if (before != null) {\n"
+      + "        updates.put(\"status\", null);\n"
+      + "      }\n"
+      + "    } else if (before == null) {\n"
+      + "      updates.putAll(toMap(after));\n"
+      + "    } else {\n"
+      + "      diff(\"\", before, after, updates);\n"
+      + "    }\n"
+      + "    return updates;\n"
+      + "  }\n"
+      + "\n"
+      + "  static void diff(String path, Taco before, Taco after, Map<String, Object> updates) {\n"
+      + "    if (before == after) {\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    if (before == null || after == null) {\n"
+      + "      updates.put(path, toMap(after));\n"
+      + "      return;\n"
+      + "    }\n"
+      + "    String prefix = path.isEmpty() ? \"\" : path + \"/\";\n"
+      + "    StatusAdapter statusAdapter = new StatusAdapter();\n"
+      + "    if (!Objects.equals(before.status(), after.status())) {\n"
+      + "      updates.put(prefix + \"status\", after.status() == null ? null : statusAdapter.toFirebaseValue(after.status()));\n"
+      + "    }\n"
+      + "  }\n"
+      + "\n"
+      + "  static Taco applyPatch(Taco current, Map<String, Object> updates) {\n"
+      + "    if (updates.isEmpty()) {\n"
+      + "      return current;\n"
+      + "    }\n"
+      + "    if (updates.containsKey(\"\")) {\n"
+      + "      current = fromValue(updates.get(\"\"));\n"
+      + "      if (updates.size() == 1) {\n"
+      + "        return current;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    StatusAdapter statusAdapter = new StatusAdapter();\n"
+      + "    Taco.Status status = current == null ? null : current.status();\n"
+      + "    for (Map.Entry<String, Map<String, Object>> child : splitPatch(updates).entrySet()) {\n"
+      + "      Map<String, Object> childUpdates = child.getValue();\n"
+      + "      switch (child.getKey()) {\n"
+      + "        case \"status\":\n"
+      + "          if (childUpdates.containsKey(\"\")) {\n"
+      + "            Object statusValue = childUpdates.remove(\"\");\n"
+      + "            status = statusValue == null ? null : statusAdapter.fromFirebaseValue((String) statusValue);\n"
+      + "          }\n"
+      + "          break;\n"
+      + "      }\n"
+      + "    }\n"
+      + "    return new AutoValue_Taco(status);\n"
+      + "  }\n"
+      + "\n"
+      + "  static Map<String, Map<String, Object>> splitPatch(Map<String, Object> updates) {\n"
+      + "    Map<String, Map<String, Object>> children = new HashMap<>();\n"
+      + "    for (Map.Entry<String, Object> update : updates.entrySet()) {\n"
+      + "      String path = update.getKey();\n"
+      + "      if (path.isEmpty()) {\n"
+      + "        continue;\n"
+      + "      }\n"
+      + "      int slash = path.indexOf('/');\n"
+      + "      String child = slash < 0 ? path : path.substring(0, slash);\n"
+      + "      Map<String, Object> childUpdates = children.get(child);\n"
+      + "      if (childUpdates == null) {\n"
+      + "        childUpdates = new HashMap<>();\n"
+      + "        children.put(child, childUpdates);\n"
+      + "      }\n"
+      + "      childUpdates.put(slash < 0 ? \"\" : path.substring(slash + 1), update.getValue());\n"
+      + "    }\n"
+      + "    return children;\n"
+      + "  }\n"
+      + "\n"
+      + "  static final class FirebaseValue {\n"
+      + "    private String status;\n"
+      + "    private final StatusAdapter statusAdapter = new StatusAdapter();\n"
+      + "\n"
+      + "    @SuppressWarnings(\"unused\")\n"
+      + "    FirebaseValue() {\n"
+      + "    }\n"
+      + "\n"
+      + "    FirebaseValue(Taco taco) {\n"
+      + "      this.status = taco.status() == null ? null : statusAdapter.toFirebaseValue(taco.status());\n"
+      + "    }\n"
+      + "\n"
+      + "    @Exclude\n"
+      + "    AutoValue_Taco toAutoValue() {\n"
+      + "      Taco.Status status = this.status == null ? null : statusAdapter.fromFirebaseValue(this.status);\n"
+      + "      return new AutoValue_Taco(status);\n"
+      + "    }\n"
+      + "\n"
+      + "    @Exclude\n"
+      + "    Map<String, Object> toMap() {\n"
+      + "      HashMap<String, Object> map = new HashMap<>(2);\n"
+      + "      map.put(\"status\", this.status);\n"
+      + "      return map;\n"
+      + "    }\n"
+      + "\n"
+      + "    public String getStatus() {\n"
+      + "      return status;\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n");
+  }
+}
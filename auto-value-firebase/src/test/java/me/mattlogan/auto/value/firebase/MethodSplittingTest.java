@@ -0,0 +1,190 @@
+package me.mattlogan.auto.value.firebase;
+
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Conversions of wide models are split into helper methods that stay under HotSpot's
+ * {@code HugeMethodLimit}. The generated code is too long to compare in full, so this checks the
+ * chunking and that a split model compiles.
+ */
+public class MethodSplittingTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final JavaFileObject EXCLUDE = JavaFileObjects.forSourceString("com.google.firebase.database.Exclude",
+    "package com.google.firebase.database;\n"
+    + "\n"
+    + "import java.lang.annotation.ElementType;\n"
+    + "import java.lang.annotation.Retention;\n"
+    + "import java.lang.annotation.RetentionPolicy;\n"
+    + "import java.lang.annotation.Target;\n"
+    + "\n"
+    + "@Retention(RetentionPolicy.RUNTIME)\n"
+    + "@Target({ElementType.METHOD, ElementType.FIELD})\n"
+    + "public @interface Exclude {\n"
+    + "}\n");
+
+  private static final JavaFileObject INGREDIENT = JavaFileObjects.forSourceString("test.Ingredient",
+    "package test;\n"
+    + "\n"
+    + "import com.google.auto.value.AutoValue;\n"
+    + "import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n"
+    + "\n"
+    + "@AutoValue @FirebaseValue\n"
+    + "public abstract class Ingredient {\n"
+    + "  public abstract String name();\n"
+    + "}\n");
+
+  private static final JavaFileObject THROW_ON_EXTRA_PROPERTIES =
+    JavaFileObjects.forSourceString("com.google.firebase.database.ThrowOnExtraProperties",
+      "package com.google.firebase.database;\n"
+      + "\n"
+      + "import java.lang.annotation.ElementType;\n"
+      + "import java.lang.annotation.Retention;\n"
+      + "import java.lang.annotation.RetentionPolicy;\n"
+      + "import java.lang.annotation.Target;\n"
+      + "\n"
+      + "@Retention(RetentionPolicy.RUNTIME)\n"
+      + "@Target({ElementType.TYPE})\n"
+      + "public @interface ThrowOnExtraProperties {\n"
+      + "}\n");
+
+  private static final JavaFileObject DATE_ADAPTER = JavaFileObjects.forSourceString("test.DateAdapter",
+    "package test;\n"
+    + "\n"
+    + "import java.util.Date;\n"
+    + "import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;\n"
+    + "\n"
+    + "public class DateAdapter implements TypeAdapter<Date, Long> {\n"
+    + "  @Override public Date fromFirebaseValue(Long value) {\n"
+    + "    return new Date(value);\n"
+    + "  }\n"
+    + "\n"
+    + "  @Override public Long toFirebaseValue(Date value) {\n"
+    + "    return value.getTime();\n"
+    + "  }\n"
+    + "}\n");
+
+  @Test
+  public void narrowModelStaysWhole() {
+    List<Property> properties = properties(Property.Kind.NESTED_COLLECTION, 10);
+    assertEquals(Collections.singletonList(properties),
+      AutoValueFirebaseExtension.chunkProperties(properties));
+  }
+
+  @Test
+  public void wideModelIsChunkedInOrder() {
+    List<Property> properties = properties(Property.Kind.NESTED_COLLECTION, 60);
+    properties.addAll(properties(Property.Kind.VALUE, 300));
+
+    List<List<Property>> chunks = AutoValueFirebaseExtension.chunkProperties(properties);
+    assertTrue(chunks.size() > 1);
+    List<Property> rejoined = new ArrayList<>();
+    for (List<Property> chunk : chunks) {
+      int bytes = 0;
+      for (Property property : chunk) {
+        bytes += AutoValueFirebaseExtension.estimatedBytecodeSize(property);
+      }
+      assertTrue(bytes <= AutoValueFirebaseExtension.METHOD_BYTES_BUDGET);
+      rejoined.addAll(chunk);
+    }
+    assertEquals(properties, rejoined);
+  }
+
+  @Test
+  public void wideModelCompiles() {
+    assertAbout(javaSources())
+      .that(Arrays.asList(EXCLUDE, THROW_ON_EXTRA_PROPERTIES, DATE_ADAPTER, INGREDIENT, wideModel()))
+      .processedWith(new AutoValueProcessor())
+      .compilesWithoutError();
+  }
+
+  // The static conversions are split too, since they're the ones the README recommends
+  @Test
+  public void wideModelSplitsStaticConversions() throws Exception {
+    File out = temporaryFolder.newFolder();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavaCompiler.CompilationTask task = ToolProvider.getSystemJavaCompiler().getTask(null, null, diagnostics,
+      Arrays.asList("-d", out.getPath(), "-classpath", System.getProperty("java.class.path")), null,
+      Arrays.asList(EXCLUDE, THROW_ON_EXTRA_PROPERTIES, DATE_ADAPTER, INGREDIENT, wideModel()));
+    task.setProcessors(Collections.singletonList(new AutoValueProcessor()));
+    assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+
+    ClassLoader loader = new URLClassLoader(new URL[] {out.toURI().toURL()}, getClass().getClassLoader());
+    Set<String> methods = new HashSet<>();
+    for (Method method : loader.loadClass("test.AutoValue_Taco").getDeclaredMethods()) {
+      methods.add(method.getName());
+    }
+    assertTrue(methods.contains("toMap0"));
+    assertTrue(methods.contains("toMap1"));
+    assertTrue(methods.contains("checkExtraProperties"));
+    assertTrue(methods.contains("count0FromMap"));
+    assertTrue(methods.contains("updated0FromMap"));
+    assertTrue(methods.contains("sides19FromMap"));
+  }
+
+  private static JavaFileObject wideModel() {
+    StringBuilder source = new StringBuilder()
+      .append("package test;\n")
+      .append("\n")
+      .append("import com.google.auto.value.AutoValue;\n")
+      .append("import com.google.firebase.database.ThrowOnExtraProperties;\n")
+      .append("import java.util.Date;\n")
+      .append("import java.util.List;\n")
+      .append("import java.util.Map;\n")
+      .append("import me.mattlogan.auto.value.firebase.adapter.FirebaseAdapter;\n")
+      .append("import me.mattlogan.auto.value.firebase.annotation.FirebaseValue;\n")
+      .append("\n")
+      .append("@AutoValue @FirebaseValue(omitNulls = true) @ThrowOnExtraProperties\n")
+      .append("public abstract class Taco {\n");
+    for (int i = 0; i < 20; i++) {
+      source.append("  public abstract String name").append(i).append("();\n")
+            .append("  public abstract long count").append(i).append("();\n")
+            .append("  @FirebaseAdapter(DateAdapter.class) public abstract Date updated").append(i).append("();\n")
+            .append("  public abstract double[] scores").append(i).append("();\n")
+            .append("  public abstract List<Ingredient> ingredients").append(i).append("();\n")
+            .append("  public abstract Map<String, Ingredient> sides").append(i).append("();\n");
+    }
+    source.append("}\n");
+    return JavaFileObjects.forSourceString("test.Taco", source.toString());
+  }
+
+  private static List<Property> properties(Property.Kind kind, int count) {
+    TypeName type = kind == Property.Kind.VALUE
+      ? TypeName.get(String.class)
+      : ParameterizedTypeName.get(AutoValueFirebaseExtension.LIST, TypeName.get(String.class));
+    List<Property> properties = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String name = kind.name().toLowerCase() + i;
+      properties.add(new Property(name, null, type, kind, name, Collections.<AnnotationSpec>emptyList(),
+                                  false, false, false, null, null, false));
+    }
+    return properties;
+  }
+}
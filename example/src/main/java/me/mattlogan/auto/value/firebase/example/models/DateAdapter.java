@@ -2,8 +2,10 @@ package me.mattlogan.auto.value.firebase.example.models;
 
 import java.util.Date;
 
+import me.mattlogan.auto.value.firebase.adapter.Stateless;
 import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;
 
+@Stateless
 public class DateAdapter implements TypeAdapter<Date, Long> {
   @Override
   public Date fromFirebaseValue(Long value) {
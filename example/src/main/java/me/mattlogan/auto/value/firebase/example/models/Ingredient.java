@@ -16,6 +16,6 @@ public abstract class Ingredient {
   public abstract int spiciness();
 
   public Map<String, Object> toMap() {
-    return new AutoValue_Ingredient.FirebaseValue(this).toMap();
+    return AutoValue_Ingredient.toMap(this);
   }
 }
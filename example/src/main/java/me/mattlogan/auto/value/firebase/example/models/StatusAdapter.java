@@ -1,7 +1,9 @@
 package me.mattlogan.auto.value.firebase.example.models;
 
+import me.mattlogan.auto.value.firebase.adapter.Stateless;
 import me.mattlogan.auto.value.firebase.adapter.TypeAdapter;
 
+@Stateless
 public class StatusAdapter implements TypeAdapter<Status, String> {
   @Override
   public Status fromFirebaseValue(String value) {
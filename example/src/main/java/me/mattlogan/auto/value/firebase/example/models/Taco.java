@@ -15,7 +15,7 @@ public abstract class Taco {
   }
 
   public static Taco create(DataSnapshot dataSnapshot) {
-    return dataSnapshot.getValue(AutoValue_Taco.FirebaseValue.class).toAutoValue();
+    return AutoValue_Taco.fromValue(dataSnapshot.getValue());
   }
 
   public Object toFirebaseValue() {
@@ -29,7 +29,11 @@ public abstract class Taco {
   public abstract Review review();
 
   public Map<String, Object> toMap() {
-    return new AutoValue_Taco.FirebaseValue(this).toMap();
+    return AutoValue_Taco.toMap(this);
+  }
+
+  public Map<String, Object> updatesSince(Taco before) {
+    return AutoValue_Taco.diff(before, this);
   }
 
   @FirebaseAdapter(StatusAdapter.class)